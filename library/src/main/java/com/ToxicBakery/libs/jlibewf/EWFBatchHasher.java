@@ -0,0 +1,552 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The <code>EWFBatchHasher</code> class verifies many images at once, such as the nightly re-verification of an
+ * evidence store. Each image is hashed with MD5 and SHA1 and compared against the hashes stored in its Hash and
+ * Digest Sections.
+ * <p>The images are hashed on one shared pool of threads. To keep each disk reading few sequential streams rather
+ * than seeking between many, the number of images hashed at once from the same file store is limited, and the
+ * images of the other file stores fill the remaining threads. The limit bounds the images read at once but not the
+ * cores used: the chunks of every image are decompressed on a second shared pool of the same number of threads, so
+ * that a single file store keeps all cores busy.
+ * <p>Run from the command line, the images found under the given directories are hashed and a JSON object is
+ * printed per image as it completes, followed by a summary object with the aggregate throughput:
+ * <pre>
+ * java -cp jlibewf.jar:log4j-1.2.16.jar com.ToxicBakery.libs.jlibewf.EWFBatchHasher [-threads n] [-per-disk n]
+ *     directory...
+ * </pre>
+ * The library jar may also be run with <code>java -jar</code> when the log4j jar named in its manifest class path
+ * is in the same directory.
+ * The exit status is 0 if no image failed to verify, 1 if any image mismatched or could not be read and 2 for
+ * invalid arguments.
+ */
+public class EWFBatchHasher {
+
+    /**
+     * The default number of images hashed from the same file store at once, {@value}.
+     */
+    public static final int DEFAULT_PER_DISK_LIMIT = 2;
+
+    /**
+     * The size of the media reads when hashing, {@value}.
+     */
+    private static final int READ_SIZE = 1024 * 1024;
+
+    private final int threadCount;
+    private final int perDiskLimit;
+
+    /**
+     * The pool decompressing the chunks of the images being hashed.
+     */
+    private final ThreadPoolExecutor decompressionPool;
+
+    /**
+     * The outcomes of hashing an image.
+     */
+    public enum Status {
+        /**
+         * The computed hashes match all hashes stored in the image.
+         */
+        VERIFIED,
+        /**
+         * A computed hash differs from the hash stored in the image.
+         */
+        MISMATCH,
+        /**
+         * The image stores no hash to compare against.
+         */
+        UNVERIFIED,
+        /**
+         * The image could not be read.
+         */
+        FAILED
+    }
+
+    /**
+     * The <code>Listener</code> interface receives the result of each image as it completes.
+     */
+    public interface Listener {
+
+        /**
+         * Receives the result of an image. This is called on the thread that called <code>hash</code>.
+         *
+         * @param result the result of the image
+         */
+        void completed(ImageResult result);
+    }
+
+    /**
+     * Constructs a batch hasher.
+     *
+     * @param threadCount  the number of images hashed at once
+     * @param perDiskLimit the number of images hashed at once from the same file store
+     */
+    public EWFBatchHasher(int threadCount, int perDiskLimit) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid thread count: " + threadCount);
+        }
+        if (perDiskLimit < 1) {
+            throw new IllegalArgumentException("Invalid per disk limit: " + perDiskLimit);
+        }
+        this.threadCount = threadCount;
+        this.perDiskLimit = perDiskLimit;
+
+        // decompress on daemon threads that end when idle
+        decompressionPool = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EWFBatchHasher decompressor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        decompressionPool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the first segment files found under the directory and its subdirectories, in path order.
+     *
+     * @param directory the directory to search
+     * @return the first segment files
+     * @throws IOException if the directory cannot be listed
+     */
+    public static List<File> findImages(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Unable to list directory: " + directory);
+        }
+        Arrays.sort(files);
+        List<File> images = new ArrayList<>();
+        for (File file : files) {
+            if (file.isDirectory()) {
+                images.addAll(findImages(file));
+            } else if (EWFSegmentFileReader.isValidFirstEWFFilename(file)) {
+                images.add(file);
+            }
+        }
+        return images;
+    }
+
+    /**
+     * Hashes the images, reporting each result to the listener as it completes.
+     *
+     * @param images   the first segment files of the images
+     * @param listener the listener to receive the result of each image, or null
+     * @return the results of all images, in the order given
+     * @throws IOException if interrupted
+     */
+    public Result hash(List<File> images, Listener listener) throws IOException {
+        // queue the images by file store
+        Map<String, Queue<File>> disks = new LinkedHashMap<>();
+        for (File image : images) {
+            String disk = getDisk(image);
+            Queue<File> queue = disks.get(disk);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                disks.put(disk, queue);
+            }
+            queue.add(image);
+        }
+
+        long startNanos = System.nanoTime();
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            // start up to the limit of images of each file store
+            CompletionService<ImageResult> completionService = new ExecutorCompletionService<>(executorService);
+            Map<File, String> imageDisks = new LinkedHashMap<>();
+            int pending = 0;
+            for (Map.Entry<String, Queue<File>> disk : disks.entrySet()) {
+                for (int i = 0; i < perDiskLimit && !disk.getValue().isEmpty(); i++) {
+                    submit(completionService, imageDisks, disk.getKey(), disk.getValue().remove());
+                    pending++;
+                }
+            }
+
+            // start the next image of a file store as each of its images completes
+            Map<File, ImageResult> results = new LinkedHashMap<>();
+            while (pending > 0) {
+                ImageResult result = getResult(completionService);
+                pending--;
+                results.put(result.getFile(), result);
+                if (listener != null) {
+                    listener.completed(result);
+                }
+                String disk = imageDisks.get(result.getFile());
+                Queue<File> queue = disks.get(disk);
+                if (!queue.isEmpty()) {
+                    submit(completionService, imageDisks, disk, queue.remove());
+                    pending++;
+                }
+            }
+
+            // report the results in the order of the images
+            List<ImageResult> orderedResults = new ArrayList<>();
+            for (File image : images) {
+                orderedResults.add(results.get(image));
+            }
+            return new Result(orderedResults, System.nanoTime() - startNanos);
+
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    // submits an image for hashing
+    private void submit(CompletionService<ImageResult> completionService, Map<File, String> imageDisks,
+                        String disk, final File image) {
+        imageDisks.put(image, disk);
+        completionService.submit(new Callable<ImageResult>() {
+            @Override
+            public ImageResult call() {
+                return hashImage(image);
+            }
+        });
+    }
+
+    // returns the next completed result
+    private static ImageResult getResult(CompletionService<ImageResult> completionService) throws IOException {
+        try {
+            return completionService.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while hashing images");
+        } catch (ExecutionException e) {
+            throw new IOException("Hashing failed", e.getCause());
+        }
+    }
+
+    /**
+     * Returns the name of the file store holding an image, by which the images hashed at once are limited.
+     *
+     * @param image the first segment file of the image
+     * @return the file store name
+     */
+    protected String getDisk(File image) {
+        try {
+            return Files.getFileStore(image.toPath()).toString();
+        } catch (IOException e) {
+            // fall back to the file system root
+            File root = image.getAbsoluteFile();
+            while (root.getParentFile() != null) {
+                root = root.getParentFile();
+            }
+            return root.getPath();
+        }
+    }
+
+    /**
+     * Hashes an image and compares the hashes against the hashes it stores.
+     *
+     * @param image the first segment file of the image
+     * @return the result of the image
+     */
+    protected ImageResult hashImage(File image) {
+        long startNanos = System.nanoTime();
+        EWFFileReader reader = null;
+        try {
+            reader = new EWFFileReader(image);
+            reader.setParallelDecompression(decompressionPool, 1);
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+
+            // read the media without caching, as each chunk is read once, decompressing it on the shared pool
+            long imageSize = reader.getImageSize();
+            for (long address = 0; address < imageSize; address += READ_SIZE) {
+                byte[] bytes = reader.readImageBytes(address, (int) Math.min(READ_SIZE, imageSize - address), false);
+                md5.update(bytes);
+                sha1.update(bytes);
+            }
+            return new ImageResult(image, imageSize, md5.digest(), sha1.digest(), reader.getStoredMD5(),
+                    reader.getStoredSHA1(), null, System.nanoTime() - startNanos);
+
+        } catch (IOException | RuntimeException e) {
+            // a malformed image fails on its own rather than failing the batch
+            return new ImageResult(image, 0, null, null, null, null, e.toString(), System.nanoTime() - startNanos);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    EWFFileReader.logger.info("com.ToxicBakery.libs.jlibewf.EWFBatchHasher.hashImage: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hashes the images found under the directories given on the command line.
+     *
+     * @param args the options and directories
+     */
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs the command line, returning the exit status.
+     *
+     * @param args the options and directories
+     * @param out  the stream to print the results to
+     * @param err  the stream to print usage errors to
+     * @return the exit status
+     */
+    static int run(String[] args, final PrintStream out, PrintStream err) {
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        int perDiskLimit = DEFAULT_PER_DISK_LIMIT;
+        List<File> directories = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-threads") && i + 1 < args.length) {
+                    threadCount = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("-per-disk") && i + 1 < args.length) {
+                    perDiskLimit = Integer.parseInt(args[++i]);
+                } else if (args[i].startsWith("-")) {
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+                } else {
+                    directories.add(new File(args[i]));
+                }
+            }
+            if (directories.isEmpty()) {
+                throw new IllegalArgumentException("No directory given");
+            }
+            EWFBatchHasher hasher = new EWFBatchHasher(threadCount, perDiskLimit);
+
+            // find the images
+            List<File> images = new ArrayList<>();
+            for (File directory : directories) {
+                images.addAll(findImages(directory));
+            }
+
+            // hash them, printing each result as it completes
+            Result result = hasher.hash(images, new Listener() {
+                @Override
+                public void completed(ImageResult result) {
+                    out.println(result.toJSON());
+                    out.flush();
+                }
+            });
+            out.println(result.toJSON());
+            return result.isVerified() ? 0 : 1;
+
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println("Usage: EWFBatchHasher [-threads n] [-per-disk n] directory...");
+            return 2;
+        } catch (IOException e) {
+            err.println(e.toString());
+            return 1;
+        }
+    }
+
+    // returns the text as a JSON string
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    // returns the hash as a JSON string, or null
+    private static String quoteHash(byte[] hash) {
+        return hash == null ? "null" : quote(EWFDiskChunkCache.toHex(hash));
+    }
+
+    /**
+     * The <code>ImageResult</code> class reports the verification of an image.
+     */
+    public static final class ImageResult {
+
+        private final File file;
+        private final long imageSize;
+        private final byte[] md5;
+        private final byte[] sha1;
+        private final byte[] storedMD5;
+        private final byte[] storedSHA1;
+        private final String error;
+        private final long elapsedNanos;
+
+        ImageResult(File file, long imageSize, byte[] md5, byte[] sha1, byte[] storedMD5, byte[] storedSHA1,
+                    String error, long elapsedNanos) {
+            this.file = file;
+            this.imageSize = imageSize;
+            this.md5 = md5;
+            this.sha1 = sha1;
+            this.storedMD5 = storedMD5;
+            this.storedSHA1 = storedSHA1;
+            this.error = error;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Returns the outcome of hashing the image.
+         *
+         * @return the status
+         */
+        public Status getStatus() {
+            if (error != null) {
+                return Status.FAILED;
+            }
+            if ((storedMD5 != null && !Arrays.equals(storedMD5, md5))
+                    || (storedSHA1 != null && !Arrays.equals(storedSHA1, sha1))) {
+                return Status.MISMATCH;
+            }
+            return storedMD5 != null || storedSHA1 != null ? Status.VERIFIED : Status.UNVERIFIED;
+        }
+
+        /**
+         * Provides a machine-readable representation of this object.
+         *
+         * @return the result as a JSON object on one line
+         */
+        public String toJSON() {
+            return "{\"image\":" + quote(file.getPath()) + ",\"status\":" + quote(getStatus().name())
+                    + ",\"size\":" + imageSize + ",\"md5\":" + quoteHash(md5) + ",\"sha1\":" + quoteHash(sha1)
+                    + ",\"storedMD5\":" + quoteHash(storedMD5) + ",\"storedSHA1\":" + quoteHash(storedSHA1)
+                    + ",\"error\":" + (error == null ? "null" : quote(error)) + ",\"millis\":"
+                    + elapsedNanos / 1000000 + "}";
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public long getImageSize() {
+            return imageSize;
+        }
+
+        public byte[] getMD5() {
+            return md5 == null ? null : md5.clone();
+        }
+
+        public byte[] getSHA1() {
+            return sha1 == null ? null : sha1.clone();
+        }
+
+        /**
+         * Returns the failure reading the image, or null if it was read.
+         *
+         * @return the error message or null
+         */
+        public String getError() {
+            return error;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+
+    /**
+     * The <code>Result</code> class reports the verification of all images of a batch.
+     */
+    public static final class Result {
+
+        private final List<ImageResult> imageResults;
+        private final long elapsedNanos;
+
+        Result(List<ImageResult> imageResults, long elapsedNanos) {
+            this.imageResults = Collections.unmodifiableList(imageResults);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Provides a machine-readable representation of this object.
+         *
+         * @return the summary as a JSON object on one line
+         */
+        public String toJSON() {
+            return "{\"images\":" + imageResults.size() + ",\"verified\":" + getCount(Status.VERIFIED)
+                    + ",\"mismatch\":" + getCount(Status.MISMATCH) + ",\"unverified\":"
+                    + getCount(Status.UNVERIFIED) + ",\"failed\":" + getCount(Status.FAILED) + ",\"bytes\":"
+                    + getBytesHashed() + ",\"millis\":" + elapsedNanos / 1000000 + ",\"bytesPerSecond\":"
+                    + (long) getThroughput() + "}";
+        }
+
+        public List<ImageResult> getImageResults() {
+            return imageResults;
+        }
+
+        /**
+         * Returns the number of images with the given outcome.
+         *
+         * @param status the outcome
+         * @return the image count
+         */
+        public int getCount(Status status) {
+            int count = 0;
+            for (ImageResult imageResult : imageResults) {
+                if (imageResult.getStatus() == status) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Indicates whether no image mismatched or failed.
+         *
+         * @return true if all images verified or store no hashes
+         */
+        public boolean isVerified() {
+            return getCount(Status.MISMATCH) == 0 && getCount(Status.FAILED) == 0;
+        }
+
+        public long getBytesHashed() {
+            long bytesHashed = 0;
+            for (ImageResult imageResult : imageResults) {
+                bytesHashed += imageResult.getImageSize();
+            }
+            return bytesHashed;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Returns the media bytes hashed per second across all images.
+         *
+         * @return the aggregate throughput
+         */
+        public double getThroughput() {
+            return elapsedNanos > 0 ? getBytesHashed() * 1e9 / elapsedNanos : 0;
+        }
+    }
+}
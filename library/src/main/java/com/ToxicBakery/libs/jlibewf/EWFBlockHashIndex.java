@@ -0,0 +1,708 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The <code>EWFBlockHashIndex</code> class holds the hashes of the fixed size blocks of the media of an image in a
+ * memory mapped index file, so that an image can be matched against a database of known file block hashes by looking
+ * up the hash of each block, and the image offsets of a known block found by looking up its hash.
+ * <p>The index is built with <code>build</code>, which hashes the blocks of the chunks in parallel as the chunk
+ * tables are visited by the worker threads. Blocks filled with a single byte value, such as zeroed or wiped space,
+ * match every file holding such a block and are marked as constant instead of being hashed.
+ * <p>The index file holds a header, the hashes of all blocks in image order, a bitmap of the constant blocks and
+ * the hashes of the other blocks sorted with their image offsets. A block hash is found by its position and the
+ * offsets of a hash by a binary search, both reading the mapped file directly. The file stays mapped until the index
+ * is garbage collected.
+ */
+public class EWFBlockHashIndex {
+
+    /**
+     * The default block size in bytes, {@value}.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    /**
+     * The default hash algorithm, {@value}.
+     */
+    public static final String DEFAULT_ALGORITHM = "MD5";
+
+    /**
+     * The magic number of block hash index files, {@value}.
+     */
+    private static final int MAGIC = 0x45424849;
+
+    private static final int VERSION = 1;
+
+    /**
+     * The size in bytes of the file header, {@value}.
+     */
+    private static final int HEADER_SIZE = 64;
+
+    /**
+     * The largest size in bytes of the algorithm name, {@value}.
+     */
+    private static final int ALGORITHM_SIZE = 16;
+
+    /**
+     * The number of buckets the sorted hashes are split in by their leading bytes to be sorted in parallel,
+     * {@value}.
+     */
+    private static final int BUCKET_COUNT = 65536;
+
+    /**
+     * The size in bytes of the buffer writing the sorted hashes, {@value}.
+     */
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final File file;
+    private final int blockSize;
+    private final int hashLength;
+    private final String algorithm;
+    private final long imageSize;
+    private final long blockCount;
+    private final long entryCount;
+    private final Mapping hashes;
+    private final Mapping constants;
+    private final Mapping entries;
+
+    /**
+     * Opens a block hash index file, mapping it into memory.
+     *
+     * @param file the index file written by <code>build</code>
+     * @throws IOException if the file cannot be read or is not a block hash index
+     */
+    public EWFBlockHashIndex(File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel fileChannel = randomAccessFile.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (fileChannel.read(header, header.position()) < 0) {
+                    throw new IOException("Invalid block hash index file: " + file);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Invalid block hash index file: " + file);
+            }
+            blockSize = header.getInt();
+            hashLength = header.getInt();
+            byte[] algorithmBytes = new byte[ALGORITHM_SIZE];
+            header.get(algorithmBytes);
+            algorithm = new String(algorithmBytes, ASCII).trim();
+            imageSize = header.getLong();
+            blockCount = header.getLong();
+            entryCount = header.getLong();
+            if (blockSize < 1 || hashLength < 2 || blockCount != (imageSize + blockSize - 1) / blockSize
+                    || entryCount < 0 || entryCount > blockCount
+                    || fileChannel.size() != getFileSize(blockCount, entryCount, hashLength)) {
+                throw new IOException("Invalid block hash index file: " + file);
+            }
+
+            // the mappings remain valid once the file is closed
+            long position = HEADER_SIZE;
+            hashes = new Mapping(fileChannel, position, blockCount * hashLength);
+            position += blockCount * hashLength;
+            constants = new Mapping(fileChannel, position, getBitmapSize(blockCount));
+            position += getBitmapSize(blockCount);
+            entries = new Mapping(fileChannel, position, entryCount * (hashLength + 8));
+        }
+    }
+
+    /**
+     * Builds the block hash index of an image with blocks of <code>DEFAULT_BLOCK_SIZE</code> bytes hashed with
+     * <code>DEFAULT_ALGORITHM</code>.
+     *
+     * @param reader      the reader for the image
+     * @param indexFile   the index file to write, which is replaced
+     * @param threadCount the number of worker threads to hash and sort blocks with
+     * @return the build result
+     * @throws IOException if the image cannot be read or the index file cannot be written
+     */
+    @SuppressWarnings("unused")
+    public static Result build(EWFFileReader reader, File indexFile, int threadCount) throws IOException {
+        return build(reader, indexFile, DEFAULT_BLOCK_SIZE, DEFAULT_ALGORITHM, threadCount);
+    }
+
+    /**
+     * Builds the block hash index of an image. The index file is written under a temporary name and renamed once
+     * complete.
+     *
+     * @param reader      the reader for the image
+     * @param indexFile   the index file to write, which is replaced
+     * @param blockSize   the size in bytes of the blocks, which must divide the chunk size of the image
+     * @param algorithm   the name of the <code>MessageDigest</code> algorithm to hash blocks with
+     * @param threadCount the number of worker threads to hash and sort blocks with
+     * @return the build result
+     * @throws IOException if the image cannot be read or the index file cannot be written
+     */
+    public static Result build(EWFFileReader reader, File indexFile, final int blockSize, final String algorithm,
+                               int threadCount) throws IOException {
+        if (blockSize < 1 || reader.getChunkSize() % blockSize != 0) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid thread count: " + threadCount);
+        }
+        if (algorithm.length() > ALGORITHM_SIZE) {
+            throw new IllegalArgumentException("Unsupported hash algorithm: " + algorithm);
+        }
+        final int hashLength;
+        try {
+            hashLength = MessageDigest.getInstance(algorithm).getDigestLength();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported hash algorithm: " + algorithm, e);
+        }
+        if (hashLength < 2) {
+            throw new IllegalArgumentException("Unsupported hash algorithm: " + algorithm);
+        }
+        long imageSize = reader.getImageSize();
+        final long blockCount = (imageSize + blockSize - 1) / blockSize;
+        if (blockCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many blocks to index: " + blockCount);
+        }
+
+        long startNanos = System.nanoTime();
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        long constantCount;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw")) {
+            randomAccessFile.setLength(0);
+            final FileChannel fileChannel = randomAccessFile.getChannel();
+
+            // hash the blocks of each chunk and write their hashes in place
+            final AtomicLongArray constantBits = new AtomicLongArray((int) ((blockCount + 63) / 64));
+            final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+                @Override
+                protected MessageDigest initialValue() {
+                    try {
+                        return MessageDigest.getInstance(algorithm);
+                    } catch (NoSuchAlgorithmException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            reader.visitChunks(new EWFChunkVisitor() {
+                @Override
+                public void visit(EWFChunk chunk) throws IOException {
+                    byte[] bytes = chunk.getBytes();
+                    long firstBlock = chunk.getImageOffset() / blockSize;
+                    int chunkBlocks = (bytes.length + blockSize - 1) / blockSize;
+                    byte[] chunkHashes = new byte[chunkBlocks * hashLength];
+                    MessageDigest digest = digests.get();
+                    for (int block = 0; block < chunkBlocks; block++) {
+                        int start = block * blockSize;
+                        int end = Math.min(bytes.length, start + blockSize);
+                        if (isConstant(bytes, start, end)) {
+                            setBit(constantBits, firstBlock + block);
+                            continue;
+                        }
+                        digest.update(bytes, start, end - start);
+                        try {
+                            digest.digest(chunkHashes, block * hashLength, hashLength);
+                        } catch (DigestException e) {
+                            throw new IOException("Unable to hash block " + (firstBlock + block), e);
+                        }
+                    }
+                    write(fileChannel, HEADER_SIZE + firstBlock * hashLength, ByteBuffer.wrap(chunkHashes));
+                }
+            }, threadCount);
+
+            // write the bitmap of the constant blocks after the hashes
+            constantCount = 0;
+            ByteBuffer bitmap = ByteBuffer.allocate((int) getBitmapSize(blockCount));
+            for (int word = 0; word < constantBits.length(); word++) {
+                long bits = constantBits.get(word);
+                constantCount += Long.bitCount(bits);
+                for (int shift = 0; shift < 64 && bitmap.hasRemaining(); shift += 8) {
+                    bitmap.put((byte) (bits >>> shift));
+                }
+            }
+            bitmap.flip();
+            write(fileChannel, HEADER_SIZE + blockCount * hashLength, bitmap);
+
+            // sort and write the hashes of the other blocks with their offsets
+            long entryCount = blockCount - constantCount;
+            Mapping hashes = new Mapping(fileChannel, HEADER_SIZE, blockCount * hashLength);
+            Mapping constants = new Mapping(fileChannel, HEADER_SIZE + blockCount * hashLength,
+                    getBitmapSize(blockCount));
+            int[] order = sortBlocks(hashes, constants, (int) blockCount, (int) entryCount, hashLength, threadCount);
+            long position = HEADER_SIZE + blockCount * hashLength + getBitmapSize(blockCount);
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE - WRITE_BUFFER_SIZE % (hashLength + 8));
+            byte[] hash = new byte[hashLength];
+            for (int block : order) {
+                hashes.get((long) block * hashLength, hash);
+                buffer.put(hash);
+                buffer.putLong((long) block * blockSize);
+                if (!buffer.hasRemaining()) {
+                    buffer.flip();
+                    position += write(fileChannel, position, buffer);
+                    buffer.clear();
+                }
+            }
+            buffer.flip();
+            write(fileChannel, position, buffer);
+
+            // write the header last and make the file durable before it replaces the previous index
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(blockSize);
+            header.putInt(hashLength);
+            byte[] algorithmBytes = new byte[ALGORITHM_SIZE];
+            byte[] name = algorithm.getBytes(ASCII);
+            System.arraycopy(name, 0, algorithmBytes, 0, name.length);
+            header.put(algorithmBytes);
+            header.putLong(imageSize);
+            header.putLong(blockCount);
+            header.putLong(entryCount);
+            header.position(0);
+            write(fileChannel, 0, header);
+            fileChannel.force(true);
+        } catch (IOException | RuntimeException e) {
+            if (!tempFile.delete()) {
+                EWFFileReader.logger.info("com.ToxicBakery.libs.jlibewf.EWFBlockHashIndex.build: unable to delete "
+                        + tempFile);
+            }
+            throw e;
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            // some platforms do not rename over an existing file
+            if (!indexFile.delete() || !tempFile.renameTo(indexFile)) {
+                throw new IOException("Unable to write the block hash index file: " + indexFile);
+            }
+        }
+        return new Result(blockCount, constantCount, imageSize, System.nanoTime() - startNanos);
+    }
+
+    // returns true if the bytes in the range all hold the same value
+    private static boolean isConstant(byte[] bytes, int start, int end) {
+        byte fill = bytes[start];
+        for (int i = start + 1; i < end; i++) {
+            if (bytes[i] != fill) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // sets the bit of a block, as the workers mark the blocks of their chunks concurrently
+    private static void setBit(AtomicLongArray bits, long block) {
+        int word = (int) (block >>> 6);
+        long mask = 1L << (block & 63);
+        long value;
+        do {
+            value = bits.get(word);
+        } while (!bits.compareAndSet(word, value, value | mask));
+    }
+
+    // writes the remaining bytes of the buffer at the file position, returning the number of bytes written
+    private static int write(FileChannel fileChannel, long position, ByteBuffer buffer) throws IOException {
+        int count = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            fileChannel.write(buffer, position + count - buffer.remaining());
+        }
+        return count;
+    }
+
+    // returns the blocks that are not constant ordered by hash, then by block number
+    private static int[] sortBlocks(final Mapping hashes, Mapping constants, int blockCount, int entryCount,
+                                    final int hashLength, int threadCount) throws IOException {
+        // split the blocks into buckets by the leading two bytes of their hashes, keeping them in block order
+        byte[] lead = new byte[2];
+        final int[] bucketStarts = new int[BUCKET_COUNT + 1];
+        for (int block = 0; block < blockCount; block++) {
+            if (!isBitSet(constants, block)) {
+                hashes.get((long) block * hashLength, lead);
+                bucketStarts[bucket(lead) + 1]++;
+            }
+        }
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            bucketStarts[bucket + 1] += bucketStarts[bucket];
+        }
+        final int[] order = new int[entryCount];
+        int[] next = bucketStarts.clone();
+        for (int block = 0; block < blockCount; block++) {
+            if (!isBitSet(constants, block)) {
+                hashes.get((long) block * hashLength, lead);
+                order[next[bucket(lead)]++] = block;
+            }
+        }
+
+        // sort the buckets in parallel, each worker taking the next unsorted bucket
+        final AtomicInteger nextBucket = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        Sorter sorter = new Sorter(hashes, hashLength, order);
+                        int bucket;
+                        while ((bucket = nextBucket.getAndIncrement()) < BUCKET_COUNT) {
+                            sorter.sort(bucketStarts[bucket], bucketStarts[bucket + 1]);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                getResult(future);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        return order;
+    }
+
+    private static int bucket(byte[] lead) {
+        return (lead[0] & 0xff) << 8 | lead[1] & 0xff;
+    }
+
+    private static boolean isBitSet(Mapping bitmap, long block) {
+        return (bitmap.get(block >>> 3) & 1 << (block & 7)) != 0;
+    }
+
+    // waits for a sorting worker, rethrowing its failure
+    private static void getResult(Future<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sorting block hashes");
+        } catch (ExecutionException e) {
+            throw new IOException("Sorting block hashes failed", e.getCause());
+        }
+    }
+
+    private static long getBitmapSize(long blockCount) {
+        return (blockCount + 7) / 8;
+    }
+
+    private static long getFileSize(long blockCount, long entryCount, int hashLength) {
+        return HEADER_SIZE + blockCount * hashLength + getBitmapSize(blockCount) + entryCount * (hashLength + 8);
+    }
+
+    /**
+     * Returns the hash of the block holding an image offset.
+     *
+     * @param offset the image offset
+     * @return the hash of the block, or null if the block is filled with a single byte value
+     */
+    @SuppressWarnings("unused")
+    public byte[] getHash(long offset) {
+        long block = getBlock(offset);
+        if (isBitSet(constants, block)) {
+            return null;
+        }
+        byte[] hash = new byte[hashLength];
+        hashes.get(block * hashLength, hash);
+        return hash;
+    }
+
+    /**
+     * Returns true if the block holding an image offset is filled with a single byte value and was not hashed.
+     *
+     * @param offset the image offset
+     * @return true if the block is constant
+     */
+    @SuppressWarnings("unused")
+    public boolean isConstant(long offset) {
+        return isBitSet(constants, getBlock(offset));
+    }
+
+    private long getBlock(long offset) {
+        if (offset < 0 || offset >= imageSize) {
+            throw new IllegalArgumentException("Invalid image offset: " + offset);
+        }
+        return offset / blockSize;
+    }
+
+    /**
+     * Returns the image offsets of the blocks with a hash.
+     *
+     * @param hash the block hash
+     * @return the offsets of the blocks in ascending order, which is empty if no block has the hash
+     */
+    @SuppressWarnings("unused")
+    public long[] findOffsets(byte[] hash) {
+        if (hash.length != hashLength) {
+            throw new IllegalArgumentException("Invalid hash length: " + hash.length);
+        }
+
+        // find the first entry not below the hash
+        int entryLength = hashLength + 8;
+        byte[] entryHash = new byte[hashLength];
+        long low = 0;
+        long high = entryCount;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            entries.get(middle * entryLength, entryHash);
+            if (compare(entryHash, hash) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        // the entries with the hash follow in block order
+        List<Long> offsets = new ArrayList<>();
+        for (long entry = low; entry < entryCount; entry++) {
+            entries.get(entry * entryLength, entryHash);
+            if (compare(entryHash, hash) != 0) {
+                break;
+            }
+            offsets.add(entries.getLong(entry * entryLength + hashLength));
+        }
+        long[] result = new long[offsets.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = offsets.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if any block of the image has a hash.
+     *
+     * @param hash the block hash
+     * @return true if the hash is indexed
+     */
+    @SuppressWarnings("unused")
+    public boolean contains(byte[] hash) {
+        return findOffsets(hash).length > 0;
+    }
+
+    // compares hashes as unsigned bytes
+    private static int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public long getImageSize() {
+        return imageSize;
+    }
+
+    public long getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Returns the number of blocks that are not constant and can be found by their hashes.
+     *
+     * @return the number of hashed blocks
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * The result of building a block hash index.
+     */
+    public static final class Result {
+
+        private final long blockCount;
+        private final long constantBlockCount;
+        private final long bytesHashed;
+        private final long elapsedNanos;
+
+        Result(long blockCount, long constantBlockCount, long bytesHashed, long elapsedNanos) {
+            this.blockCount = blockCount;
+            this.constantBlockCount = constantBlockCount;
+            this.bytesHashed = bytesHashed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getBlockCount() {
+            return blockCount;
+        }
+
+        /**
+         * Returns the number of blocks filled with a single byte value, which were not hashed.
+         *
+         * @return the number of constant blocks
+         */
+        public long getConstantBlockCount() {
+            return constantBlockCount;
+        }
+
+        /**
+         * Returns the number of media bytes read, including those of the constant blocks.
+         *
+         * @return the number of bytes read
+         */
+        public long getBytesHashed() {
+            return bytesHashed;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1000000;
+        }
+
+        /**
+         * Returns the rate at which the media was read and hashed.
+         *
+         * @return the throughput in bytes per second
+         */
+        @SuppressWarnings("unused")
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : bytesHashed * 1e9 / elapsedNanos;
+        }
+    }
+
+    /**
+     * Sorts ranges of block numbers by their hashes, then by block number, reading the hashes from the mapped
+     * file. A sorter is used by one worker thread.
+     */
+    private static final class Sorter {
+
+        /**
+         * The range length below which ranges are sorted by insertion, {@value}.
+         */
+        private static final int INSERTION_SORT_LENGTH = 16;
+
+        private final Mapping hashes;
+        private final int hashLength;
+        private final int[] order;
+        private final byte[] pivotHash;
+        private final byte[] hash;
+
+        Sorter(Mapping hashes, int hashLength, int[] order) {
+            this.hashes = hashes;
+            this.hashLength = hashLength;
+            this.order = order;
+            pivotHash = new byte[hashLength];
+            hash = new byte[hashLength];
+        }
+
+        // sorts the blocks from start to before end
+        void sort(int start, int end) {
+            while (end - start > INSERTION_SORT_LENGTH) {
+                // partition around the middle block, then sort the smaller side and loop on the larger one
+                int pivot = order[(start + end) >>> 1];
+                hashes.get((long) pivot * hashLength, pivotHash);
+                int low = start;
+                int high = end - 1;
+                while (low <= high) {
+                    while (compareToPivot(order[low], pivot) < 0) {
+                        low++;
+                    }
+                    while (compareToPivot(order[high], pivot) > 0) {
+                        high--;
+                    }
+                    if (low <= high) {
+                        swap(low++, high--);
+                    }
+                }
+                if (high + 1 - start < end - low) {
+                    sort(start, high + 1);
+                    start = low;
+                } else {
+                    sort(low, end);
+                    end = high + 1;
+                }
+            }
+            for (int i = start + 1; i < end; i++) {
+                for (int j = i; j > start && compareBlocks(order[j - 1], order[j]) > 0; j--) {
+                    swap(j - 1, j);
+                }
+            }
+        }
+
+        private int compareToPivot(int block, int pivot) {
+            hashes.get((long) block * hashLength, hash);
+            int difference = compare(hash, pivotHash);
+            return difference != 0 ? difference : Integer.compare(block, pivot);
+        }
+
+        private int compareBlocks(int a, int b) {
+            hashes.get((long) b * hashLength, pivotHash);
+            return compareToPivot(a, b);
+        }
+
+        private void swap(int i, int j) {
+            int block = order[i];
+            order[i] = order[j];
+            order[j] = block;
+        }
+    }
+
+    /**
+     * A read only mapping of a region of a file, split into windows so that regions larger than a single
+     * <code>MappedByteBuffer</code> can be mapped. The windows are read with absolute gets, which is thread safe.
+     */
+    private static final class Mapping {
+
+        /**
+         * The size in bytes of each mapped window, {@value}.
+         */
+        private static final int WINDOW_SIZE = 1 << 30;
+
+        private final MappedByteBuffer[] windows;
+
+        Mapping(FileChannel fileChannel, long position, long size) throws IOException {
+            windows = new MappedByteBuffer[(int) ((size + WINDOW_SIZE - 1) / WINDOW_SIZE)];
+            for (int i = 0; i < windows.length; i++) {
+                long start = (long) i * WINDOW_SIZE;
+                windows[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, position + start,
+                        Math.min(WINDOW_SIZE, size - start));
+            }
+        }
+
+        byte get(long position) {
+            return windows[(int) (position / WINDOW_SIZE)].get((int) (position % WINDOW_SIZE));
+        }
+
+        // reads bytes filling the array from the region position
+        void get(long position, byte[] bytes) {
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = get(position + i);
+            }
+        }
+
+        long getLong(long position) {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = value << 8 | get(position + i) & 0xff;
+            }
+            return value;
+        }
+    }
+}
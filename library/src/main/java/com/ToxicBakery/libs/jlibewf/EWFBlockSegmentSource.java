@@ -0,0 +1,516 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The <code>EWFBlockSegmentSource</code> class reads the segment files of a range-readable source, such as an object
+ * storage service, in large aligned blocks kept in a block cache, so that the many small section and chunk reads of
+ * a reader are served by few range requests, whose latency dominates the cost of reading remote segment files.
+ * <p>A read that misses the block cache fetches its missing blocks together with the uncached blocks read ahead
+ * after them. Adjacent blocks are merged into a single range request, and merged ranges of at least twice the
+ * minimum split size are split over the fetch threads so that their parts are fetched in parallel. Blocks being
+ * fetched for one read are awaited rather than fetched again by concurrent reads. The least recently used blocks are
+ * evicted once the cached blocks exceed the cache size.
+ * <p>The segment files are assumed not to change while cached, so their sizes are queried once.
+ */
+public class EWFBlockSegmentSource implements EWFSegmentSource {
+
+    /**
+     * The default block size, {@value}.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * The default block cache size, {@value}.
+     */
+    public static final long DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * The default number of blocks read ahead of a missed block, {@value}.
+     */
+    public static final int DEFAULT_READ_AHEAD_BLOCKS = 4;
+
+    /**
+     * The default number of threads fetching ranges in parallel, {@value}.
+     */
+    public static final int DEFAULT_THREAD_COUNT = 4;
+
+    /**
+     * The default size of the smallest part of a range split over the fetch threads, {@value}.
+     */
+    public static final long DEFAULT_MIN_SPLIT_SIZE = 2L * 1024 * 1024;
+
+    private final EWFSegmentSource source;
+    private final int blockSize;
+    private final long cacheSize;
+    private final int readAheadBlocks;
+    private final int threadCount;
+    private final long minSplitSize;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The cached blocks, least recently used first, and the sizes of the segment files.
+     */
+    private final LinkedHashMap<Block, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<File, Long> lengths = new HashMap<>();
+
+    /**
+     * The blocks being fetched, which concurrent reads wait for.
+     */
+    private final Map<Block, Fetch> fetches = new HashMap<>();
+    private long cachedBytes;
+    private long hitCount;
+    private long missCount;
+    private long requestCount;
+    private long bytesFetched;
+
+    /**
+     * Constructs a block source with the default block size, cache size, read ahead and fetch threads.
+     *
+     * @param source the range-readable source of the segment files
+     */
+    @SuppressWarnings("unused")
+    public EWFBlockSegmentSource(EWFSegmentSource source) {
+        this(source, DEFAULT_BLOCK_SIZE, DEFAULT_CACHE_SIZE, DEFAULT_READ_AHEAD_BLOCKS, DEFAULT_THREAD_COUNT);
+    }
+
+    /**
+     * Constructs a block source with the default minimum split size.
+     *
+     * @param source          the range-readable source of the segment files
+     * @param blockSize       the size of the aligned blocks fetched and cached
+     * @param cacheSize       the number of bytes of blocks kept
+     * @param readAheadBlocks the number of blocks fetched after the last block of a read that misses the cache
+     * @param threadCount     the number of threads fetching ranges in parallel
+     */
+    public EWFBlockSegmentSource(EWFSegmentSource source, int blockSize, long cacheSize, int readAheadBlocks,
+                                 int threadCount) {
+        this(source, blockSize, cacheSize, readAheadBlocks, threadCount, DEFAULT_MIN_SPLIT_SIZE);
+    }
+
+    /**
+     * Constructs a block source.
+     *
+     * @param source          the range-readable source of the segment files
+     * @param blockSize       the size of the aligned blocks fetched and cached
+     * @param cacheSize       the number of bytes of blocks kept
+     * @param readAheadBlocks the number of blocks fetched after the last block of a read that misses the cache
+     * @param threadCount     the number of threads fetching ranges in parallel
+     * @param minSplitSize    the smallest part of a range split over the fetch threads, smaller ranges being fetched
+     *                        by a single request
+     */
+    public EWFBlockSegmentSource(EWFSegmentSource source, int blockSize, long cacheSize, int readAheadBlocks,
+                                 int threadCount, long minSplitSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+        if (readAheadBlocks < 0) {
+            throw new IllegalArgumentException("Invalid read ahead: " + readAheadBlocks);
+        }
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid thread count: " + threadCount);
+        }
+        if (minSplitSize < 1) {
+            throw new IllegalArgumentException("Invalid minimum split size: " + minSplitSize);
+        }
+        this.source = source;
+        this.blockSize = blockSize;
+        this.cacheSize = cacheSize;
+        this.readAheadBlocks = readAheadBlocks;
+        this.threadCount = threadCount;
+        this.minSplitSize = minSplitSize;
+
+        // fetch on daemon threads that end when idle
+        executor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EWFBlockSegmentSource");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public boolean exists(File segment) throws IOException {
+        synchronized (this) {
+            if (lengths.containsKey(segment)) {
+                return true;
+            }
+        }
+        return source.exists(segment);
+    }
+
+    @Override
+    public long getLength(File segment) throws IOException {
+        synchronized (this) {
+            Long length = lengths.get(segment);
+            if (length != null) {
+                return length;
+            }
+        }
+        long length = source.getLength(segment);
+        synchronized (this) {
+            lengths.put(segment, length);
+        }
+        return length;
+    }
+
+    @Override
+    public long getLastModified(File segment) throws IOException {
+        return source.getLastModified(segment);
+    }
+
+    @Override
+    public void read(File segment, long fileOffset, byte[] bytes, int bytesOffset, int numBytes) throws IOException {
+        if (numBytes == 0) {
+            return;
+        }
+        long length = getLength(segment);
+        if (fileOffset < 0 || fileOffset + numBytes > length) {
+            throw new EOFException("Read beyond the end of segment file " + segment + " at " + fileOffset);
+        }
+        long firstBlock = fileOffset / blockSize;
+        long lastBlock = (fileOffset + numBytes - 1) / blockSize;
+
+        // fetch until every block is read, fetching again the blocks whose fetch by another read failed
+        byte[][] readBlocks = new byte[(int) (lastBlock - firstBlock + 1)][];
+        boolean counted = false;
+        while (true) {
+            // use the cached blocks, claiming the missing ones unless another read is fetching them
+            List<Long> missing = new ArrayList<>();
+            Map<Long, Fetch> awaited = new HashMap<>();
+            synchronized (this) {
+                for (long blockIndex = firstBlock; blockIndex <= lastBlock; blockIndex++) {
+                    if (readBlocks[(int) (blockIndex - firstBlock)] != null) {
+                        continue;
+                    }
+                    Block key = new Block(segment, blockIndex);
+                    byte[] block = blocks.get(key);
+                    if (block != null) {
+                        readBlocks[(int) (blockIndex - firstBlock)] = block;
+                    } else if (fetches.containsKey(key)) {
+                        awaited.put(blockIndex, fetches.get(key));
+                    } else {
+                        fetches.put(key, new Fetch());
+                        missing.add(blockIndex);
+                    }
+                    if (!counted) {
+                        if (block != null) {
+                            hitCount++;
+                        } else {
+                            missCount++;
+                        }
+                    }
+                }
+                counted = true;
+
+                // read ahead the uncached blocks following the read
+                if (!missing.isEmpty()) {
+                    long blockCount = (length + blockSize - 1) / blockSize;
+                    for (long blockIndex = lastBlock + 1;
+                         blockIndex <= lastBlock + readAheadBlocks && blockIndex < blockCount; blockIndex++) {
+                        Block key = new Block(segment, blockIndex);
+                        if (!blocks.containsKey(key) && !fetches.containsKey(key)) {
+                            fetches.put(key, new Fetch());
+                            missing.add(blockIndex);
+                        }
+                    }
+                }
+            }
+
+            // fetch the claimed blocks
+            if (!missing.isEmpty()) {
+                Map<Long, byte[]> fetched = fetch(segment, length, missing);
+                for (long blockIndex = firstBlock; blockIndex <= lastBlock; blockIndex++) {
+                    if (readBlocks[(int) (blockIndex - firstBlock)] == null) {
+                        readBlocks[(int) (blockIndex - firstBlock)] = fetched.get(blockIndex);
+                    }
+                }
+            }
+            if (awaited.isEmpty()) {
+                break;
+            }
+
+            // wait for the blocks fetched by other reads
+            boolean complete = true;
+            for (Map.Entry<Long, Fetch> entry : awaited.entrySet()) {
+                byte[] block = await(entry.getValue());
+                readBlocks[(int) (entry.getKey() - firstBlock)] = block;
+                complete &= block != null;
+            }
+            if (complete) {
+                break;
+            }
+        }
+
+        // copy the requested range out of the blocks
+        int copied = 0;
+        while (copied < numBytes) {
+            long position = fileOffset + copied;
+            byte[] block = readBlocks[(int) (position / blockSize - firstBlock)];
+            int blockOffset = (int) (position % blockSize);
+            int count = Math.min(numBytes - copied, block.length - blockOffset);
+            System.arraycopy(block, blockOffset, bytes, bytesOffset + copied, count);
+            copied += count;
+        }
+    }
+
+    // fetches the given ascending blocks claimed by the caller, merging adjacent blocks into ranges fetched in
+    // parallel, caches them and passes them to the reads waiting for them
+    private Map<Long, byte[]> fetch(File segment, long length, List<Long> blockIndexes) throws IOException {
+        Map<Long, byte[]> fetched = null;
+        try {
+            fetched = fetchRuns(segment, length, blockIndexes);
+            return fetched;
+        } finally {
+            synchronized (this) {
+                for (long blockIndex : blockIndexes) {
+                    Fetch fetch = fetches.remove(new Block(segment, blockIndex));
+                    if (fetch != null) {
+                        fetch.bytes = fetched == null ? null : fetched.get(blockIndex);
+                        fetch.done = true;
+                    }
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private Map<Long, byte[]> fetchRuns(final File segment, long length, List<Long> blockIndexes)
+            throws IOException {
+        // merge adjacent blocks into runs
+        List<long[]> runs = new ArrayList<>();
+        for (long blockIndex : blockIndexes) {
+            long[] run = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (run != null && run[0] + run[1] == blockIndex) {
+                run[1]++;
+            } else {
+                runs.add(new long[]{blockIndex, 1});
+            }
+        }
+
+        // split each run of at least twice the minimum split size into up to one range per thread
+        List<long[]> ranges = new ArrayList<>();
+        for (long[] run : runs) {
+            long runSize = Math.min((run[0] + run[1]) * blockSize, length) - run[0] * blockSize;
+            long parts = Math.max(1, Math.min(threadCount, runSize / minSplitSize));
+            long rangeBlocks = (run[1] + parts - 1) / parts;
+            for (long start = run[0]; start < run[0] + run[1]; start += rangeBlocks) {
+                long startOffset = start * blockSize;
+                long endOffset = Math.min(Math.min(start + rangeBlocks, run[0] + run[1]) * blockSize, length);
+                ranges.add(new long[]{startOffset, endOffset - startOffset});
+            }
+        }
+
+        // fetch the ranges, a single range on the calling thread
+        List<byte[]> rangeBytes = new ArrayList<>();
+        if (ranges.size() == 1) {
+            rangeBytes.add(fetchRange(segment, ranges.get(0)));
+        } else {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            try {
+                for (final long[] range : ranges) {
+                    futures.add(executor.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws IOException {
+                            return fetchRange(segment, range);
+                        }
+                    }));
+                }
+            } catch (RejectedExecutionException e) {
+                throw new IOException("Block segment source closed: " + segment, e);
+            }
+            try {
+                for (Future<byte[]> future : futures) {
+                    rangeBytes.add(getResult(future));
+                }
+            } finally {
+                for (Future<byte[]> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        // split the ranges into blocks and cache them
+        Map<Long, byte[]> fetched = new HashMap<>();
+        synchronized (this) {
+            for (int i = 0; i < ranges.size(); i++) {
+                byte[] range = rangeBytes.get(i);
+                long firstBlock = ranges.get(i)[0] / blockSize;
+                for (int offset = 0; offset < range.length; offset += blockSize) {
+                    byte[] block = new byte[Math.min(blockSize, range.length - offset)];
+                    System.arraycopy(range, offset, block, 0, block.length);
+                    long blockIndex = firstBlock + offset / blockSize;
+                    fetched.put(blockIndex, block);
+                    byte[] previous = blocks.put(new Block(segment, blockIndex), block);
+                    cachedBytes += block.length - (previous != null ? previous.length : 0);
+                }
+            }
+            evict();
+        }
+        return fetched;
+    }
+
+    // reads a range from the source
+    private byte[] fetchRange(File segment, long[] range) throws IOException {
+        byte[] bytes = new byte[(int) range[1]];
+        source.read(segment, range[0], bytes, 0, bytes.length);
+        synchronized (this) {
+            requestCount++;
+            bytesFetched += bytes.length;
+        }
+        return bytes;
+    }
+
+    // waits for a block fetched by another read, returning null if its fetch failed
+    private synchronized byte[] await(Fetch fetch) throws IOException {
+        try {
+            while (!fetch.done) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a segment block");
+        }
+        return fetch.bytes;
+    }
+
+    // evicts the least recently used blocks beyond the cache size
+    private void evict() {
+        Iterator<Map.Entry<Block, byte[]>> iterator = blocks.entrySet().iterator();
+        while (cachedBytes > cacheSize && iterator.hasNext()) {
+            cachedBytes -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+
+    // returns the result of a fetch, rethrowing its failure
+    private static byte[] getResult(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching segment ranges");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Fetch failed", e.getCause());
+        }
+    }
+
+    /**
+     * Discards the cached blocks and segment file sizes, such as after the segment files changed.
+     */
+    @SuppressWarnings("unused")
+    public synchronized void clear() {
+        blocks.clear();
+        lengths.clear();
+        cachedBytes = 0;
+    }
+
+    /**
+     * Stops the fetch threads. Later reads that miss the cache fail with an <code>IOException</code> unless they
+     * fetch a single range.
+     */
+    @SuppressWarnings("unused")
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * Returns the number of blocks read that were cached.
+     *
+     * @return the block hit count
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of blocks read that were not cached, excluding the blocks read ahead.
+     *
+     * @return the block miss count
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of range requests issued to the underlying source.
+     *
+     * @return the request count
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized long getBytesFetched() {
+        return bytesFetched;
+    }
+
+    /**
+     * A block being fetched, which holds the block once fetched or null if the fetch failed.
+     */
+    private static final class Fetch {
+
+        private byte[] bytes;
+        private boolean done;
+    }
+
+    /**
+     * The key of a cached block.
+     */
+    private static final class Block {
+
+        private final File segment;
+        private final long blockIndex;
+
+        Block(File segment, long blockIndex) {
+            this.segment = segment;
+            this.blockIndex = blockIndex;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Block)) {
+                return false;
+            }
+            Block other = (Block) object;
+            return blockIndex == other.blockIndex && segment.equals(other.segment);
+        }
+
+        @Override
+        public int hashCode() {
+            return segment.hashCode() * 31 + (int) (blockIndex ^ (blockIndex >>> 32));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The <code>EWFChunk</code> class is a media chunk passed to an <code>EWFChunkVisitor</code>, holding the chunk
+ * as stored in its segment file and decompressing it only when its media bytes are requested.
+ */
+public final class EWFChunk {
+
+    private final EWFFileReader fileReader;
+    private final EWFSegmentFileReader decoder;
+    private final EWFChunkLocation location;
+    private final int segmentNumber;
+    private final long imageOffset;
+    private final byte[] storedBytes;
+    private final boolean verify;
+    private final EWFReadErrors errors;
+    private byte[] bytes;
+
+    EWFChunk(EWFFileReader fileReader, EWFSegmentFileReader decoder, EWFChunkLocation location, int segmentNumber,
+             long imageOffset, byte[] storedBytes, boolean verify, EWFReadErrors errors) {
+        this.fileReader = fileReader;
+        this.decoder = decoder;
+        this.location = location;
+        this.segmentNumber = segmentNumber;
+        this.imageOffset = imageOffset;
+        this.storedBytes = storedBytes;
+        this.verify = verify;
+        this.errors = errors;
+    }
+
+    /**
+     * Returns the media bytes of the chunk, decompressing or verifying the stored bytes on first use.
+     * The returned bytes are shared and must not be modified. When visiting with an error map, the bytes of a chunk
+     * that cannot be read are the fill byte of the error map and the chunk is recorded in it.
+     *
+     * @return the media bytes
+     * @throws IOException if the chunk cannot be decompressed or its checksum fails, and no error map is used
+     */
+    public byte[] getBytes() throws IOException {
+        if (bytes == null) {
+            if (storedBytes == null) {
+                // the stored bytes could not be read and are already recorded
+                bytes = fill();
+            } else {
+                try {
+                    bytes = decoder.decodeChunk(location, storedBytes, fileReader.getChunkSize(), verify);
+                    fileReader.chunkVerified(location.getChunkIndex(), verify);
+                } catch (IOException e) {
+                    if (errors == null) {
+                        throw e;
+                    }
+                    errors.add(location.getChunkIndex(), imageOffset, e);
+                    bytes = fill();
+                }
+            }
+        }
+        return bytes;
+    }
+
+    // returns the bytes of an unreadable chunk, which are shorter for the last chunk of the image
+    private byte[] fill() {
+        long length = Math.min(fileReader.getChunkSize(), fileReader.getImageSize() - imageOffset);
+        byte[] fill = new byte[length > 0 ? (int) length : fileReader.getChunkSize()];
+        Arrays.fill(fill, errors.getFill());
+        return fill;
+    }
+
+    /**
+     * Returns the chunk as stored in its segment file, which is zlib compressed if <code>isCompressed</code>,
+     * and otherwise the media bytes followed by their Adler32 checksum. The returned bytes are shared and must not
+     * be modified.
+     *
+     * @return the stored bytes, or null if they could not be read when visiting with an error map
+     */
+    public byte[] getStoredBytes() {
+        return storedBytes;
+    }
+
+    /**
+     * Provides a visual representation of this object.
+     *
+     * @return the location of the chunk as text
+     */
+    public String toString() {
+        return "EWFChunk: segment " + segmentNumber + " image offset "
+                + String.format(EWFFileReader.LONG_FORMAT, imageOffset) + " " + location;
+    }
+
+    public int getChunkIndex() {
+        return location.getChunkIndex();
+    }
+
+    public long getImageOffset() {
+        return imageOffset;
+    }
+
+    /**
+     * Returns the number of the segment file holding the chunk, starting from 1 for the <code>.E01</code> file.
+     *
+     * @return the segment number
+     */
+    public int getSegmentNumber() {
+        return segmentNumber;
+    }
+
+    public File getSegmentFile() {
+        return location.getFile();
+    }
+
+    public boolean isCompressed() {
+        return location.isCompressed();
+    }
+
+    /**
+     * Returns the location of the stored chunk. When visiting with an error map, a chunk that cannot be located
+     * through its table section has the file offset -1 and the stored size 0.
+     *
+     * @return the chunk location
+     */
+    public EWFChunkLocation getLocation() {
+        return location;
+    }
+}
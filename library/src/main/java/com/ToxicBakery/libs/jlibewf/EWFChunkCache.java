@@ -0,0 +1,462 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>EWFChunkCache</code> class caches decompressed media chunks within a memory budget.
+ * A cache may be shared by several <code>EWFFileReader</code> instances so that the budget applies across all
+ * of their images. Chunks are evicted according to the policy of the cache when the budget is exceeded.
+ * <p>Ranges of chunks of an image may be pinned, such as those holding partition tables or file system
+ * metadata, in which case they are held regardless of the policy. Pinned chunks count towards the budget.
+ * <p>An <code>EWFOffHeapChunkCache</code> may be set as a second tier, in which case evicted chunks are moved
+ * off the heap rather than discarded, and chunks read from the second tier are moved back onto the heap.
+ */
+public class EWFChunkCache {
+
+    /**
+     * The fraction of the budget that the protected segment of a <code>Policy.SEGMENTED</code> cache may hold,
+     * {@value}.
+     */
+    public static final double PROTECTED_FRACTION = 0.8;
+
+    /**
+     * The policies for choosing the chunks to evict.
+     */
+    public enum Policy {
+        /**
+         * Evicts the least recently used chunks.
+         */
+        LRU,
+
+        /**
+         * Segmented LRU, which resists scans. Chunks enter a probationary segment and move to a protected segment
+         * when read again, so chunks read once by a scan only displace other probationary chunks. Chunks are
+         * evicted from the probationary segment first, and the least recently used protected chunks move back to
+         * the probationary segment when the protected segment exceeds its share of the budget.
+         */
+        SEGMENTED
+    }
+
+    /**
+     * The cached chunks in least recently used order. Under the segmented policy these are the probationary chunks.
+     */
+    private final LinkedHashMap<Key, byte[]> chunks = new LinkedHashMap<>(256, 0.75f, true);
+
+    /**
+     * The protected chunks of the segmented policy in least recently used order.
+     */
+    private final LinkedHashMap<Key, byte[]> protectedChunks = new LinkedHashMap<>(256, 0.75f, true);
+
+    /**
+     * The chunks within pinned ranges, which are never evicted, and the pinned ranges by image.
+     */
+    private final Map<Key, byte[]> pinnedChunks = new HashMap<>();
+    private final Map<Object, List<int[]>> pinnedRanges = new IdentityHashMap<>();
+
+    /**
+     * All chunks held on the heap whatever their segment, for lookups that must not affect the eviction order.
+     */
+    private final Map<Key, byte[]> heapChunks = new HashMap<>();
+
+    /**
+     * The maximum number of bytes of decompressed chunks to hold.
+     */
+    private final long budget;
+    private final Policy policy;
+
+    /**
+     * The optional tier receiving evicted chunks.
+     */
+    private EWFOffHeapChunkCache offHeapTier;
+
+    private long size;
+    private long protectedSize;
+    private long pinnedSize;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Constructs a least recently used chunk cache.
+     *
+     * @param budget the maximum number of bytes of decompressed chunks to hold
+     */
+    public EWFChunkCache(long budget) {
+        this(budget, Policy.LRU);
+    }
+
+    /**
+     * Constructs a chunk cache with the given eviction policy.
+     *
+     * @param budget the maximum number of bytes of decompressed chunks to hold
+     * @param policy the policy for choosing the chunks to evict
+     */
+    public EWFChunkCache(long budget, Policy policy) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Invalid cache budget: " + budget);
+        }
+        this.budget = budget;
+        this.policy = policy;
+    }
+
+    /**
+     * Returns the cached chunk of the given image, or null if it is not cached.
+     * The returned bytes are shared and must not be modified.
+     *
+     * @param image      the object identifying the image, typically its reader
+     * @param chunkIndex the index of the chunk within the image
+     * @return the decompressed chunk or null
+     */
+    public synchronized byte[] get(Object image, int chunkIndex) {
+        Key key = new Key(image, chunkIndex);
+        byte[] bytes = pinnedChunks.get(key);
+        if (bytes == null) {
+            bytes = protectedChunks.get(key);
+        }
+        if (bytes == null) {
+            bytes = chunks.get(key);
+
+            // protect probationary chunks that are read again
+            if (bytes != null && policy == Policy.SEGMENTED) {
+                chunks.remove(key);
+                protectedChunks.put(key, bytes);
+                protectedSize += bytes.length;
+                balanceSegments();
+            }
+        }
+
+        // promote chunks found in the off-heap tier
+        if (bytes == null && offHeapTier != null) {
+            bytes = offHeapTier.get(image, chunkIndex);
+            if (bytes != null) {
+                putOnHeap(key, bytes);
+            }
+        }
+
+        if (bytes == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the cached chunk of the given image, or null if it is not cached, without counting a hit or miss or
+     * protecting the chunk. This is used by reads that should not affect the cache, such as scans.
+     *
+     * @param image      the object identifying the image, typically its reader
+     * @param chunkIndex the index of the chunk within the image
+     * @return the decompressed chunk or null
+     */
+    public synchronized byte[] peek(Object image, int chunkIndex) {
+        // a get on the access ordered segments would reorder them
+        return heapChunks.get(new Key(image, chunkIndex));
+    }
+
+    /**
+     * Indicates whether the chunk of the given image is held on the heap, without counting a hit or miss or
+     * affecting the eviction order.
+     *
+     * @param image      the object identifying the image, typically its reader
+     * @param chunkIndex the index of the chunk within the image
+     * @return true if the chunk is cached
+     */
+    public synchronized boolean contains(Object image, int chunkIndex) {
+        return heapChunks.containsKey(new Key(image, chunkIndex));
+    }
+
+    /**
+     * Adds a decompressed chunk of the given image, evicting chunks as needed.
+     * The bytes are shared and must not be modified afterwards.
+     *
+     * @param image      the object identifying the image, typically its reader
+     * @param chunkIndex the index of the chunk within the image
+     * @param bytes      the decompressed chunk
+     */
+    public synchronized void put(Object image, int chunkIndex, byte[] bytes) {
+        // chunks larger than the whole budget are never held on the heap
+        if (bytes.length > budget) {
+            if (offHeapTier != null) {
+                offHeapTier.put(image, chunkIndex, bytes);
+            }
+            return;
+        }
+        putOnHeap(new Key(image, chunkIndex), bytes);
+    }
+
+    private void putOnHeap(Key key, byte[] bytes) {
+        // replace the chunk within its segment, adding new chunks to the probationary segment
+        byte[] previous;
+        if (isPinned(key)) {
+            previous = pinnedChunks.put(key, bytes);
+            pinnedSize += bytes.length - (previous == null ? 0 : previous.length);
+        } else if (protectedChunks.containsKey(key)) {
+            previous = protectedChunks.put(key, bytes);
+            protectedSize += bytes.length - previous.length;
+        } else {
+            previous = chunks.put(key, bytes);
+        }
+        if (previous != null) {
+            size -= previous.length;
+        }
+        size += bytes.length;
+        heapChunks.put(key, bytes);
+
+        balanceSegments();
+        evict();
+    }
+
+    // evicts unpinned chunks, probationary chunks first, until the budget is met, moving them to the off-heap tier
+    private void evict() {
+        evict(chunks);
+        evict(protectedChunks);
+    }
+
+    private void evict(LinkedHashMap<Key, byte[]> segment) {
+        Iterator<Map.Entry<Key, byte[]>> iterator = segment.entrySet().iterator();
+        while (size > budget && iterator.hasNext()) {
+            Map.Entry<Key, byte[]> entry = iterator.next();
+            size -= entry.getValue().length;
+            if (segment == protectedChunks) {
+                protectedSize -= entry.getValue().length;
+            }
+            iterator.remove();
+            heapChunks.remove(entry.getKey());
+            evictionCount++;
+            if (offHeapTier != null) {
+                offHeapTier.put(entry.getKey().image, entry.getKey().chunkIndex, entry.getValue());
+            }
+        }
+    }
+
+    // moves the least recently used protected chunks to the probationary segment while it exceeds its share
+    private void balanceSegments() {
+        long protectedBudget = (long) (budget * PROTECTED_FRACTION);
+        Iterator<Map.Entry<Key, byte[]>> iterator = protectedChunks.entrySet().iterator();
+        while (protectedSize > protectedBudget && iterator.hasNext()) {
+            Map.Entry<Key, byte[]> entry = iterator.next();
+            protectedSize -= entry.getValue().length;
+            iterator.remove();
+            chunks.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Pins a range of chunks of the given image so that they are never evicted, including chunks added later.
+     * Pinned chunks count towards the budget, so pinning more than the budget leaves no room for other chunks.
+     *
+     * @param image      the object identifying the image, typically its reader
+     * @param chunkIndex the index of the first chunk of the range
+     * @param chunkCount the number of chunks in the range
+     */
+    @SuppressWarnings("unused")
+    public synchronized void pin(Object image, int chunkIndex, int chunkCount) {
+        if (chunkIndex < 0 || chunkCount < 0) {
+            throw new IllegalArgumentException("Invalid chunk range: " + chunkIndex + ", " + chunkCount);
+        }
+        List<int[]> ranges = pinnedRanges.get(image);
+        if (ranges == null) {
+            ranges = new ArrayList<>();
+            pinnedRanges.put(image, ranges);
+        }
+        ranges.add(new int[]{chunkIndex, chunkIndex + chunkCount});
+
+        // move the cached chunks of the range into the pinned chunks
+        movePinned(chunks, image);
+        movePinned(protectedChunks, image);
+    }
+
+    private void movePinned(LinkedHashMap<Key, byte[]> segment, Object image) {
+        Iterator<Map.Entry<Key, byte[]>> iterator = segment.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, byte[]> entry = iterator.next();
+            if (entry.getKey().image == image && isPinned(entry.getKey())) {
+                if (segment == protectedChunks) {
+                    protectedSize -= entry.getValue().length;
+                }
+                pinnedSize += entry.getValue().length;
+                pinnedChunks.put(entry.getKey(), entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Unpins all pinned ranges of the given image, making their chunks subject to eviction again.
+     *
+     * @param image the object identifying the image
+     */
+    @SuppressWarnings("unused")
+    public synchronized void unpin(Object image) {
+        if (pinnedRanges.remove(image) == null) {
+            return;
+        }
+
+        // return the pinned chunks of the image to the probationary segment
+        Iterator<Map.Entry<Key, byte[]>> iterator = pinnedChunks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, byte[]> entry = iterator.next();
+            if (entry.getKey().image == image) {
+                pinnedSize -= entry.getValue().length;
+                chunks.put(entry.getKey(), entry.getValue());
+                iterator.remove();
+            }
+        }
+        evict();
+    }
+
+    // indicates whether the chunk is within a pinned range of its image
+    private boolean isPinned(Key key) {
+        List<int[]> ranges = pinnedRanges.get(key.image);
+        if (ranges != null) {
+            for (int[] range : ranges) {
+                if (key.chunkIndex >= range[0] && key.chunkIndex < range[1]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes all cached chunks and pinned ranges of the given image.
+     *
+     * @param image the object identifying the image
+     */
+    public synchronized void invalidate(Object image) {
+        pinnedRanges.remove(image);
+        for (Map<Key, byte[]> segment : Arrays.asList(chunks, protectedChunks, pinnedChunks)) {
+            Iterator<Map.Entry<Key, byte[]>> iterator = segment.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Key, byte[]> entry = iterator.next();
+                if (entry.getKey().image == image) {
+                    size -= entry.getValue().length;
+                    if (segment == protectedChunks) {
+                        protectedSize -= entry.getValue().length;
+                    } else if (segment == pinnedChunks) {
+                        pinnedSize -= entry.getValue().length;
+                    }
+                    iterator.remove();
+                    heapChunks.remove(entry.getKey());
+                }
+            }
+        }
+        if (offHeapTier != null) {
+            offHeapTier.invalidate(image);
+        }
+    }
+
+    /**
+     * Removes all cached chunks and pinned ranges.
+     */
+    public synchronized void clear() {
+        chunks.clear();
+        protectedChunks.clear();
+        pinnedChunks.clear();
+        pinnedRanges.clear();
+        heapChunks.clear();
+        size = 0;
+        protectedSize = 0;
+        pinnedSize = 0;
+        if (offHeapTier != null) {
+            offHeapTier.clear();
+        }
+    }
+
+    /**
+     * Sets the tier receiving the chunks evicted from the heap, or null to discard evicted chunks.
+     *
+     * @param offHeapTier the off-heap chunk cache or null
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setOffHeapTier(EWFOffHeapChunkCache offHeapTier) {
+        this.offHeapTier = offHeapTier;
+    }
+
+    public synchronized EWFOffHeapChunkCache getOffHeapTier() {
+        return offHeapTier;
+    }
+
+    /**
+     * Provides a visual representation of this object.
+     *
+     * @return the cache usage and counters as text
+     */
+    public synchronized String toString() {
+        return "EWFChunkCache: policy: " + policy + " chunks: " + getChunkCount() + " size: " + size
+                + " protected: " + protectedSize + " pinned: " + pinnedSize + " budget: " + budget
+                + " hits: " + hitCount + " misses: " + missCount + " evictions: " + evictionCount;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized long getProtectedSize() {
+        return protectedSize;
+    }
+
+    public synchronized long getPinnedSize() {
+        return pinnedSize;
+    }
+
+    public synchronized int getChunkCount() {
+        return chunks.size() + protectedChunks.size() + pinnedChunks.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Identifies a chunk of an image.
+     */
+    private static final class Key {
+
+        private final Object image;
+        private final int chunkIndex;
+
+        Key(Object image, int chunkIndex) {
+            this.image = image;
+            this.chunkIndex = chunkIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return image == key.image && chunkIndex == key.chunkIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(image) * 31 + chunkIndex;
+        }
+    }
+}
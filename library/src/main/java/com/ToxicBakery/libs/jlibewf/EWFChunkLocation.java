@@ -0,0 +1,79 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.File;
+
+/**
+ * The <code>EWFChunkLocation</code> class identifies where a media chunk is stored within the segment files,
+ * as resolved from the chunk offset array of its table section.
+ */
+public final class EWFChunkLocation {
+
+    /**
+     * The index of the chunk within the media image.
+     */
+    private final int chunkIndex;
+    /**
+     * The segment file the chunk is stored in.
+     */
+    private final File file;
+    /**
+     * The offset address into the file where the stored chunk starts.
+     */
+    private final long fileOffset;
+    /**
+     * The number of bytes the chunk occupies in the file, including the Adler32 checksum of uncompressed chunks.
+     */
+    private final int storedSize;
+    /**
+     * Whether the chunk is stored zlib compressed.
+     */
+    private final boolean compressed;
+
+    /**
+     * Constructs a chunk location.
+     *
+     * @param chunkIndex the index of the chunk within the media image
+     * @param file       the segment file the chunk is stored in
+     * @param fileOffset the offset address into the file where the stored chunk starts
+     * @param storedSize the number of bytes the chunk occupies in the file
+     * @param compressed whether the chunk is stored zlib compressed
+     */
+    public EWFChunkLocation(int chunkIndex, File file, long fileOffset, int storedSize, boolean compressed) {
+        this.chunkIndex = chunkIndex;
+        this.file = file;
+        this.fileOffset = fileOffset;
+        this.storedSize = storedSize;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Returns a string representation of this object.
+     *
+     * @return a string representation of this object
+     */
+    public String toString() {
+        return "Chunk " + chunkIndex + " of file " + file.toString()
+                + " offset " + fileOffset + " size " + storedSize + (compressed ? " compressed" : "");
+    }
+
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getFileOffset() {
+        return fileOffset;
+    }
+
+    public int getStoredSize() {
+        return storedSize;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The <code>EWFChunkTableCache</code> class holds the decoded chunk offset arrays of the table sections of an image
+ * within a memory budget, so that a table section is read and verified on first use rather than on every chunk read.
+ * The offsets are held in primitive arrays, and the least recently used tables are evicted when the budget is
+ * exceeded, bounding the memory used regardless of the size of the image.
+ * <p>The cache is owned by an <code>EWFFileReader</code> and guarded by its lock.
+ */
+public class EWFChunkTableCache {
+
+    /**
+     * The default memory budget in bytes, {@value}, which holds the tables of about 128 full table sections.
+     */
+    public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The approximate memory used by a table in addition to its arrays, {@value}.
+     */
+    private static final int TABLE_OVERHEAD = 96;
+
+    /**
+     * The cached tables by section index in least recently used order.
+     */
+    private final LinkedHashMap<Integer, Table> tables = new LinkedHashMap<>(64, 0.75f, true);
+
+    private long maxSize;
+    private long size;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Constructs a table cache with the given memory budget.
+     *
+     * @param maxSize the memory budget in bytes
+     */
+    EWFChunkTableCache(long maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Returns the table of the section, or null if it is not cached.
+     *
+     * @param section the index of the table section within the section index
+     * @return the table or null
+     */
+    Table get(int section) {
+        Table table = tables.get(section);
+        if (table != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return table;
+    }
+
+    /**
+     * Adds the table of the section, evicting the least recently used tables beyond the budget. A table larger
+     * than the budget is not cached.
+     *
+     * @param section the index of the table section within the section index
+     * @param table   the decoded table
+     */
+    void put(int section, Table table) {
+        // a table larger than the budget would evict every other table before being evicted itself
+        if (table.getMemorySize() > maxSize) {
+            return;
+        }
+        Table previous = tables.put(section, table);
+        if (previous != null) {
+            size -= previous.getMemorySize();
+        }
+        size += table.getMemorySize();
+        evict();
+    }
+
+    /**
+     * Removes all tables, such as when the sections are indexed again.
+     */
+    void clear() {
+        tables.clear();
+        size = 0;
+    }
+
+    // evicts the least recently used tables until the cache is within its budget
+    private void evict() {
+        Iterator<Map.Entry<Integer, Table>> iterator = tables.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().getValue().getMemorySize();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Sets the memory budget, evicting tables if the cache exceeds the new budget.
+     *
+     * @param maxSize the memory budget in bytes
+     */
+    void setMaxSize(long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Invalid table cache size: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the approximate memory used by the cached tables.
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public int getTableCount() {
+        return tables.size();
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * The decoded chunk offset array of a table section, holding the file offset at which each chunk starts and
+     * ends, with the table base offset applied.
+     */
+    static final class Table {
+
+        /**
+         * The start offsets of the chunks followed by the end offset of the last chunk, which is -1 if the section
+         * enclosing the last chunk cannot be found.
+         */
+        private final long[] offsets;
+        /**
+         * The bitmap of compressed chunks.
+         */
+        private final long[] compressed;
+
+        Table(long[] offsets, long[] compressed) {
+            this.offsets = offsets;
+            this.compressed = compressed;
+        }
+
+        int getChunkCount() {
+            return offsets.length - 1;
+        }
+
+        long getStartOffset(int chunkTableIndex) {
+            return offsets[chunkTableIndex];
+        }
+
+        long getEndOffset(int chunkTableIndex) {
+            return offsets[chunkTableIndex + 1];
+        }
+
+        boolean isCompressed(int chunkTableIndex) {
+            return (compressed[chunkTableIndex >>> 6] & (1L << chunkTableIndex)) != 0;
+        }
+
+        long getMemorySize() {
+            return TABLE_OVERHEAD + offsets.length * 8L + compressed.length * 8L;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.IOException;
+
+/**
+ * The <code>EWFChunkVisitor</code> interface receives the media chunks of an image visited with
+ * <code>EWFFileReader.visitChunks</code>.
+ */
+public interface EWFChunkVisitor {
+
+    /**
+     * Visits a media chunk. When chunks are visited in parallel this is called concurrently, and the chunk must
+     * not be used once this returns.
+     *
+     * @param chunk the chunk
+     * @throws IOException to stop visiting chunks, failing the visit with the exception
+     */
+    void visit(EWFChunk chunk) throws IOException;
+}
@@ -0,0 +1,446 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>EWFDiskChunkCache</code> class caches decompressed media chunks in files on a local disk, so that
+ * repeated analysis of an image held on slow storage reads its chunks locally without decompressing them again.
+ * <p>Each image has a sparse chunk file, in which chunk <i>n</i> is stored at <i>n</i> times the chunk size,
+ * and a presence file, which records the segment files of the image and a bitmap of the chunks written.
+ * The presence file is only replaced, atomically, after the chunk file has been forced to disk, so a crash
+ * loses recently written chunks but never exposes a chunk that was not fully written. The cached chunks of an
+ * image are discarded when the sizes or modification times of its segment files change.
+ * <p>The total size of the cached chunks is bounded. When the bound is reached, the caches of the least
+ * recently synchronized images that are not open are deleted, after which new chunks are no longer admitted.
+ */
+public class EWFDiskChunkCache {
+
+    /**
+     * The magic number of presence files, {@value}.
+     */
+    private static final int MAGIC = 0x45574643;
+
+    /**
+     * The number of chunks written between synchronizations of a presence file, {@value}.
+     */
+    private static final int SYNC_INTERVAL = 256;
+
+    private static final String CHUNK_SUFFIX = ".chunks";
+    private static final String PRESENCE_SUFFIX = ".present";
+
+    private final File directory;
+    private final long maxBytes;
+    private final Map<String, Store> openStores = new HashMap<>();
+    private long usedBytes;
+
+    /**
+     * Constructs a disk chunk cache in the given directory, which is created if needed.
+     *
+     * @param directory the directory to hold the cache files in
+     * @param maxBytes  the maximum number of bytes of chunks to hold across all images
+     * @throws IOException if the directory cannot be created or read
+     */
+    public EWFDiskChunkCache(File directory, long maxBytes) throws IOException {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + maxBytes);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the cache directory: " + directory);
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        // total the chunks already cached
+        for (File presenceFile : listPresenceFiles()) {
+            Presence presence = readPresence(presenceFile);
+            if (presence == null) {
+                deleteCache(presenceFile);
+            } else {
+                usedBytes += presence.getBytes();
+            }
+        }
+    }
+
+    /**
+     * Opens the cache of the image of the given reader, discarding previously cached chunks if the segment files
+     * of the image have changed since they were cached. The image is indexed if needed. Called by
+     * <code>EWFFileReader.setDiskChunkCache</code> with the reader locked, which is locked before this cache.
+     *
+     * @param reader the reader of the image
+     * @return the cache of the image
+     * @throws IOException if the cache files cannot be opened
+     */
+    synchronized Store open(EWFFileReader reader) throws IOException {
+        // name the cache files by the first segment file
+        String name = getImageName(reader);
+        if (openStores.containsKey(name)) {
+            throw new IOException("The disk cache of the image is already open: "
+                    + reader.getSectionIndex().getSegment(0));
+        }
+
+        // keep the cached chunks only if the image is unchanged
+        File presenceFile = new File(directory, name + PRESENCE_SUFFIX);
+        Presence presence = presenceFile.exists() ? readPresence(presenceFile) : null;
+        byte[] fingerprintDigest = getFingerprint(reader);
+        if (presence != null && !Arrays.equals(presence.fingerprint, fingerprintDigest)) {
+            EWFFileReader.logger.debug("com.ToxicBakery.libs.jlibewf.EWFDiskChunkCache.open: image changed: "
+                    + reader.getSectionIndex().getSegment(0));
+            usedBytes -= presence.getBytes();
+            deleteCache(presenceFile);
+            presence = null;
+        }
+        if (presence == null) {
+            presence = new Presence(fingerprintDigest, reader.getChunkSize(), new BitSet());
+        }
+
+        Store store = new Store(name, presence, reader.getImageSize());
+        openStores.put(name, store);
+        return store;
+    }
+
+    /**
+     * Deletes the caches of all images that are not open.
+     *
+     * @throws IOException if the cache directory cannot be read
+     */
+    @SuppressWarnings("unused")
+    public synchronized void clear() throws IOException {
+        for (File presenceFile : listPresenceFiles()) {
+            if (!openStores.containsKey(getName(presenceFile))) {
+                Presence presence = readPresence(presenceFile);
+                if (presence != null) {
+                    usedBytes -= presence.getBytes();
+                }
+                deleteCache(presenceFile);
+            }
+        }
+    }
+
+    /**
+     * Provides a visual representation of this object.
+     *
+     * @return the cache usage as text
+     */
+    public synchronized String toString() {
+        return "EWFDiskChunkCache: directory: " + directory + " used: " + usedBytes + " max: " + maxBytes
+                + " open images: " + openStores.size();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    // reserves space for a chunk, deleting the caches of images that are not open if needed
+    private synchronized boolean reserve(int numBytes) throws IOException {
+        if (usedBytes + numBytes > maxBytes) {
+            // delete the least recently synchronized caches first
+            List<File> presenceFiles = listPresenceFiles();
+            Collections.sort(presenceFiles, new Comparator<File>() {
+                @Override
+                public int compare(File first, File second) {
+                    return Long.compare(first.lastModified(), second.lastModified());
+                }
+            });
+            for (File presenceFile : presenceFiles) {
+                if (usedBytes + numBytes <= maxBytes) {
+                    break;
+                }
+                if (!openStores.containsKey(getName(presenceFile))) {
+                    Presence presence = readPresence(presenceFile);
+                    if (presence != null) {
+                        usedBytes -= presence.getBytes();
+                    }
+                    deleteCache(presenceFile);
+                }
+            }
+            if (usedBytes + numBytes > maxBytes) {
+                return false;
+            }
+        }
+        usedBytes += numBytes;
+        return true;
+    }
+
+    private synchronized void closed(Store store) {
+        openStores.remove(store.name);
+    }
+
+    private List<File> listPresenceFiles() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Unable to list the cache directory: " + directory);
+        }
+        List<File> presenceFiles = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(PRESENCE_SUFFIX)) {
+                presenceFiles.add(file);
+            }
+        }
+        return presenceFiles;
+    }
+
+    private static String getName(File presenceFile) {
+        String name = presenceFile.getName();
+        return name.substring(0, name.length() - PRESENCE_SUFFIX.length());
+    }
+
+    private void deleteCache(File presenceFile) {
+        // delete the presence file first so that a partial deletion leaves no chunks marked present
+        if (!presenceFile.delete() && presenceFile.exists()) {
+            EWFFileReader.logger.warn("com.ToxicBakery.libs.jlibewf.EWFDiskChunkCache.deleteCache: unable to delete "
+                    + presenceFile);
+            return;
+        }
+        File chunkFile = new File(directory, getName(presenceFile) + CHUNK_SUFFIX);
+        if (!chunkFile.delete() && chunkFile.exists()) {
+            EWFFileReader.logger.warn("com.ToxicBakery.libs.jlibewf.EWFDiskChunkCache.deleteCache: unable to delete "
+                    + chunkFile);
+        }
+    }
+
+    // reads a presence file, returning null if it is not valid
+    private static Presence readPresence(File presenceFile) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(presenceFile))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            byte[] fingerprint = new byte[in.readInt()];
+            in.readFully(fingerprint);
+            int chunkSize = in.readInt();
+            byte[] bitmap = new byte[in.readInt()];
+            in.readFully(bitmap);
+            return new Presence(fingerprint, chunkSize, BitSet.valueOf(bitmap));
+        } catch (IOException e) {
+            EWFFileReader.logger.debug(
+                    "com.ToxicBakery.libs.jlibewf.EWFDiskChunkCache.readPresence: invalid presence file "
+                            + presenceFile + ": " + e);
+            return null;
+        }
+    }
+
+    // returns a digest describing the image by the paths, sizes and modification times of its segment files
+    static byte[] getFingerprint(EWFFileReader reader) throws IOException {
+        EWFSectionIndex sectionIndex = reader.getSectionIndex();
+        StringBuilder fingerprint = new StringBuilder();
+        for (int segmentId = 0; segmentId < sectionIndex.getSegmentCount(); segmentId++) {
+            File segment = sectionIndex.getSegment(segmentId);
+            fingerprint.append(segment.getCanonicalPath()).append('\n').append(reader.getSegmentLength(segment))
+                    .append('\n').append(reader.getSegmentLastModified(segment)).append('\n');
+        }
+        fingerprint.append(reader.getChunkSize()).append('\n').append(reader.getImageSize());
+        return digest(fingerprint.toString());
+    }
+
+    // returns the name of the files kept for the image, derived from the path of its first segment file
+    static String getImageName(EWFFileReader reader) throws IOException {
+        return toHex(digest(reader.getSectionIndex().getSegment(0).getCanonicalPath()));
+    }
+
+    private static byte[] digest(String text) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(text.getBytes(Charset.forName("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // returns the bytes as lowercase hexadecimal digits
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * The persistent state of the cache of an image.
+     */
+    private static final class Presence {
+
+        private final byte[] fingerprint;
+        private final int chunkSize;
+        private final BitSet chunks;
+
+        Presence(byte[] fingerprint, int chunkSize, BitSet chunks) {
+            this.fingerprint = fingerprint;
+            this.chunkSize = chunkSize;
+            this.chunks = chunks;
+        }
+
+        long getBytes() {
+            return (long) chunks.cardinality() * chunkSize;
+        }
+    }
+
+    /**
+     * The cache of the chunks of one image. A store is not shared between readers.
+     */
+    public final class Store {
+
+        private final String name;
+        private final Presence presence;
+        private final long imageSize;
+        private final File presenceFile;
+        private final RandomAccessFile chunkFile;
+
+        /**
+         * The chunks written since the presence file was last synchronized, which would be lost by a crash.
+         */
+        private final BitSet pending = new BitSet();
+        private int pendingCount;
+        private long hitCount;
+        private long missCount;
+
+        private Store(String name, Presence presence, long imageSize) throws IOException {
+            this.name = name;
+            this.presence = presence;
+            this.imageSize = imageSize;
+            presenceFile = new File(directory, name + PRESENCE_SUFFIX);
+            chunkFile = new RandomAccessFile(new File(directory, name + CHUNK_SUFFIX), "rw");
+        }
+
+        /**
+         * Returns the cached chunk, or null if it is not cached.
+         *
+         * @param chunkIndex the index of the chunk within the image
+         * @return the decompressed chunk or null
+         * @throws IOException if the chunk file cannot be read
+         */
+        public synchronized byte[] get(int chunkIndex) throws IOException {
+            if (!presence.chunks.get(chunkIndex) && !pending.get(chunkIndex)) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            byte[] bytes = new byte[getChunkLength(chunkIndex)];
+            chunkFile.seek((long) chunkIndex * presence.chunkSize);
+            chunkFile.readFully(bytes);
+            return bytes;
+        }
+
+        /**
+         * Writes a decompressed chunk to the cache if there is room for it. The chunk is kept across runs once
+         * the store is next synchronized.
+         *
+         * @param chunkIndex the index of the chunk within the image
+         * @param bytes      the decompressed chunk
+         * @throws IOException if the chunk file cannot be written
+         */
+        public synchronized void put(int chunkIndex, byte[] bytes) throws IOException {
+            if (presence.chunks.get(chunkIndex) || pending.get(chunkIndex) || bytes.length != getChunkLength(chunkIndex)
+                    || !reserve(presence.chunkSize)) {
+                return;
+            }
+            chunkFile.seek((long) chunkIndex * presence.chunkSize);
+            chunkFile.write(bytes);
+            pending.set(chunkIndex);
+            if (++pendingCount >= SYNC_INTERVAL) {
+                sync();
+            }
+        }
+
+        /**
+         * Forces the written chunks to disk and then atomically replaces the presence file, so that the chunks
+         * are kept across runs.
+         *
+         * @throws IOException if the cache files cannot be written
+         */
+        public synchronized void sync() throws IOException {
+            if (pendingCount == 0) {
+                return;
+            }
+            chunkFile.getChannel().force(false);
+            presence.chunks.or(pending);
+            pending.clear();
+            pendingCount = 0;
+
+            // write the presence to a temporary file and rename it over the previous one
+            File tempFile = new File(directory, name + PRESENCE_SUFFIX + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                DataOutputStream data = new DataOutputStream(out);
+                byte[] bitmap = presence.chunks.toByteArray();
+                data.writeInt(MAGIC);
+                data.writeInt(presence.fingerprint.length);
+                data.write(presence.fingerprint);
+                data.writeInt(presence.chunkSize);
+                data.writeInt(bitmap.length);
+                data.write(bitmap);
+                data.flush();
+                out.getFD().sync();
+            }
+            if (!tempFile.renameTo(presenceFile)) {
+                // some platforms do not rename over an existing file
+                if (!presenceFile.delete() || !tempFile.renameTo(presenceFile)) {
+                    throw new IOException("Unable to replace the presence file: " + presenceFile);
+                }
+            }
+        }
+
+        /**
+         * Synchronizes and closes the store.
+         *
+         * @throws IOException if the cache files cannot be written
+         */
+        public synchronized void close() throws IOException {
+            try {
+                sync();
+            } finally {
+                chunkFile.close();
+                closed(this);
+            }
+        }
+
+        /**
+         * Provides a visual representation of this object.
+         *
+         * @return the store usage and counters as text
+         */
+        public synchronized String toString() {
+            return "EWFDiskChunkCache.Store: chunks: " + getChunkCount() + " pending: " + pendingCount
+                    + " hits: " + hitCount + " misses: " + missCount;
+        }
+
+        public synchronized int getChunkCount() {
+            return presence.chunks.cardinality() + pendingCount;
+        }
+
+        public synchronized long getHitCount() {
+            return hitCount;
+        }
+
+        public synchronized long getMissCount() {
+            return missCount;
+        }
+
+        // the last chunk of the image may be short
+        private int getChunkLength(int chunkIndex) {
+            return (int) Math.min(presence.chunkSize, imageSize - (long) chunkIndex * presence.chunkSize);
+        }
+    }
+}
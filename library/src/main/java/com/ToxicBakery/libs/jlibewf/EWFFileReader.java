@@ -18,6 +18,9 @@ package com.ToxicBakery.libs.jlibewf;
  * Released into the public domain on December 17, 2010 by Bruce Allen.
  */
 
+import com.ToxicBakery.libs.jlibewf.section.DigestSection;
+import com.ToxicBakery.libs.jlibewf.section.HashSection;
+import com.ToxicBakery.libs.jlibewf.section.HeaderSection;
 import com.ToxicBakery.libs.jlibewf.section.SectionPrefix;
 import com.ToxicBakery.libs.jlibewf.section.TableSection;
 import com.ToxicBakery.libs.jlibewf.section.VolumeSection;
@@ -26,16 +29,26 @@ import org.apache.log4j.Logger;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The <code>com.ToxicBakery.libs.jlibewf.EWFFileReader</code> class reads EWF files formatted in the .E01 format.
  */
 public class EWFFileReader {
 
-    private static final String LONG_FORMAT = "%1$d (0x%1$08x)";
+    static final String LONG_FORMAT = "%1$d (0x%1$08x)";
 
     /**
      * The build date of this version, {@value}.
@@ -57,12 +70,120 @@ public class EWFFileReader {
         logger.info("com.ToxicBakery.libs.jlibewf.EWFFileReader build date " + VERSION_DATE);
     }
 
-    private final List<SectionPrefix> sectionPrefixArray;
+    private final EWFSectionIndex sectionIndex;
     private final EWFSegmentFileReader reader;
+    private final OpenMode openMode;
 
     private File firstFile;
+    private EWFChunkCache chunkCache;
+    private EWFDiskChunkCache.Store diskCacheStore;
+    private EWFPrefetcher prefetcher;
+    private EWFTraceRecorder traceRecorder;
+    private EWFHotChunkList.Session hotChunks;
+    private EWFIOScheduler ioScheduler;
+    private final EWFSegmentSource segmentSource;
+
+    /**
+     * The pool decompressing the chunks of large reads in parallel, the read size from which it is used, and the
+     * decoders of the pool and reading threads, as a decoder is not thread safe.
+     */
+    private ExecutorService decompressionPool;
+    private int parallelReadThreshold;
+    private final ThreadLocal<EWFSegmentFileReader> decoders = new ThreadLocal<EWFSegmentFileReader>() {
+        @Override
+        protected EWFSegmentFileReader initialValue() {
+            return new EWFSegmentFileReader(LONG_FORMAT);
+        }
+    };
+    private boolean indexed;
+
+    /**
+     * The position at which indexing stopped, from which a reader in follow mode resumes, and whether the done
+     * section has been indexed.
+     */
+    private File walkFile;
+    private long walkOffset;
+    private int walkChunkIndex;
+    private boolean complete;
     private int chunkSize;
+    private int compressionLevel;
+    private int bytesPerSector;
+    private int sectorCount;
+    private int volumeChunkCount;
     private long imageSize = 0;
+    private String headerText;
+    private byte[] storedMD5;
+    private byte[] storedSHA1;
+
+    /**
+     * The modes in which a reader can be opened.
+     */
+    public enum OpenMode {
+        /**
+         * All sections of all segment files are indexed when the reader is opened.
+         */
+        FULL,
+        /**
+         * The segment files may still be being written. The sections written completely so far are indexed when
+         * the reader is opened, and media may be read up to the last chunk of the last complete table. Sections
+         * and segment files written later are indexed by <code>refresh</code>.
+         */
+        FOLLOW,
+        /**
+         * Only the header and volume sections of the first segment file and the hash and digest sections of the
+         * last segment file are read when the reader is opened. The remaining sections are indexed on the first
+         * media read.
+         */
+        METADATA
+    }
+
+    /**
+     * The policies for verifying the Adler32 checksums of table sections and uncompressed chunks when reading media.
+     * Compressed chunks are always verified by their decompression.
+     */
+    public enum VerificationPolicy {
+        /**
+         * Checksums are verified on every read of a chunk and every time a table section is decoded into the
+         * table cache.
+         */
+        ALWAYS,
+        /**
+         * Checksums are verified on the first read of each table section and chunk during the lifetime of the
+         * reader, and skipped for the bytes already verified.
+         */
+        ONCE,
+        /**
+         * Checksums are not verified.
+         */
+        OFF
+    }
+
+    private VerificationPolicy verificationPolicy = VerificationPolicy.ALWAYS;
+
+    /**
+     * The table sections, by index within the section index, whose checksums are verified.
+     */
+    private final BitSet verifiedTables = new BitSet();
+
+    /**
+     * The uncompressed chunks, by chunk index, whose checksums are verified.
+     */
+    private final BitSet verifiedChunks = new BitSet();
+
+    /**
+     * The decoded chunk tables of the recently used table sections.
+     */
+    private final EWFChunkTableCache chunkTableCache = new EWFChunkTableCache(EWFChunkTableCache.DEFAULT_MAX_SIZE);
+
+    /**
+     * The chunks being loaded, by chunk index, so that threads reading a chunk while it is loaded wait for the load
+     * rather than repeating it, and the number of loads and of reads that waited for a load. Only overlapping loads
+     * are shared: a chunk read again after its load finished is taken from the chunk caches if any are set, and is
+     * loaded again otherwise.
+     */
+    private final Map<Integer, ChunkLoad> chunkLoads = new HashMap<>();
+    private long chunkLoadCount;
+    private long sharedLoadCount;
 
     /**
      * Constructs the EWF file reader for reading EWF files formatted in the .E01 format.
@@ -71,27 +192,70 @@ public class EWFFileReader {
      * @throws IOException if the reader cannot be created
      */
     public EWFFileReader(File file) throws IOException {
-        sectionPrefixArray = new ArrayList<>();
+        this(file, OpenMode.FULL);
+    }
+
+    /**
+     * Constructs the EWF file reader for reading EWF files formatted in the .E01 format.
+     *
+     * @param file     the first EWF file in the serial sequence
+     * @param openMode the amount of the segment files to read when opening
+     * @throws IOException if the reader cannot be created
+     */
+    public EWFFileReader(File file, OpenMode openMode) throws IOException {
+        this(file, openMode, null);
+    }
+
+    /**
+     * Constructs the EWF file reader for reading EWF files formatted in the .E01 format held in a segment source,
+     * such as an object storage service. The paths of the segment files name the blobs of the source.
+     *
+     * @param file          the first EWF file in the serial sequence
+     * @param openMode      the amount of the segment files to read when opening
+     * @param segmentSource the source of the segment bytes, or null to read local segment files
+     * @throws IOException if the reader cannot be created
+     */
+    public EWFFileReader(File file, OpenMode openMode, EWFSegmentSource segmentSource) throws IOException {
+        sectionIndex = new EWFSectionIndex(LONG_FORMAT);
 
         // validate the file as the first EWF file
         if (!EWFSegmentFileReader.isValidFirstEWFFilename(file)) {
             throw new IOException("Invalid first EWF filename file " + file.toString());
         }
 
-        reader = new EWFSegmentFileReader(LONG_FORMAT);
+        reader = new EWFSegmentFileReader(LONG_FORMAT, segmentSource);
+        this.segmentSource = segmentSource;
         chunkSize = EWFSegmentFileReader.DEFAULT_CHUNK_SIZE;
 
         // set file as first file
         firstFile = file;
+        this.openMode = openMode;
+
+        if (openMode == OpenMode.FOLLOW) {
+            // index what is written so far
+            loadSectionPrefixArray();
+            loadMetadata(getIndexedMetadataSections());
+            loadFollowedMediaSize();
+        } else if (openMode == OpenMode.METADATA) {
+            // cache the metadata of the leading and trailing sections only
+            loadMetadata(loadMetadataSections());
+
+            // use the media size recorded in the Volume Section if there is one
+            if (sectorCount > 0) {
+                imageSize = (long) sectorCount * bytesPerSector;
+            } else {
+                ensureIndexed();
+            }
+        } else {
+            // cache all section prefix entries
+            loadSectionPrefixArray();
 
-        // cache all section prefix entries
-        loadSectionPrefixArray();
-
-        // cache the chunk size since this dictates data size
-        loadChunkSize();
+            // cache the chunk size and other metadata since this dictates data size
+            loadMetadata(getIndexedMetadataSections());
 
-        // cache the media size
-        loadMediaSize();
+            // cache the media size
+            loadMediaSize();
+        }
     }
 
     /**
@@ -104,16 +268,385 @@ public class EWFFileReader {
         logger = Logger.getLogger(loggerName);
     }
 
+    /**
+     * Sets the cache to hold decompressed media chunks in, which may be shared with other readers so that its
+     * memory budget applies across images.
+     *
+     * @param chunkCache the chunk cache to use, or null to not cache chunks
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setChunkCache(EWFChunkCache chunkCache) {
+        // drop this image's chunks from the cache being replaced
+        if (this.chunkCache != null) {
+            this.chunkCache.invalidate(this);
+        }
+        this.chunkCache = chunkCache;
+    }
+
+    /**
+     * Sets the local disk cache to hold decompressed media chunks in below the chunk cache, opening the disk cache
+     * of this image. Chunks are written to the disk cache as they are decompressed and kept across runs for as
+     * long as the segment files are unchanged.
+     *
+     * @param diskCache the disk chunk cache to use, or null to not cache chunks on disk
+     * @throws IOException if the disk cache of this image cannot be opened
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setDiskChunkCache(EWFDiskChunkCache diskCache) throws IOException {
+        // close the disk cache being replaced
+        if (diskCacheStore != null) {
+            diskCacheStore.close();
+            diskCacheStore = null;
+        }
+        if (diskCache != null) {
+            diskCacheStore = diskCache.open(this);
+        }
+    }
+
+    /**
+     * Returns the disk cache of this image, or null if chunks are not cached on disk.
+     *
+     * @return the disk cache store or null
+     */
+    @SuppressWarnings("unused")
+    public synchronized EWFDiskChunkCache.Store getDiskChunkCacheStore() {
+        return diskCacheStore;
+    }
+
+    /**
+     * Sets the prefetcher to notify of the chunks read, which then decompresses the chunks expected to be read
+     * next into the chunk cache. The prefetcher is closed when it is replaced or the reader is closed.
+     *
+     * @param prefetcher the prefetcher for this reader, or null to not prefetch
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setPrefetcher(EWFPrefetcher prefetcher) {
+        if (this.prefetcher != null && this.prefetcher != prefetcher) {
+            this.prefetcher.close();
+        }
+        this.prefetcher = prefetcher;
+    }
+
+    @SuppressWarnings("unused")
+    public synchronized EWFPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Sets the recorder that logs every media read to a trace, such as for replaying the reads with
+     * <code>EWFTraceReplayer</code>. The recorder may be shared by several readers and is not closed by the reader.
+     *
+     * @param traceRecorder the trace recorder, or null to stop recording
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setTraceRecorder(EWFTraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
+    }
+
+    @SuppressWarnings("unused")
+    public synchronized EWFTraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    /**
+     * Sets the scheduler that orders the stored chunk reads of the threads using this reader by segment file and
+     * offset. A thread waiting for its read releases the lock of this reader, so that other threads can queue their
+     * reads. The scheduler may be shared with other readers and is not closed by the reader, which closes the
+     * segment files the scheduler opened for it when the reader is closed.
+     *
+     * @param ioScheduler the I/O scheduler, or null to read stored chunks directly
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setIOScheduler(EWFIOScheduler ioScheduler) {
+        if (this.ioScheduler != null && this.ioScheduler != ioScheduler) {
+            this.ioScheduler.release(this);
+        }
+        this.ioScheduler = ioScheduler;
+    }
+
+    @SuppressWarnings("unused")
+    public synchronized EWFIOScheduler getIOScheduler() {
+        return ioScheduler;
+    }
+
+    /**
+     * Returns the source of the segment bytes given when constructing this reader.
+     *
+     * @return the segment source, or null if local segment files are read
+     */
+    public EWFSegmentSource getSegmentSource() {
+        return segmentSource;
+    }
+
+    /**
+     * Sets the hot chunk list to count the chunk reads of this image in, opening the list of this image. If a
+     * chunk cache is set, it is warmed in the background with the chunks read most in previous sessions, so the
+     * chunk cache should be set first. The list is written when it is replaced or the reader is closed.
+     *
+     * @param hotChunkList the hot chunk list to use, or null to not count chunk reads
+     * @throws IOException if the list of this image cannot be opened or the replaced list cannot be written
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setHotChunkList(EWFHotChunkList hotChunkList) throws IOException {
+        // write the list being replaced
+        if (hotChunks != null) {
+            hotChunks.close();
+            hotChunks = null;
+        }
+        if (hotChunkList != null) {
+            hotChunks = hotChunkList.open(this);
+            if (chunkCache != null) {
+                hotChunks.startWarming(chunkCache);
+            }
+        }
+    }
+
+    /**
+     * Returns the hot chunk list session of this image, or null if chunk reads are not counted.
+     *
+     * @return the hot chunk list session or null
+     */
+    @SuppressWarnings("unused")
+    public synchronized EWFHotChunkList.Session getHotChunkListSession() {
+        return hotChunks;
+    }
+
+    /**
+     * Sets the pool that decompresses the chunks of large reads in parallel. Reads of at least the threshold
+     * number of bytes read the stored chunks on the calling thread and decompress them on the pool directly into
+     * the returned array. The pool may be shared with other readers and is not shut down by the reader.
+     *
+     * @param decompressionPool the pool to decompress chunks on, or null to decompress on the calling thread
+     * @param threshold         the smallest read in bytes to decompress in parallel
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setParallelDecompression(ExecutorService decompressionPool, int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Invalid parallel read threshold: " + threshold);
+        }
+        this.decompressionPool = decompressionPool;
+        parallelReadThreshold = threshold;
+    }
+
+    /**
+     * Sets the memory budget of the cache holding the decoded chunk tables of recently used table sections.
+     * The default budget is <code>EWFChunkTableCache.DEFAULT_MAX_SIZE</code>.
+     *
+     * @param maxSize the memory budget in bytes, or 0 to decode a table section on every chunk read
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setChunkTableCacheSize(long maxSize) {
+        chunkTableCache.setMaxSize(maxSize);
+    }
+
+    /**
+     * Returns the cache holding the decoded chunk tables, whose counters are read under the reader lock.
+     *
+     * @return the chunk table cache
+     */
+    @SuppressWarnings("unused")
+    public synchronized EWFChunkTableCache getChunkTableCache() {
+        return chunkTableCache;
+    }
+
+    /**
+     * Returns the number of chunks loaded by reading and decoding them, by reads or by background loading such as
+     * prefetching.
+     *
+     * @return the chunk load count
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getChunkLoadCount() {
+        return chunkLoadCount;
+    }
+
+    /**
+     * Returns the number of chunk reads that waited for a load of the same chunk already in progress instead of
+     * loading the chunk again, each saving a read and decode of the chunk. Reads of a chunk whose load has finished
+     * are served by the chunk caches rather than shared.
+     *
+     * @return the shared load count
+     */
+    @SuppressWarnings("unused")
+    public synchronized long getSharedLoadCount() {
+        return sharedLoadCount;
+    }
+
+    /**
+     * Sets the policy for verifying the Adler32 checksums of table sections and uncompressed chunks when reading
+     * media. The default policy is <code>VerificationPolicy.ALWAYS</code>.
+     *
+     * @param verificationPolicy the verification policy to use
+     */
+    @SuppressWarnings("unused")
+    public synchronized void setVerificationPolicy(VerificationPolicy verificationPolicy) {
+        this.verificationPolicy = verificationPolicy;
+
+        // bytes verified under an earlier policy are verified again
+        verifiedTables.clear();
+        verifiedChunks.clear();
+        chunkTableCache.clear();
+    }
+
+    @SuppressWarnings("unused")
+    public synchronized VerificationPolicy getVerificationPolicy() {
+        return verificationPolicy;
+    }
+
+    /**
+     * Pins the chunks holding a range of the image in the chunk cache, so that they are held regardless of the
+     * cache policy until the reader is closed. This suits ranges read repeatedly, such as partition tables and
+     * file system metadata.
+     *
+     * @param imageAddress the address within the image of the start of the range
+     * @param numBytes     the number of bytes in the range
+     * @throws IOException if no chunk cache is set
+     */
+    @SuppressWarnings("unused")
+    public synchronized void pinImageRange(long imageAddress, long numBytes) throws IOException {
+        if (chunkCache == null) {
+            throw new IOException("No chunk cache is set");
+        }
+        if (imageAddress < 0 || numBytes <= 0) {
+            return;
+        }
+        long firstChunk = imageAddress / chunkSize;
+        long lastChunk = (imageAddress + numBytes - 1) / chunkSize;
+        if (!EWFSection.isPositiveInt(lastChunk)) {
+            throw new IOException("Invalid chunk index: " + lastChunk);
+        }
+        chunkCache.pin(this, (int) firstChunk, (int) (lastChunk - firstChunk + 1));
+    }
+
+    /**
+     * Returns the cache holding decompressed media chunks, or null if chunks are not cached.
+     *
+     * @return the chunk cache or null
+     */
+    @SuppressWarnings("unused")
+    public EWFChunkCache getChunkCache() {
+        return chunkCache;
+    }
+
+    // reads the image bytes, decompressing the whole chunks within the range on the decompression pool
+    private byte[] readImageBytesParallel(long imageAddress, int numBytes, boolean cache) throws IOException {
+        final byte[] bytes = new byte[numBytes];
+        long endAddress = imageAddress + numBytes;
+        List<ChunkLoad> loads = new ArrayList<>();
+        List<Boolean> decodedVerified = new ArrayList<>();
+        List<Future<Integer>> futures = new ArrayList<>();
+        List<long[]> deferred = new ArrayList<>();
+
+        try {
+            for (long chunkStart = imageAddress / chunkSize * chunkSize; chunkStart < endAddress;
+                 chunkStart += chunkSize) {
+                long start = Math.max(chunkStart, imageAddress);
+                long end = Math.min(chunkStart + chunkSize, endAddress);
+
+                // read partial chunks at the ends of the range and chunks loaded by other threads once the loads
+                // of this read are finished, so that two reads never wait for each other's loads
+                final int chunkIndex = (int) (chunkStart / chunkSize);
+                if (start != chunkStart || end != chunkStart + chunkSize || chunkLoads.containsKey(chunkIndex)) {
+                    deferred.add(new long[]{start, end});
+                    continue;
+                }
+
+                // use a cached chunk if available
+                final int offset = (int) (start - imageAddress);
+                if (prefetcher != null && cache) {
+                    prefetcher.recordRead(chunkIndex, getChunkCount());
+                }
+                if (hotChunks != null && cache) {
+                    hotChunks.recordRead(chunkIndex);
+                }
+                byte[] cached = null;
+                if (chunkCache != null) {
+                    cached = cache ? chunkCache.get(this, chunkIndex) : chunkCache.peek(this, chunkIndex);
+                }
+                if (cached == null && diskCacheStore != null) {
+                    cached = diskCacheStore.get(chunkIndex);
+                }
+                if (cached != null) {
+                    System.arraycopy(cached, 0, bytes, offset, chunkSize);
+                    continue;
+                }
+
+                // read the stored chunk here and decompress it on the pool, letting other reads of the chunk wait
+                // for this load
+                loads.add(startChunkLoad(chunkIndex));
+                final EWFChunkLocation location = locateChunk(chunkIndex);
+                final byte[] stored = readStoredChunk(location);
+                final boolean verify = isVerificationRequired(verifiedChunks, chunkIndex);
+                futures.add(decompressionPool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        return decoders.get().decodeChunk(location, stored, chunkSize, verify, bytes, offset);
+                    }
+                }));
+                decodedVerified.add(verify);
+            }
+
+            // wait for the chunks to be decompressed
+            for (int i = 0; i < futures.size(); i++) {
+                ChunkLoad load = loads.get(i);
+                int length = futures.get(i).get();
+                if (length != chunkSize) {
+                    throw new IOException("Insufficient bytes read: chunk " + load.chunkIndex + ", length: "
+                            + length);
+                }
+                markVerified(verifiedChunks, load.chunkIndex, decodedVerified.get(i));
+
+                // hand copies of the decompressed chunks to the waiting reads and the caches
+                int offset = (int) ((long) load.chunkIndex * chunkSize - imageAddress);
+                byte[] chunkBytes = Arrays.copyOfRange(bytes, offset, offset + chunkSize);
+                finishChunkLoad(load, chunkBytes, null);
+                if (cache && diskCacheStore != null) {
+                    diskCacheStore.put(load.chunkIndex, chunkBytes);
+                }
+                if (cache && chunkCache != null) {
+                    chunkCache.put(this, load.chunkIndex, chunkBytes);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decompressing chunks");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            // abandon the remaining chunks on failure, leaving the reads waiting for them to load them
+            for (Future<Integer> future : futures) {
+                future.cancel(false);
+            }
+            for (ChunkLoad load : loads) {
+                if (!load.done) {
+                    finishChunkLoad(load, null, new InterruptedIOException("Abandoned load of chunk "
+                            + load.chunkIndex));
+                }
+            }
+        }
+
+        // read the deferred ranges, waiting for the loads of other threads
+        for (long[] range : deferred) {
+            byte[] alignedBytes = readAlignedBytes(range[0], (int) (range[1] - range[0]), cache);
+            System.arraycopy(alignedBytes, 0, bytes, (int) (range[0] - imageAddress), alignedBytes.length);
+        }
+        return bytes;
+    }
+
     /**
      * Reads the media image bytes into the byte array, where the media image bytes are read from EWF files formatted in
      * the .E01 format.
      *
      * @param pageStartByte the start address of the page to read
      * @param numBytes      the number of bytes to read
+     * @param cache         false to read without caching
      * @return the byte array read
      * @throws IOException if the requested number of bytes cannot be read
      */
-    private byte[] readAlignedBytes(long pageStartByte, int numBytes) throws IOException {
+    private byte[] readAlignedBytes(long pageStartByte, int numBytes, boolean cache) throws IOException {
         // calculate chunk start byte
         long chunkIndex = pageStartByte / chunkSize;
         long chunkStartByte = chunkIndex * chunkSize;
@@ -124,7 +657,7 @@ public class EWFFileReader {
         }
 
         // read the chunk
-        byte[] chunkBytes = readMediaChunk((int) chunkIndex);
+        byte[] chunkBytes = readMediaChunk((int) chunkIndex, cache);
 
         // find the offset of the requested data within the chunk
         long longOffset = pageStartByte - chunkStartByte;
@@ -160,6 +693,35 @@ public class EWFFileReader {
      */
     @SuppressWarnings("unused")
     public byte[] readImageBytes(long imageAddress, int numBytes) throws IOException {
+        return readImageBytes(imageAddress, numBytes, true);
+    }
+
+    /**
+     * Reads the image bytes at the specified start address, optionally without adding the chunks read to the
+     * chunk caches or notifying the prefetcher. Bulk operations such as hashing the whole image read without caching
+     * so that they do not displace the chunks of interactive readers. Chunks that are already cached are still used.
+     * <p>Chunks are decompressed without holding the lock of the reader, so that concurrent reads decompress in
+     * parallel.
+     *
+     * @param imageAddress the address within the image to read
+     * @param numBytes     the number of bytes to read
+     * @param cache        false to read without caching
+     * @return the byte array read
+     * @throws IOException if the requested number of bytes cannot be read
+     */
+    @SuppressWarnings("unused")
+    public byte[] readImageBytes(long imageAddress, int numBytes, boolean cache) throws IOException {
+
+        // record the read as requested
+        EWFTraceRecorder traceRecorder;
+        boolean parallel;
+        synchronized (this) {
+            traceRecorder = this.traceRecorder;
+            parallel = decompressionPool != null && numBytes >= parallelReadThreshold;
+        }
+        if (traceRecorder != null) {
+            traceRecorder.record(imageAddress, numBytes, cache);
+        }
 
         // past EOF
         if (imageAddress >= imageSize) {
@@ -171,6 +733,15 @@ public class EWFFileReader {
             numBytes = (int) (imageSize - imageAddress);
         }
 
+        // decompress the chunks of large reads in parallel
+        if (parallel) {
+            synchronized (this) {
+                if (decompressionPool != null) {
+                    return readImageBytesParallel(imageAddress, numBytes, cache);
+                }
+            }
+        }
+
         long currentStartAddress = imageAddress;
         int currentNumBytes = numBytes;
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream(numBytes);
@@ -189,7 +760,7 @@ public class EWFFileReader {
             }
 
             // read the current start address and current number of bytes into the output stream
-            byte[] sectionBytes = readAlignedBytes(currentStartAddress, chunkNumBytes);
+            byte[] sectionBytes = readAlignedBytes(currentStartAddress, chunkNumBytes, cache);
             outputStream.write(sectionBytes, 0, chunkNumBytes);
 
             // calculate the start address and number of bytes for the next read
@@ -201,6 +772,60 @@ public class EWFFileReader {
         return outputStream.toByteArray();
     }
 
+    /**
+     * Reads the image bytes at the specified start address, continuing past chunks that cannot be read. The bytes
+     * of such chunks are filled with the fill byte of the error map and the chunks are recorded in it. The read runs
+     * at the speed of <code>readImageBytes</code> until a chunk fails, after which the range is read chunk by chunk.
+     *
+     * @param imageAddress the address within the image to read
+     * @param numBytes     the number of bytes to read
+     * @param cache        false to read without caching
+     * @param errors       the error map recording the unreadable chunks
+     * @return the byte array read
+     * @throws IOException if the read is interrupted
+     */
+    @SuppressWarnings("unused")
+    public byte[] readImageBytes(long imageAddress, int numBytes, boolean cache, EWFReadErrors errors)
+            throws IOException {
+        try {
+            return readImageBytes(imageAddress, numBytes, cache);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            logger.info("com.ToxicBakery.libs.jlibewf.EWFFileReader.readImageBytes: reading chunk by chunk: "
+                    + e.getMessage());
+        }
+
+        // truncate actual read if read request passes end of image
+        if (imageAddress >= imageSize) {
+            return new byte[0];
+        }
+        if (imageAddress + numBytes > imageSize) {
+            numBytes = (int) (imageSize - imageAddress);
+        }
+
+        // read each chunk on its own, filling the chunks that fail
+        byte[] bytes = new byte[numBytes];
+        long endAddress = imageAddress + numBytes;
+        long start = imageAddress;
+        while (start < endAddress) {
+            long end = Math.min((start / chunkSize + 1) * chunkSize, endAddress);
+            int offset = (int) (start - imageAddress);
+            int length = (int) (end - start);
+            try {
+                System.arraycopy(readAlignedBytes(start, length, cache), 0, bytes, offset, length);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                int chunkIndex = (int) (start / chunkSize);
+                errors.add(chunkIndex, (long) chunkIndex * chunkSize, e);
+                Arrays.fill(bytes, offset, offset + length, errors.getFill());
+            }
+            start = end;
+        }
+        return bytes;
+    }
+
     /**
      * Returns the size in bytes of the media image within the EWF files formatted in the .E01 format.
      *
@@ -211,87 +836,353 @@ public class EWFFileReader {
         return imageSize;
     }
 
-    // loads the section prefix array during initialization
-    private void loadSectionPrefixArray() throws IOException {
-        File nextFile = firstFile;
-        long nextSectionStartAddress = EWFSegmentFileReader.FILE_FIRST_SECTION_START_ADDRESS;
-        int nextChunkIndex = 0;
-
-        // process all sections within all files
-        while (true) {
-
-            // get the next section prefix
-            SectionPrefix sectionPrefix = new SectionPrefix(reader, nextFile, nextSectionStartAddress, nextChunkIndex, LONG_FORMAT);
+    /**
+     * Returns the size in bytes of the media chunks, which is the bytes per sector times the sectors per chunk.
+     *
+     * @return the size in bytes of the media chunks
+     */
+    @SuppressWarnings("unused")
+    public int getChunkSize() {
+        return chunkSize;
+    }
 
-            // add the next section prefix
-            sectionPrefixArray.add(sectionPrefix);
+    /**
+     * Returns the number of media chunks defined by the table sections, or by the Volume Section if the table
+     * sections are not indexed yet.
+     *
+     * @return the number of media chunks
+     */
+    @SuppressWarnings("unused")
+    public synchronized int getChunkCount() {
+        if (!indexed) {
+            return volumeChunkCount;
+        }
+        if (sectionIndex.size() == 0) {
+            return 0;
+        }
+        return sectionIndex.getNextChunkIndex(sectionIndex.size() - 1);
+    }
 
-            // update the section start address
-            nextSectionStartAddress = sectionPrefix.getNextOffset();
+    /**
+     * Returns the number of bytes per sector recorded in the Volume Section.
+     *
+     * @return the number of bytes per sector
+     */
+    @SuppressWarnings("unused")
+    public int getBytesPerSector() {
+        return bytesPerSector;
+    }
+
+    /**
+     * Returns the text of the first Header Section, or null if the media has no Header Section.
+     *
+     * @return the header text or null
+     */
+    @SuppressWarnings("unused")
+    public String getHeaderText() {
+        return headerText;
+    }
+
+    /**
+     * Returns the MD5 hash of the media stored by the acquisition in the Hash or Digest Section, or null if none
+     * is stored.
+     *
+     * @return the stored MD5 hash or null
+     */
+    @SuppressWarnings("unused")
+    public byte[] getStoredMD5() {
+        return storedMD5 == null ? null : storedMD5.clone();
+    }
+
+    /**
+     * Returns the SHA1 hash of the media stored by the acquisition in the Digest Section, or null if none is
+     * stored.
+     *
+     * @return the stored SHA1 hash or null
+     */
+    @SuppressWarnings("unused")
+    public byte[] getStoredSHA1() {
+        return storedSHA1 == null ? null : storedSHA1.clone();
+    }
+
+    /**
+     * Indicates whether the sections of all segment files have been indexed. Readers opened in
+     * <code>OpenMode.METADATA</code> are indexed on their first media read.
+     *
+     * @return true if all sections are indexed
+     */
+    @SuppressWarnings("unused")
+    public synchronized boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Returns the compression level recorded in the Volume Section, 0 for none, 1 for fast and 2 for best.
+     *
+     * @return the compression level
+     */
+    @SuppressWarnings("unused")
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Returns the index of the sections of all segment files, indexing them first if needed.
+     *
+     * @return the section index
+     * @throws IOException if the sections cannot be indexed
+     */
+    @SuppressWarnings("unused")
+    public synchronized EWFSectionIndex getSectionIndex() throws IOException {
+        ensureIndexed();
+        return sectionIndex;
+    }
+
+    // loads the section prefix array during initialization
+    private void loadSectionPrefixArray() throws IOException {
+        sectionIndex.clear();
+        verifiedTables.clear();
+        chunkTableCache.clear();
+        walkFile = firstFile;
+        walkOffset = EWFSegmentFileReader.FILE_FIRST_SECTION_START_ADDRESS;
+        walkChunkIndex = 0;
+        complete = false;
+
+        // index the sections
+        walkSections();
+        indexed = true;
+
+        // log the number of sections used
+        logger.info("Total section count: " + sectionIndex.size() + ", " + sectionIndex);
+    }
+
+    // indexes the sections from the walk position, stopping at the done section or, when following, at the first
+    // section that is not completely written
+    private void walkSections() throws IOException {
+        // process all sections within all files
+        while (!complete) {
+
+            // when following, stop at a section prefix that is not written yet
+            if (openMode == OpenMode.FOLLOW
+                    && reader.getLength(walkFile) < walkOffset + SectionPrefix.SECTION_PREFIX_SIZE) {
+                break;
+            }
+
+            // get the next section prefix
+            SectionPrefix sectionPrefix;
+            try {
+                sectionPrefix = new SectionPrefix(reader, walkFile, walkOffset, walkChunkIndex, LONG_FORMAT);
+            } catch (IOException e) {
+                if (openMode != OpenMode.FOLLOW) {
+                    throw e;
+                }
+
+                // the prefix or table header is still being written
+                logger.debug("com.ToxicBakery.libs.jlibewf.EWFFileReader.walkSections: incomplete section at "
+                        + String.format(LONG_FORMAT, walkOffset) + " of " + walkFile + ": " + e.getMessage());
+                break;
+            }
+
+            // when following, stop at a section whose data is not written yet
+            EWFSection.SectionType sectionType = sectionPrefix.getSectionType();
+            boolean terminal = sectionType == EWFSection.SectionType.NEXT_TYPE
+                    || sectionType == EWFSection.SectionType.DONE_TYPE;
+            if (openMode == OpenMode.FOLLOW && !terminal && reader.getLength(walkFile)
+                    < Math.max(sectionPrefix.getNextOffset(), walkOffset + sectionPrefix.getSectionSize())) {
+                break;
+            }
+
+            // add the next section prefix
+            sectionIndex.add(sectionPrefix);
+
+            // update the section start address
+            walkOffset = sectionPrefix.getNextOffset();
 
             // update the next chunk index
-            nextChunkIndex = sectionPrefix.getNextChunkIndex();
+            walkChunkIndex = sectionPrefix.getNextChunkIndex();
 
             // move to next file
-            if (sectionPrefix.getSectionType() == EWFSection.SectionType.NEXT_TYPE) {
-                nextFile = EWFSegmentFileReader.getNextFile(nextFile);
-                nextSectionStartAddress = EWFSegmentFileReader.FILE_FIRST_SECTION_START_ADDRESS;
+            if (sectionType == EWFSection.SectionType.NEXT_TYPE) {
+                walkFile = EWFSegmentFileReader.getNextFile(walkFile);
+                walkOffset = EWFSegmentFileReader.FILE_FIRST_SECTION_START_ADDRESS;
             }
 
             // stop after last file
-            if (sectionPrefix.getSectionType() == EWFSection.SectionType.DONE_TYPE) {
+            if (sectionType == EWFSection.SectionType.DONE_TYPE) {
+                complete = true;
+            }
+        }
+    }
+
+    // returns the indexed sections holding metadata
+    private List<SectionPrefix> getIndexedMetadataSections() {
+        return getIndexedMetadataSections(0);
+    }
+
+    // returns the indexed sections holding metadata from the given section on
+    private List<SectionPrefix> getIndexedMetadataSections(int firstSection) {
+        List<SectionPrefix> sections = new ArrayList<>();
+        for (int section = firstSection; section < sectionIndex.size(); section++) {
+            EWFSection.SectionType sectionType = sectionIndex.getSectionType(section);
+            if (sectionType == EWFSection.SectionType.HEADER_TYPE
+                    || sectionType == EWFSection.SectionType.VOLUME_TYPE
+                    || sectionType == EWFSection.SectionType.HASH_TYPE
+                    || sectionType == EWFSection.SectionType.DIGEST_TYPE) {
+                sections.add(sectionIndex.getSectionPrefix(section));
+            }
+        }
+        return sections;
+    }
+
+    // indexes all sections on first use when opened for metadata only
+    private void ensureIndexed() throws IOException {
+        if (!indexed) {
+            loadSectionPrefixArray();
+        }
+    }
+
+    /**
+     * Indexes the sections and segment files written since the reader was opened or last refreshed, resuming
+     * where indexing stopped. This is only supported by readers opened in <code>OpenMode.FOLLOW</code>.
+     *
+     * @return true if more chunks can be read
+     * @throws IOException if the new sections cannot be read
+     */
+    @SuppressWarnings("unused")
+    public synchronized boolean refresh() throws IOException {
+        if (openMode != OpenMode.FOLLOW) {
+            throw new IOException("Only readers opened in follow mode can be refreshed");
+        }
+        if (complete) {
+            return false;
+        }
+        int previousSectionCount = sectionIndex.size();
+        int previousChunkCount = getChunkCount();
+        walkSections();
+
+        // load the metadata of the new sections
+        loadMetadata(getIndexedMetadataSections(previousSectionCount));
+        loadFollowedMediaSize();
+        return getChunkCount() > previousChunkCount;
+    }
+
+    /**
+     * Indicates whether the done section of the last segment file has been indexed, so that all media can be read.
+     * This is always true unless the reader was opened in <code>OpenMode.FOLLOW</code>.
+     *
+     * @return true if the image is complete
+     */
+    @SuppressWarnings("unused")
+    public synchronized boolean isComplete() {
+        return openMode != OpenMode.FOLLOW || complete;
+    }
+
+    // sets the media size of a followed image to the chunks indexed so far, or the exact size once complete
+    private void loadFollowedMediaSize() throws IOException {
+        if (complete) {
+            loadMediaSize();
+        } else {
+            imageSize = (long) getChunkCount() * chunkSize;
+            if (sectorCount > 0) {
+                imageSize = Math.min(imageSize, (long) sectorCount * bytesPerSector);
+            }
+        }
+    }
+
+    // loads the sections holding metadata without walking the sections of the middle segment files
+    private List<SectionPrefix> loadMetadataSections() throws IOException {
+        List<SectionPrefix> sections = new ArrayList<>();
+
+        // read the leading sections of the first file, up to the first section holding media
+        long nextSectionStartAddress = EWFSegmentFileReader.FILE_FIRST_SECTION_START_ADDRESS;
+        while (true) {
+            SectionPrefix sectionPrefix = new SectionPrefix(reader, firstFile, nextSectionStartAddress, 0, LONG_FORMAT);
+            EWFSection.SectionType sectionType = sectionPrefix.getSectionType();
+            if (sectionType == EWFSection.SectionType.SECTORS_TYPE
+                    || sectionType == EWFSection.SectionType.TABLE_TYPE
+                    || sectionType == EWFSection.SectionType.TABLE2_TYPE
+                    || sectionType == EWFSection.SectionType.NEXT_TYPE
+                    || sectionType == EWFSection.SectionType.DONE_TYPE) {
                 break;
             }
+            sections.add(sectionPrefix);
+            nextSectionStartAddress = sectionPrefix.getNextOffset();
+        }
+
+        // find the last file of the serial sequence
+        File lastFile = firstFile;
+        File nextFile = EWFSegmentFileReader.getNextFile(lastFile);
+        while (reader.exists(nextFile)) {
+            lastFile = nextFile;
+            nextFile = EWFSegmentFileReader.getNextFile(lastFile);
+        }
+
+        // read the hash sections of the last file
+        nextSectionStartAddress = EWFSegmentFileReader.FILE_FIRST_SECTION_START_ADDRESS;
+        while (true) {
+            SectionPrefix sectionPrefix = new SectionPrefix(reader, lastFile, nextSectionStartAddress, 0, LONG_FORMAT);
+            EWFSection.SectionType sectionType = sectionPrefix.getSectionType();
+            if (sectionType == EWFSection.SectionType.HASH_TYPE || sectionType == EWFSection.SectionType.DIGEST_TYPE) {
+                sections.add(sectionPrefix);
+            }
+            if (sectionType == EWFSection.SectionType.NEXT_TYPE || sectionType == EWFSection.SectionType.DONE_TYPE) {
+                break;
+            }
+            nextSectionStartAddress = sectionPrefix.getNextOffset();
         }
 
         // log the number of sections used
-        logger.info("Total section count: " + sectionPrefixArray.size());
+        logger.info("Metadata section count: " + sections.size());
+        return sections;
     }
 
-    // loads the chunk size during initialization
-    private void loadChunkSize() throws IOException {
-        // look for the Volume Section prefix because it contains chunk size information
-        for (SectionPrefix sectionPrefix : sectionPrefixArray) {
-            if (sectionPrefix.getSectionType() == EWFSection.SectionType.VOLUME_TYPE) {
+    // loads the chunk size, header text and stored hashes during initialization
+    private void loadMetadata(List<SectionPrefix> sections) throws IOException {
+        boolean hasVolume = false;
 
-                // set the chunk size from bytes per sector * sectors per chunk
+        for (SectionPrefix sectionPrefix : sections) {
+            EWFSection.SectionType sectionType = sectionPrefix.getSectionType();
+
+            if (sectionType == EWFSection.SectionType.VOLUME_TYPE && !hasVolume) {
+                // the Volume Section contains chunk size information
+                hasVolume = true;
                 VolumeSection volumeSection = new VolumeSection(reader, sectionPrefix, LONG_FORMAT);
+
+                // set the chunk size from bytes per sector * sectors per chunk
                 chunkSize = volumeSection.getBytesPerSector() * volumeSection.getSectorsPerChunk();
+                compressionLevel = volumeSection.getCompressionLevel();
+                bytesPerSector = volumeSection.getBytesPerSector();
+                sectorCount = volumeSection.getSectorCount();
+                volumeChunkCount = volumeSection.getVolumeChunkCount();
 
                 // log the chunk size used
-                logger.info("com.ToxicBakery.libs.jlibewf.EWFFileReader.loadChunkSize Chunk size: " + chunkSize);
-                return;
-            }
-        }
+                logger.info("com.ToxicBakery.libs.jlibewf.EWFFileReader.loadMetadata Chunk size: " + chunkSize);
 
-        // note that the Volume Section could not be found
-        logger.info("com.ToxicBakery.libs.jlibewf.EWFFileReader.loadChunkSize: This media has no Volume Section.");
-    }
+            } else if (sectionType == EWFSection.SectionType.HEADER_TYPE && headerText == null) {
+                // the Header Section contains the header information
+                headerText = new HeaderSection(reader, sectionPrefix, LONG_FORMAT).getHeaderText();
 
-/*    // reads the Header information
-    private String readHeaderInformation() throws IOException {
-        // look for the Header Section prefix because it contains the header information
-        for (SectionPrefix sectionPrefix : sectionPrefixArray) {
-            if (sectionPrefix.getSectionType() == EWFSection.SectionType.HEADER_TYPE) {
-                // get the header section as an object
-                HeaderSection headerSection = new HeaderSection(reader, sectionPrefix, LONG_FORMAT);
+            } else if (sectionType == EWFSection.SectionType.HASH_TYPE && storedMD5 == null) {
+                storedMD5 = new HashSection(reader, sectionPrefix, LONG_FORMAT).getMD5();
 
-                // return the header text from the header section
-                return headerSection.getHeaderText();
+            } else if (sectionType == EWFSection.SectionType.DIGEST_TYPE) {
+                // the Digest Section takes precedence over the Hash Section
+                DigestSection digestSection = new DigestSection(reader, sectionPrefix, LONG_FORMAT);
+                storedMD5 = digestSection.getMD5();
+                storedSHA1 = digestSection.getSHA1();
             }
         }
 
-        // note that the Header Section could not be found
-        logger.info("com.ToxicBakery.libs.jlibewf.EWFFileReader.readHeaderInformation: This media has no Header Section.");
-
-        return "This media has no Header Section.";
-    }*/
+        // note that the Volume Section could not be found
+        if (!hasVolume) {
+            logger.info("com.ToxicBakery.libs.jlibewf.EWFFileReader.loadMetadata: This media has no Volume Section.");
+        }
+    }
 
     // loads the media size during initialization
     private void loadMediaSize() throws IOException {
         // get last chunk index from the chunk index of the last Section prefix
-        SectionPrefix sectionPrefix = sectionPrefixArray.get(sectionPrefixArray.size() - 1);
-        int lastChunkIndex = sectionPrefix.getNextChunkIndex() - 1;
+        int lastChunkIndex = sectionIndex.getNextChunkIndex(sectionIndex.size() - 1) - 1;
 
         // ensure that there are chunks
         if (lastChunkIndex == -1) {
@@ -299,7 +1190,7 @@ public class EWFFileReader {
         }
 
         // read last chunk
-        byte[] bytes = readMediaChunk(lastChunkIndex);
+        byte[] bytes = readMediaChunk(lastChunkIndex, true);
 
         // set media size
         imageSize = (long) lastChunkIndex * chunkSize + bytes.length;
@@ -310,135 +1201,580 @@ public class EWFFileReader {
                 + ", final size: " + String.format(LONG_FORMAT, imageSize));
     }
 
-    // reads the requested media chunk
-    private byte[] readMediaChunk(int chunkIndex) throws IOException {
+    // reads the requested media chunk, adding it to the caches unless reading without caching, and decoding it
+    // without holding the lock of the reader
+    private byte[] readMediaChunk(int chunkIndex, boolean cache) throws IOException {
+        ChunkLoad load;
+        EWFChunkLocation location;
+        byte[] stored;
+        boolean verify;
+        synchronized (this) {
+            // let the prefetcher learn from the read
+            if (prefetcher != null && cache) {
+                prefetcher.recordRead(chunkIndex, getChunkCount());
+            }
+            if (hotChunks != null && cache) {
+                hotChunks.recordRead(chunkIndex);
+            }
 
-        // find the section prefix containing the chunk index
-        Iterator<SectionPrefix> iterator = sectionPrefixArray.iterator();
-        SectionPrefix sectionPrefix;
-        while (true) {
+            // use the cached chunk if available
+            if (chunkCache != null) {
+                byte[] bytes = cache ? chunkCache.get(this, chunkIndex) : chunkCache.peek(this, chunkIndex);
+                if (bytes != null) {
+                    return bytes;
+                }
+            }
 
-            // bad data state if the section prefix containing the chunk index cannot be found
-            if (!iterator.hasNext()) {
-                throw new IOException("Section for chunk index " + chunkIndex + " cannot be found.");
+            // wait for the chunk while it is being loaded
+            while ((load = chunkLoads.get(chunkIndex)) != null) {
+                sharedLoadCount++;
+                byte[] bytes = awaitChunkLoad(load);
+                if (bytes != null) {
+                    return bytes;
+                }
             }
 
-            // look for the section prefix containing the chunk index
-            sectionPrefix = iterator.next();
-            if (chunkIndex >= sectionPrefix.getChunkIndex() && chunkIndex < sectionPrefix.getNextChunkIndex()) {
-                // the requested chunk index is within this range.
-                break;
+            // use the chunk from the disk cache if available
+            byte[] bytes = diskCacheStore == null ? null : diskCacheStore.get(chunkIndex);
+            if (bytes != null) {
+                if (chunkCache != null && cache) {
+                    chunkCache.put(this, chunkIndex, bytes);
+                }
+                return bytes;
+            }
+
+            // read the stored chunk, letting other reads of the chunk wait for this load
+            load = startChunkLoad(chunkIndex);
+            try {
+                location = locateChunk(chunkIndex);
+                stored = readStoredChunk(location);
+            } catch (IOException e) {
+                finishChunkLoad(load, null, e);
+                throw e;
             }
+            verify = isVerificationRequired(verifiedChunks, chunkIndex);
+        }
+
+        // log that compression was not used
+        if (!location.isCompressed()) {
+            logger.info("com.ToxicBakery.libs.jlibewf.EWFFileReader.readMediaChunk: No compression");
         }
 
+        // decode the chunk outside of the lock, using decompression or Adler32 to verify it
+        byte[] bytes;
+        try {
+            bytes = decoders.get().decodeChunk(location, stored, chunkSize, verify);
+        } catch (IOException e) {
+            finishChunkLoad(load, null, e);
+            throw e;
+        }
+
+        // record the chunk and cache it
+        synchronized (this) {
+            markVerified(verifiedChunks, chunkIndex, verify);
+            finishChunkLoad(load, bytes, null);
+            if (diskCacheStore != null && cache) {
+                diskCacheStore.put(chunkIndex, bytes);
+            }
+            if (chunkCache != null && cache) {
+                chunkCache.put(this, chunkIndex, bytes);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Registers the load of a chunk, which threads reading the chunk until the load is finished wait for.
+     *
+     * @param chunkIndex the index of the chunk being loaded
+     * @return the load, or null if the chunk is already being loaded
+     */
+    synchronized ChunkLoad startChunkLoad(int chunkIndex) {
+        if (chunkLoads.containsKey(chunkIndex)) {
+            return null;
+        }
+        ChunkLoad load = new ChunkLoad(chunkIndex);
+        chunkLoads.put(chunkIndex, load);
+        chunkLoadCount++;
+        return load;
+    }
+
+    /**
+     * Finishes the load of a chunk, waking the threads waiting for it.
+     *
+     * @param load  the load, or null if the load was not registered
+     * @param bytes the decoded chunk, or null if it could not be loaded
+     * @param error the failure to load the chunk, or null
+     */
+    synchronized void finishChunkLoad(ChunkLoad load, byte[] bytes, IOException error) {
+        if (load == null) {
+            return;
+        }
+        load.bytes = bytes;
+        load.error = error;
+        load.done = true;
+        chunkLoads.remove(load.chunkIndex);
+        notifyAll();
+    }
+
+    // waits for a load of the chunk, returning null if the load was interrupted or made no chunk available, so that
+    // the caller loads the chunk itself
+    private synchronized byte[] awaitChunkLoad(ChunkLoad load) throws IOException {
+        try {
+            while (!load.done) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for chunk " + load.chunkIndex);
+        }
+        if (load.error instanceof InterruptedIOException) {
+            return null;
+        }
+        if (load.error != null) {
+            throw new IOException(load.error.getMessage(), load.error);
+        }
+        return load.bytes;
+    }
+
+    // indicates whether the checksum of the item in the bitmap of verified items must be verified
+    private boolean isVerificationRequired(BitSet verified, int index) {
+        switch (verificationPolicy) {
+            case OFF:
+                return false;
+            case ONCE:
+                return !verified.get(index);
+            default:
+                return true;
+        }
+    }
+
+    // records a successful verification of the item in the bitmap of verified items
+    private void markVerified(BitSet verified, int index, boolean verify) {
+        if (verify && verificationPolicy == VerificationPolicy.ONCE) {
+            verified.set(index);
+        }
+    }
+
+    /**
+     * Returns the location of the requested media chunk within the segment files, as resolved from the chunk offset
+     * array of the table section containing the chunk.
+     *
+     * @param chunkIndex the index of the chunk within the media image
+     * @return the location of the stored chunk
+     * @throws IOException if the chunk cannot be located
+     */
+    public synchronized EWFChunkLocation locateChunk(int chunkIndex) throws IOException {
+        // index the table sections on first use
+        ensureIndexed();
+
+        // find the section prefix containing the chunk index
+        int section = sectionIndex.findTableSection(chunkIndex);
+
+        // bad data state if the section prefix containing the chunk index cannot be found
+        if (section < 0) {
+            throw new IOException("Section for chunk index " + chunkIndex + " cannot be found.");
+        }
+        SectionPrefix sectionPrefix = sectionIndex.getSectionPrefix(section);
+        return locateTableChunk(sectionPrefix, getChunkTable(section, sectionPrefix), chunkIndex);
+    }
+
+    // returns the location of a chunk of the decoded chunk table of the table section
+    private EWFChunkLocation locateTableChunk(SectionPrefix sectionPrefix, EWFChunkTableCache.Table table,
+                                              int chunkIndex) throws IOException {
+        // get the chunk table index with respect to the Table Section
+        int chunkTableIndex = chunkIndex - sectionPrefix.getChunkIndex();
+
+        // get the media chunk start and end addresses
+        long mediaChunkBeginAddress = table.getStartOffset(chunkTableIndex);
+        long mediaChunkEndedAddress = table.getEndOffset(chunkTableIndex);    // points to byte after end
+
+        // bad data state if the section prefix containing the media chunk address cannot be found
+        if (mediaChunkEndedAddress < 0) {
+            throw new IOException(
+                    "Section surrounding address "
+                            + String.format(LONG_FORMAT, mediaChunkBeginAddress)
+                            + " cannot be found.");
+        }
+
+        // verify the chunk size
+        int mediaReadSize;
+        if (!EWFSection.isPositiveInt(mediaChunkEndedAddress - mediaChunkBeginAddress)) {
+            throw new IOException("Invalid media chunk size at section " + sectionPrefix.toString());
+        } else {
+            mediaReadSize = (int) (mediaChunkEndedAddress - mediaChunkBeginAddress);
+        }
+
+        // set the location of the chunk
+        return new EWFChunkLocation(chunkIndex, sectionPrefix.getFile(), mediaChunkBeginAddress, mediaReadSize,
+                table.isCompressed(chunkTableIndex));
+    }
+
+    // returns the decoded chunk table of the table section, reading and verifying it unless it is cached
+    private EWFChunkTableCache.Table getChunkTable(int section, SectionPrefix sectionPrefix) throws IOException {
+        EWFChunkTableCache.Table table = chunkTableCache.get(section);
+        if (table != null) {
+            return table;
+        }
+
+        // verify the table section checksums as required by the verification policy
+        boolean verify = isVerificationRequired(verifiedTables, section);
+
         // determine the table base offset from the table section, used by EnCase v.6+
-        TableSection tableSection = new TableSection(reader, sectionPrefix, LONG_FORMAT);
+        TableSection tableSection = new TableSection(reader, sectionPrefix, LONG_FORMAT, verify);
         long tableBaseOffset = tableSection.getTableBaseOffset();
 
         // log media offset value used
         if (tableBaseOffset != 0) {
-            logger.info("com.ToxicBakery.libs.jlibewf.EWFFileReader.readMediaChunk non-zero tableBaseOffset: "
+            logger.info("com.ToxicBakery.libs.jlibewf.EWFFileReader.getChunkTable non-zero tableBaseOffset: "
                     + String.format(LONG_FORMAT, tableBaseOffset));
         }
 
         // get the table section chunk table
-        EWFSection.ChunkTable chunkTable = new EWFSection.ChunkTable(reader, sectionPrefix, LONG_FORMAT);
-
-        // get the chunk table index with respect to the Table Section
-        int chunkTableIndex = chunkIndex - sectionPrefix.getChunkIndex();
+        EWFSection.ChunkTable chunkTable = new EWFSection.ChunkTable(reader, sectionPrefix, LONG_FORMAT, verify);
+        markVerified(verifiedTables, section, verify);
+
+        // decode the start address and compression flag of each chunk
+        int count = sectionPrefix.getChunkCount();
+        long[] offsets = new long[count + 1];
+        long[] compressed = new long[(count + 63) >>> 6];
+        for (int chunkTableIndex = 0; chunkTableIndex < count; chunkTableIndex++) {
+            offsets[chunkTableIndex] = chunkTable.getChunkStartOffset(chunkTableIndex) + tableBaseOffset;
+            if (chunkTable.isCompressedChunk(chunkTableIndex)) {
+                compressed[chunkTableIndex >>> 6] |= 1L << chunkTableIndex;
+            }
+        }
 
-        // get the file offset to the media chunk base
-        long chunkStartOffset = chunkTable.getChunkStartOffset(chunkTableIndex);
+        // each chunk ends just before the start address of the next chunk, and the last chunk ends just before
+        // the start of the section following the section of the same file surrounding it
+        int addressedSection = sectionIndex.findEnclosingSection(sectionIndex.getSegmentId(section),
+                offsets[count - 1]);
+        offsets[count] = addressedSection < 0 ? -1 : sectionIndex.getNextOffset(addressedSection);
 
-        // determine if compression is used for the chunk
-        boolean isCompressed = chunkTable.isCompressedChunk(chunkTableIndex);
+        table = new EWFChunkTableCache.Table(offsets, compressed);
+        chunkTableCache.put(section, table);
+        return table;
+    }
 
-        // log that compression was not used
-        if (!isCompressed) {
-            logger.info("com.ToxicBakery.libs.jlibewf.EWFFileReader.readMediaChunk: No compression");
+    /**
+     * Returns the bytes of a chunk as stored in its segment file, which are compressed or followed by an Adler32
+     * checksum. The bytes are not verified.
+     *
+     * @param location the location of the stored chunk
+     * @return the stored bytes
+     * @throws IOException if the bytes cannot be read
+     */
+    public synchronized byte[] readStoredChunk(EWFChunkLocation location) throws IOException {
+        if (ioScheduler != null) {
+            return ioScheduler.read(this, location);
         }
+        return reader.readRaw(location.getFile(), location.getFileOffset(), location.getStoredSize());
+    }
 
-        // set the media chunk start address
-        long mediaChunkBeginAddress = chunkStartOffset + tableBaseOffset;
+    // returns the data of an indexed section following its section prefix, without verifying it
+    synchronized byte[] readSectionData(int section) throws IOException {
+        ensureIndexed();
+        long dataSize = sectionIndex.getSectionSize(section) - SectionPrefix.SECTION_PREFIX_SIZE;
+        if (dataSize <= 0) {
+            return new byte[0];
+        }
+        if (!EWFSection.isPositiveInt(dataSize)) {
+            throw new IOException("Invalid section size at section " + sectionIndex.getSectionPrefix(section));
+        }
+        return reader.readRaw(sectionIndex.getFile(section),
+                sectionIndex.getFileOffset(section) + SectionPrefix.SECTION_PREFIX_SIZE, (int) dataSize);
+    }
 
-        // set the media chunk end address
-        long mediaChunkEndedAddress;    // points to byte after end
-        if (chunkIndex + 1 < sectionPrefix.getNextChunkIndex()) {
-            // the end address of the chunk is just before the start address of the next chunk
+    /**
+     * Visits every media chunk of the image in order on the calling thread. The chunks are located one chunk table
+     * at a time and are only decompressed if the visitor requests their media bytes. The chunk cache is bypassed.
+     *
+     * @param visitor the visitor receiving the chunks
+     * @throws IOException if a chunk cannot be read or the visitor fails
+     */
+    @SuppressWarnings("unused")
+    public void visitChunks(EWFChunkVisitor visitor) throws IOException {
+        visitChunks(visitor, null);
+    }
 
-            // get the file offset to the next media chunk base
-            long nextChunkStartOffset = chunkTable.getChunkStartOffset(chunkTableIndex + 1);
+    /**
+     * Visits every media chunk of the image in order on the calling thread, continuing past chunks that cannot be
+     * read. Such chunks are recorded in the error map and their media bytes are the fill byte of the error map,
+     * including chunks that cannot be located through their table section, whose stored bytes are null.
+     *
+     * @param visitor the visitor receiving the chunks
+     * @param errors  the error map recording the unreadable chunks, or null to fail on the first unreadable chunk
+     * @throws IOException if the visitor fails, or a chunk cannot be read and no error map is given
+     */
+    @SuppressWarnings("unused")
+    public void visitChunks(EWFChunkVisitor visitor, EWFReadErrors errors) throws IOException {
+        EWFSegmentFileReader decoder = new EWFSegmentFileReader(LONG_FORMAT);
+        for (int section : getTableSections()) {
+            visitTableChunks(section, visitor, decoder, errors);
+        }
+    }
 
-            // set the media chunk end address
-            mediaChunkEndedAddress = nextChunkStartOffset + tableBaseOffset;
+    /**
+     * Visits every media chunk of the image in no particular order using the given number of worker threads, each
+     * visiting the chunks of one chunk table at a time. The visitor must be thread safe.
+     *
+     * @param visitor     the visitor receiving the chunks
+     * @param threadCount the number of worker threads to visit chunks with
+     * @throws IOException if a chunk cannot be read or the visitor fails
+     */
+    @SuppressWarnings("unused")
+    public void visitChunks(EWFChunkVisitor visitor, int threadCount) throws IOException {
+        visitChunks(visitor, threadCount, null);
+    }
 
-        } else {
+    /**
+     * Visits every media chunk of the image in no particular order using the given number of worker threads,
+     * continuing past chunks that cannot be read as done by <code>visitChunks(visitor, errors)</code>.
+     *
+     * @param visitor     the visitor receiving the chunks
+     * @param threadCount the number of worker threads to visit chunks with
+     * @param errors      the error map recording the unreadable chunks, or null to fail on the first unreadable
+     *                    chunk
+     * @throws IOException if the visitor fails, or a chunk cannot be read and no error map is given
+     */
+    @SuppressWarnings("unused")
+    public void visitChunks(final EWFChunkVisitor visitor, int threadCount, final EWFReadErrors errors)
+            throws IOException {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid thread count: " + threadCount);
+        }
+        final int[] tableSections = getTableSections();
+        final AtomicInteger nextTable = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            // run the workers, each pulling chunk tables until none remain
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        EWFSegmentFileReader decoder = new EWFSegmentFileReader(LONG_FORMAT);
+                        int table;
+                        while ((table = nextTable.getAndIncrement()) < tableSections.length) {
+                            if (Thread.currentThread().isInterrupted()) {
+                                throw new InterruptedIOException("Interrupted while visiting chunks");
+                            }
+                            visitTableChunks(tableSections[table], visitor, decoder, errors);
+                        }
+                        return null;
+                    }
+                }));
+            }
 
-            // the end address is just before the start of another Section
+            // wait for the workers, rethrowing the first failure
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while visiting chunks");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
 
-            // loop through Section Prefixes to find the one surrounding the chunk's start address
-            Iterator<SectionPrefix> endpointIterator = sectionPrefixArray.iterator();
-            SectionPrefix addressedSectionPrefix;
-            while (true) {
+    // returns the sections holding chunk tables, in chunk order
+    private synchronized int[] getTableSections() throws IOException {
+        ensureIndexed();
+        int[] tableSections = new int[sectionIndex.size()];
+        int count = 0;
+        for (int section = 0; section < sectionIndex.size(); section++) {
+            if (sectionIndex.getChunkCount(section) > 0) {
+                tableSections[count++] = section;
+            }
+        }
+        return Arrays.copyOf(tableSections, count);
+    }
 
-                // bad data state if the section prefix containing the media chunk address cannot be found
-                if (!endpointIterator.hasNext()) {
-                    throw new IOException(
-                            "Section surrounding address "
-                                    + String.format(LONG_FORMAT, mediaChunkBeginAddress)
-                                    + " cannot be found.");
+    // visits the chunks of a chunk table, reading each stored chunk under the lock and visiting it outside of it,
+    // and recording the chunks that cannot be located or read if an error map is given
+    private void visitTableChunks(int section, EWFChunkVisitor visitor, EWFSegmentFileReader decoder,
+                                  EWFReadErrors errors) throws IOException {
+        SectionPrefix sectionPrefix;
+        EWFChunkTableCache.Table table = null;
+        IOException tableError = null;
+        int firstChunk;
+        int nextChunk;
+        int segmentNumber;
+        synchronized (this) {
+            sectionPrefix = sectionIndex.getSectionPrefix(section);
+            firstChunk = sectionIndex.getChunkIndex(section);
+            nextChunk = sectionIndex.getNextChunkIndex(section);
+            try {
+                table = getChunkTable(section, sectionPrefix);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (errors == null) {
+                    throw e;
                 }
 
-                // get the next section prefix to check for encapsulating addresses
-                addressedSectionPrefix = endpointIterator.next();
-
-                // check that the addressed section prefix encapsulates the media chunk address
-                if (addressedSectionPrefix.getFile() == sectionPrefix.getFile()
-                        && addressedSectionPrefix.getFileOffset() < mediaChunkBeginAddress
-                        && addressedSectionPrefix.getNextOffset() > mediaChunkBeginAddress) {
-                    // the section encapsulates the data so the chunk end address is just before
-                    // the start address of the next section
-                    mediaChunkEndedAddress = addressedSectionPrefix.getNextOffset();
-                    break;
-                }
+                // none of the chunks of the table can be located
+                tableError = e;
             }
+            segmentNumber = sectionIndex.getSegmentId(section) + 1;
         }
+        for (int chunkIndex = firstChunk; chunkIndex < nextChunk; chunkIndex++) {
+            EWFChunkLocation location = null;
+            byte[] stored = null;
+            boolean verify;
+            synchronized (this) {
+                try {
+                    if (tableError != null) {
+                        throw tableError;
+                    }
+                    location = locateTableChunk(sectionPrefix, table, chunkIndex);
+                    stored = readStoredChunk(location);
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    if (errors == null) {
+                        throw e;
+                    }
+                    errors.add(chunkIndex, (long) chunkIndex * chunkSize, e);
+                }
+                verify = isVerificationRequired(verifiedChunks, chunkIndex);
+            }
 
-        // verify the chunk size
-        int mediaReadSize;
-        if (!EWFSection.isPositiveInt(mediaChunkEndedAddress - mediaChunkBeginAddress)) {
-            throw new IOException("Invalid media chunk size at section " + sectionPrefix.toString());
-        } else {
-            mediaReadSize = (int) (mediaChunkEndedAddress - mediaChunkBeginAddress);
+            // a chunk that cannot be located is visited at an unknown offset of the segment file of its table
+            if (location == null) {
+                location = new EWFChunkLocation(chunkIndex, sectionPrefix.getFile(), -1, 0, false);
+            }
+            visitor.visit(new EWFChunk(this, decoder, location, segmentNumber, (long) chunkIndex * chunkSize,
+                    stored, verify, errors));
         }
+    }
 
-        // read the chunk
-        byte[] bytes;
-        if (isCompressed) {
+    // records the verification of a chunk decoded outside of the reader
+    synchronized void chunkVerified(int chunkIndex, boolean verify) {
+        markVerified(verifiedChunks, chunkIndex, verify);
+    }
 
-            // read using decompression, which inherently verifies the checksum
-            bytes = reader.readZLib(sectionPrefix.getFile(), mediaChunkBeginAddress, mediaReadSize, chunkSize);
-        } else {
-            // extract the bytes using Adler32
-            byte[] tempBytes = reader.readAdler32(sectionPrefix.getFile(), mediaChunkBeginAddress, mediaReadSize);
+    // indicates whether a chunk decoded outside of the reader must be verified under the verification policy
+    synchronized boolean isChunkVerificationRequired(int chunkIndex) {
+        return isVerificationRequired(verifiedChunks, chunkIndex);
+    }
 
-            // remove the four checksum bytes
-            ByteArrayOutputStream outStream = new ByteArrayOutputStream(tempBytes.length - 4);
-            outStream.write(tempBytes, 0, tempBytes.length - 4);
-            bytes = outStream.toByteArray();
+    // records a chunk decoded outside of the reader in the background, as done by readMediaChunk for the chunks it
+    // decodes: its verification is recorded and it is written to the disk cache
+    synchronized void chunkDecoded(int chunkIndex, byte[] bytes, boolean verify) throws IOException {
+        markVerified(verifiedChunks, chunkIndex, verify);
+        if (diskCacheStore != null) {
+            diskCacheStore.put(chunkIndex, bytes);
         }
+    }
 
-        // return the media from the chunk
-        return bytes;
+    /**
+     * Returns the size of a segment file of this image.
+     *
+     * @param segment the segment file
+     * @return the size in bytes
+     * @throws IOException if the segment source cannot be queried
+     */
+    synchronized long getSegmentLength(File segment) throws IOException {
+        return reader.getLength(segment);
+    }
+
+    /**
+     * Returns the modification time of a segment file of this image.
+     *
+     * @param segment the segment file
+     * @return the modification time in milliseconds, or 0 if unknown
+     * @throws IOException if the segment source cannot be queried
+     */
+    synchronized long getSegmentLastModified(File segment) throws IOException {
+        return reader.getLastModified(segment);
     }
 
     /**
      * Closes the reader, releasing resources.
      */
     @SuppressWarnings("unused")
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
+        // stop prefetching before the segment files are closed
+        if (prefetcher != null) {
+            prefetcher.close();
+            prefetcher = null;
+        }
+
+        // stop warming and write the chunks read most
+        if (hotChunks != null) {
+            try {
+                hotChunks.close();
+            } catch (IOException e) {
+                logger.info("com.ToxicBakery.libs.jlibewf.EWFFileReader.close: unable to write the hot chunk list: "
+                        + e.getMessage());
+            }
+            hotChunks = null;
+        }
         reader.closeFileChannel();
+        if (ioScheduler != null) {
+            ioScheduler.release(this);
+        }
+
+        // keep the chunks written to the disk cache
+        if (diskCacheStore != null) {
+            diskCacheStore.close();
+            diskCacheStore = null;
+        }
+
+        // release the cached chunks of this image
+        if (chunkCache != null) {
+            chunkCache.invalidate(this);
+        }
     }
 
-}
+    /**
+     * Indicates whether a segment file is currently held open. The file is reopened on demand.
+     *
+     * @return true if a segment file is open
+     */
+    synchronized boolean isFileChannelOpen() {
+        return reader.isFileChannelOpen();
+    }
+
+    /**
+     * Sets the listener notified each time a segment file is opened, which is run while holding the lock of this
+     * reader.
+     *
+     * @param fileOpenListener the listener, or null
+     */
+    synchronized void setFileOpenListener(Runnable fileOpenListener) {
+        reader.setFileOpenListener(fileOpenListener);
+    }
 
+    /**
+     * Closes the currently open segment file, if any, while keeping the reader usable.
+     * The file is reopened on the next read.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    synchronized void closeFileChannel() throws IOException {
+        reader.closeFileChannel();
+    }
+
+    /**
+     * A load of a chunk in progress, guarded by the reader lock.
+     */
+    static final class ChunkLoad {
+
+        private final int chunkIndex;
+        private byte[] bytes;
+        private IOException error;
+        private boolean done;
+
+        ChunkLoad(int chunkIndex) {
+            this.chunkIndex = chunkIndex;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The <code>EWFFileSegmentSource</code> class is a segment source reading local segment files with positional
+ * reads, opening the segment file for each read. It serves as the range-readable source below an
+ * <code>EWFBlockSegmentSource</code> in tests and for network file systems where ranges are expensive to read.
+ */
+public class EWFFileSegmentSource implements EWFSegmentSource {
+
+    @Override
+    public boolean exists(File segment) {
+        return segment.isFile();
+    }
+
+    @Override
+    public long getLength(File segment) throws IOException {
+        if (!segment.isFile()) {
+            throw new FileNotFoundException("No such segment file: " + segment);
+        }
+        return segment.length();
+    }
+
+    @Override
+    public long getLastModified(File segment) {
+        return segment.lastModified();
+    }
+
+    @Override
+    public void read(File segment, long fileOffset, byte[] bytes, int bytesOffset, int numBytes) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(segment, "r")) {
+            FileChannel fileChannel = randomAccessFile.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, bytesOffset, numBytes);
+            while (buffer.hasRemaining()) {
+                if (fileChannel.read(buffer, fileOffset + buffer.position() - bytesOffset) < 0) {
+                    throw new EOFException("Read beyond the end of segment file " + segment);
+                }
+            }
+        }
+    }
+}
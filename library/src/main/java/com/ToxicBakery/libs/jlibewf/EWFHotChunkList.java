@@ -0,0 +1,344 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The <code>EWFHotChunkList</code> class persists the most read chunks of images in files in a directory, so that
+ * a reader opened again warms its chunk cache with them in the background and reaches steady state latency
+ * without waiting for each chunk to be read and decompressed again, such as the file system metadata chunks read
+ * at the start of every session.
+ * <p>While an image is open, the chunk reads that go through the chunk cache are counted. When the reader is
+ * closed the counts are added to the halved scores of the previous sessions and the chunks with the highest scores
+ * are written, replacing the previous list atomically. A list is discarded when the sizes or modification times of
+ * the segment files of its image change.
+ */
+public class EWFHotChunkList {
+
+    /**
+     * The default number of chunks kept per image, {@value}.
+     */
+    public static final int DEFAULT_MAX_CHUNKS = 1024;
+
+    /**
+     * The magic number of hot chunk list files, {@value}.
+     */
+    private static final int MAGIC = 0x45484f54;
+
+    /**
+     * The largest number of distinct chunks counted during a session, {@value}. Chunks first read after this
+     * many are not counted.
+     */
+    private static final int MAX_COUNTED_CHUNKS = 65536;
+
+    private static final String LIST_SUFFIX = ".hot";
+
+    private final File directory;
+    private final int maxChunks;
+
+    /**
+     * Constructs a hot chunk list keeping <code>DEFAULT_MAX_CHUNKS</code> chunks per image.
+     *
+     * @param directory the directory to hold the list files in, which is created if needed
+     * @throws IOException if the directory cannot be created
+     */
+    @SuppressWarnings("unused")
+    public EWFHotChunkList(File directory) throws IOException {
+        this(directory, DEFAULT_MAX_CHUNKS);
+    }
+
+    /**
+     * Constructs a hot chunk list.
+     *
+     * @param directory the directory to hold the list files in, which is created if needed
+     * @param maxChunks the number of chunks kept per image
+     * @throws IOException if the directory cannot be created
+     */
+    public EWFHotChunkList(File directory, int maxChunks) throws IOException {
+        if (maxChunks < 1) {
+            throw new IllegalArgumentException("Invalid chunk count: " + maxChunks);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the hot chunk list directory: " + directory);
+        }
+        this.directory = directory;
+        this.maxChunks = maxChunks;
+    }
+
+    /**
+     * Opens the list of the image of the given reader, which is empty if the image was not read before or has
+     * changed since. The image is indexed if needed.
+     *
+     * @param reader the reader of the image
+     * @return the session counting the chunk reads of the image
+     * @throws IOException if the image cannot be indexed
+     */
+    Session open(EWFFileReader reader) throws IOException {
+        File listFile = new File(directory, EWFDiskChunkCache.getImageName(reader) + LIST_SUFFIX);
+        byte[] fingerprint = EWFDiskChunkCache.getFingerprint(reader);
+        Session session = new Session(reader, listFile, fingerprint);
+        if (listFile.exists()) {
+            session.readList();
+        }
+        return session;
+    }
+
+    /**
+     * The <code>Session</code> class counts the chunk reads of an open image and warms its chunk cache with the
+     * chunks of the previous sessions.
+     */
+    public final class Session {
+
+        private final EWFFileReader reader;
+        private final File listFile;
+        private final byte[] fingerprint;
+        private final Map<Integer, int[]> counts = new HashMap<>();
+        private int[] chunks = new int[0];
+        private int[] scores = new int[0];
+        private Thread warmThread;
+        private int warmedCount;
+        private boolean closed;
+
+        private Session(EWFFileReader reader, File listFile, byte[] fingerprint) {
+            this.reader = reader;
+            this.listFile = listFile;
+            this.fingerprint = fingerprint;
+        }
+
+        // reads the chunks and scores of the previous sessions, ignoring a list of a changed image and a truncated
+        // or corrupt list
+        private void readList() {
+            long length = listFile.length();
+            try (DataInputStream in = new DataInputStream(new FileInputStream(listFile))) {
+                if (in.readInt() != MAGIC) {
+                    return;
+                }
+                int fingerprintLength = in.readInt();
+                if (fingerprintLength != fingerprint.length) {
+                    throw new IOException("Invalid fingerprint length: " + fingerprintLength);
+                }
+                byte[] listFingerprint = new byte[fingerprintLength];
+                in.readFully(listFingerprint);
+                if (!Arrays.equals(listFingerprint, fingerprint)) {
+                    EWFFileReader.logger.debug("com.ToxicBakery.libs.jlibewf.EWFHotChunkList.readList: image changed: "
+                            + listFile);
+                    return;
+                }
+                int count = in.readInt();
+                if (count < 0 || count > maxChunks || length != 12 + fingerprintLength + count * 8L) {
+                    throw new IOException("Invalid chunk count: " + count);
+                }
+                int[] listChunks = new int[count];
+                int[] listScores = new int[count];
+                for (int i = 0; i < count; i++) {
+                    listChunks[i] = in.readInt();
+                    listScores[i] = in.readInt();
+                    if (listChunks[i] < 0) {
+                        throw new IOException("Invalid chunk index: " + listChunks[i]);
+                    }
+                }
+                chunks = listChunks;
+                scores = listScores;
+            } catch (IOException e) {
+                EWFFileReader.logger.debug("com.ToxicBakery.libs.jlibewf.EWFHotChunkList.readList: invalid list file "
+                        + listFile + ": " + e);
+            }
+        }
+
+        /**
+         * Returns the chunks of the previous sessions, hottest first.
+         *
+         * @return the chunk indexes
+         */
+        public synchronized int[] getWarmChunks() {
+            return chunks.clone();
+        }
+
+        // counts a chunk read through the chunk cache
+        synchronized void recordRead(int chunkIndex) {
+            int[] count = counts.get(chunkIndex);
+            if (count != null) {
+                count[0]++;
+            } else if (counts.size() < MAX_COUNTED_CHUNKS) {
+                counts.put(chunkIndex, new int[]{1});
+            }
+        }
+
+        // starts warming the chunk cache of the reader with the chunks of the previous sessions
+        synchronized void startWarming(final EWFChunkCache chunkCache) {
+            if (warmThread != null || chunks.length == 0) {
+                return;
+            }
+            final int[] warmChunks = chunks.clone();
+            warmThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    EWFSegmentFileReader decoder = new EWFSegmentFileReader(EWFFileReader.LONG_FORMAT);
+                    for (int chunkIndex : warmChunks) {
+                        if (!warm(chunkCache, decoder, chunkIndex)) {
+                            return;
+                        }
+                    }
+                }
+            }, "EWFHotChunkList warm " + listFile.getName());
+            warmThread.setDaemon(true);
+            warmThread.start();
+        }
+
+        // decodes a chunk into the chunk cache unless it is cached, returning false once the session is closed
+        private boolean warm(EWFChunkCache chunkCache, EWFSegmentFileReader decoder, int chunkIndex) {
+            EWFFileReader.ChunkLoad load = null;
+            byte[] bytes = null;
+            try {
+                // read the stored chunk unless the reader was closed in the meantime or the chunk is being loaded
+                EWFChunkLocation location = null;
+                byte[] stored = null;
+                boolean verify = false;
+                synchronized (reader) {
+                    synchronized (this) {
+                        if (closed) {
+                            return false;
+                        }
+                    }
+                    if (chunkIndex >= reader.getChunkCount() || chunkCache.contains(reader, chunkIndex)) {
+                        return true;
+                    }
+                    load = reader.startChunkLoad(chunkIndex);
+                    if (load == null) {
+                        return true;
+                    }
+
+                    // take the chunk from the disk cache if it is there
+                    EWFDiskChunkCache.Store diskCacheStore = reader.getDiskChunkCacheStore();
+                    bytes = diskCacheStore == null ? null : diskCacheStore.get(chunkIndex);
+                    if (bytes == null) {
+                        location = reader.locateChunk(chunkIndex);
+                        stored = reader.readStoredChunk(location);
+                        verify = reader.isChunkVerificationRequired(chunkIndex);
+                    }
+                }
+                if (location != null) {
+                    byte[] decoded = decoder.decodeChunk(location, stored, reader.getChunkSize(), verify);
+                    reader.chunkDecoded(chunkIndex, decoded, verify);
+                    bytes = decoded;
+                }
+                synchronized (reader) {
+                    synchronized (this) {
+                        if (closed) {
+                            return false;
+                        }
+                        warmedCount++;
+                    }
+                    chunkCache.put(reader, chunkIndex, bytes);
+                }
+            } catch (IOException e) {
+                EWFFileReader.logger.debug("com.ToxicBakery.libs.jlibewf.EWFHotChunkList.warm: chunk " + chunkIndex
+                        + ": " + e);
+            } finally {
+                if (load != null) {
+                    synchronized (reader) {
+                        reader.finishChunkLoad(load, bytes, null);
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Waits for the chunk cache to be warmed.
+         *
+         * @param timeoutMillis the longest time to wait in milliseconds
+         * @return true if warming finished
+         * @throws InterruptedException if the wait is interrupted
+         */
+        @SuppressWarnings("unused")
+        public boolean awaitWarm(long timeoutMillis) throws InterruptedException {
+            Thread thread;
+            synchronized (this) {
+                thread = warmThread;
+            }
+            if (thread == null) {
+                return true;
+            }
+            thread.join(timeoutMillis);
+            return !thread.isAlive();
+        }
+
+        /**
+         * Returns the number of chunks decoded into the chunk cache by warming.
+         *
+         * @return the warmed chunk count
+         */
+        public synchronized int getWarmedCount() {
+            return warmedCount;
+        }
+
+        /**
+         * Stops warming and writes the hottest chunks of this and the previous sessions.
+         *
+         * @throws IOException if the list file cannot be written
+         */
+        synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            // age the scores of the previous sessions and add the reads of this session
+            Map<Integer, int[]> merged = new HashMap<>(counts);
+            for (int i = 0; i < chunks.length; i++) {
+                int score = scores[i] / 2;
+                int[] count = merged.get(chunks[i]);
+                if (count != null) {
+                    merged.put(chunks[i], new int[]{count[0] + score});
+                } else if (score > 0) {
+                    merged.put(chunks[i], new int[]{score});
+                }
+            }
+
+            // keep the chunks with the highest scores, lower chunk indexes first among equal scores
+            List<Map.Entry<Integer, int[]>> entries = new ArrayList<>(merged.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<Integer, int[]>>() {
+                @Override
+                public int compare(Map.Entry<Integer, int[]> a, Map.Entry<Integer, int[]> b) {
+                    int order = Integer.compare(b.getValue()[0], a.getValue()[0]);
+                    return order != 0 ? order : Integer.compare(a.getKey(), b.getKey());
+                }
+            });
+            int count = Math.min(entries.size(), maxChunks);
+
+            // write the list to a temporary file and rename it over the previous one
+            File tempFile = new File(directory, listFile.getName() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tempFile)) {
+                DataOutputStream data = new DataOutputStream(out);
+                data.writeInt(MAGIC);
+                data.writeInt(fingerprint.length);
+                data.write(fingerprint);
+                data.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    data.writeInt(entries.get(i).getKey());
+                    data.writeInt(entries.get(i).getValue()[0]);
+                }
+                data.flush();
+                out.getFD().sync();
+            }
+            if (!tempFile.renameTo(listFile)) {
+                // some platforms do not rename over an existing file
+                if (!listFile.delete() || !tempFile.renameTo(listFile)) {
+                    throw new IOException("Unable to replace the hot chunk list file: " + listFile);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The <code>EWFIOScheduler</code> class orders the stored chunk reads of concurrent threads by segment file and file
+ * offset, so that the segment files are read in sweeps that the storage can read ahead and a spinning disk can serve
+ * without seeking back and forth between the requests of different threads.
+ * <p>A thread reading a stored chunk through a reader with a scheduler queues its read and waits for it, releasing
+ * the lock of the reader so that other threads can queue theirs. A single dispatch thread serves the queue in
+ * batches: each batch takes the queued reads of one segment file in ascending offset order, continuing from where
+ * the previous batch ended and wrapping around to the start of the segment file, and reads nearby chunks with a
+ * single read. The dispatcher stays on a segment file while it has queued reads and then sweeps the segment file of
+ * the oldest queued read from its start, unless the oldest queued read has waited longer than the maximum latency,
+ * in which case its segment file is served next starting with that read.
+ * <p>A scheduler may be shared by several readers and is not closed by them. Reads through a segment source use the
+ * source of the reader. Local segment files are read through up to {@value #MAX_OPEN_FILES} files held open by the
+ * dispatcher, closing the least recently read file beyond that, and the files read for a reader are closed when the
+ * reader is closed.
+ */
+public class EWFIOScheduler {
+
+    /**
+     * The default largest number of reads dispatched in one batch, {@value}.
+     */
+    public static final int DEFAULT_MAX_BATCH = 64;
+
+    /**
+     * The default longest time in milliseconds a read waits before it is dispatched next, {@value}.
+     */
+    public static final long DEFAULT_MAX_LATENCY_MILLIS = 50;
+
+    /**
+     * The largest number of bytes between two reads of a batch that are read together, {@value}.
+     */
+    private static final int MERGE_GAP = 64 * 1024;
+
+    /**
+     * The largest number of bytes read together, {@value}.
+     */
+    private static final int MAX_READ_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The largest number of local segment files held open by the dispatcher, {@value}.
+     */
+    static final int MAX_OPEN_FILES = 8;
+
+    private final int maxBatch;
+    private final long maxLatencyNanos;
+
+    /**
+     * The queued reads in arrival order, the segment file and offset at which the last batch ended, and the closed
+     * readers whose files are to be closed.
+     */
+    private final LinkedList<Request> queue = new LinkedList<>();
+    private File currentFile;
+    private long currentOffset;
+    private final Set<EWFFileReader> releasedReaders = new HashSet<>();
+    private boolean closed;
+
+    /**
+     * The open local segment files in least recently read order, which are used by the dispatch thread only.
+     */
+    private final LinkedHashMap<File, OpenFile> openFiles = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile int openFileCount;
+
+    private long requestCount;
+    private long batchCount;
+    private long readCount;
+    private long deadlineCount;
+
+    /**
+     * Constructs a scheduler with the default batch size and latency.
+     */
+    @SuppressWarnings("unused")
+    public EWFIOScheduler() {
+        this(DEFAULT_MAX_BATCH, DEFAULT_MAX_LATENCY_MILLIS);
+    }
+
+    /**
+     * Constructs a scheduler.
+     *
+     * @param maxBatch         the largest number of reads dispatched in one batch
+     * @param maxLatencyMillis the longest time in milliseconds a read waits before its segment file is served next
+     */
+    public EWFIOScheduler(int maxBatch, long maxLatencyMillis) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + maxBatch);
+        }
+        if (maxLatencyMillis < 0) {
+            throw new IllegalArgumentException("Invalid latency: " + maxLatencyMillis);
+        }
+        this.maxBatch = maxBatch;
+        maxLatencyNanos = maxLatencyMillis * 1000000;
+        Thread dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "EWFIOScheduler");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Reads the stored bytes of a chunk. The calling thread holds the lock of the reader, which is released while
+     * waiting for the read.
+     *
+     * @param reader   the reader reading the chunk
+     * @param location the location of the chunk
+     * @return the stored bytes of the chunk
+     * @throws IOException if the chunk cannot be read or the scheduler is closed
+     */
+    byte[] read(EWFFileReader reader, EWFChunkLocation location) throws IOException {
+        Request request = new Request(reader, location);
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("The I/O scheduler is closed");
+            }
+            queue.add(request);
+            requestCount++;
+            notifyAll();
+        }
+
+        // wait for the dispatcher, letting other threads use the reader meanwhile
+        try {
+            while (!request.done) {
+                reader.wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for chunk " + location.getChunkIndex());
+        }
+        if (request.error != null) {
+            throw new EWFIOException("Unable to read chunk " + location.getChunkIndex() + ": "
+                    + request.error.getMessage(), location.getFile(), location.getFileOffset(),
+                    EWFFileReader.LONG_FORMAT);
+        }
+        return request.bytes;
+    }
+
+    // serves the queued reads in batches until closed
+    private void dispatch() {
+        while (true) {
+            List<Request> batch;
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (batch == null) {
+                break;
+            }
+            closeReleasedFiles();
+            if (!batch.isEmpty()) {
+                serve(batch);
+            }
+        }
+        closeFiles(openFiles.values());
+        openFiles.clear();
+        openFileCount = 0;
+    }
+
+    // waits for queued reads or closed readers and takes the next batch, which is empty if no reads are queued, or
+    // returns null once closed
+    private synchronized List<Request> nextBatch() throws InterruptedException {
+        while (queue.isEmpty() && releasedReaders.isEmpty() && !closed) {
+            wait();
+        }
+        if (closed) {
+            return null;
+        }
+        if (queue.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // move to the segment file of the oldest read once it is overdue or the current segment file has no reads
+        Request oldest = queue.getFirst();
+        boolean overdue = System.nanoTime() - oldest.queuedNanos >= maxLatencyNanos;
+        boolean currentQueued = false;
+        for (Request request : queue) {
+            if (request.location.getFile().equals(currentFile)) {
+                currentQueued = true;
+                break;
+            }
+        }
+        if (overdue || !currentQueued) {
+            if (overdue && currentQueued && !oldest.location.getFile().equals(currentFile)) {
+                deadlineCount++;
+            }
+            currentFile = oldest.location.getFile();
+            currentOffset = overdue ? oldest.location.getFileOffset() : 0;
+        }
+
+        // take the reads of the segment file from the current offset on, then from its start
+        List<Request> ahead = new ArrayList<>();
+        List<Request> behind = new ArrayList<>();
+        for (Request request : queue) {
+            if (request.location.getFile().equals(currentFile)) {
+                (request.location.getFileOffset() >= currentOffset ? ahead : behind).add(request);
+            }
+        }
+        Comparator<Request> byOffset = new Comparator<Request>() {
+            @Override
+            public int compare(Request a, Request b) {
+                return Long.compare(a.location.getFileOffset(), b.location.getFileOffset());
+            }
+        };
+        Collections.sort(ahead, byOffset);
+        Collections.sort(behind, byOffset);
+        ahead.addAll(behind);
+        List<Request> batch = new ArrayList<>(ahead.subList(0, Math.min(ahead.size(), maxBatch)));
+        queue.removeAll(batch);
+        batchCount++;
+
+        // continue the sweep after the last read of the batch
+        EWFChunkLocation last = batch.get(batch.size() - 1).location;
+        currentOffset = last.getFileOffset() + last.getStoredSize();
+        return batch;
+    }
+
+    // reads the batch, reading nearby chunks together, and wakes the waiting threads
+    private void serve(List<Request> batch) {
+        int start = 0;
+        while (start < batch.size()) {
+            // extend the read over the following chunks that are close enough
+            EWFChunkLocation first = batch.get(start).location;
+            long readStart = first.getFileOffset();
+            long readEnd = readStart + first.getStoredSize();
+            int end = start + 1;
+            while (end < batch.size()) {
+                EWFChunkLocation next = batch.get(end).location;
+                long nextEnd = next.getFileOffset() + next.getStoredSize();
+                if (next.getFileOffset() < readStart || next.getFileOffset() - readEnd > MERGE_GAP
+                        || Math.max(readEnd, nextEnd) - readStart > MAX_READ_SIZE) {
+                    break;
+                }
+                readEnd = Math.max(readEnd, nextEnd);
+                end++;
+            }
+
+            // read the range and hand each thread its chunk
+            List<Request> reads = batch.subList(start, end);
+            try {
+                byte[] bytes = new byte[(int) (readEnd - readStart)];
+                readRange(reads.get(0).reader, first.getFile(), readStart, bytes);
+                for (Request request : reads) {
+                    request.bytes = new byte[request.location.getStoredSize()];
+                    System.arraycopy(bytes, (int) (request.location.getFileOffset() - readStart), request.bytes, 0,
+                            request.bytes.length);
+                }
+            } catch (IOException e) {
+                for (Request request : reads) {
+                    request.error = e;
+                }
+            }
+            synchronized (this) {
+                readCount++;
+            }
+            start = end;
+        }
+        complete(batch);
+    }
+
+    // marks the reads done and wakes the threads waiting on their readers
+    private static void complete(List<Request> requests) {
+        Set<EWFFileReader> readers = new LinkedHashSet<>();
+        for (Request request : requests) {
+            request.done = true;
+            readers.add(request.reader);
+        }
+        for (EWFFileReader reader : readers) {
+            synchronized (reader) {
+                reader.notifyAll();
+            }
+        }
+    }
+
+    // reads a range of a segment file through the segment source of the reader or from the local file
+    private void readRange(EWFFileReader reader, File file, long fileOffset, byte[] bytes) throws IOException {
+        EWFSegmentSource segmentSource = reader.getSegmentSource();
+        if (segmentSource != null) {
+            segmentSource.read(file, fileOffset, bytes, 0, bytes.length);
+            return;
+        }
+        OpenFile openFile = openFiles.get(file);
+        if (openFile == null) {
+            // close the least recently read file to stay within the open file limit
+            if (openFiles.size() >= MAX_OPEN_FILES) {
+                Iterator<OpenFile> iterator = openFiles.values().iterator();
+                closeFiles(Collections.singletonList(iterator.next()));
+                iterator.remove();
+            }
+            openFile = new OpenFile(new RandomAccessFile(file, "r"));
+            openFiles.put(file, openFile);
+            openFileCount = openFiles.size();
+        }
+        openFile.readers.add(reader);
+        FileChannel fileChannel = openFile.randomAccessFile.getChannel();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (fileChannel.read(buffer, fileOffset + buffer.position()) < 0) {
+                throw new IOException("Read beyond the end of segment file " + file);
+            }
+        }
+    }
+
+    // closes the local segment files read for the readers closed since the last batch
+    private void closeReleasedFiles() {
+        Set<EWFFileReader> readers;
+        synchronized (this) {
+            if (releasedReaders.isEmpty()) {
+                return;
+            }
+            readers = new HashSet<>(releasedReaders);
+            releasedReaders.clear();
+        }
+        Iterator<OpenFile> iterator = openFiles.values().iterator();
+        while (iterator.hasNext()) {
+            OpenFile openFile = iterator.next();
+            if (!Collections.disjoint(openFile.readers, readers)) {
+                closeFiles(Collections.singletonList(openFile));
+                iterator.remove();
+            }
+        }
+        openFileCount = openFiles.size();
+    }
+
+    // closes local segment files
+    private static void closeFiles(Collection<OpenFile> files) {
+        for (OpenFile openFile : files) {
+            try {
+                openFile.randomAccessFile.close();
+            } catch (IOException e) {
+                EWFFileReader.logger.info("com.ToxicBakery.libs.jlibewf.EWFIOScheduler.closeFiles: " + e);
+            }
+        }
+    }
+
+    /**
+     * Closes the local segment files read for a reader, which is called when the reader is closed or stops using
+     * this scheduler.
+     *
+     * @param reader the reader
+     */
+    synchronized void release(EWFFileReader reader) {
+        if (!closed) {
+            releasedReaders.add(reader);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stops the dispatch thread, failing the queued reads and the reads of the readers still using this
+     * scheduler.
+     */
+    public void close() {
+        List<Request> failed;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            failed = new ArrayList<>(queue);
+            queue.clear();
+            notifyAll();
+        }
+        IOException error = new IOException("The I/O scheduler is closed");
+        for (Request request : failed) {
+            request.error = error;
+        }
+        complete(failed);
+    }
+
+    /**
+     * Returns the number of reads currently queued.
+     *
+     * @return the queue length
+     */
+    public synchronized int getQueueLength() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of local segment files held open by the dispatcher.
+     *
+     * @return the open file count
+     */
+    public int getOpenFileCount() {
+        return openFileCount;
+    }
+
+    /**
+     * Returns the number of stored chunk reads queued.
+     *
+     * @return the request count
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Returns the number of reads issued to the segment files, each serving one or more nearby chunks.
+     *
+     * @return the read count
+     */
+    public synchronized long getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * Returns the number of batches that left a segment file with queued reads to serve an overdue read.
+     *
+     * @return the deadline count
+     */
+    public synchronized long getDeadlineCount() {
+        return deadlineCount;
+    }
+
+    /**
+     * A local segment file held open by the dispatcher, with the readers it was read for.
+     */
+    private static final class OpenFile {
+
+        private final RandomAccessFile randomAccessFile;
+        private final Set<EWFFileReader> readers = new HashSet<>();
+
+        OpenFile(RandomAccessFile randomAccessFile) {
+            this.randomAccessFile = randomAccessFile;
+        }
+    }
+
+    /**
+     * A queued read of a stored chunk.
+     */
+    private static final class Request {
+
+        private final EWFFileReader reader;
+        private final EWFChunkLocation location;
+        private final long queuedNanos = System.nanoTime();
+        private byte[] bytes;
+        private IOException error;
+        private volatile boolean done;
+
+        Request(EWFFileReader reader, EWFChunkLocation location) {
+            this.reader = reader;
+            this.location = location;
+        }
+    }
+}
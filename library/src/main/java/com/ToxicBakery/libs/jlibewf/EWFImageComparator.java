@@ -0,0 +1,365 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The <code>EWFImageComparator</code> class finds the media ranges that differ between an EWF image and another
+ * EWF image or a raw image.
+ * <p>When both EWF images use the same chunk size and compression level, the stored chunk bytes located through
+ * the table section chunk offsets are compared directly and only chunks whose stored forms differ are decompressed.
+ * Chunks are compared in parallel in stripes of consecutive chunks.
+ */
+public class EWFImageComparator {
+
+    /**
+     * The number of consecutive chunks compared by a worker at a time, {@value}.
+     */
+    private static final int STRIPE_CHUNK_COUNT = 64;
+
+    private final EWFFileReader left;
+    private final EWFFileReader right;
+    private final File rawFile;
+
+    /**
+     * Constructs a comparator for two EWF images.
+     *
+     * @param left  the reader for the first EWF image
+     * @param right the reader for the second EWF image
+     */
+    public EWFImageComparator(EWFFileReader left, EWFFileReader right) {
+        this.left = left;
+        this.right = right;
+        this.rawFile = null;
+    }
+
+    /**
+     * Constructs a comparator for an EWF image and a raw image such as a dd file.
+     *
+     * @param left    the reader for the EWF image
+     * @param rawFile the raw image file
+     */
+    public EWFImageComparator(EWFFileReader left, File rawFile) {
+        this.left = left;
+        this.right = null;
+        this.rawFile = rawFile;
+    }
+
+    /**
+     * Compares the images using the given number of worker threads.
+     *
+     * @param threadCount the number of worker threads to compare chunks with
+     * @return the comparison result containing the differing media ranges
+     * @throws IOException if either image cannot be read
+     */
+    public Result compare(int threadCount) throws IOException {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid thread count: " + threadCount);
+        }
+
+        // open the raw image if comparing against one
+        FileInputStream rawInputStream = null;
+        FileChannel rawChannel = null;
+        long rightSize;
+        if (rawFile != null) {
+            rawInputStream = new FileInputStream(rawFile);
+            rawChannel = rawInputStream.getChannel();
+            rightSize = rawChannel.size();
+        } else {
+            rightSize = right.getImageSize();
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            // run the workers, each pulling stripes of chunks until none remain
+            Comparison comparison = new Comparison(Math.min(left.getImageSize(), rightSize), rawChannel);
+            List<Future<List<Range>>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executorService.submit(comparison.newWorker()));
+            }
+
+            // gather the differing ranges of all workers
+            List<Range> ranges = new ArrayList<>();
+            for (Future<List<Range>> future : futures) {
+                ranges.addAll(getResult(future));
+            }
+
+            // the tail of the larger image differs from the smaller image
+            long maxSize = Math.max(left.getImageSize(), rightSize);
+            if (comparison.size < maxSize) {
+                ranges.add(new Range(comparison.size, maxSize));
+            }
+
+            return new Result(mergeRanges(ranges), comparison.storedMatchCount.get(), comparison.decodedCount.get());
+
+        } finally {
+            executorService.shutdownNow();
+            if (rawChannel != null) {
+                rawChannel.close();
+                rawInputStream.close();
+            }
+        }
+    }
+
+    // returns the result of a worker, rethrowing its failure
+    private static List<Range> getResult(Future<List<Range>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Comparison interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Comparison failed", e.getCause());
+        }
+    }
+
+    // sorts the ranges and joins ranges that touch
+    private static List<Range> mergeRanges(List<Range> ranges) {
+        Collections.sort(ranges, new Comparator<Range>() {
+            @Override
+            public int compare(Range a, Range b) {
+                return Long.compare(a.start, b.start);
+            }
+        });
+
+        List<Range> merged = new ArrayList<>();
+        Range current = null;
+        for (Range range : ranges) {
+            if (current != null && range.start <= current.end) {
+                current = new Range(current.start, Math.max(current.end, range.end));
+            } else {
+                if (current != null) {
+                    merged.add(current);
+                }
+                current = range;
+            }
+        }
+        if (current != null) {
+            merged.add(current);
+        }
+        return merged;
+    }
+
+    /**
+     * The state shared by the workers of a single comparison.
+     */
+    private final class Comparison {
+
+        private final long size;
+        private final int chunkSize;
+        private final int chunkCount;
+        private final boolean alignedChunks;
+        private final boolean compareStored;
+        private final FileChannel rawChannel;
+        private final AtomicInteger nextStripe = new AtomicInteger();
+        private final AtomicLong storedMatchCount = new AtomicLong();
+        private final AtomicLong decodedCount = new AtomicLong();
+
+        Comparison(long size, FileChannel rawChannel) {
+            this.size = size;
+            this.rawChannel = rawChannel;
+            chunkSize = left.getChunkSize();
+            chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+
+            // stored chunks only correspond when they hold the same media range
+            alignedChunks = right != null && right.getChunkSize() == chunkSize;
+
+            // stored chunks are only likely to match when they were compressed the same way
+            compareStored = alignedChunks && right.getCompressionLevel() == left.getCompressionLevel();
+        }
+
+        Callable<List<Range>> newWorker() {
+            return new Callable<List<Range>>() {
+                @Override
+                public List<Range> call() throws IOException {
+                    // each worker decodes with its own inflater and checksum
+                    EWFSegmentFileReader decoder = new EWFSegmentFileReader(EWFFileReader.LONG_FORMAT);
+                    List<Range> ranges = new ArrayList<>();
+
+                    while (true) {
+                        // claim the next stripe of chunks
+                        long firstChunk = (long) nextStripe.getAndIncrement() * STRIPE_CHUNK_COUNT;
+                        if (firstChunk >= chunkCount) {
+                            return ranges;
+                        }
+
+                        int lastChunk = (int) Math.min(chunkCount, firstChunk + STRIPE_CHUNK_COUNT);
+                        for (int chunkIndex = (int) firstChunk; chunkIndex < lastChunk; chunkIndex++) {
+                            Range range = compareChunk(decoder, chunkIndex);
+                            if (range != null) {
+                                ranges.add(range);
+                            }
+                        }
+                    }
+                }
+            };
+        }
+
+        // compares a single chunk, returning the differing range within it or null if it matches
+        private Range compareChunk(EWFSegmentFileReader decoder, int chunkIndex) throws IOException {
+            long imageOffset = (long) chunkIndex * chunkSize;
+            int length = (int) Math.min(chunkSize, size - imageOffset);
+
+            EWFChunkLocation leftLocation = left.locateChunk(chunkIndex);
+            byte[] leftStored = left.readStoredChunk(leftLocation);
+            byte[] rightBytes;
+
+            if (alignedChunks) {
+                EWFChunkLocation rightLocation = right.locateChunk(chunkIndex);
+                byte[] rightStored = right.readStoredChunk(rightLocation);
+
+                // identical stored bytes hold identical media, so nothing needs to be decompressed
+                if (compareStored
+                        && leftLocation.isCompressed() == rightLocation.isCompressed()
+                        && Arrays.equals(leftStored, rightStored)) {
+                    storedMatchCount.incrementAndGet();
+                    return null;
+                }
+
+                rightBytes = decoder.decodeChunk(rightLocation, rightStored, chunkSize);
+                decodedCount.incrementAndGet();
+            } else if (right != null) {
+                rightBytes = right.readImageBytes(imageOffset, length);
+            } else {
+                rightBytes = new byte[length];
+                ByteBuffer buffer = ByteBuffer.wrap(rightBytes);
+                while (buffer.hasRemaining()) {
+                    if (rawChannel.read(buffer, imageOffset + buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of raw image " + rawFile + " at "
+                                + String.format(EWFFileReader.LONG_FORMAT, imageOffset + buffer.position()));
+                    }
+                }
+            }
+
+            byte[] leftBytes = decoder.decodeChunk(leftLocation, leftStored, chunkSize);
+            decodedCount.incrementAndGet();
+
+            // find the first and last differing bytes
+            int first = 0;
+            while (first < length && leftBytes[first] == rightBytes[first]) {
+                first++;
+            }
+            if (first == length) {
+                return null;
+            }
+            int last = length - 1;
+            while (leftBytes[last] == rightBytes[last]) {
+                last--;
+            }
+            return new Range(imageOffset + first, imageOffset + last + 1);
+        }
+    }
+
+    /**
+     * A range of media image addresses.
+     */
+    public static final class Range {
+
+        private final long start;
+        private final long end;
+
+        /**
+         * Constructs a range of media image addresses.
+         *
+         * @param start the first address within the range
+         * @param end   the address just after the range
+         */
+        public Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Provides a visual representation of this object.
+         *
+         * @return the range as text
+         */
+        public String toString() {
+            return "[" + String.format(EWFFileReader.LONG_FORMAT, start)
+                    + ", " + String.format(EWFFileReader.LONG_FORMAT, end) + ")";
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        public long getLength() {
+            return end - start;
+        }
+    }
+
+    /**
+     * The result of a comparison.
+     */
+    public static final class Result {
+
+        private final List<Range> ranges;
+        private final long storedMatchCount;
+        private final long decodedCount;
+
+        Result(List<Range> ranges, long storedMatchCount, long decodedCount) {
+            this.ranges = Collections.unmodifiableList(ranges);
+            this.storedMatchCount = storedMatchCount;
+            this.decodedCount = decodedCount;
+        }
+
+        /**
+         * Returns whether no differing ranges were found.
+         *
+         * @return true if the images hold identical media
+         */
+        public boolean isIdentical() {
+            return ranges.isEmpty();
+        }
+
+        /**
+         * Returns the differing ranges, sorted by address and with touching ranges joined.
+         *
+         * @return the differing ranges
+         */
+        public List<Range> getRanges() {
+            return ranges;
+        }
+
+        /**
+         * Returns the number of chunks found identical by comparing their stored bytes only.
+         *
+         * @return the number of chunks matched without decompression
+         */
+        public long getStoredMatchCount() {
+            return storedMatchCount;
+        }
+
+        /**
+         * Returns the number of chunks that had to be fully decoded, counting the chunks of both images when their
+         * chunks are aligned. Chunks of an unaligned right image are read through its reader and not counted.
+         *
+         * @return the number of decoded chunks
+         */
+        public long getDecodedCount() {
+            return decodedCount;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The <code>EWFImagePool</code> class manages many open EWF images under shared limits.
+ * <p>Readers are created lazily on the first access to an image, and an image opened more than once shares a
+ * single reader and therefore a single section index. All readers share one <code>EWFChunkCache</code> so that
+ * the decompressed chunk memory budget is global, and the number of segment files held open at once is capped
+ * by closing the files of the least recently used images. Images that are no longer referenced can be evicted
+ * entirely with <code>evictIdle</code>.
+ * <p>The cap also holds for reads made directly on the shared readers, as a reader reopening a segment file
+ * counts as an access to its image. The files of the images closed to make room are then closed in the background,
+ * since the reader reopening its file holds its own lock.
+ */
+public class EWFImagePool {
+
+    /**
+     * The images by canonical first segment path.
+     */
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * The images currently holding a segment file open, in least recently used order.
+     */
+    private final LinkedHashMap<Entry, Boolean> openEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final int maxOpenFiles;
+    private final EWFChunkCache chunkCache;
+    private final ThreadPoolExecutor closer;
+    private boolean closed;
+
+    /**
+     * Constructs an image pool.
+     *
+     * @param maxOpenFiles     the maximum number of segment files to hold open across all images
+     * @param chunkCacheBudget the maximum number of bytes of decompressed chunks to cache across all images
+     */
+    public EWFImagePool(int maxOpenFiles, long chunkCacheBudget) {
+        if (maxOpenFiles < 1) {
+            throw new IllegalArgumentException("Invalid maximum open files: " + maxOpenFiles);
+        }
+        this.maxOpenFiles = maxOpenFiles;
+        chunkCache = new EWFChunkCache(chunkCacheBudget);
+        closer = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "EWFImagePool closer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        closer.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Opens an image, sharing the reader of an image that is already open. The image's segment files are not
+     * read until the image is first accessed.
+     *
+     * @param file the first EWF file in the serial sequence
+     * @return a handle to the image, to be closed when no longer needed
+     * @throws IOException if the file is not a valid first EWF filename or the pool is closed
+     */
+    public Image open(File file) throws IOException {
+        // validate the file as the first EWF file
+        if (!EWFSegmentFileReader.isValidFirstEWFFilename(file)) {
+            throw new IOException("Invalid first EWF filename file " + file.toString());
+        }
+
+        String path = file.getCanonicalPath();
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Image pool closed: " + file);
+            }
+            Entry entry = entries.get(path);
+            if (entry == null) {
+                entry = new Entry(new File(path));
+                entries.put(path, entry);
+            }
+            entry.referenceCount++;
+            entry.lastAccess = System.currentTimeMillis();
+            return new Image(entry);
+        }
+    }
+
+    /**
+     * Releases the resources of images that have not been accessed for the given time. Unreferenced images are
+     * removed along with their reader, section index and cached chunks. Referenced images only close their
+     * segment file.
+     *
+     * @param idleMillis the minimum time in milliseconds since the last access
+     * @return the number of images removed
+     * @throws IOException if a segment file cannot be closed
+     */
+    @SuppressWarnings("unused")
+    public int evictIdle(long idleMillis) throws IOException {
+        long now = System.currentTimeMillis();
+        List<Entry> closing = new ArrayList<>();
+        List<Entry> removed = new ArrayList<>();
+
+        synchronized (this) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (now - entry.lastAccess < idleMillis) {
+                    continue;
+                }
+                if (entry.referenceCount == 0) {
+                    iterator.remove();
+                    removed.add(entry);
+                } else if (openEntries.containsKey(entry)) {
+                    closing.add(entry);
+                }
+                openEntries.remove(entry);
+            }
+        }
+
+        // release the resources outside of the pool lock since readers may be busy
+        for (Entry entry : closing) {
+            entry.closeFileChannel();
+        }
+        for (Entry entry : removed) {
+            entry.closeReader();
+        }
+        return removed.size();
+    }
+
+    /**
+     * Closes all images and clears the chunk cache. Handles that are still open can no longer be used, and no more
+     * images can be opened.
+     *
+     * @throws IOException if a segment file cannot be closed
+     */
+    @SuppressWarnings("unused")
+    public void close() throws IOException {
+        List<Entry> removed;
+        synchronized (this) {
+            closed = true;
+            removed = new ArrayList<>(entries.values());
+            entries.clear();
+            openEntries.clear();
+        }
+        closer.shutdownNow();
+        for (Entry entry : removed) {
+            entry.closed = true;
+            entry.closeReader();
+        }
+        chunkCache.clear();
+    }
+
+    /**
+     * Returns the cache of decompressed chunks shared by all images.
+     *
+     * @return the shared chunk cache
+     */
+    @SuppressWarnings("unused")
+    public EWFChunkCache getChunkCache() {
+        return chunkCache;
+    }
+
+    /**
+     * Returns the number of images known to the pool, whether or not their readers are created.
+     *
+     * @return the number of images
+     */
+    @SuppressWarnings("unused")
+    public synchronized int getImageCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of images that may be holding a segment file open.
+     *
+     * @return the number of open segment files
+     */
+    @SuppressWarnings("unused")
+    public synchronized int getOpenFileCount() {
+        return openEntries.size();
+    }
+
+    // records an access to the image, returning the images whose files must be closed to stay within the cap
+    private synchronized List<Entry> access(Entry entry) {
+        entry.lastAccess = System.currentTimeMillis();
+        openEntries.put(entry, Boolean.TRUE);
+
+        List<Entry> closing = new ArrayList<>();
+        Iterator<Entry> iterator = openEntries.keySet().iterator();
+        while (openEntries.size() - closing.size() > maxOpenFiles && iterator.hasNext()) {
+            Entry candidate = iterator.next();
+            if (candidate != entry) {
+                closing.add(candidate);
+            }
+        }
+        for (Entry candidate : closing) {
+            openEntries.remove(candidate);
+        }
+        return closing;
+    }
+
+    // records a segment file opened by the reader of the image, closing the files of the images that must be
+    // closed to stay within the cap in the background
+    private void fileOpened(Entry entry) {
+        for (final Entry other : access(entry)) {
+            try {
+                closer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // the image may have been accessed again in the meantime
+                        if (!isOpenEntry(other)) {
+                            try {
+                                other.closeFileChannel();
+                            } catch (IOException e) {
+                                EWFFileReader.logger.info("com.ToxicBakery.libs.jlibewf.EWFImagePool.fileOpened: "
+                                        + e);
+                            }
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the pool is closed, closing all readers
+            }
+        }
+    }
+
+    private synchronized boolean isOpenEntry(Entry entry) {
+        return openEntries.containsKey(entry);
+    }
+
+    // releases a handle's reference to the image
+    private synchronized void release(Entry entry) {
+        entry.referenceCount--;
+    }
+
+    /**
+     * The state of an image shared by all of its handles.
+     */
+    private final class Entry {
+
+        private final File file;
+        private EWFFileReader reader;
+        private int referenceCount;
+        private long lastAccess;
+        private volatile boolean closed;
+
+        Entry(File file) {
+            this.file = file;
+        }
+
+        // returns the reader, creating it on first use, after making room for its segment file
+        EWFFileReader getReader() throws IOException {
+            if (closed) {
+                throw new IOException("Image pool closed: " + file);
+            }
+            for (Entry other : access(this)) {
+                other.closeFileChannel();
+            }
+            synchronized (this) {
+                if (reader == null) {
+                    reader = new EWFFileReader(file);
+                    reader.setChunkCache(chunkCache);
+                    reader.setFileOpenListener(new Runnable() {
+                        @Override
+                        public void run() {
+                            fileOpened(Entry.this);
+                        }
+                    });
+                }
+                return reader;
+            }
+        }
+
+        synchronized void closeFileChannel() throws IOException {
+            if (reader != null) {
+                reader.closeFileChannel();
+            }
+        }
+
+        synchronized void closeReader() throws IOException {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+
+    /**
+     * A handle to an image of the pool.
+     */
+    public final class Image implements Closeable {
+
+        private final Entry entry;
+        private boolean released;
+
+        Image(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * Returns the reader of the image, creating it if needed. The reader is shared with other handles to the
+         * same image and must not be closed directly. Reads made on it count against the open file cap of the pool
+         * whenever it opens a segment file.
+         *
+         * @return the shared reader
+         * @throws IOException if the reader cannot be created
+         */
+        public EWFFileReader getReader() throws IOException {
+            return entry.getReader();
+        }
+
+        /**
+         * Reads the image bytes at the specified start address, see <code>EWFFileReader.readImageBytes</code>.
+         *
+         * @param imageAddress the address within the image to read
+         * @param numBytes     the number of bytes to read
+         * @return the byte array read
+         * @throws IOException if the requested number of bytes cannot be read
+         */
+        public byte[] readImageBytes(long imageAddress, int numBytes) throws IOException {
+            return entry.getReader().readImageBytes(imageAddress, numBytes);
+        }
+
+        /**
+         * Returns the size in bytes of the media image.
+         *
+         * @return the size in bytes of the image
+         * @throws IOException if the reader cannot be created
+         */
+        public long getImageSize() throws IOException {
+            return entry.getReader().getImageSize();
+        }
+
+        public File getFile() {
+            return entry.file;
+        }
+
+        /**
+         * Releases this handle. The image's resources remain pooled until evicted.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            release(entry);
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The <code>EWFOffHeapChunkCache</code> class caches decompressed media chunks outside of the Java heap so that
+ * the size of the cache does not affect garbage collection.
+ * <p>Chunks are held in fixed-size slots of an arena of direct buffers or of buffers mapped from a file. The
+ * index from chunk to slot is an open addressing hash table that is also held in direct buffers, and slots are
+ * reused in CLOCK order when the arena is full. Reads copy the chunk out of its slot.
+ * <p>The cache is typically used as the second tier of an <code>EWFChunkCache</code>, receiving the chunks
+ * evicted from the heap.
+ */
+public class EWFOffHeapChunkCache {
+
+    /**
+     * The maximum number of bytes of an arena buffer, {@value}.
+     */
+    private static final int MAX_BUFFER_SIZE = 1 << 30;
+
+    /**
+     * The key of an empty hash table entry or slot.
+     */
+    private static final long EMPTY = -1L;
+
+    private final int slotSize;
+    private final int slotCount;
+    private final int slotsPerBuffer;
+    private final ByteBuffer[] arena;
+
+    /**
+     * The key and length of the chunk held by each slot, and whether the slot was referenced since the clock hand
+     * last passed it.
+     */
+    private final LongBuffer slotKeys;
+    private final IntBuffer slotLengths;
+    private final ByteBuffer slotReferenced;
+
+    /**
+     * The slots that are not in use.
+     */
+    private final IntBuffer freeSlots;
+    private int freeCount;
+
+    /**
+     * The hash table from chunk key to slot, using linear probing.
+     */
+    private final LongBuffer tableKeys;
+    private final IntBuffer tableSlots;
+    private final int tableMask;
+
+    /**
+     * The ids of the images with cached chunks.
+     */
+    private final Map<Object, Integer> imageIds = new IdentityHashMap<>();
+    private int nextImageId;
+
+    private final RandomAccessFile mappedFile;
+    private int clockHand;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Constructs an off-heap chunk cache backed by direct memory.
+     *
+     * @param slotSize  the size in bytes of a slot, which is the largest chunk that can be cached
+     * @param slotCount the number of slots
+     */
+    public EWFOffHeapChunkCache(int slotSize, int slotCount) {
+        this(slotSize, slotCount, (RandomAccessFile) null);
+    }
+
+    /**
+     * Constructs an off-heap chunk cache whose slots are backed by a file mapped into memory, which allows an
+     * arena larger than the direct memory limit. The file is truncated and grown to the size of the arena.
+     *
+     * @param slotSize  the size in bytes of a slot, which is the largest chunk that can be cached
+     * @param slotCount the number of slots
+     * @param arenaFile the file to map the slots from
+     * @throws IOException if the file cannot be mapped
+     */
+    public EWFOffHeapChunkCache(int slotSize, int slotCount, File arenaFile) throws IOException {
+        this(slotSize, slotCount, new RandomAccessFile(arenaFile, "rw"));
+    }
+
+    private EWFOffHeapChunkCache(int slotSize, int slotCount, RandomAccessFile mappedFile) {
+        if (slotSize < 1 || slotSize > MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Invalid slot size: " + slotSize);
+        }
+        if (slotCount < 1) {
+            throw new IllegalArgumentException("Invalid slot count: " + slotCount);
+        }
+        this.slotSize = slotSize;
+        this.slotCount = slotCount;
+        this.mappedFile = mappedFile;
+
+        // allocate the arena in buffers of whole slots
+        slotsPerBuffer = MAX_BUFFER_SIZE / slotSize;
+        arena = new ByteBuffer[(slotCount + slotsPerBuffer - 1) / slotsPerBuffer];
+        try {
+            if (mappedFile != null) {
+                mappedFile.setLength(0);
+                mappedFile.setLength((long) slotCount * slotSize);
+            }
+            for (int i = 0; i < arena.length; i++) {
+                int bufferSize = Math.min(slotsPerBuffer, slotCount - i * slotsPerBuffer) * slotSize;
+                if (mappedFile == null) {
+                    arena[i] = ByteBuffer.allocateDirect(bufferSize);
+                } else {
+                    arena[i] = mappedFile.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                            (long) i * slotsPerBuffer * slotSize, bufferSize);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to map the cache arena", e);
+        }
+
+        // allocate the slot state
+        slotKeys = ByteBuffer.allocateDirect(slotCount * 8).asLongBuffer();
+        slotLengths = ByteBuffer.allocateDirect(slotCount * 4).asIntBuffer();
+        slotReferenced = ByteBuffer.allocateDirect(slotCount);
+        freeSlots = ByteBuffer.allocateDirect(slotCount * 4).asIntBuffer();
+
+        // allocate the hash table at no more than half full
+        int tableSize = Integer.highestOneBit(slotCount) * 4;
+        tableMask = tableSize - 1;
+        tableKeys = ByteBuffer.allocateDirect(tableSize * 8).asLongBuffer();
+        tableSlots = ByteBuffer.allocateDirect(tableSize * 4).asIntBuffer();
+
+        clear();
+    }
+
+    /**
+     * Returns a copy of the cached chunk of the given image, or null if it is not cached.
+     *
+     * @param image      the object identifying the image, typically its reader
+     * @param chunkIndex the index of the chunk within the image
+     * @return the decompressed chunk or null
+     */
+    public synchronized byte[] get(Object image, int chunkIndex) {
+        int slot = findSlot(image, chunkIndex);
+        if (slot < 0) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+
+        byte[] bytes = new byte[slotLengths.get(slot)];
+        copyOut(slot, 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * Copies part of the cached chunk of the given image into the destination without copying the whole chunk.
+     *
+     * @param image       the object identifying the image, typically its reader
+     * @param chunkIndex  the index of the chunk within the image
+     * @param chunkOffset the offset within the chunk to copy from
+     * @param destination the array to copy to
+     * @param offset      the offset within the destination to copy to
+     * @param length      the number of bytes to copy
+     * @return true if the chunk is cached and the bytes were copied
+     * @throws IndexOutOfBoundsException if the range is not within the cached chunk
+     */
+    public synchronized boolean read(Object image, int chunkIndex, int chunkOffset, byte[] destination, int offset,
+                                     int length) {
+        int slot = findSlot(image, chunkIndex);
+        if (slot < 0) {
+            missCount++;
+            return false;
+        }
+        if (chunkOffset < 0 || length < 0 || chunkOffset + length > slotLengths.get(slot)) {
+            throw new IndexOutOfBoundsException();
+        }
+        hitCount++;
+        copyOut(slot, chunkOffset, destination, offset, length);
+        return true;
+    }
+
+    /**
+     * Adds a decompressed chunk of the given image, reusing the slot of a chunk not recently read if the cache
+     * is full. Chunks larger than the slot size are not cached.
+     *
+     * @param image      the object identifying the image, typically its reader
+     * @param chunkIndex the index of the chunk within the image
+     * @param bytes      the decompressed chunk
+     */
+    public synchronized void put(Object image, int chunkIndex, byte[] bytes) {
+        if (bytes.length > slotSize) {
+            return;
+        }
+
+        // reuse the slot of the chunk if it is already cached
+        Integer imageId = imageIds.get(image);
+        if (imageId == null) {
+            imageId = nextImageId++;
+            imageIds.put(image, imageId);
+        }
+        long key = toKey(imageId, chunkIndex);
+        int entry = findEntry(key);
+        int slot = entry >= 0 ? tableSlots.get(entry) : allocateSlot();
+
+        // copy the chunk into the slot
+        ByteBuffer buffer = arena[slot / slotsPerBuffer];
+        buffer.position((slot % slotsPerBuffer) * slotSize);
+        buffer.put(bytes, 0, bytes.length);
+
+        // record the slot
+        if (slotKeys.get(slot) != key) {
+            slotKeys.put(slot, key);
+            insertEntry(key, slot);
+        }
+        slotLengths.put(slot, bytes.length);
+        slotReferenced.put(slot, (byte) 0);
+    }
+
+    /**
+     * Removes all cached chunks of the given image.
+     *
+     * @param image the object identifying the image
+     */
+    public synchronized void invalidate(Object image) {
+        Integer imageId = imageIds.remove(image);
+        if (imageId == null) {
+            return;
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            long key = slotKeys.get(slot);
+            if (key != EMPTY && (int) (key >>> 32) == imageId) {
+                freeSlot(slot);
+            }
+        }
+    }
+
+    /**
+     * Removes all cached chunks.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i <= tableMask; i++) {
+            tableKeys.put(i, EMPTY);
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            slotKeys.put(slot, EMPTY);
+            freeSlots.put(slot, slotCount - 1 - slot);
+        }
+        freeCount = slotCount;
+        imageIds.clear();
+    }
+
+    /**
+     * Releases the arena file, if the cache is mapped from one. The cache must not be used afterwards.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        if (mappedFile != null) {
+            mappedFile.close();
+        }
+    }
+
+    /**
+     * Provides a visual representation of this object.
+     *
+     * @return the cache usage and counters as text
+     */
+    public synchronized String toString() {
+        return "EWFOffHeapChunkCache: chunks: " + getChunkCount() + " slots: " + slotCount
+                + " slot size: " + slotSize + " hits: " + hitCount + " misses: " + missCount
+                + " evictions: " + evictionCount;
+    }
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public synchronized int getChunkCount() {
+        return slotCount - freeCount;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    // combines the image id and the chunk index into a hash table key
+    private static long toKey(int imageId, int chunkIndex) {
+        return ((long) imageId << 32) | (chunkIndex & 0xFFFFFFFFL);
+    }
+
+    // returns the slot holding the chunk, marking it referenced, or -1 if it is not cached
+    private int findSlot(Object image, int chunkIndex) {
+        Integer imageId = imageIds.get(image);
+        if (imageId == null) {
+            return -1;
+        }
+        int entry = findEntry(toKey(imageId, chunkIndex));
+        if (entry < 0) {
+            return -1;
+        }
+        int slot = tableSlots.get(entry);
+        slotReferenced.put(slot, (byte) 1);
+        return slot;
+    }
+
+    // copies bytes out of a slot
+    private void copyOut(int slot, int chunkOffset, byte[] destination, int offset, int length) {
+        ByteBuffer buffer = arena[slot / slotsPerBuffer];
+        buffer.position((slot % slotsPerBuffer) * slotSize + chunkOffset);
+        buffer.get(destination, offset, length);
+    }
+
+    // returns a free slot, evicting the chunk of the first slot the clock hand finds unreferenced if none is free
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots.get(--freeCount);
+        }
+        while (slotReferenced.get(clockHand) != 0) {
+            slotReferenced.put(clockHand, (byte) 0);
+            clockHand = (clockHand + 1) % slotCount;
+        }
+        int slot = clockHand;
+        clockHand = (clockHand + 1) % slotCount;
+        removeEntry(slotKeys.get(slot));
+        slotKeys.put(slot, EMPTY);
+        evictionCount++;
+        return slot;
+    }
+
+    // returns a slot to the free slots
+    private void freeSlot(int slot) {
+        removeEntry(slotKeys.get(slot));
+        slotKeys.put(slot, EMPTY);
+        freeSlots.put(freeCount++, slot);
+    }
+
+    // returns the hash table position of the initial probe for the key
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & tableMask;
+    }
+
+    // returns the hash table entry of the key or -1 if it is absent
+    private int findEntry(long key) {
+        int entry = hash(key);
+        while (true) {
+            long entryKey = tableKeys.get(entry);
+            if (entryKey == key) {
+                return entry;
+            }
+            if (entryKey == EMPTY) {
+                return -1;
+            }
+            entry = (entry + 1) & tableMask;
+        }
+    }
+
+    private void insertEntry(long key, int slot) {
+        int entry = hash(key);
+        while (tableKeys.get(entry) != EMPTY) {
+            entry = (entry + 1) & tableMask;
+        }
+        tableKeys.put(entry, key);
+        tableSlots.put(entry, slot);
+    }
+
+    // removes the key, shifting back the entries that probed past it
+    private void removeEntry(long key) {
+        int entry = findEntry(key);
+        if (entry < 0) {
+            return;
+        }
+        int next = entry;
+        while (true) {
+            next = (next + 1) & tableMask;
+            long nextKey = tableKeys.get(next);
+            if (nextKey == EMPTY) {
+                break;
+            }
+
+            // move the entry back if its initial probe does not lie between the hole and its position
+            int home = hash(nextKey);
+            if (entry <= next ? (home <= entry || home > next) : (home <= entry && home > next)) {
+                tableKeys.put(entry, nextKey);
+                tableSlots.put(entry, tableSlots.get(next));
+                entry = next;
+            }
+        }
+        tableKeys.put(entry, EMPTY);
+    }
+
+}
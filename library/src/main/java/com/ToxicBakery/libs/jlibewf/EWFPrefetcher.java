@@ -0,0 +1,407 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The <code>EWFPrefetcher</code> class watches the stream of media chunks read by an <code>EWFFileReader</code>
+ * and decompresses the chunks it expects to be read next into the chunk cache of the reader, in background
+ * threads.
+ * <p>Two patterns are detected. A stride is detected when the distances between the last three distinct chunks
+ * read are equal, which covers sequential reads and fixed-size record walks, and the next chunks along the
+ * stride are prefetched. A hot cluster is detected when several reads fall within the same aligned group of
+ * {@value #CLUSTER_SIZE} chunks, as when walking a directory tree, and the rest of the group is prefetched.
+ * <p>Prefetched chunks are tracked until they are read or expire, which gives the accuracy of the prefetcher and
+ * the work wasted on chunks that were never read.
+ */
+public class EWFPrefetcher {
+
+    /**
+     * The number of chunks in a cluster, {@value}.
+     */
+    public static final int CLUSTER_SIZE = 16;
+
+    /**
+     * The number of reads within a cluster that make it hot, {@value}.
+     */
+    private static final int HOT_CLUSTER_READS = 4;
+
+    /**
+     * The number of reads after which cluster read counts are halved, {@value}.
+     */
+    private static final int CLUSTER_DECAY_INTERVAL = 1024;
+
+    /**
+     * The largest stride in chunks that is followed, {@value}.
+     */
+    private static final int MAX_STRIDE = 4096;
+
+    private final EWFFileReader reader;
+    private final int depth;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Decoders for the background threads, as a decoder is not thread safe.
+     */
+    private final ThreadLocal<EWFSegmentFileReader> decoders = new ThreadLocal<EWFSegmentFileReader>() {
+        @Override
+        protected EWFSegmentFileReader initialValue() {
+            return new EWFSegmentFileReader(EWFFileReader.LONG_FORMAT);
+        }
+    };
+
+    /**
+     * The last distinct chunks read, most recent last.
+     */
+    private final int[] history = new int[3];
+    private int historyCount;
+
+    /**
+     * The read counts of recently read clusters, and the clusters already prefetched since the last decay.
+     */
+    private final Map<Integer, Integer> clusterReads = new HashMap<>();
+    private final Set<Integer> prefetchedClusters = new HashSet<>();
+
+    /**
+     * The chunks queued or being decompressed.
+     */
+    private final Set<Integer> inFlight = new HashSet<>();
+
+    /**
+     * The prefetched chunks not yet read, with their sizes and decompression times, oldest first.
+     */
+    private final LinkedHashMap<Integer, long[]> unread = new LinkedHashMap<>();
+    private final int maxUnread;
+
+    private boolean closed;
+    private long readCount;
+    private long strideCount;
+    private long hotClusterCount;
+    private long issuedCount;
+    private long droppedCount;
+    private long completedCount;
+    private long failedCount;
+    private long usefulCount;
+    private long lateCount;
+    private long wastedCount;
+    private long wastedBytes;
+    private long decodeNanos;
+    private long wastedNanos;
+
+    /**
+     * Constructs a prefetcher for the reader. The prefetcher is used once it is set on the reader with
+     * <code>setPrefetcher</code>, and only prefetches while the reader has a chunk cache.
+     *
+     * @param reader  the reader to prefetch chunks for
+     * @param threads the number of background threads decompressing chunks
+     * @param depth   the number of chunks to prefetch along a detected stride
+     */
+    public EWFPrefetcher(EWFFileReader reader, int threads, int depth) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid thread count: " + threads);
+        }
+        if (depth < 1) {
+            throw new IllegalArgumentException("Invalid prefetch depth: " + depth);
+        }
+        this.reader = reader;
+        this.depth = depth;
+        maxUnread = Math.max(depth, CLUSTER_SIZE) * 8;
+
+        // queue a bounded number of chunks, dropping prefetches when behind
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(depth, CLUSTER_SIZE) * 2), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EWFPrefetcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Records a read of a media chunk by the reader and prefetches the chunks expected to be read next.
+     *
+     * @param chunkIndex the index of the chunk being read
+     * @param chunkCount the number of chunks in the image
+     */
+    synchronized void recordRead(int chunkIndex, int chunkCount) {
+        if (closed) {
+            return;
+        }
+        readCount++;
+
+        // note reads of prefetched chunks
+        if (unread.remove(chunkIndex) != null) {
+            usefulCount++;
+        } else if (inFlight.contains(chunkIndex)) {
+            lateCount++;
+        }
+
+        // rereads of the last chunk are not part of the pattern
+        if (historyCount > 0 && history[historyCount - 1] == chunkIndex) {
+            return;
+        }
+        if (historyCount == history.length) {
+            System.arraycopy(history, 1, history, 0, history.length - 1);
+            historyCount--;
+        }
+        history[historyCount++] = chunkIndex;
+
+        // follow a stride of the last three chunks
+        if (historyCount == history.length) {
+            int stride = history[2] - history[1];
+            if (stride == history[1] - history[0] && Math.abs(stride) <= MAX_STRIDE) {
+                strideCount++;
+                for (int i = 1; i <= depth; i++) {
+                    prefetch((long) chunkIndex + (long) stride * i, chunkCount);
+                }
+            }
+        }
+
+        // periodically age the cluster read counts
+        if (readCount % CLUSTER_DECAY_INTERVAL == 0) {
+            Iterator<Map.Entry<Integer, Integer>> iterator = clusterReads.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Integer, Integer> entry = iterator.next();
+                if (entry.getValue() <= 1) {
+                    iterator.remove();
+                } else {
+                    entry.setValue(entry.getValue() / 2);
+                }
+            }
+            prefetchedClusters.clear();
+        }
+
+        // prefetch the rest of a hot cluster
+        int cluster = chunkIndex / CLUSTER_SIZE;
+        Integer reads = clusterReads.get(cluster);
+        reads = reads == null ? 1 : reads + 1;
+        clusterReads.put(cluster, reads);
+        if (reads >= HOT_CLUSTER_READS && prefetchedClusters.add(cluster)) {
+            hotClusterCount++;
+            for (int i = 0; i < CLUSTER_SIZE; i++) {
+                prefetch((long) cluster * CLUSTER_SIZE + i, chunkCount);
+            }
+        }
+    }
+
+    // queues the chunk for decompression unless it is cached or already queued
+    private void prefetch(long chunkIndex, int chunkCount) {
+        final EWFChunkCache chunkCache = reader.getChunkCache();
+        if (chunkIndex < 0 || chunkIndex >= chunkCount || chunkCache == null) {
+            return;
+        }
+        final int index = (int) chunkIndex;
+        if (inFlight.contains(index) || unread.containsKey(index) || chunkCache.contains(reader, index)) {
+            return;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    decode(chunkCache, index);
+                }
+            });
+            inFlight.add(index);
+            issuedCount++;
+        } catch (RejectedExecutionException e) {
+            droppedCount++;
+        }
+    }
+
+    // decompresses the chunk into the cache, taking it from the disk cache if it is there
+    private void decode(EWFChunkCache chunkCache, int chunkIndex) {
+        long start = System.nanoTime();
+        byte[] bytes = null;
+        EWFFileReader.ChunkLoad load = null;
+        boolean shared = false;
+        try {
+            // read the stored chunk unless the reader was closed in the meantime, letting reads of the chunk wait
+            // for this load
+            EWFChunkLocation location = null;
+            byte[] stored = null;
+            boolean verify = false;
+            synchronized (reader) {
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                }
+                load = reader.startChunkLoad(chunkIndex);
+                if (load == null) {
+                    // another thread is loading the chunk
+                    shared = true;
+                    return;
+                }
+                EWFDiskChunkCache.Store diskCacheStore = reader.getDiskChunkCacheStore();
+                bytes = diskCacheStore == null ? null : diskCacheStore.get(chunkIndex);
+                if (bytes == null) {
+                    location = reader.locateChunk(chunkIndex);
+                    stored = reader.readStoredChunk(location);
+                    verify = reader.isChunkVerificationRequired(chunkIndex);
+                }
+            }
+            if (location == null) {
+                chunkCache.put(reader, chunkIndex, bytes);
+                return;
+            }
+            byte[] decoded = decoders.get().decodeChunk(location, stored, reader.getChunkSize(), verify);
+            chunkCache.put(reader, chunkIndex, decoded);
+            bytes = decoded;
+            reader.chunkDecoded(chunkIndex, decoded, verify);
+        } catch (IOException e) {
+            EWFFileReader.logger.debug("com.ToxicBakery.libs.jlibewf.EWFPrefetcher.decode: chunk " + chunkIndex
+                    + ": " + e);
+        } finally {
+            if (load != null) {
+                synchronized (reader) {
+                    reader.finishChunkLoad(load, bytes, null);
+                }
+            }
+            if (shared) {
+                abandoned(chunkIndex);
+            } else {
+                completed(chunkIndex, bytes, System.nanoTime() - start);
+            }
+        }
+    }
+
+    // stops tracking a chunk left to the thread already loading it
+    private synchronized void abandoned(int chunkIndex) {
+        inFlight.remove(chunkIndex);
+    }
+
+    private synchronized void completed(int chunkIndex, byte[] bytes, long nanos) {
+        inFlight.remove(chunkIndex);
+        decodeNanos += nanos;
+        if (bytes == null) {
+            failedCount++;
+            return;
+        }
+        completedCount++;
+
+        // track the chunk until it is read, counting the oldest unread chunks as wasted
+        unread.put(chunkIndex, new long[]{bytes.length, nanos});
+        if (unread.size() > maxUnread) {
+            Iterator<long[]> iterator = unread.values().iterator();
+            long[] oldest = iterator.next();
+            iterator.remove();
+            wastedCount++;
+            wastedBytes += oldest[0];
+            wastedNanos += oldest[1];
+        }
+    }
+
+    /**
+     * Stops prefetching, discarding queued chunks.
+     */
+    public synchronized void close() {
+        closed = true;
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the fraction of the prefetched chunks whose use is known that were read.
+     *
+     * @return the accuracy between 0 and 1, or 0 if no prefetched chunk has been read or has expired
+     */
+    public synchronized double getAccuracy() {
+        long known = usefulCount + wastedCount;
+        return known == 0 ? 0 : (double) usefulCount / known;
+    }
+
+    /**
+     * Provides a visual representation of this object.
+     *
+     * @return the prefetch counters as text
+     */
+    public synchronized String toString() {
+        return "EWFPrefetcher: reads: " + readCount + " strides: " + strideCount + " hot clusters: "
+                + hotClusterCount + " issued: " + issuedCount + " dropped: " + droppedCount + " completed: "
+                + completedCount + " failed: " + failedCount + " useful: " + usefulCount + " late: " + lateCount
+                + " wasted: " + wastedCount + " (" + wastedBytes + " bytes, " + wastedNanos / 1000000 + " ms)"
+                + " unread: " + unread.size() + " accuracy: " + String.format("%.3f", getAccuracy());
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public synchronized long getReadCount() {
+        return readCount;
+    }
+
+    public synchronized long getStrideCount() {
+        return strideCount;
+    }
+
+    public synchronized long getHotClusterCount() {
+        return hotClusterCount;
+    }
+
+    public synchronized long getIssuedCount() {
+        return issuedCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized long getCompletedCount() {
+        return completedCount;
+    }
+
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+
+    public synchronized long getUsefulCount() {
+        return usefulCount;
+    }
+
+    /**
+     * Returns the number of reads of chunks that were still being prefetched, which waited for the prefetch.
+     *
+     * @return the number of late prefetches
+     */
+    public synchronized long getLateCount() {
+        return lateCount;
+    }
+
+    public synchronized long getWastedCount() {
+        return wastedCount;
+    }
+
+    public synchronized long getWastedBytes() {
+        return wastedBytes;
+    }
+
+    public synchronized long getWastedNanos() {
+        return wastedNanos;
+    }
+
+    public synchronized long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    public synchronized int getUnreadCount() {
+        return unread.size();
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+}
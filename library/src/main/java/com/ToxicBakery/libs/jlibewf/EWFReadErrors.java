@@ -0,0 +1,116 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * The <code>EWFReadErrors</code> class collects the media chunks that could not be read by a tolerant bulk read,
+ * such as chunks that fail to decompress, fail their Adler32 checksum or cannot be located through their table
+ * section. Tolerant reads fill the bytes of such chunks with the fill byte and continue with the next chunk.
+ * <p>An instance may be passed to many reads, such as the reads of a whole image scan, and is thread safe.
+ * A chunk is recorded once, with the first error found.
+ */
+public class EWFReadErrors {
+
+    private final byte fill;
+    private final TreeMap<Integer, ChunkError> errors = new TreeMap<>();
+
+    /**
+     * Constructs an error map whose unreadable chunks read as zeros.
+     */
+    @SuppressWarnings("unused")
+    public EWFReadErrors() {
+        this((byte) 0);
+    }
+
+    /**
+     * Constructs an error map whose unreadable chunks read as the given fill byte.
+     *
+     * @param fill the byte to fill unreadable chunks with
+     */
+    public EWFReadErrors(byte fill) {
+        this.fill = fill;
+    }
+
+    public byte getFill() {
+        return fill;
+    }
+
+    // records the error of a chunk unless the chunk is already recorded
+    synchronized void add(int chunkIndex, long imageOffset, IOException e) {
+        if (!errors.containsKey(chunkIndex)) {
+            EWFFileReader.logger.info("com.ToxicBakery.libs.jlibewf.EWFReadErrors.add: chunk " + chunkIndex
+                    + " filled: " + e.getMessage());
+            errors.put(chunkIndex, new ChunkError(chunkIndex, imageOffset, e.getMessage()));
+        }
+    }
+
+    /**
+     * Returns the number of unreadable chunks.
+     *
+     * @return the number of chunks recorded
+     */
+    public synchronized int getErrorCount() {
+        return errors.size();
+    }
+
+    /**
+     * Indicates whether a chunk was found unreadable.
+     *
+     * @param chunkIndex the index of the chunk within the media image
+     * @return true if the chunk is recorded
+     */
+    @SuppressWarnings("unused")
+    public synchronized boolean contains(int chunkIndex) {
+        return errors.containsKey(chunkIndex);
+    }
+
+    /**
+     * Returns the unreadable chunks in chunk order.
+     *
+     * @return a copy of the recorded errors
+     */
+    public synchronized List<ChunkError> getErrors() {
+        return new ArrayList<>(errors.values());
+    }
+
+    /**
+     * The <code>ChunkError</code> class describes an unreadable chunk.
+     */
+    public static final class ChunkError {
+
+        private final int chunkIndex;
+        private final long imageOffset;
+        private final String message;
+
+        ChunkError(int chunkIndex, long imageOffset, String message) {
+            this.chunkIndex = chunkIndex;
+            this.imageOffset = imageOffset;
+            this.message = message;
+        }
+
+        /**
+         * Provides a visual representation of this object.
+         *
+         * @return the chunk and its error as text
+         */
+        public String toString() {
+            return "Chunk " + chunkIndex + " at image offset "
+                    + String.format(EWFFileReader.LONG_FORMAT, imageOffset) + ": " + message;
+        }
+
+        public int getChunkIndex() {
+            return chunkIndex;
+        }
+
+        public long getImageOffset() {
+            return imageOffset;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * The <code>EWFRecompressor</code> class writes an EWF image as a new set of segment files with its chunks
+ * compressed at another level.
+ * <p>Chunks are read in order and decompressed and deflated in parallel on a pool of worker threads, while the
+ * deflated chunks are written in order. Chunks that hold only zeros are replaced by a shared chunk deflated at the
+ * best level, even when storing chunks uncompressed, and chunks that do not shrink are stored uncompressed with their
+ * Adler32 checksum. The written image is read back and its media compared to the source media by MD5.
+ */
+public class EWFRecompressor {
+
+    /**
+     * The number of chunks each worker thread may have queued ahead of the writer, {@value}.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final EWFFileReader source;
+
+    /**
+     * Constructs a recompressor for an EWF image.
+     *
+     * @param source the reader for the EWF image to recompress
+     */
+    public EWFRecompressor(EWFFileReader source) {
+        this.source = source;
+    }
+
+    /**
+     * Writes the image as a new set of segment files with its chunks deflated at the given level.
+     *
+     * @param firstFile        the first segment file to write, ending in <code>.E01</code>
+     * @param maxSegmentSize   the maximum size in bytes of a segment file
+     * @param compressionLevel the deflate level from 0 to 9, where 0 stores chunks uncompressed
+     * @param threadCount      the number of worker threads to deflate chunks with
+     * @return the recompression result
+     * @throws IOException if the image cannot be read, the segment files cannot be written or the written media
+     *                     differs from the source media
+     */
+    public Result recompress(File firstFile, long maxSegmentSize, final int compressionLevel, int threadCount)
+            throws IOException {
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid thread count: " + threadCount);
+        }
+
+        final int chunkSize = source.getChunkSize();
+        final byte[] zeroChunk = deflate(new byte[chunkSize], chunkSize, Deflater.BEST_COMPRESSION);
+        final EWFSegmentFileWriter writer = new EWFSegmentFileWriter(firstFile, maxSegmentSize);
+        final MessageDigest sourceDigest = newMD5();
+        final int[] zeroChunkCount = new int[1];
+        final Deque<Future<Encoded>> queue = new ArrayDeque<>();
+        final int queueSize = threadCount * CHUNKS_PER_THREAD;
+        final ThreadLocal<EWFSegmentFileReader> decoders = new ThreadLocal<EWFSegmentFileReader>() {
+            @Override
+            protected EWFSegmentFileReader initialValue() {
+                return new EWFSegmentFileReader(EWFFileReader.LONG_FORMAT);
+            }
+        };
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        boolean finished = false;
+        try {
+            // copy the metadata sections, recording the new compression level
+            writer.addSourceSections(source);
+            writer.setVolumeCompressionLevel(compressionLevel == Deflater.NO_COMPRESSION ? 0
+                    : compressionLevel == Deflater.BEST_COMPRESSION ? 2 : 1);
+
+            // queue each chunk for encoding, writing the encoded chunks in order
+            source.visitChunks(new EWFChunkVisitor() {
+                @Override
+                public void visit(final EWFChunk chunk) throws IOException {
+                    if (queue.size() == queueSize) {
+                        writeEncoded(writer, getResult(queue.removeFirst()), sourceDigest, zeroChunkCount);
+                    }
+                    queue.addLast(executorService.submit(new Callable<Encoded>() {
+                        @Override
+                        public Encoded call() throws IOException {
+                            byte[] bytes = decoders.get().decodeChunk(chunk.getLocation(), chunk.getStoredBytes(),
+                                    chunkSize, true);
+                            return encode(bytes, chunkSize, compressionLevel, zeroChunk);
+                        }
+                    }));
+                }
+            });
+            while (!queue.isEmpty()) {
+                writeEncoded(writer, getResult(queue.removeFirst()), sourceDigest, zeroChunkCount);
+            }
+            writer.close();
+            finished = true;
+        } finally {
+            executorService.shutdownNow();
+            if (!finished) {
+                writer.abort();
+            }
+        }
+
+        // read back the written image to verify its media
+        byte[] md5 = sourceDigest.digest();
+        EWFFileReader target = new EWFFileReader(firstFile);
+        try {
+            final MessageDigest targetDigest = newMD5();
+            target.visitChunks(new EWFChunkVisitor() {
+                @Override
+                public void visit(EWFChunk chunk) throws IOException {
+                    targetDigest.update(chunk.getBytes());
+                }
+            });
+            if (!MessageDigest.isEqual(md5, targetDigest.digest())) {
+                throw new IOException("Recompressed media differs from the source media: " + firstFile);
+            }
+        } finally {
+            target.close();
+        }
+
+        // the source size is the size of all of its segment files
+        long sourceBytes = 0;
+        EWFSectionIndex sectionIndex = source.getSectionIndex();
+        for (int segmentId = 0; segmentId < sectionIndex.getSegmentCount(); segmentId++) {
+            sourceBytes += source.getSegmentLength(sectionIndex.getSegment(segmentId));
+        }
+        return new Result(writer.getSegmentCount(), writer.getChunkCount(), zeroChunkCount[0], sourceBytes,
+                writer.getBytesWritten(), md5);
+    }
+
+    // writes an encoded chunk, adding its media to the digest and counting it if it held zeros
+    private static void writeEncoded(EWFSegmentFileWriter writer, Encoded encoded, MessageDigest digest,
+                                     int[] zeroChunkCount) throws IOException {
+        writer.writeChunk(encoded.storedBytes, encoded.compressed);
+        digest.update(encoded.bytes);
+        if (encoded.zero) {
+            zeroChunkCount[0]++;
+        }
+    }
+
+    // returns the stored form of the media bytes of a chunk
+    private static Encoded encode(byte[] bytes, int chunkSize, int compressionLevel, byte[] zeroChunk) {
+        // whole chunks of zeros share the same deflated chunk
+        if (bytes.length == chunkSize && isZero(bytes)) {
+            return new Encoded(bytes, zeroChunk, true, true);
+        }
+        if (compressionLevel != Deflater.NO_COMPRESSION) {
+            byte[] deflated = deflate(bytes, bytes.length + 4, compressionLevel);
+            if (deflated != null) {
+                return new Encoded(bytes, deflated, true, false);
+            }
+        }
+
+        // store the media followed by its Adler32 checksum
+        Adler32 adler32 = new Adler32();
+        adler32.update(bytes, 0, bytes.length);
+        byte[] stored = Arrays.copyOf(bytes, bytes.length + 4);
+        ByteBuffer.wrap(stored, bytes.length, 4).order(ByteOrder.LITTLE_ENDIAN).putInt((int) adler32.getValue());
+        return new Encoded(bytes, stored, false, false);
+    }
+
+    // indicates whether the bytes are all zero
+    private static boolean isZero(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // deflates the bytes, returning null if they deflate to the given size or more
+    private static byte[] deflate(byte[] bytes, int maxSize, int compressionLevel) {
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            byte[] buffer = new byte[maxSize];
+            int length = 0;
+            while (!deflater.finished() && length < maxSize) {
+                length += deflater.deflate(buffer, length, maxSize - length);
+            }
+            return deflater.finished() && length < maxSize ? Arrays.copyOf(buffer, length) : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // returns a new MD5 message digest
+    private static MessageDigest newMD5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // returns the result of a worker, rethrowing its failure
+    private static Encoded getResult(Future<Encoded> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while recompressing chunks");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Recompression failed", e.getCause());
+        }
+    }
+
+    /**
+     * A chunk encoded by a worker thread.
+     */
+    private static class Encoded {
+
+        private final byte[] bytes;
+        private final byte[] storedBytes;
+        private final boolean compressed;
+        private final boolean zero;
+
+        Encoded(byte[] bytes, byte[] storedBytes, boolean compressed, boolean zero) {
+            this.bytes = bytes;
+            this.storedBytes = storedBytes;
+            this.compressed = compressed;
+            this.zero = zero;
+        }
+    }
+
+    /**
+     * The <code>Result</code> class describes the recompressed image.
+     */
+    public static final class Result {
+
+        private final int segmentCount;
+        private final int chunkCount;
+        private final int zeroChunkCount;
+        private final long sourceBytes;
+        private final long bytesWritten;
+        private final byte[] md5;
+
+        Result(int segmentCount, int chunkCount, int zeroChunkCount, long sourceBytes, long bytesWritten,
+               byte[] md5) {
+            this.segmentCount = segmentCount;
+            this.chunkCount = chunkCount;
+            this.zeroChunkCount = zeroChunkCount;
+            this.sourceBytes = sourceBytes;
+            this.bytesWritten = bytesWritten;
+            this.md5 = md5;
+        }
+
+        public int getSegmentCount() {
+            return segmentCount;
+        }
+
+        public int getChunkCount() {
+            return chunkCount;
+        }
+
+        /**
+         * Returns the number of chunks holding only zeros, which were replaced by the shared deflated zero chunk.
+         *
+         * @return the number of zero chunks
+         */
+        public int getZeroChunkCount() {
+            return zeroChunkCount;
+        }
+
+        /**
+         * Returns the total size in bytes of the segment files of the source image.
+         *
+         * @return the size of the source image
+         */
+        public long getSourceBytes() {
+            return sourceBytes;
+        }
+
+        /**
+         * Returns the total size in bytes of the written segment files.
+         *
+         * @return the number of bytes written
+         */
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * Returns the number of bytes saved, which is negative if the written image is larger than the source.
+         *
+         * @return the source size less the written size
+         */
+        public long getSpaceSaved() {
+            return sourceBytes - bytesWritten;
+        }
+
+        /**
+         * Returns the MD5 of the media, which was verified against the written image.
+         *
+         * @return the MD5 digest
+         */
+        public byte[] getMD5() {
+            return md5.clone();
+        }
+    }
+}
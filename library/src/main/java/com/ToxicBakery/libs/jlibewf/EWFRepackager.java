@@ -0,0 +1,90 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The <code>EWFRepackager</code> class splits or joins the segment files of an EWF image into a new segment file
+ * layout without recompressing it.
+ * <p>The stored chunks located through the table section chunk offsets are copied verbatim, so only the section
+ * prefixes, tables and their Adler32 checksums are written anew. The header, volume, hash and digest sections of
+ * the source are copied unchanged, as the media stream is unchanged.
+ */
+public class EWFRepackager {
+
+    private final EWFFileReader source;
+
+    /**
+     * Constructs a repackager for an EWF image.
+     *
+     * @param source the reader for the EWF image to repackage
+     */
+    public EWFRepackager(EWFFileReader source) {
+        this.source = source;
+    }
+
+    /**
+     * Writes the image as a new set of segment files. Joining all segment files is done by choosing a maximum
+     * segment size larger than the image.
+     *
+     * @param firstFile      the first segment file to write, ending in <code>.E01</code>
+     * @param maxSegmentSize the maximum size in bytes of a segment file
+     * @return the repackaging result
+     * @throws IOException if the image cannot be read or the segment files cannot be written
+     */
+    public Result repackage(File firstFile, long maxSegmentSize) throws IOException {
+        final EWFSegmentFileWriter writer = new EWFSegmentFileWriter(firstFile, maxSegmentSize);
+        boolean finished = false;
+        try {
+            writer.addSourceSections(source);
+
+            // copy the stored chunks in order without decompressing them
+            source.visitChunks(new EWFChunkVisitor() {
+                @Override
+                public void visit(EWFChunk chunk) throws IOException {
+                    writer.writeChunk(chunk.getStoredBytes(), chunk.isCompressed());
+                }
+            });
+            writer.close();
+            finished = true;
+        } finally {
+            if (!finished) {
+                writer.abort();
+            }
+        }
+        return new Result(writer.getSegmentCount(), writer.getChunkCount(), writer.getBytesWritten());
+    }
+
+    /**
+     * The <code>Result</code> class describes the written segment files.
+     */
+    public static final class Result {
+
+        private final int segmentCount;
+        private final int chunkCount;
+        private final long bytesWritten;
+
+        Result(int segmentCount, int chunkCount, long bytesWritten) {
+            this.segmentCount = segmentCount;
+            this.chunkCount = chunkCount;
+            this.bytesWritten = bytesWritten;
+        }
+
+        public int getSegmentCount() {
+            return segmentCount;
+        }
+
+        public int getChunkCount() {
+            return chunkCount;
+        }
+
+        /**
+         * Returns the total size in bytes of the written segment files.
+         *
+         * @return the number of bytes written
+         */
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+    }
+}
@@ -23,7 +23,9 @@ import com.ToxicBakery.libs.jlibewf.section.TableSection;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -33,6 +35,7 @@ import java.util.Map;
 public class EWFSection {
 
     private static final Map<String, SectionType> MAP = new HashMap<>();
+    private static final List<SectionType> ORDINALS = new ArrayList<>();
 
     /**
      * Indicates whether the specified long is a positive integer.
@@ -87,12 +90,10 @@ public class EWFSection {
         /**
          * Sectors Section type.
          */
-        @SuppressWarnings("unused")
         public static final SectionType SECTORS_TYPE = new SectionType("sectors");
         /**
          * Table2 Section type.
          */
-        @SuppressWarnings("unused")
         public static final SectionType TABLE2_TYPE = new SectionType("table2");
         /**
          * LTree Section type.
@@ -102,17 +103,18 @@ public class EWFSection {
         /**
          * Digest Section type.
          */
-        @SuppressWarnings("unused")
         public static final SectionType DIGEST_TYPE = new SectionType("digest");
         /**
          * Hash Section type.
          */
-        @SuppressWarnings("unused")
         public static final SectionType HASH_TYPE = new SectionType("hash");
 
         // the name of the Section type.
         private String sectionTypeString;
 
+        // the position of the Section type in the order of declaration.
+        private int ordinal;
+
         private SectionType(String sectionTypeString) {
             // make sure the type is not added twice
             if (MAP.containsKey(sectionTypeString)) {
@@ -121,7 +123,29 @@ public class EWFSection {
 
             // add the section type
             this.sectionTypeString = sectionTypeString;
+            ordinal = ORDINALS.size();
             MAP.put(sectionTypeString, this);
+            ORDINALS.add(this);
+        }
+
+        /**
+         * Returns the SectionType object with the given ordinal.
+         *
+         * @param ordinal the ordinal of the section type
+         * @return the SectionType object with the given ordinal
+         * @throws IndexOutOfBoundsException if there is no section type with the ordinal
+         */
+        public static SectionType getSectionType(int ordinal) {
+            return ORDINALS.get(ordinal);
+        }
+
+        /**
+         * Returns the position of this section type in the order of declaration, suitable for compact storage.
+         *
+         * @return the ordinal of this section type
+         */
+        public int ordinal() {
+            return ordinal;
         }
 
         /**
@@ -170,6 +194,18 @@ public class EWFSection {
          * @throws IOException If an I/O error occurs, which is possible if the requested read fails
          */
         public ChunkTable(EWFSegmentFileReader reader, SectionPrefix sectionPrefix, String longFormat) throws IOException {
+            this(reader, sectionPrefix, longFormat, true);
+        }
+
+        /**
+         * Constructs a chunk table from the given section prefix.
+         *
+         * @param sectionPrefix the section prefix from which this header section is composed
+         * @param verify        whether to check the Adler32 checksum of the chunk table
+         * @throws IOException If an I/O error occurs, which is possible if the requested read fails
+         */
+        public ChunkTable(EWFSegmentFileReader reader, SectionPrefix sectionPrefix, String longFormat, boolean verify)
+                throws IOException {
 
             this.longFormat = longFormat;
             file = sectionPrefix.getFile();
@@ -195,7 +231,7 @@ public class EWFSection {
                 numBytes = chunkCount * 4 + 4;
 
                 // read table with Adler32 checksum bytes
-                bytes = reader.readAdler32(file, address, numBytes);
+                bytes = reader.readAdler32(file, address, numBytes, verify);
 
                 // Although not required by the spec, note if there are extra bytes in the table section
                 if (sectionPrefix.getSectionSize() != TableSection.OFFSET_ARRAY_OFFSET + chunkCount * 4 + 4) {
@@ -0,0 +1,269 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import com.ToxicBakery.libs.jlibewf.section.SectionPrefix;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The <code>EWFSectionIndex</code> class holds the section prefixes of a serial sequence of EWF files as
+ * parallel primitive arrays rather than as objects. Each section is identified by its position within the index.
+ * <p>Sections are added in the order they are walked, so the sections of a segment file are contiguous and the
+ * sections holding chunk tables are in chunk order, which allows chunk lookups by binary search.
+ * <code>getSectionPrefix</code> provides a <code>SectionPrefix</code> view of a section for callers that
+ * parse section contents.
+ */
+public class EWFSectionIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String longFormat;
+
+    /**
+     * The segment files by segment id.
+     */
+    private final List<File> segments = new ArrayList<>();
+
+    /**
+     * The index of the first section of each segment file, by segment id.
+     */
+    private int[] segmentFirstSections = new int[INITIAL_CAPACITY];
+
+    private int count;
+    private int[] segmentIds = new int[INITIAL_CAPACITY];
+    private long[] fileOffsets = new long[INITIAL_CAPACITY];
+    private long[] nextOffsets = new long[INITIAL_CAPACITY];
+    private long[] sectionSizes = new long[INITIAL_CAPACITY];
+    private byte[] typeOrdinals = new byte[INITIAL_CAPACITY];
+    private int[] chunkIndexes = new int[INITIAL_CAPACITY];
+    private int[] chunkCounts = new int[INITIAL_CAPACITY];
+
+    /**
+     * The sections holding chunk tables, in chunk order.
+     */
+    private int tableCount;
+    private int[] tableSections = new int[INITIAL_CAPACITY];
+
+    /**
+     * Constructs an empty section index.
+     *
+     * @param longFormat the format for formatting long to string
+     */
+    public EWFSectionIndex(String longFormat) {
+        this.longFormat = longFormat;
+    }
+
+    /**
+     * Adds a section to the end of the index.
+     *
+     * @param sectionPrefix the section prefix of the section
+     * @return the index of the added section
+     */
+    public int add(SectionPrefix sectionPrefix) {
+        // assign the segment id, segment files being added in order
+        int segmentId = segments.size() - 1;
+        if (segmentId < 0 || segments.get(segmentId) != sectionPrefix.getFile()) {
+            segmentId++;
+            segments.add(sectionPrefix.getFile());
+            if (segmentId == segmentFirstSections.length) {
+                segmentFirstSections = Arrays.copyOf(segmentFirstSections, segmentId * 2);
+            }
+            segmentFirstSections[segmentId] = count;
+        }
+
+        // grow the arrays
+        if (count == fileOffsets.length) {
+            int capacity = count * 2;
+            segmentIds = Arrays.copyOf(segmentIds, capacity);
+            fileOffsets = Arrays.copyOf(fileOffsets, capacity);
+            nextOffsets = Arrays.copyOf(nextOffsets, capacity);
+            sectionSizes = Arrays.copyOf(sectionSizes, capacity);
+            typeOrdinals = Arrays.copyOf(typeOrdinals, capacity);
+            chunkIndexes = Arrays.copyOf(chunkIndexes, capacity);
+            chunkCounts = Arrays.copyOf(chunkCounts, capacity);
+        }
+
+        // set the section values
+        segmentIds[count] = segmentId;
+        fileOffsets[count] = sectionPrefix.getFileOffset();
+        nextOffsets[count] = sectionPrefix.getNextOffset();
+        sectionSizes[count] = sectionPrefix.getSectionSize();
+        typeOrdinals[count] = (byte) sectionPrefix.getSectionType().ordinal();
+        chunkIndexes[count] = sectionPrefix.getChunkIndex();
+        chunkCounts[count] = sectionPrefix.getChunkCount();
+
+        // note sections holding chunk tables
+        if (sectionPrefix.getChunkCount() > 0) {
+            if (tableCount == tableSections.length) {
+                tableSections = Arrays.copyOf(tableSections, tableCount * 2);
+            }
+            tableSections[tableCount++] = count;
+        }
+
+        return count++;
+    }
+
+    /**
+     * Removes all sections.
+     */
+    public void clear() {
+        segments.clear();
+        count = 0;
+        tableCount = 0;
+    }
+
+    /**
+     * Returns the number of sections.
+     *
+     * @return the number of sections
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the index of the section whose chunk table contains the given chunk.
+     *
+     * @param chunkIndex the index of the chunk within the media image
+     * @return the index of the section or -1 if no chunk table contains the chunk
+     */
+    public int findTableSection(int chunkIndex) {
+        int low = 0;
+        int high = tableCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int section = tableSections[middle];
+            if (chunkIndex < chunkIndexes[section]) {
+                high = middle - 1;
+            } else if (chunkIndex >= chunkIndexes[section] + chunkCounts[section]) {
+                low = middle + 1;
+            } else {
+                return section;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the section of the given segment file that encloses the given file address.
+     *
+     * @param segmentId   the segment id of the file
+     * @param fileAddress the offset address into the file
+     * @return the index of the section or -1 if no section encloses the address
+     */
+    public int findEnclosingSection(int segmentId, long fileAddress) {
+        int end = segmentId + 1 < segments.size() ? segmentFirstSections[segmentId + 1] : count;
+        for (int section = segmentFirstSections[segmentId]; section < end; section++) {
+            if (fileOffsets[section] < fileAddress && nextOffsets[section] > fileAddress) {
+                return section;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a <code>SectionPrefix</code> view of the section, for parsing the section contents.
+     *
+     * @param section the index of the section
+     * @return the section prefix of the section
+     */
+    public SectionPrefix getSectionPrefix(int section) {
+        checkSection(section);
+        return new SectionPrefix(getFile(section), getSectionType(section), fileOffsets[section],
+                nextOffsets[section], sectionSizes[section], chunkIndexes[section], chunkCounts[section], longFormat);
+    }
+
+    private void checkSection(int section) {
+        if (section < 0 || section >= count) {
+            throw new IndexOutOfBoundsException("Invalid section: " + section);
+        }
+    }
+
+    /**
+     * Returns the number of segment files.
+     *
+     * @return the number of segment files
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Returns the segment file with the given segment id.
+     *
+     * @param segmentId the segment id
+     * @return the segment file
+     */
+    public File getSegment(int segmentId) {
+        return segments.get(segmentId);
+    }
+
+    public int getSegmentId(int section) {
+        checkSection(section);
+        return segmentIds[section];
+    }
+
+    public File getFile(int section) {
+        return segments.get(getSegmentId(section));
+    }
+
+    public EWFSection.SectionType getSectionType(int section) {
+        checkSection(section);
+        return EWFSection.SectionType.getSectionType(typeOrdinals[section]);
+    }
+
+    public long getFileOffset(int section) {
+        checkSection(section);
+        return fileOffsets[section];
+    }
+
+    public long getNextOffset(int section) {
+        checkSection(section);
+        return nextOffsets[section];
+    }
+
+    public long getSectionSize(int section) {
+        checkSection(section);
+        return sectionSizes[section];
+    }
+
+    public int getChunkIndex(int section) {
+        checkSection(section);
+        return chunkIndexes[section];
+    }
+
+    public int getChunkCount(int section) {
+        checkSection(section);
+        return chunkCounts[section];
+    }
+
+    public int getNextChunkIndex(int section) {
+        checkSection(section);
+        return chunkIndexes[section] + chunkCounts[section];
+    }
+
+    /**
+     * Returns the number of heap bytes held by the arrays of this index, excluding the segment file objects.
+     *
+     * @return the approximate memory footprint in bytes
+     */
+    public long getMemoryFootprint() {
+        // each array has a header of about 16 bytes
+        long arrays = 16L * 9;
+        long sections = (long) fileOffsets.length * (4 + 8 + 8 + 8 + 1 + 4 + 4);
+        long segmentList = (long) segmentFirstSections.length * 4 + (long) segments.size() * 8;
+        return arrays + sections + (long) tableSections.length * 4 + segmentList;
+    }
+
+    /**
+     * Provides a visual representation of this object.
+     *
+     * @return the size of the index as text
+     */
+    public String toString() {
+        return "EWFSectionIndex: sections: " + count + " tables: " + tableCount + " segments: " + segments.size()
+                + " footprint: " + getMemoryFootprint() + " bytes";
+    }
+}
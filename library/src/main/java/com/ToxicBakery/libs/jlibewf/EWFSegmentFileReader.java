@@ -21,9 +21,11 @@ package com.ToxicBakery.libs.jlibewf;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
 import java.util.zip.Adler32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
@@ -45,7 +47,7 @@ public class EWFSegmentFileReader {
     /**
      * EWF file signature magic number and file offset
      */
-    private static final byte[] EWF_SIGNATURE = {0x45, 0x56, 0x46, 0x09, 0x0d, 0x0a, (byte) 0xff, 0x00};
+    static final byte[] EWF_SIGNATURE = {0x45, 0x56, 0x46, 0x09, 0x0d, 0x0a, (byte) 0xff, 0x00};
     private static final byte[] SERIAL_E99 = new byte[]{'E', '9', '9'};
     private static final byte[] SERIAL_EAA = new byte[]{'E', 'A', 'A'};
 
@@ -60,9 +62,15 @@ public class EWFSegmentFileReader {
     private final Inflater inflater;
 
     private final String longFormat;
+
+    /**
+     * The source of the segment bytes, or null to read local segment files
+     */
+    private final EWFSegmentSource segmentSource;
     private File currentOpenedFile;
     private FileInputStream currentOpenedFileInputStream;
     private FileChannel currentOpenedFileChannel;
+    private Runnable fileOpenListener;
 
     /**
      * Sets the format for formatting long to string.
@@ -70,9 +78,20 @@ public class EWFSegmentFileReader {
      * The default value is <code>"%1$d (0x%1$08x)"</code>
      */
     EWFSegmentFileReader(String longFormat) {
+        this(longFormat, null);
+    }
+
+    /**
+     * Constructs a reader reading the segment bytes through a segment source.
+     *
+     * @param longFormat    the format for formatting long to string
+     * @param segmentSource the source of the segment bytes, or null to read local segment files
+     */
+    EWFSegmentFileReader(String longFormat, EWFSegmentSource segmentSource) {
         adler32 = new Adler32();
         inflater = new Inflater();
         this.longFormat = longFormat;
+        this.segmentSource = segmentSource;
     }
 
     /**
@@ -323,10 +342,31 @@ public class EWFSegmentFileReader {
                 throw new IOException("Invalid E01 file signature");
             }
 
+            if (fileOpenListener != null) {
+                fileOpenListener.run();
+            }
             return currentOpenedFileChannel;
         }
     }
 
+    /**
+     * Sets the listener notified each time a segment file is opened, such as to keep a limit on open files.
+     *
+     * @param fileOpenListener the listener, or null
+     */
+    void setFileOpenListener(Runnable fileOpenListener) {
+        this.fileOpenListener = fileOpenListener;
+    }
+
+    /**
+     * Indicates whether a file channel is currently open.
+     *
+     * @return true if a file channel is open
+     */
+    boolean isFileChannelOpen() {
+        return currentOpenedFileChannel != null;
+    }
+
     /**
      * Closes the currently open file channel, if open, releasing resources.
      */
@@ -355,6 +395,11 @@ public class EWFSegmentFileReader {
      */
     public byte[] readRaw(File file, long fileOffset, int numBytes) throws IOException {
 
+        // read through the segment source if there is one
+        if (segmentSource != null) {
+            return readSource(file, fileOffset, numBytes);
+        }
+
         // open the file channel for the file
         FileChannel fileChannel = openFileChannel(file);
 
@@ -374,6 +419,63 @@ public class EWFSegmentFileReader {
         }
     }
 
+    // reads the bytes through the segment source, validating the signature of each segment file first read
+    private byte[] readSource(File file, long fileOffset, int numBytes) throws IOException {
+        try {
+            if (file != currentOpenedFile) {
+                byte[] ewfSignature = new byte[EWF_SIGNATURE.length];
+                segmentSource.read(file, 0, ewfSignature, 0, ewfSignature.length);
+                if (!Arrays.equals(ewfSignature, EWF_SIGNATURE)) {
+                    throw new IOException("Invalid E01 file signature");
+                }
+                currentOpenedFile = file;
+            }
+            byte[] bytes = new byte[numBytes];
+            segmentSource.read(file, fileOffset, bytes, 0, numBytes);
+            return bytes;
+
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // the read failed
+            throw new EWFIOException("Unable to read from segment source: " + e.getMessage(), file, fileOffset,
+                    longFormat);
+        }
+    }
+
+    /**
+     * Indicates whether a segment file exists.
+     *
+     * @param file the segment file
+     * @return true if the segment file exists
+     * @throws IOException if the segment source cannot be queried
+     */
+    boolean exists(File file) throws IOException {
+        return segmentSource != null ? segmentSource.exists(file) : file.exists();
+    }
+
+    /**
+     * Returns the size of a segment file.
+     *
+     * @param file the segment file
+     * @return the size in bytes
+     * @throws IOException if the segment source cannot be queried
+     */
+    long getLength(File file) throws IOException {
+        return segmentSource != null ? segmentSource.getLength(file) : file.length();
+    }
+
+    /**
+     * Returns the modification time of a segment file.
+     *
+     * @param file the segment file
+     * @return the modification time in milliseconds, or 0 if unknown
+     * @throws IOException if the segment source cannot be queried
+     */
+    long getLastModified(File file) throws IOException {
+        return segmentSource != null ? segmentSource.getLastModified(file) : file.lastModified();
+    }
+
     /**
      * Returns the bytes from the specified EWF file and offset.
      * The last four bytes are the Adler32 checksum, which is checked.
@@ -393,6 +495,53 @@ public class EWFSegmentFileReader {
         // read the raw bytes
         byte[] bytes = readRaw(file, fileOffset, numBytes);
 
+        // check the Adler32 checksum
+        verifyAdler32(file, fileOffset, bytes);
+
+        // return the requested bytes
+        return bytes;
+    }
+
+    /**
+     * Returns the bytes from the specified EWF file and offset, checking the trailing Adler32 checksum only if
+     * requested. The checksum bytes are returned either way.
+     *
+     * @param file       the file to read from
+     * @param fileOffset the byte offset address in the file to read from
+     * @param numBytes   the number of bytes to read
+     * @param verify     whether to check the Adler32 checksum
+     * @throws IOException If the bytes cannot be read or if the Adler32 checksum fails
+     */
+    public byte[] readAdler32(File file, long fileOffset, int numBytes, boolean verify) throws IOException {
+        if (verify) {
+            return readAdler32(file, fileOffset, numBytes);
+        }
+
+        // verify proper input
+        if (numBytes <= 4) {
+            throw new EWFIOException("Invalid Adler32 read too short: " + numBytes + " bytes", file, fileOffset, longFormat);
+        }
+        return readRaw(file, fileOffset, numBytes);
+    }
+
+    /**
+     * Verifies bytes that were already read from the specified EWF file and offset.
+     * The last four bytes are the Adler32 checksum, which is checked.
+     * An IOException is thrown if the Adler32 checksum fails.
+     *
+     * @param file       the file the bytes were read from, used for reporting
+     * @param fileOffset the byte offset address in the file the bytes were read from, used for reporting
+     * @param bytes      the bytes to verify, including the four trailing checksum bytes
+     * @throws IOException If the Adler32 checksum fails
+     */
+    public void verifyAdler32(File file, long fileOffset, byte[] bytes) throws IOException {
+        int numBytes = bytes.length;
+
+        // verify proper input
+        if (numBytes <= 4) {
+            throw new EWFIOException("Invalid Adler32 read too short: " + numBytes + " bytes", file, fileOffset, longFormat);
+        }
+
         // calculate the Adler32 checksum
         adler32.reset();
         adler32.update(bytes, 0, numBytes - 4);
@@ -407,9 +556,6 @@ public class EWFSegmentFileReader {
                     + "\n" + makeByteLog("Bytes failing Adler32 checksum", bytes));
             throw new EWFIOException("Invalid Adler32 checksum on " + numBytes + " bytes", file, fileOffset, longFormat);
         }
-
-        // return the requested bytes
-        return bytes;
     }
 
     /**
@@ -427,19 +573,67 @@ public class EWFSegmentFileReader {
         // read the raw bytes
         byte[] inBytes = readRaw(file, fileOffset, numBytes);
 
+        // decompress the bytes
+        return inflate(file, fileOffset, inBytes, chunkSize);
+    }
+
+    /**
+     * Returns the decompressed form of bytes that were already read from the specified EWF file and offset.
+     * The bytes must properly decompress.
+     * An IOException is thrown if the decompression fails.
+     *
+     * @param file       the file the bytes were read from, used for reporting
+     * @param fileOffset the byte offset address in the file the bytes were read from, used for reporting
+     * @param inBytes    the compressed bytes
+     * @param chunkSize  the maximum number of decompressed bytes
+     * @throws IOException If the decompression fails
+     */
+    public byte[] inflate(File file, long fileOffset, byte[] inBytes, int chunkSize) throws IOException {
+
         // allocate temp space for the deflated bytes
         byte[] outBytes = new byte[chunkSize];
 
+        // get the output in outBytes
+        int decompressedLength = inflate(file, fileOffset, inBytes, outBytes, 0, chunkSize);
+
+        // return the deflated bytes
+        if (decompressedLength == chunkSize) {
+            // return the array
+            return outBytes;
+        } else {
+            //  Copy to a new buffer of the correct size
+            byte[] cpy = new byte[decompressedLength];
+            System.arraycopy(outBytes, 0, cpy, 0, decompressedLength);
+            return cpy;
+        }
+    }
+
+    /**
+     * Decompresses bytes that were already read from the specified EWF file and offset directly into the
+     * destination array. The bytes must properly decompress.
+     *
+     * @param file              the file the bytes were read from, used for reporting
+     * @param fileOffset        the byte offset address in the file the bytes were read from, used for reporting
+     * @param inBytes           the compressed bytes
+     * @param destination       the array to decompress into
+     * @param destinationOffset the offset within the destination to decompress to
+     * @param chunkSize         the maximum number of decompressed bytes
+     * @return the number of decompressed bytes
+     * @throws IOException If the decompression fails
+     */
+    public int inflate(File file, long fileOffset, byte[] inBytes, byte[] destination, int destinationOffset,
+                       int chunkSize) throws IOException {
+
         // reset the inflater
         inflater.reset();
 
         // run the inflater
         inflater.setInput(inBytes, 0, inBytes.length);
 
-        // get the output in outBytes
+        // get the output in the destination
         int decompressedLength;
         try {
-            decompressedLength = inflater.inflate(outBytes);
+            decompressedLength = inflater.inflate(destination, destinationOffset, chunkSize);
         } catch (DataFormatException e) {
             // the compressed data format is invalid
             throw new EWFIOException(e.getMessage(), file, fileOffset, longFormat);
@@ -453,18 +647,86 @@ public class EWFSegmentFileReader {
                     + "  Needs input = " + inflater.needsInput(),
                     file, fileOffset, longFormat);
         }
+        return decompressedLength;
+    }
 
-        // return the deflated bytes
-        if (decompressedLength == chunkSize) {
-            // return the array
-            return outBytes;
-        } else {
-            //  Copy to a new buffer of the correct size
-            byte[] cpy = new byte[decompressedLength];
-            System.arraycopy(outBytes, 0, cpy, 0, decompressedLength);
-            return cpy;
+    /**
+     * Returns the media bytes of a chunk from its stored form.
+     * Compressed chunks are decompressed, which inherently verifies their checksum.
+     * Uncompressed chunks are verified using their Adler32 checksum, which is removed.
+     *
+     * @param location    the location the stored bytes were read from
+     * @param storedBytes the bytes of the chunk as stored in the segment file
+     * @param chunkSize   the size of media chunks
+     * @throws IOException If the decompression or the Adler32 checksum fails
+     */
+    public byte[] decodeChunk(EWFChunkLocation location, byte[] storedBytes, int chunkSize) throws IOException {
+        return decodeChunk(location, storedBytes, chunkSize, true);
+    }
+
+    /**
+     * Returns the media bytes of a chunk from its stored form, verifying the Adler32 checksum of uncompressed
+     * chunks only if requested. Compressed chunks are always verified by their decompression.
+     *
+     * @param location    the location the stored bytes were read from
+     * @param storedBytes the bytes of the chunk as stored in the segment file
+     * @param chunkSize   the size of media chunks
+     * @param verify      whether to check the Adler32 checksum of uncompressed chunks
+     * @throws IOException If the decompression or the Adler32 checksum fails
+     */
+    public byte[] decodeChunk(EWFChunkLocation location, byte[] storedBytes, int chunkSize, boolean verify)
+            throws IOException {
+        if (location.isCompressed()) {
+            // decompression inherently verifies the checksum
+            return inflate(location.getFile(), location.getFileOffset(), storedBytes, chunkSize);
+        }
+
+        // verify using Adler32
+        if (verify) {
+            verifyAdler32(location.getFile(), location.getFileOffset(), storedBytes);
+        } else if (storedBytes.length < 4) {
+            throw new EWFIOException("Invalid chunk too short: " + storedBytes.length + " bytes",
+                    location.getFile(), location.getFileOffset(), longFormat);
         }
+
+        // remove the four checksum bytes
+        byte[] bytes = new byte[storedBytes.length - 4];
+        System.arraycopy(storedBytes, 0, bytes, 0, bytes.length);
+        return bytes;
     }
 
-}
+    /**
+     * Decodes the media bytes of a chunk from its stored form directly into the destination array, verifying the
+     * Adler32 checksum of uncompressed chunks only if requested.
+     *
+     * @param location          the location the stored bytes were read from
+     * @param storedBytes       the bytes of the chunk as stored in the segment file
+     * @param chunkSize         the size of media chunks
+     * @param verify            whether to check the Adler32 checksum of uncompressed chunks
+     * @param destination       the array to decode into, with room for a whole chunk
+     * @param destinationOffset the offset within the destination to decode to
+     * @return the number of media bytes decoded
+     * @throws IOException If the decompression or the Adler32 checksum fails
+     */
+    public int decodeChunk(EWFChunkLocation location, byte[] storedBytes, int chunkSize, boolean verify,
+                           byte[] destination, int destinationOffset) throws IOException {
+        if (location.isCompressed()) {
+            // decompression inherently verifies the checksum
+            return inflate(location.getFile(), location.getFileOffset(), storedBytes, destination, destinationOffset,
+                    chunkSize);
+        }
+
+        // verify using Adler32
+        if (verify) {
+            verifyAdler32(location.getFile(), location.getFileOffset(), storedBytes);
+        }
+        if (storedBytes.length < 4 || storedBytes.length - 4 > chunkSize) {
+            throw new EWFIOException("Invalid chunk size: " + storedBytes.length + " bytes",
+                    location.getFile(), location.getFileOffset(), longFormat);
+        }
 
+        // copy all but the four checksum bytes
+        System.arraycopy(storedBytes, 0, destination, destinationOffset, storedBytes.length - 4);
+        return storedBytes.length - 4;
+    }
+}
@@ -0,0 +1,470 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import com.ToxicBakery.libs.jlibewf.section.SectionPrefix;
+import com.ToxicBakery.libs.jlibewf.section.VolumeSection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Adler32;
+
+/**
+ * The <code>EWFSegmentFileWriter</code> class writes a new set of segment files from media chunks that are already
+ * stored, either compressed or followed by their Adler32 checksum. The writer lays out the sectors, table and
+ * table2 sections of each segment file and starts a new segment file before one would exceed the maximum segment
+ * size. Chunks must be written in media order.
+ */
+public class EWFSegmentFileWriter {
+
+    /**
+     * The largest number of chunks written to a single table section, as used by EnCase, {@value}.
+     */
+    public static final int MAX_TABLE_CHUNKS = 16375;
+
+    /**
+     * The size of the buffer holding bytes to be written, {@value}.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The size of the table section values before the chunk offset array, {@value}.
+     */
+    private static final int TABLE_HEADER_SIZE = 24;
+
+    /**
+     * The largest offset of a chunk from the table base offset, {@value}.
+     */
+    private static final long MAX_TABLE_OFFSET = 0x7FFFFFFFL;
+
+    /**
+     * The flag marking compressed chunks in the chunk offset array, {@value}.
+     */
+    private static final int COMPRESSED_FLAG = 0x80000000;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final File firstFile;
+    private final long maxSegmentSize;
+    private final List<Section> leadingSections = new ArrayList<>();
+    private final List<Section> segmentSections = new ArrayList<>();
+    private final List<Section> trailingSections = new ArrayList<>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    // the segment file being written
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel fileChannel;
+    private int segmentCount;
+    private long position;
+    private int segmentChunkCount;
+
+    // the sectors section being written and the offsets of its chunks
+    private long sectorsOffset = -1;
+    private int[] tableOffsets = new int[256];
+    private int tableChunkCount;
+
+    private int chunkCount;
+    private long bytesWritten;
+    private boolean closed;
+
+    /**
+     * Constructs a writer of the segment files starting with the given <code>.E01</code> file. Existing segment
+     * files are overwritten.
+     *
+     * @param firstFile      the first segment file to write
+     * @param maxSegmentSize the maximum size in bytes of a segment file, which is only exceeded if a single chunk
+     *                       and its tables do not fit
+     */
+    public EWFSegmentFileWriter(File firstFile, long maxSegmentSize) {
+        if (!EWFSegmentFileReader.isValidFirstEWFFilename(firstFile)) {
+            throw new IllegalArgumentException("Invalid first E01 filename: " + firstFile);
+        }
+        if (maxSegmentSize <= 0) {
+            throw new IllegalArgumentException("Invalid maximum segment size: " + maxSegmentSize);
+        }
+        this.firstFile = firstFile;
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    /**
+     * Adds a section written at the start of the first segment file, such as the header and volume sections.
+     * Sections must be added before the first chunk is written.
+     *
+     * @param sectionType the type of the section
+     * @param data        the section data following the section prefix
+     */
+    @SuppressWarnings("unused")
+    public void addLeadingSection(EWFSection.SectionType sectionType, byte[] data) {
+        addSection(leadingSections, sectionType, data);
+    }
+
+    /**
+     * Adds a section written at the start of every segment file but the first, such as the data section.
+     * Sections must be added before the first chunk is written.
+     *
+     * @param sectionType the type of the section
+     * @param data        the section data following the section prefix
+     */
+    @SuppressWarnings("unused")
+    public void addSegmentSection(EWFSection.SectionType sectionType, byte[] data) {
+        addSection(segmentSections, sectionType, data);
+    }
+
+    /**
+     * Adds a section written at the end of the last segment file before the done section, such as the hash and
+     * digest sections. Sections must be added before the first chunk is written.
+     *
+     * @param sectionType the type of the section
+     * @param data        the section data following the section prefix
+     */
+    @SuppressWarnings("unused")
+    public void addTrailingSection(EWFSection.SectionType sectionType, byte[] data) {
+        addSection(trailingSections, sectionType, data);
+    }
+
+    // adds a section to the list, provided no segment file is written yet
+    private void addSection(List<Section> sections, EWFSection.SectionType sectionType, byte[] data) {
+        if (segmentCount > 0) {
+            throw new IllegalStateException("Sections must be added before chunks are written");
+        }
+        sections.add(new Section(sectionType, data));
+    }
+
+    /**
+     * Adds the metadata sections of the source image, which are the leading sections of its first segment file,
+     * its first data section and the sections following the media of its last segment file. The table
+     * sections of the source are not copied.
+     *
+     * @param source the image whose metadata sections are copied
+     * @throws IOException if the sections cannot be read
+     */
+    @SuppressWarnings("unused")
+    public void addSourceSections(EWFFileReader source) throws IOException {
+        EWFSectionIndex sectionIndex = source.getSectionIndex();
+        boolean media = false;
+        boolean dataAdded = false;
+        for (int section = 0; section < sectionIndex.size(); section++) {
+            EWFSection.SectionType sectionType = sectionIndex.getSectionType(section);
+            if (sectionType == EWFSection.SectionType.SECTORS_TYPE
+                    || sectionType == EWFSection.SectionType.TABLE_TYPE
+                    || sectionType == EWFSection.SectionType.TABLE2_TYPE) {
+                media = true;
+            } else if (sectionType == EWFSection.SectionType.DATA_TYPE && sectionIndex.getSegmentId(section) > 0) {
+                // later segment files repeat the same data section
+                if (!dataAdded) {
+                    addSegmentSection(sectionType, source.readSectionData(section));
+                    dataAdded = true;
+                }
+            } else if (sectionType != EWFSection.SectionType.NEXT_TYPE
+                    && sectionType != EWFSection.SectionType.DONE_TYPE) {
+                if (media) {
+                    addTrailingSection(sectionType, source.readSectionData(section));
+                } else {
+                    addLeadingSection(sectionType, source.readSectionData(section));
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the compression level recorded in the volume, disk and data sections added so far, updating their
+     * Adler32 checksums.
+     *
+     * @param compressionLevel the compression level, 0 for none, 1 for fast and 2 for best
+     */
+    @SuppressWarnings("unused")
+    public void setVolumeCompressionLevel(int compressionLevel) {
+        int offset = VolumeSection.COMPRESSION_LEVEL_OFFSET - SectionPrefix.SECTION_PREFIX_SIZE;
+        List<Section> sections = new ArrayList<>(leadingSections);
+        sections.addAll(segmentSections);
+        for (Section section : sections) {
+            if ((section.sectionType == EWFSection.SectionType.VOLUME_TYPE
+                    || section.sectionType == EWFSection.SectionType.DISK_TYPE
+                    || section.sectionType == EWFSection.SectionType.DATA_TYPE)
+                    && section.data.length >= offset + 1 + 4) {
+                section.data[offset] = (byte) compressionLevel;
+                putWithAdler32(Arrays.copyOf(section.data, section.data.length - 4), section.data, 0);
+            }
+        }
+    }
+
+    /**
+     * Writes the next media chunk as stored, starting a new table or segment file as required.
+     *
+     * @param storedBytes the zlib compressed chunk, or the media bytes followed by their Adler32 checksum
+     * @param compressed  whether the chunk is zlib compressed
+     * @throws IOException if the chunk cannot be written
+     */
+    public void writeChunk(byte[] storedBytes, boolean compressed) throws IOException {
+        if (closed) {
+            throw new IOException("Segment file writer is closed");
+        }
+        if (fileChannel == null) {
+            openSegment();
+        }
+
+        // start a new table when the table is full or its offsets would overflow
+        if (sectorsOffset >= 0 && (tableChunkCount == MAX_TABLE_CHUNKS
+                || position - getTableBaseOffset() > MAX_TABLE_OFFSET)) {
+            finishTable();
+        }
+
+        // start a new segment file when the chunk and the sections closing the segment would not fit
+        long size = position + storedBytes.length + getClosingSize(tableChunkCount + 1);
+        if (sectorsOffset < 0) {
+            size += SectionPrefix.SECTION_PREFIX_SIZE;
+        }
+        if (size > maxSegmentSize && segmentChunkCount > 0) {
+            finishSegment(false);
+            openSegment();
+        }
+
+        // start a sectors section to hold the chunk
+        if (sectorsOffset < 0) {
+            sectorsOffset = position;
+            write(new byte[SectionPrefix.SECTION_PREFIX_SIZE]);
+        }
+
+        // record the chunk offset with respect to the table base offset
+        if (tableChunkCount == tableOffsets.length) {
+            tableOffsets = Arrays.copyOf(tableOffsets, tableChunkCount * 2);
+        }
+        int offset = (int) (position - getTableBaseOffset());
+        tableOffsets[tableChunkCount++] = compressed ? offset | COMPRESSED_FLAG : offset;
+        write(storedBytes);
+        segmentChunkCount++;
+        chunkCount++;
+    }
+
+    /**
+     * Finishes the last segment file with the trailing sections and the done section. An image without chunks is
+     * written as a single segment file.
+     *
+     * @throws IOException if the segment file cannot be written
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (fileChannel == null) {
+            openSegment();
+        }
+        finishSegment(true);
+        closed = true;
+    }
+
+    /**
+     * Closes the open segment file without finishing it, leaving the segment files incomplete.
+     */
+    public void abort() {
+        closed = true;
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                EWFFileReader.logger.info("com.ToxicBakery.libs.jlibewf.EWFSegmentFileWriter.abort: " + e);
+            }
+            randomAccessFile = null;
+            fileChannel = null;
+        }
+    }
+
+    // returns the file offset that chunk offsets of the current table are relative to
+    private long getTableBaseOffset() {
+        return sectorsOffset + SectionPrefix.SECTION_PREFIX_SIZE;
+    }
+
+    // returns the size of the table sections for the given number of chunks, the trailing sections and the done
+    // section
+    private long getClosingSize(int tableChunks) {
+        long tableSize = SectionPrefix.SECTION_PREFIX_SIZE + TABLE_HEADER_SIZE + tableChunks * 4L + 4;
+        return 2 * tableSize + getTrailingSize() + SectionPrefix.SECTION_PREFIX_SIZE;
+    }
+
+    // returns the size of the trailing sections
+    private long getTrailingSize() {
+        long size = 0;
+        for (Section section : trailingSections) {
+            size += SectionPrefix.SECTION_PREFIX_SIZE + section.data.length;
+        }
+        return size;
+    }
+
+    // creates the next segment file and writes its leading sections
+    private void openSegment() throws IOException {
+        file = segmentCount == 0 ? firstFile : EWFSegmentFileReader.getNextFile(file);
+        segmentCount++;
+        if (segmentCount > 0xFFFF) {
+            throw new IOException("Too many segment files: " + segmentCount);
+        }
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        fileChannel = randomAccessFile.getChannel();
+        position = 0;
+        segmentChunkCount = 0;
+
+        // the file header holds the signature and the segment number
+        byte[] header = new byte[EWFSegmentFileReader.FILE_FIRST_SECTION_START_ADDRESS];
+        System.arraycopy(EWFSegmentFileReader.EWF_SIGNATURE, 0, header, 0, EWFSegmentFileReader.EWF_SIGNATURE.length);
+        header[8] = 1;
+        header[9] = (byte) segmentCount;
+        header[10] = (byte) (segmentCount >> 8);
+        write(header);
+
+        for (Section section : segmentCount == 1 ? leadingSections : segmentSections) {
+            writeSection(section.sectionType, section.data);
+        }
+    }
+
+    // writes the tables and closing sections of the current segment file and closes it
+    private void finishSegment(boolean last) throws IOException {
+        if (sectorsOffset >= 0) {
+            finishTable();
+        }
+        if (last) {
+            for (Section section : trailingSections) {
+                writeSection(section.sectionType, section.data);
+            }
+        }
+
+        // the next and done sections point at themselves
+        EWFSection.SectionType sectionType = last ? EWFSection.SectionType.DONE_TYPE
+                : EWFSection.SectionType.NEXT_TYPE;
+        write(sectionPrefix(sectionType, position, SectionPrefix.SECTION_PREFIX_SIZE));
+        flush();
+        bytesWritten += position;
+
+        randomAccessFile.close();
+        randomAccessFile = null;
+        fileChannel = null;
+    }
+
+    // completes the sectors section and writes the table and table2 sections describing its chunks
+    private void finishTable() throws IOException {
+        // complete the sectors section prefix now that its size is known
+        flush();
+        ByteBuffer prefix = ByteBuffer.wrap(sectionPrefix(EWFSection.SectionType.SECTORS_TYPE, position,
+                position - sectorsOffset));
+        while (prefix.hasRemaining()) {
+            fileChannel.write(prefix, sectorsOffset + prefix.position());
+        }
+
+        // the table header holds the chunk count and the table base offset
+        ByteBuffer header = ByteBuffer.allocate(TABLE_HEADER_SIZE - 4).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0, tableChunkCount);
+        header.putLong(8, getTableBaseOffset());
+        ByteBuffer offsets = ByteBuffer.allocate(tableChunkCount * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < tableChunkCount; i++) {
+            offsets.putInt(tableOffsets[i]);
+        }
+        byte[] data = new byte[TABLE_HEADER_SIZE + tableChunkCount * 4 + 4];
+        putWithAdler32(header.array(), data, 0);
+        putWithAdler32(offsets.array(), data, TABLE_HEADER_SIZE);
+
+        // the table2 section is a copy of the table section
+        writeSection(EWFSection.SectionType.TABLE_TYPE, data);
+        writeSection(EWFSection.SectionType.TABLE2_TYPE, data);
+
+        sectorsOffset = -1;
+        tableChunkCount = 0;
+    }
+
+    // writes a section prefix followed by the section data
+    private void writeSection(EWFSection.SectionType sectionType, byte[] data) throws IOException {
+        long size = SectionPrefix.SECTION_PREFIX_SIZE + data.length;
+        write(sectionPrefix(sectionType, position + size, size));
+        write(data);
+    }
+
+    // returns a section prefix with its Adler32 checksum
+    private static byte[] sectionPrefix(EWFSection.SectionType sectionType, long nextOffset, long sectionSize) {
+        ByteBuffer prefix = ByteBuffer.allocate(SectionPrefix.SECTION_PREFIX_SIZE - 4).order(ByteOrder.LITTLE_ENDIAN);
+        prefix.put(sectionType.toString().getBytes(ASCII));
+        prefix.putLong(16, nextOffset);
+        prefix.putLong(24, sectionSize);
+        byte[] bytes = new byte[SectionPrefix.SECTION_PREFIX_SIZE];
+        putWithAdler32(prefix.array(), bytes, 0);
+        return bytes;
+    }
+
+    // copies the bytes into the destination followed by their Adler32 checksum
+    private static void putWithAdler32(byte[] bytes, byte[] destination, int destinationOffset) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(bytes, 0, bytes.length);
+        ByteBuffer.wrap(destination, destinationOffset, bytes.length + 4).order(ByteOrder.LITTLE_ENDIAN)
+                .put(bytes).putInt((int) adler32.getValue());
+    }
+
+    // appends the bytes to the current segment file
+    private void write(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.remaining()) {
+            flush();
+        }
+        if (bytes.length > buffer.capacity()) {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+            while (byteBuffer.hasRemaining()) {
+                fileChannel.write(byteBuffer);
+            }
+        } else {
+            buffer.put(bytes);
+        }
+        position += bytes.length;
+    }
+
+    // writes the buffered bytes to the current segment file
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            fileChannel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns the number of segment files written so far.
+     *
+     * @return the number of segment files
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Returns the number of chunks written so far.
+     *
+     * @return the number of chunks
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Returns the total size in bytes of the finished segment files.
+     *
+     * @return the number of bytes written
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * A section written verbatim.
+     */
+    private static class Section {
+
+        private final EWFSection.SectionType sectionType;
+        private final byte[] data;
+
+        Section(EWFSection.SectionType sectionType, byte[] data) {
+            this.sectionType = sectionType;
+            this.data = data;
+        }
+    }
+}
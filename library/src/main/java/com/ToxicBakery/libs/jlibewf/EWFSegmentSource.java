@@ -0,0 +1,54 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The <code>EWFSegmentSource</code> interface provides the bytes of segment files held somewhere other than the
+ * local file system, such as blobs in an object storage service read with range requests. A reader constructed with
+ * a segment source reads all segment bytes through it.
+ * <p>Segment files are still named by <code>File</code> objects, whose paths the source maps to its blobs, so that
+ * the serial naming of the segment files is unchanged. Implementations must be safe for use by several threads.
+ */
+public interface EWFSegmentSource {
+
+    /**
+     * Indicates whether a segment file exists.
+     *
+     * @param segment the segment file
+     * @return true if the segment file exists
+     * @throws IOException if the source cannot be queried
+     */
+    boolean exists(File segment) throws IOException;
+
+    /**
+     * Returns the size of a segment file.
+     *
+     * @param segment the segment file
+     * @return the size in bytes
+     * @throws IOException if the segment file does not exist or the source cannot be queried
+     */
+    long getLength(File segment) throws IOException;
+
+    /**
+     * Returns the modification time of a segment file, which identifies the version of the segment file together
+     * with its size.
+     *
+     * @param segment the segment file
+     * @return the modification time in milliseconds, or 0 if unknown
+     * @throws IOException if the source cannot be queried
+     */
+    long getLastModified(File segment) throws IOException;
+
+    /**
+     * Reads a range of a segment file completely.
+     *
+     * @param segment     the segment file
+     * @param fileOffset  the offset within the segment file to read from
+     * @param bytes       the array to read into
+     * @param bytesOffset the offset within the array to read into
+     * @param numBytes    the number of bytes to read
+     * @throws IOException if the range cannot be read completely
+     */
+    void read(File segment, long fileOffset, byte[] bytes, int bytesOffset, int numBytes) throws IOException;
+}
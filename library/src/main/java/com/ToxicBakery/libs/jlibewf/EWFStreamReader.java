@@ -0,0 +1,499 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The <code>EWFStreamReader</code> class decodes the media of an EWF image from segment files that are only
+ * available as streams, such as images piped from an archive or received over a network, in a single forward
+ * pass and without landing the segment files on disk.
+ * <p>Segment files are read in order with <code>readSegment</code>. Each chunk is verified and decompressed as it
+ * arrives, and the media bytes are written to an optional sink and hashed with MD5 and SHA1. As the table of a
+ * segment follows its chunks, chunk boundaries are found from the chunks themselves: a compressed chunk ends where
+ * its zlib stream ends, and an uncompressed chunk is followed by its Adler32 checksum. The chunks found are then
+ * checked against the table when it arrives. The volume, hash and digest sections are checked against their
+ * Adler32 checksums before their data is used.
+ */
+public class EWFStreamReader {
+
+    /**
+     * The size of the section prefix, {@value}.
+     */
+    private static final int SECTION_PREFIX_SIZE = 76;
+
+    /**
+     * The size of the read buffer, {@value}.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String LONG_FORMAT = EWFFileReader.LONG_FORMAT;
+
+    private final OutputStream sink;
+    private final MessageDigest md5;
+    private final MessageDigest sha1;
+    private final Inflater inflater = new Inflater();
+    private final Adler32 adler32 = new Adler32();
+
+    private int segmentNumber;
+    private boolean done;
+    private int chunkSize;
+    private long imageSize = -1;
+    private long bytesWritten;
+    private int chunkIndex;
+    private byte[] storedMD5;
+    private byte[] storedSHA1;
+    private byte[] computedMD5;
+    private byte[] computedSHA1;
+
+    /**
+     * The segment file offsets of the chunks read from the current segment file, with the compressed bit set as
+     * in a chunk table, for checking against the table.
+     */
+    private final List<Long> segmentChunkOffsets = new ArrayList<>();
+
+    // the stream of the current segment file and its buffer
+    private InputStream in;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPosition;
+    private int bufferLimit;
+    private long fileOffset;
+
+    /**
+     * Constructs a stream reader writing the media to the given sink.
+     *
+     * @param sink the stream to write the media bytes to, or null to only hash them
+     */
+    public EWFStreamReader(OutputStream sink) {
+        this.sink = sink;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the next segment file from the channel.
+     *
+     * @param channel the channel providing the segment file
+     * @throws IOException if the segment file is not the next one or is not valid
+     */
+    @SuppressWarnings("unused")
+    public void readSegment(ReadableByteChannel channel) throws IOException {
+        readSegment(Channels.newInputStream(channel));
+    }
+
+    /**
+     * Reads the next segment file from the stream, up to and including its <code>next</code> or
+     * <code>done</code> section. The stream is not closed.
+     *
+     * @param inputStream the stream providing the segment file
+     * @throws IOException if the segment file is not the next one or is not valid
+     */
+    public void readSegment(InputStream inputStream) throws IOException {
+        if (done) {
+            throw new IOException("The image was already read to its done section");
+        }
+        in = inputStream;
+        bufferPosition = 0;
+        bufferLimit = 0;
+        fileOffset = 0;
+
+        // validate the file header
+        byte[] header = readFully(EWFSegmentFileReader.FILE_FIRST_SECTION_START_ADDRESS);
+        if (!Arrays.equals(Arrays.copyOf(header, EWFSegmentFileReader.EWF_SIGNATURE.length),
+                EWFSegmentFileReader.EWF_SIGNATURE)) {
+            throw new IOException("Invalid EWF signature at segment " + (segmentNumber + 1));
+        }
+        int number = (header[9] & 0xFF) | (header[10] & 0xFF) << 8;
+        if (number != segmentNumber + 1) {
+            throw new IOException("Expected segment " + (segmentNumber + 1) + " but read segment " + number);
+        }
+        segmentNumber = number;
+        segmentChunkOffsets.clear();
+
+        // read the sections in order
+        while (true) {
+            long sectionOffset = fileOffset;
+            byte[] prefix = readFully(SECTION_PREFIX_SIZE);
+            if (!verifyAdler32(prefix, 0, SECTION_PREFIX_SIZE - 4)) {
+                throw new IOException("Invalid section prefix checksum in segment " + segmentNumber + " at "
+                        + String.format(LONG_FORMAT, sectionOffset));
+            }
+            String type = EWFSegmentFileReader.bytesToString(prefix, 0, 16);
+            long nextOffset = EWFSegmentFileReader.bytesToLong(prefix, 16);
+            long sectionSize = EWFSegmentFileReader.bytesToLong(prefix, 24);
+            long dataSize = sectionSize - SECTION_PREFIX_SIZE;
+            EWFFileReader.logger.trace("com.ToxicBakery.libs.jlibewf.EWFStreamReader.readSegment: " + type + " at "
+                    + String.format(LONG_FORMAT, sectionOffset));
+
+            // the next and done sections end the segment file
+            if ("next".equals(type) || "done".equals(type)) {
+                done = "done".equals(type);
+                if (done) {
+                    finishImage();
+                }
+                return;
+            }
+
+            // sections must be in file order for a single pass
+            if (dataSize < 0 || nextOffset < sectionOffset + sectionSize) {
+                throw new IOException("Section '" + type + "' in segment " + segmentNumber + " at "
+                        + String.format(LONG_FORMAT, sectionOffset) + " cannot be read in a single pass");
+            }
+
+            // process the section data
+            if ("volume".equals(type) || "disk".equals(type)) {
+                // the volume data of both the EnCase and SMART formats ends with its checksum
+                byte[] data = readSectionData(dataSize);
+                readVolume(checkSection(type, data, data.length - 4));
+            } else if ("sectors".equals(type)) {
+                readSectors(sectionOffset + sectionSize);
+            } else if ("table".equals(type)) {
+                checkTable(readSectionData(dataSize));
+            } else if ("hash".equals(type)) {
+                storedMD5 = Arrays.copyOf(checkSection(type, readSectionData(dataSize), 32), 16);
+            } else if ("digest".equals(type)) {
+                byte[] data = checkSection(type, readSectionData(dataSize), 76);
+                storedMD5 = Arrays.copyOf(data, 16);
+                storedSHA1 = Arrays.copyOfRange(data, 16, 36);
+            } else {
+                skip(dataSize);
+            }
+
+            // move to the next section
+            skip(nextOffset - fileOffset);
+        }
+    }
+
+    /**
+     * Returns the result of reading the image, once its last segment file has been read.
+     *
+     * @return the image size and hashes
+     * @throws IOException if the done section has not been read
+     */
+    public Result getResult() throws IOException {
+        if (!done) {
+            throw new IOException("The image has not been read to its done section");
+        }
+        return new Result(bytesWritten, chunkIndex, computedMD5, computedSHA1, storedMD5, storedSHA1);
+    }
+
+    /**
+     * Releases the decompressor.
+     */
+    public void close() {
+        inflater.end();
+    }
+
+    // reads the media geometry
+    private void readVolume(byte[] data) throws IOException {
+        if (data.length < 20) {
+            throw new IOException("Invalid volume section size: " + data.length);
+        }
+        long sectorsPerChunk = EWFSegmentFileReader.bytesToUInt(data, 8);
+        long bytesPerSector = EWFSegmentFileReader.bytesToUInt(data, 12);
+        long sectorCount = EWFSegmentFileReader.bytesToUInt(data, 16);
+        long longChunkSize = sectorsPerChunk * bytesPerSector;
+        if (longChunkSize <= 0 || !EWFSection.isPositiveInt(longChunkSize)) {
+            throw new IOException("Invalid chunk size: " + longChunkSize);
+        }
+        chunkSize = (int) longChunkSize;
+        imageSize = sectorCount * bytesPerSector;
+    }
+
+    // reads the chunks of a sectors section ending at the given file offset
+    private void readSectors(long endOffset) throws IOException {
+        if (imageSize < 0) {
+            throw new IOException("Sectors section read before the volume section");
+        }
+        byte[] bytes = new byte[chunkSize];
+        while (fileOffset < endOffset) {
+            // any bytes following the last chunk of the image are skipped
+            if (bytesWritten >= imageSize) {
+                break;
+            }
+            int length = (int) Math.min(chunkSize, imageSize - bytesWritten);
+            long chunkOffset = fileOffset;
+
+            // decompress the chunk if it is a zlib stream, otherwise verify it by its Adler32
+            boolean compressed = isZLibHeader() && inflateChunk(bytes, length, endOffset);
+            if (!compressed) {
+                if (fileOffset + length + 4 > endOffset) {
+                    throw new IOException("Invalid chunk " + chunkIndex + " in segment " + segmentNumber + " at "
+                            + String.format(LONG_FORMAT, chunkOffset));
+                }
+                byte[] stored = readFully(length + 4);
+                if (!verifyAdler32(stored, 0, length)) {
+                    throw new IOException("Invalid Adler32 of chunk " + chunkIndex + " in segment " + segmentNumber
+                            + " at " + String.format(LONG_FORMAT, chunkOffset));
+                }
+                System.arraycopy(stored, 0, bytes, 0, length);
+            }
+
+            // emit the media bytes
+            segmentChunkOffsets.add(chunkOffset | (compressed ? 0x80000000L : 0));
+            md5.update(bytes, 0, length);
+            sha1.update(bytes, 0, length);
+            if (sink != null) {
+                sink.write(bytes, 0, length);
+            }
+            bytesWritten += length;
+            chunkIndex++;
+        }
+    }
+
+    // indicates whether the next bytes are a zlib header
+    private boolean isZLibHeader() throws IOException {
+        fill(2);
+        if (bufferLimit - bufferPosition < 2) {
+            return false;
+        }
+        int cmf = buffer[bufferPosition] & 0xFF;
+        int flg = buffer[bufferPosition + 1] & 0xFF;
+        return (cmf & 0x0F) == 8 && (cmf >> 4) <= 7 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    // inflates a chunk of the given length, consuming its stream, or returns false having consumed nothing
+    private boolean inflateChunk(byte[] bytes, int length, long endOffset) throws IOException {
+        inflater.reset();
+        int produced = 0;
+        int consumedBefore = 0;
+        byte[] consumed = null;
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    // keep the consumed bytes so that they can be restored if this is not a zlib stream
+                    int available = (int) Math.min(bufferLimit - bufferPosition, endOffset - fileOffset);
+                    if (available == 0) {
+                        fill(1);
+                        available = (int) Math.min(bufferLimit - bufferPosition, endOffset - fileOffset);
+                        if (available == 0) {
+                            break;
+                        }
+                    }
+                    consumed = append(consumed, consumedBefore, buffer, bufferPosition, available);
+                    consumedBefore += available;
+                    inflater.setInput(buffer, bufferPosition, available);
+                    bufferPosition += available;
+                    fileOffset += available;
+                }
+                int count = inflater.inflate(bytes, produced, length - produced);
+                produced += count;
+
+                // a stream longer than the chunk or needing a dictionary is not a chunk
+                if (count == 0 && !inflater.finished() && !inflater.needsInput()) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            EWFFileReader.logger.trace("com.ToxicBakery.libs.jlibewf.EWFStreamReader.inflateChunk: not a zlib stream: "
+                    + e);
+        }
+
+        // give back the bytes following the stream, or all bytes if this was not a complete chunk
+        int used = inflater.finished() && produced == length ? consumedBefore - inflater.getRemaining() : 0;
+        unread(consumed, used, consumedBefore - used);
+        return used > 0;
+    }
+
+    private static byte[] append(byte[] bytes, int length, byte[] source, int offset, int count) {
+        if (bytes == null || bytes.length < length + count) {
+            bytes = bytes == null ? new byte[count] : Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+        }
+        System.arraycopy(source, offset, bytes, length, count);
+        return bytes;
+    }
+
+    // checks the Adler32 checksum following the given number of bytes of the section data, returning the data
+    private byte[] checkSection(String type, byte[] data, int length) throws IOException {
+        if (length < 0 || data.length < length + 4 || !verifyAdler32(data, 0, length)) {
+            throw new IOException("Invalid " + type + " section checksum in segment " + segmentNumber);
+        }
+        return data;
+    }
+
+    // checks the chunks read from this segment file against its chunk table
+    private void checkTable(byte[] data) throws IOException {
+        if (data.length < 24 || !verifyAdler32(data, 0, 20)) {
+            throw new IOException("Invalid table header in segment " + segmentNumber);
+        }
+        long count = EWFSegmentFileReader.bytesToUInt(data, 0);
+        long baseOffset = EWFSegmentFileReader.bytesToLong(data, 8);
+        if (count != segmentChunkOffsets.size() || data.length < 24 + count * 4) {
+            throw new IOException("Table of segment " + segmentNumber + " lists " + count + " chunks but "
+                    + segmentChunkOffsets.size() + " were read");
+        }
+        for (int i = 0; i < count; i++) {
+            long entry = EWFSegmentFileReader.bytesToUInt(data, 24 + i * 4);
+            long offset = (baseOffset + (entry & 0x7FFFFFFFL)) | (entry & 0x80000000L);
+            if (offset != segmentChunkOffsets.get(i)) {
+                throw new IOException("Table of segment " + segmentNumber + " does not match chunk " + i + " read");
+            }
+        }
+        segmentChunkOffsets.clear();
+    }
+
+    private void finishImage() throws IOException {
+        if (imageSize < 0) {
+            throw new IOException("The image has no volume section");
+        }
+        if (bytesWritten != imageSize) {
+            throw new IOException("Read " + bytesWritten + " media bytes but the image size is " + imageSize);
+        }
+        computedMD5 = md5.digest();
+        computedSHA1 = sha1.digest();
+        if (sink != null) {
+            sink.flush();
+        }
+    }
+
+    private boolean verifyAdler32(byte[] bytes, int offset, int length) {
+        adler32.reset();
+        adler32.update(bytes, offset, length);
+        return EWFSegmentFileReader.bytesToUInt(bytes, offset + length) == adler32.getValue();
+    }
+
+    private byte[] readSectionData(long dataSize) throws IOException {
+        if (!EWFSection.isPositiveInt(dataSize) || dataSize > 16 * 1024 * 1024) {
+            throw new IOException("Invalid section data size: " + dataSize);
+        }
+        return readFully((int) dataSize);
+    }
+
+    // ensures that at least the given number of bytes are buffered, unless the stream ends
+    private void fill(int count) throws IOException {
+        if (bufferLimit - bufferPosition >= count) {
+            return;
+        }
+        System.arraycopy(buffer, bufferPosition, buffer, 0, bufferLimit - bufferPosition);
+        bufferLimit -= bufferPosition;
+        bufferPosition = 0;
+        while (bufferLimit < count) {
+            int read = in.read(buffer, bufferLimit, buffer.length - bufferLimit);
+            if (read < 0) {
+                return;
+            }
+            bufferLimit += read;
+        }
+    }
+
+    // returns consumed bytes to the front of the buffer
+    private void unread(byte[] bytes, int offset, int count) {
+        if (count == 0) {
+            return;
+        }
+        int buffered = bufferLimit - bufferPosition;
+        byte[] remaining = Arrays.copyOfRange(buffer, bufferPosition, bufferLimit);
+        if (count + buffered > buffer.length) {
+            buffer = new byte[count + buffered];
+        }
+        System.arraycopy(bytes, offset, buffer, 0, count);
+        System.arraycopy(remaining, 0, buffer, count, buffered);
+        bufferPosition = 0;
+        bufferLimit = count + buffered;
+        fileOffset -= count;
+    }
+
+    private byte[] readFully(int count) throws IOException {
+        byte[] bytes = new byte[count];
+        int copied = 0;
+        while (copied < count) {
+            fill(1);
+            int available = Math.min(bufferLimit - bufferPosition, count - copied);
+            if (available == 0) {
+                throw new EOFException("Unexpected end of segment " + segmentNumber + " at "
+                        + String.format(LONG_FORMAT, fileOffset));
+            }
+            System.arraycopy(buffer, bufferPosition, bytes, copied, available);
+            bufferPosition += available;
+            copied += available;
+            fileOffset += available;
+        }
+        return bytes;
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            fill(1);
+            int available = (int) Math.min(bufferLimit - bufferPosition, count);
+            if (available == 0) {
+                throw new EOFException("Unexpected end of segment " + segmentNumber + " at "
+                        + String.format(LONG_FORMAT, fileOffset));
+            }
+            bufferPosition += available;
+            fileOffset += available;
+            count -= available;
+        }
+    }
+
+    /**
+     * The media size and hashes computed while reading an image, with the hashes stored in the image.
+     */
+    public static final class Result {
+
+        private final long imageSize;
+        private final int chunkCount;
+        private final byte[] md5;
+        private final byte[] sha1;
+        private final byte[] storedMD5;
+        private final byte[] storedSHA1;
+
+        Result(long imageSize, int chunkCount, byte[] md5, byte[] sha1, byte[] storedMD5, byte[] storedSHA1) {
+            this.imageSize = imageSize;
+            this.chunkCount = chunkCount;
+            this.md5 = md5;
+            this.sha1 = sha1;
+            this.storedMD5 = storedMD5;
+            this.storedSHA1 = storedSHA1;
+        }
+
+        /**
+         * Indicates whether the computed hashes match the hashes stored in the image. Hashes not stored are not
+         * compared.
+         *
+         * @return false if a stored hash does not match
+         */
+        public boolean isVerified() {
+            return (storedMD5 == null || Arrays.equals(storedMD5, md5))
+                    && (storedSHA1 == null || Arrays.equals(storedSHA1, sha1));
+        }
+
+        public long getImageSize() {
+            return imageSize;
+        }
+
+        public int getChunkCount() {
+            return chunkCount;
+        }
+
+        public byte[] getMD5() {
+            return md5;
+        }
+
+        public byte[] getSHA1() {
+            return sha1;
+        }
+
+        public byte[] getStoredMD5() {
+            return storedMD5;
+        }
+
+        public byte[] getStoredSHA1() {
+            return storedSHA1;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * The <code>EWFTraceRecorder</code> class records the media reads of one or more <code>EWFFileReader</code>
+ * instances to a compact binary trace, which <code>EWFTraceReplayer</code> replays against any image and reader
+ * configuration.
+ * <p>The trace starts with the signature <code>EWFTRACE</code>, a version number and the wall clock time in
+ * milliseconds at which recording started. Each read follows as four variable length integers: the nanoseconds
+ * since the previous read or the start of recording, the id of the reading thread, the image offset and the number
+ * of bytes read shifted left by one bit, the low bit being set for reads made without caching, so that a read
+ * typically takes less than ten bytes.
+ * <p>A failure to write the trace stops the recording without failing the reads.
+ */
+public class EWFTraceRecorder {
+
+    /**
+     * The signature of a trace file.
+     */
+    static final byte[] TRACE_SIGNATURE = {'E', 'W', 'F', 'T', 'R', 'A', 'C', 'E'};
+
+    /**
+     * The version of the trace format, {@value}.
+     */
+    static final int TRACE_VERSION = 1;
+
+    private final File traceFile;
+    private final DataOutputStream outputStream;
+    private long previousNanos;
+    private long readCount;
+    private boolean closed;
+
+    /**
+     * Constructs a recorder writing a new trace file.
+     *
+     * @param traceFile the file to write the trace to
+     * @throws IOException if the trace file cannot be created
+     */
+    public EWFTraceRecorder(File traceFile) throws IOException {
+        this.traceFile = traceFile;
+        outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(traceFile), 64 * 1024));
+        outputStream.write(TRACE_SIGNATURE);
+        outputStream.writeInt(TRACE_VERSION);
+        outputStream.writeLong(System.currentTimeMillis());
+        previousNanos = System.nanoTime();
+    }
+
+    /**
+     * Records a cached read by the current thread.
+     *
+     * @param imageAddress the address within the image read
+     * @param numBytes     the number of bytes read
+     */
+    @SuppressWarnings("unused")
+    public void record(long imageAddress, int numBytes) {
+        record(imageAddress, numBytes, true);
+    }
+
+    /**
+     * Records a read by the current thread.
+     *
+     * @param imageAddress the address within the image read
+     * @param numBytes     the number of bytes read
+     * @param cache        false for a read made without caching
+     */
+    public synchronized void record(long imageAddress, int numBytes, boolean cache) {
+        if (closed) {
+            return;
+        }
+        long nanos = System.nanoTime();
+        try {
+            writeVarLong(outputStream, nanos - previousNanos);
+            writeVarLong(outputStream, Thread.currentThread().getId());
+            writeVarLong(outputStream, imageAddress);
+            writeVarLong(outputStream, ((long) numBytes << 1) | (cache ? 0 : 1));
+            previousNanos = nanos;
+            readCount++;
+        } catch (IOException e) {
+            // stop recording rather than failing the read
+            EWFFileReader.logger.info("com.ToxicBakery.libs.jlibewf.EWFTraceRecorder.record: stopped recording "
+                    + traceFile + ": " + e.getMessage());
+            closeQuietly();
+        }
+    }
+
+    /**
+     * Writes the buffered reads to the trace file.
+     *
+     * @throws IOException if the trace cannot be written
+     */
+    @SuppressWarnings("unused")
+    public synchronized void flush() throws IOException {
+        if (!closed) {
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * Writes the buffered reads and closes the trace file. Reads recorded after closing are ignored.
+     *
+     * @throws IOException if the trace cannot be written
+     */
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            outputStream.close();
+        }
+    }
+
+    // closes the trace file after a failure
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            EWFFileReader.logger.info("com.ToxicBakery.libs.jlibewf.EWFTraceRecorder.closeQuietly: " + e);
+        }
+    }
+
+    /**
+     * Returns the number of reads recorded.
+     *
+     * @return the read count
+     */
+    public synchronized long getReadCount() {
+        return readCount;
+    }
+
+    // writes a non-negative value seven bits at a time, least significant bits first
+    private static void writeVarLong(OutputStream outputStream, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            outputStream.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        outputStream.write((int) value);
+    }
+
+    /**
+     * The <code>Trace</code> class reads the reads of a trace file in order.
+     */
+    public static final class Trace {
+
+        private final DataInputStream inputStream;
+        private final long startTime;
+        private long nanos;
+        private long threadId;
+        private long imageAddress;
+        private int numBytes;
+        private boolean cache;
+
+        /**
+         * Constructs a trace reading from the stream, which is positioned at the start of a trace file.
+         *
+         * @param inputStream the stream to read the trace from
+         * @throws IOException if the stream does not hold a trace
+         */
+        public Trace(InputStream inputStream) throws IOException {
+            this.inputStream = new DataInputStream(inputStream);
+            byte[] signature = new byte[TRACE_SIGNATURE.length];
+            this.inputStream.readFully(signature);
+            if (!Arrays.equals(signature, TRACE_SIGNATURE)) {
+                throw new IOException("Invalid trace signature");
+            }
+            int version = this.inputStream.readInt();
+            if (version != TRACE_VERSION) {
+                throw new IOException("Unsupported trace version: " + version);
+            }
+            startTime = this.inputStream.readLong();
+        }
+
+        /**
+         * Moves to the next read of the trace.
+         *
+         * @return false at the end of the trace
+         * @throws IOException if the trace cannot be read
+         */
+        public boolean next() throws IOException {
+            long delta;
+            try {
+                delta = readVarLong(true);
+            } catch (EOFException e) {
+                return false;
+            }
+            nanos += delta;
+            threadId = readVarLong(false);
+            imageAddress = readVarLong(false);
+            long length = readVarLong(false);
+            numBytes = (int) (length >>> 1);
+            cache = (length & 1) == 0;
+            return true;
+        }
+
+        // reads a value written by writeVarLong, reporting the end of the trace only before its first byte
+        private long readVarLong(boolean first) throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = inputStream.read();
+                if (b < 0) {
+                    if (first && shift == 0) {
+                        throw new EOFException();
+                    }
+                    throw new IOException("Truncated trace");
+                }
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Invalid trace value");
+        }
+
+        /**
+         * Returns the wall clock time in milliseconds at which recording started.
+         *
+         * @return the start time
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * Returns the time of the current read in nanoseconds since recording started.
+         *
+         * @return the read time
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        public long getImageAddress() {
+            return imageAddress;
+        }
+
+        public int getNumBytes() {
+            return numBytes;
+        }
+
+        /**
+         * Indicates whether the current read was made with caching.
+         *
+         * @return false for a read made without caching
+         */
+        public boolean isCached() {
+            return cache;
+        }
+    }
+}
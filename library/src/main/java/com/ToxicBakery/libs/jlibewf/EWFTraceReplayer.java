@@ -0,0 +1,286 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The <code>EWFTraceReplayer</code> class replays the reads of a trace written by <code>EWFTraceRecorder</code>
+ * against an <code>EWFFileReader</code>, so that cache sizes, prefetching and other reader settings can be evaluated
+ * offline with a production access pattern.
+ * <p>The reads of each recorded thread are replayed in order on a thread of their own, either as fast as possible or
+ * paced at their recorded times. Reads recorded without caching are replayed without caching. The result reports
+ * the throughput, the read latency percentiles and the hit rate of the chunk cache of the reader.
+ */
+public class EWFTraceReplayer {
+
+    /**
+     * The largest number of threads replaying reads, {@value}. Recorded threads beyond this share replay threads.
+     */
+    public static final int MAX_THREADS = 64;
+
+    private final File traceFile;
+
+    /**
+     * Constructs a replayer for a trace file.
+     *
+     * @param traceFile the trace file written by <code>EWFTraceRecorder</code>
+     */
+    public EWFTraceReplayer(File traceFile) {
+        this.traceFile = traceFile;
+    }
+
+    /**
+     * Replays the reads of the trace against the reader.
+     *
+     * @param reader the reader to replay the reads with, configured as required
+     * @param paced  true to issue each read at its recorded time, false to issue the reads as fast as possible
+     * @return the replay result
+     * @throws IOException if the trace or the image cannot be read
+     */
+    public Result replay(final EWFFileReader reader, final boolean paced) throws IOException {
+        final List<ThreadReads> threads = loadTrace();
+
+        // note the chunk cache counters before replaying
+        EWFChunkCache chunkCache = reader.getChunkCache();
+        long hitCount = chunkCache != null ? chunkCache.getHitCount() : 0;
+        long missCount = chunkCache != null ? chunkCache.getMissCount() : 0;
+
+        int threadCount = Math.max(1, Math.min(threads.size(), MAX_THREADS));
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        final long startNanos = System.nanoTime();
+        try {
+            // replay the reads of each recorded thread in order
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (final ThreadReads threadReads : threads) {
+                futures.add(executorService.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() throws IOException, InterruptedException {
+                        return threadReads.replay(reader, paced ? startNanos : -1);
+                    }
+                }));
+            }
+
+            // gather the latencies of all reads
+            long[] latencies = new long[0];
+            long bytesRead = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                long[] threadLatencies = getResult(futures.get(i));
+                int length = latencies.length;
+                latencies = Arrays.copyOf(latencies, length + threadLatencies.length);
+                System.arraycopy(threadLatencies, 0, latencies, length, threadLatencies.length);
+                bytesRead += threads.get(i).bytesRead;
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            Arrays.sort(latencies);
+
+            if (chunkCache != null) {
+                hitCount = chunkCache.getHitCount() - hitCount;
+                missCount = chunkCache.getMissCount() - missCount;
+            }
+            return new Result(latencies, bytesRead, elapsedNanos, threads.size(), chunkCache != null,
+                    hitCount, missCount);
+
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    // reads the trace, grouping the reads by recorded thread
+    private List<ThreadReads> loadTrace() throws IOException {
+        Map<Long, ThreadReads> threads = new LinkedHashMap<>();
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(traceFile), 64 * 1024);
+        try {
+            EWFTraceRecorder.Trace trace = new EWFTraceRecorder.Trace(inputStream);
+            while (trace.next()) {
+                ThreadReads threadReads = threads.get(trace.getThreadId());
+                if (threadReads == null) {
+                    threadReads = new ThreadReads();
+                    threads.put(trace.getThreadId(), threadReads);
+                }
+                threadReads.add(trace.getNanos(), trace.getImageAddress(), trace.getNumBytes(), trace.isCached());
+            }
+        } finally {
+            inputStream.close();
+        }
+        return new ArrayList<>(threads.values());
+    }
+
+    // returns the result of a replay thread, rethrowing its failure
+    private static long[] getResult(Future<long[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while replaying the trace");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Replay failed", e.getCause());
+        }
+    }
+
+    /**
+     * The reads of a recorded thread.
+     */
+    private static class ThreadReads {
+
+        private long[] nanos = new long[64];
+        private long[] imageAddresses = new long[64];
+        private int[] numBytes = new int[64];
+        private boolean[] cache = new boolean[64];
+        private int count;
+        private long bytesRead;
+
+        void add(long readNanos, long imageAddress, int readNumBytes, boolean readCache) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+                imageAddresses = Arrays.copyOf(imageAddresses, count * 2);
+                numBytes = Arrays.copyOf(numBytes, count * 2);
+                cache = Arrays.copyOf(cache, count * 2);
+            }
+            nanos[count] = readNanos;
+            imageAddresses[count] = imageAddress;
+            numBytes[count] = readNumBytes;
+            cache[count] = readCache;
+            count++;
+        }
+
+        // replays the reads in order, waiting for their recorded times unless the start time is negative, and
+        // returns their latencies in nanoseconds
+        long[] replay(EWFFileReader reader, long startNanos) throws IOException, InterruptedException {
+            long[] latencies = new long[count];
+            for (int i = 0; i < count; i++) {
+                if (startNanos >= 0) {
+                    long delay = startNanos + nanos[i] - System.nanoTime();
+                    if (delay > 0) {
+                        Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                    }
+                }
+                long readStart = System.nanoTime();
+                bytesRead += reader.readImageBytes(imageAddresses[i], numBytes[i], cache[i]).length;
+                latencies[i] = System.nanoTime() - readStart;
+            }
+            return latencies;
+        }
+    }
+
+    /**
+     * The <code>Result</code> class reports the performance of a replay.
+     */
+    public static final class Result {
+
+        private final long[] latencies;
+        private final long bytesRead;
+        private final long elapsedNanos;
+        private final int threadCount;
+        private final boolean cached;
+        private final long hitCount;
+        private final long missCount;
+
+        Result(long[] latencies, long bytesRead, long elapsedNanos, int threadCount, boolean cached, long hitCount,
+               long missCount) {
+            this.latencies = latencies;
+            this.bytesRead = bytesRead;
+            this.elapsedNanos = elapsedNanos;
+            this.threadCount = threadCount;
+            this.cached = cached;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+        }
+
+        /**
+         * Provides a visual representation of this object.
+         *
+         * @return the replay performance as text
+         */
+        public String toString() {
+            return "Replay: " + getReadCount() + " reads by " + threadCount + " threads, " + bytesRead + " bytes in "
+                    + elapsedNanos / 1000000 + " ms, " + (long) getThroughput() + " bytes/s, latency p50 "
+                    + getLatencyPercentile(50) + " p90 " + getLatencyPercentile(90) + " p99 "
+                    + getLatencyPercentile(99) + " max " + getLatencyPercentile(100) + " ns, hit rate "
+                    + getHitRate();
+        }
+
+        public int getReadCount() {
+            return latencies.length;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Returns the number of recorded threads whose reads were replayed.
+         *
+         * @return the thread count
+         */
+        public int getThreadCount() {
+            return threadCount;
+        }
+
+        /**
+         * Returns the bytes read per second.
+         *
+         * @return the throughput
+         */
+        public double getThroughput() {
+            return elapsedNanos > 0 ? bytesRead * 1e9 / elapsedNanos : 0;
+        }
+
+        /**
+         * Returns the read latency at the given percentile, using the nearest rank.
+         *
+         * @param percentile the percentile from 0 to 100
+         * @return the latency in nanoseconds, or 0 if no reads were replayed
+         */
+        public long getLatencyPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Invalid percentile: " + percentile);
+            }
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+            return latencies[Math.max(rank - 1, 0)];
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        /**
+         * Returns the fraction of chunk cache lookups that hit during the replay.
+         *
+         * @return the hit rate, or NaN if the reader has no chunk cache or did not look up chunks
+         */
+        public double getHitRate() {
+            if (!cached || hitCount + missCount == 0) {
+                return Double.NaN;
+            }
+            return (double) hitCount / (hitCount + missCount);
+        }
+    }
+}
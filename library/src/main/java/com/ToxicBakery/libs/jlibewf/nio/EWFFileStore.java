@@ -0,0 +1,84 @@
+package com.ToxicBakery.libs.jlibewf.nio;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileStoreAttributeView;
+
+/**
+ * A read-only file store holding EWF images, reporting the name, type and space of the file store of the default
+ * file system that holds the segment files.
+ */
+public class EWFFileStore extends FileStore {
+
+    private final FileStore delegate;
+
+    /**
+     * Constructs a file store on the file store holding the segment files.
+     *
+     * @param delegate the file store of the default file system
+     */
+    public EWFFileStore(FileStore delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String name() {
+        return delegate.name();
+    }
+
+    @Override
+    public String type() {
+        return delegate.type();
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public long getTotalSpace() throws IOException {
+        return delegate.getTotalSpace();
+    }
+
+    @Override
+    public long getUsableSpace() throws IOException {
+        return delegate.getUsableSpace();
+    }
+
+    @Override
+    public long getUnallocatedSpace() throws IOException {
+        return delegate.getUnallocatedSpace();
+    }
+
+    @Override
+    public boolean supportsFileAttributeView(Class<? extends FileAttributeView> type) {
+        return type == BasicFileAttributeView.class;
+    }
+
+    @Override
+    public boolean supportsFileAttributeView(String name) {
+        return "basic".equals(name);
+    }
+
+    @Override
+    public <V extends FileStoreAttributeView> V getFileStoreAttributeView(Class<V> type) {
+        return null;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws IOException {
+        return delegate.getAttribute(attribute);
+    }
+
+    /**
+     * Provides a visual representation of this object.
+     *
+     * @return the file store as text
+     */
+    public String toString() {
+        return "EWFFileStore: " + delegate;
+    }
+}
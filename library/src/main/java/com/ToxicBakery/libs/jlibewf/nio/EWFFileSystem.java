@@ -0,0 +1,152 @@
+package com.ToxicBakery.libs.jlibewf.nio;
+
+import com.ToxicBakery.libs.jlibewf.EWFImagePool;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A read-only file system whose files are the media of EWF images. Each path names the first segment file of an
+ * image on the default file system, and opening it reads the image's media through a reader shared by all
+ * channels open on the same image. Images that are not accessed for the idle eviction time are evicted from the
+ * pool by a background thread.
+ */
+public final class EWFFileSystem extends FileSystem {
+
+    private final EWFFileSystemProvider provider;
+    private final EWFImagePool pool;
+    private final ScheduledThreadPoolExecutor evictor;
+    private volatile boolean open = true;
+
+    EWFFileSystem(EWFFileSystemProvider provider, final EWFImagePool pool, final long idleEvictionMillis) {
+        if (idleEvictionMillis < 0) {
+            throw new IllegalArgumentException("Invalid idle eviction time: " + idleEvictionMillis);
+        }
+        this.provider = provider;
+        this.pool = pool;
+
+        // evict the images idle for the eviction time, checking at half that interval
+        if (idleEvictionMillis == 0) {
+            evictor = null;
+            return;
+        }
+        evictor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EWFFileSystem evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long interval = Math.max(1, idleEvictionMillis / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pool.evictIdle(idleEvictionMillis);
+                } catch (IOException e) {
+                    // the images whose segment files could not be closed are evicted on the next run
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the pool holding the readers of the images opened through this file system.
+     *
+     * @return the image pool
+     */
+    public EWFImagePool getPool() {
+        return pool;
+    }
+
+    @Override
+    public EWFFileSystemProvider provider() {
+        return provider;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            if (evictor != null) {
+                evictor.shutdownNow();
+            }
+            pool.close();
+            provider.fileSystemClosed(this);
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    @Override
+    public String getSeparator() {
+        return FileSystems.getDefault().getSeparator();
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        List<Path> roots = new ArrayList<>();
+        for (Path root : FileSystems.getDefault().getRootDirectories()) {
+            roots.add(new EWFPath(this, root));
+        }
+        return roots;
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return Collections.singleton("basic");
+    }
+
+    @Override
+    public EWFPath getPath(String first, String... more) {
+        return new EWFPath(this, FileSystems.getDefault().getPath(first, more));
+    }
+
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern) {
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher(syntaxAndPattern);
+        return new PathMatcher() {
+            @Override
+            public boolean matches(Path path) {
+                return path instanceof EWFPath && matcher.matches(((EWFPath) path).getDelegate());
+            }
+        };
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException();
+    }
+}
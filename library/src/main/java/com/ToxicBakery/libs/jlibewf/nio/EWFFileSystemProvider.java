@@ -0,0 +1,410 @@
+package com.ToxicBakery.libs.jlibewf.nio;
+
+import com.ToxicBakery.libs.jlibewf.EWFFileReader;
+import com.ToxicBakery.libs.jlibewf.EWFImagePool;
+import com.ToxicBakery.libs.jlibewf.EWFSegmentFileReader;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The <code>EWFFileSystemProvider</code> class exposes the media of EWF images as read-only files of the
+ * <code>ewf</code> URI scheme, for example <code>ewf:///cases/disk.E01</code>.
+ * <p>Channels opened on the same image share one pooled reader and chunk cache, so several consumers can read
+ * an image concurrently without extracting it. The limits of the pool may be configured by creating the file
+ * system with <code>FileSystems.newFileSystem</code> before first use, using the environment keys
+ * {@value #MAX_OPEN_FILES}, {@value #CHUNK_CACHE_BUDGET} and {@value #IDLE_EVICTION_MILLIS}.
+ * <p>Reading the attributes of an image reads its size from the metadata sections without adding the image to the
+ * pool, so walking a tree of images does not index them.
+ */
+public class EWFFileSystemProvider extends FileSystemProvider {
+
+    /**
+     * The URI scheme of the provider, {@value}.
+     */
+    public static final String SCHEME = "ewf";
+
+    /**
+     * The environment key for the maximum number of segment files held open, {@value}.
+     */
+    public static final String MAX_OPEN_FILES = "maxOpenFiles";
+
+    /**
+     * The environment key for the decompressed chunk cache budget in bytes, {@value}.
+     */
+    public static final String CHUNK_CACHE_BUDGET = "chunkCacheBudget";
+
+    /**
+     * The environment key for the time in milliseconds after which images that are not accessed are evicted from
+     * the pool, or 0 to keep them until the file system is closed, {@value}.
+     */
+    public static final String IDLE_EVICTION_MILLIS = "idleEvictionMillis";
+
+    private static final int DEFAULT_MAX_OPEN_FILES = 64;
+    private static final long DEFAULT_CHUNK_CACHE_BUDGET = 64L * 1024 * 1024;
+    private static final long DEFAULT_IDLE_EVICTION_MILLIS = 60 * 1000;
+
+    private EWFFileSystem fileSystem;
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public synchronized FileSystem newFileSystem(URI uri, Map<String, ?> env) {
+        checkUri(uri);
+        if (fileSystem != null) {
+            throw new FileSystemAlreadyExistsException();
+        }
+
+        // configure the pool from the environment, a null environment leaving the defaults
+        if (env == null) {
+            env = new HashMap<>();
+        }
+        int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+        long chunkCacheBudget = DEFAULT_CHUNK_CACHE_BUDGET;
+        long idleEvictionMillis = DEFAULT_IDLE_EVICTION_MILLIS;
+        if (env.containsKey(MAX_OPEN_FILES)) {
+            maxOpenFiles = Integer.parseInt(env.get(MAX_OPEN_FILES).toString());
+        }
+        if (env.containsKey(CHUNK_CACHE_BUDGET)) {
+            chunkCacheBudget = Long.parseLong(env.get(CHUNK_CACHE_BUDGET).toString());
+        }
+        if (env.containsKey(IDLE_EVICTION_MILLIS)) {
+            idleEvictionMillis = Long.parseLong(env.get(IDLE_EVICTION_MILLIS).toString());
+        }
+
+        fileSystem = new EWFFileSystem(this, new EWFImagePool(maxOpenFiles, chunkCacheBudget), idleEvictionMillis);
+        return fileSystem;
+    }
+
+    @Override
+    public synchronized EWFFileSystem getFileSystem(URI uri) {
+        checkUri(uri);
+
+        // the file system is created with the default limits on first use
+        if (fileSystem == null) {
+            fileSystem = new EWFFileSystem(this,
+                    new EWFImagePool(DEFAULT_MAX_OPEN_FILES, DEFAULT_CHUNK_CACHE_BUDGET), DEFAULT_IDLE_EVICTION_MILLIS);
+        }
+        return fileSystem;
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        return getFileSystem(uri).getPath(uri.getPath());
+    }
+
+    // forgets the closed file system so that a new one is created on next use
+    synchronized void fileSystemClosed(EWFFileSystem closed) {
+        if (fileSystem == closed) {
+            fileSystem = null;
+        }
+    }
+
+    private void checkUri(URI uri) {
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("URI scheme is not " + SCHEME + ": " + uri);
+        }
+    }
+
+    // returns the path of the default file system named by the path of this provider
+    private static Path unwrap(Path path) {
+        return toEWFPath(path).getDelegate();
+    }
+
+    // returns the path as a path of this provider
+    private static EWFPath toEWFPath(Path path) {
+        if (!(path instanceof EWFPath)) {
+            throw new ProviderMismatchException();
+        }
+        return (EWFPath) path;
+    }
+
+    // returns the path as a path of this provider whose file system is open
+    private static EWFPath toOpenEWFPath(Path path) {
+        EWFPath ewfPath = toEWFPath(path);
+        if (!ewfPath.getFileSystem().isOpen()) {
+            throw new ClosedFileSystemException();
+        }
+        return ewfPath;
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+            throws IOException {
+        // only reading is supported
+        for (OpenOption option : options) {
+            if (option == StandardOpenOption.WRITE || option == StandardOpenOption.APPEND
+                    || option == StandardOpenOption.CREATE || option == StandardOpenOption.CREATE_NEW
+                    || option == StandardOpenOption.DELETE_ON_CLOSE || option == StandardOpenOption.TRUNCATE_EXISTING) {
+                throw new ReadOnlyFileSystemException();
+            }
+        }
+
+        EWFPath ewfPath = toOpenEWFPath(path);
+        EWFImagePool.Image image = ewfPath.getFileSystem().getPool().open(ewfPath.getDelegate().toFile());
+        try {
+            return new EWFSeekableByteChannel(image);
+        } catch (IOException e) {
+            image.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, final DirectoryStream.Filter<? super Path> filter)
+            throws IOException {
+        final EWFPath ewfDir = toOpenEWFPath(dir);
+
+        // list the subdirectories and first segment files of the directory
+        final DirectoryStream<Path> stream = Files.newDirectoryStream(unwrap(dir), new DirectoryStream.Filter<Path>() {
+            @Override
+            public boolean accept(Path entry) throws IOException {
+                return (Files.isDirectory(entry) || EWFSegmentFileReader.isValidFirstEWFFilename(entry.toFile()))
+                        && filter.accept(new EWFPath(ewfDir.getFileSystem(), entry));
+            }
+        });
+
+        return new DirectoryStream<Path>() {
+            @Override
+            public Iterator<Path> iterator() {
+                final Iterator<Path> iterator = stream.iterator();
+                return new Iterator<Path>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Path next() {
+                        return new EWFPath(ewfDir.getFileSystem(), iterator.next());
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public void close() throws IOException {
+                stream.close();
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void delete(Path path) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        return path2 instanceof EWFPath && Files.isSameFile(unwrap(path), unwrap(path2));
+    }
+
+    @Override
+    public boolean isHidden(Path path) throws IOException {
+        return Files.isHidden(unwrap(path));
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) throws IOException {
+        // the images are read from the file store of the default file system holding their segment files
+        return new EWFFileStore(Files.getFileStore(toOpenEWFPath(path).getDelegate()));
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        for (AccessMode mode : modes) {
+            if (mode != AccessMode.READ) {
+                throw new AccessDeniedException(path.toString());
+            }
+        }
+        unwrap(path).getFileSystem().provider().checkAccess(unwrap(path), AccessMode.READ);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(final Path path, Class<V> type, LinkOption... options) {
+        if (type != BasicFileAttributeView.class) {
+            return null;
+        }
+        return (V) new BasicFileAttributeView() {
+            @Override
+            public String name() {
+                return "basic";
+            }
+
+            @Override
+            public BasicFileAttributes readAttributes() throws IOException {
+                return EWFFileSystemProvider.this.readAttributes(path, BasicFileAttributes.class);
+            }
+
+            @Override
+            public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+                throw new ReadOnlyFileSystemException();
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        if (type != BasicFileAttributes.class) {
+            throw new UnsupportedOperationException("Unsupported attributes: " + type.getName());
+        }
+
+        // directories are described by the default file system
+        EWFPath ewfPath = toOpenEWFPath(path);
+        final BasicFileAttributes attributes = Files.readAttributes(ewfPath.getDelegate(), BasicFileAttributes.class,
+                options);
+        if (attributes.isDirectory()) {
+            return (A) attributes;
+        }
+
+        // files are the size of the media, read from the metadata sections by a reader that is not pooled
+        final long size;
+        EWFFileReader reader = new EWFFileReader(ewfPath.getDelegate().toFile(), EWFFileReader.OpenMode.METADATA);
+        try {
+            size = reader.getImageSize();
+        } finally {
+            reader.close();
+        }
+
+        return (A) new BasicFileAttributes() {
+            @Override
+            public FileTime lastModifiedTime() {
+                return attributes.lastModifiedTime();
+            }
+
+            @Override
+            public FileTime lastAccessTime() {
+                return attributes.lastAccessTime();
+            }
+
+            @Override
+            public FileTime creationTime() {
+                return attributes.creationTime();
+            }
+
+            @Override
+            public boolean isRegularFile() {
+                return true;
+            }
+
+            @Override
+            public boolean isDirectory() {
+                return false;
+            }
+
+            @Override
+            public boolean isSymbolicLink() {
+                return false;
+            }
+
+            @Override
+            public boolean isOther() {
+                return false;
+            }
+
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public Object fileKey() {
+                return attributes.fileKey();
+            }
+        };
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options)
+            throws IOException {
+        // only the basic view is supported
+        String names = attributes;
+        int colon = attributes.indexOf(':');
+        if (colon >= 0) {
+            if (!"basic".equals(attributes.substring(0, colon))) {
+                throw new UnsupportedOperationException("Unsupported attribute view: " + attributes);
+            }
+            names = attributes.substring(colon + 1);
+        }
+
+        BasicFileAttributes basic = readAttributes(path, BasicFileAttributes.class, options);
+        Map<String, Object> all = new HashMap<>();
+        all.put("lastModifiedTime", basic.lastModifiedTime());
+        all.put("lastAccessTime", basic.lastAccessTime());
+        all.put("creationTime", basic.creationTime());
+        all.put("size", basic.size());
+        all.put("isRegularFile", basic.isRegularFile());
+        all.put("isDirectory", basic.isDirectory());
+        all.put("isSymbolicLink", basic.isSymbolicLink());
+        all.put("isOther", basic.isOther());
+        all.put("fileKey", basic.fileKey());
+
+        if ("*".equals(names)) {
+            return all;
+        }
+        Map<String, Object> selected = new HashMap<>();
+        for (String name : names.split(",")) {
+            if (!all.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown attribute: " + name);
+            }
+            selected.put(name, all.get(name));
+        }
+        return selected;
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+        throw new ReadOnlyFileSystemException();
+    }
+}
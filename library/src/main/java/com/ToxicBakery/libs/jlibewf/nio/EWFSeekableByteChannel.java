@@ -0,0 +1,112 @@
+package com.ToxicBakery.libs.jlibewf.nio;
+
+import com.ToxicBakery.libs.jlibewf.EWFFileReader;
+import com.ToxicBakery.libs.jlibewf.EWFImagePool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A read-only channel on the media of an EWF image. Reads are split at chunk boundaries so that each read
+ * decompresses whole chunks through the shared reader and its chunk cache.
+ */
+public class EWFSeekableByteChannel implements SeekableByteChannel {
+
+    /**
+     * The maximum number of chunks to read at a time, {@value}.
+     */
+    private static final int MAX_READ_CHUNK_COUNT = 16;
+
+    private final EWFImagePool.Image image;
+    private final int chunkSize;
+    private final long size;
+    private long position;
+    private boolean open = true;
+
+    /**
+     * Constructs a channel on a pooled image, taking ownership of the handle.
+     *
+     * @param image the handle to the pooled image, released when the channel is closed
+     * @throws IOException if the image cannot be opened
+     */
+    public EWFSeekableByteChannel(EWFImagePool.Image image) throws IOException {
+        this.image = image;
+        EWFFileReader reader = image.getReader();
+        chunkSize = reader.getChunkSize();
+        size = reader.getImageSize();
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+
+        // read whole chunks where possible, bounding the number of chunks decompressed per read
+        long limit = Math.min(size, (position / chunkSize + MAX_READ_CHUNK_COUNT) * chunkSize);
+        int numBytes = (int) Math.min(dst.remaining(), limit - position);
+        if (numBytes == 0) {
+            return 0;
+        }
+
+        byte[] bytes = image.readImageBytes(position, numBytes);
+        dst.put(bytes);
+        position += bytes.length;
+        return bytes.length;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Invalid position: " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (open) {
+            open = false;
+            image.close();
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
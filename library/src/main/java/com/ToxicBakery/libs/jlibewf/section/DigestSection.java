@@ -0,0 +1,74 @@
+package com.ToxicBakery.libs.jlibewf.section;
+
+import com.ToxicBakery.libs.jlibewf.EWFIOException;
+import com.ToxicBakery.libs.jlibewf.EWFSection;
+import com.ToxicBakery.libs.jlibewf.EWFSegmentFileReader;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An implementation of the digest section portion of a section.
+ * The digest section contains the MD5 and SHA1 hashes of the media as calculated during acquisition.
+ */
+public class DigestSection {
+    private static final int MD5_OFFSET = 76;
+    private static final int MD5_SIZE = 16;
+    private static final int SHA1_OFFSET = 92;
+    private static final int SHA1_SIZE = 20;
+    private static final int DIGEST_SECTION_SIZE = 156;
+
+    /**
+     * The MD5 hash of the media.
+     */
+    private byte[] md5;
+    /**
+     * The SHA1 hash of the media.
+     */
+    private byte[] sha1;
+
+    /**
+     * Constructs a digest section based on bytes from the given EWF file and address.
+     *
+     * @param reader        the EWF reader instance to use for reading
+     * @param sectionPrefix the section prefix from which this digest section is composed
+     * @throws IOException If an I/O error occurs, which is possible if the requested read fails
+     *                     or if the Adler32 checksum validation fails
+     */
+    public DigestSection(EWFSegmentFileReader reader, SectionPrefix sectionPrefix, String longFormat) throws IOException {
+        File file = sectionPrefix.getFile();
+        long fileOffset = sectionPrefix.getFileOffset();
+
+        // make sure the section prefix is correct
+        if (sectionPrefix.getSectionType() != EWFSection.SectionType.DIGEST_TYPE) {
+            throw new RuntimeException("Invalid section type");
+        }
+
+        // make sure the section size is not smaller than the digest section data structure
+        if (sectionPrefix.getSectionSize() < DIGEST_SECTION_SIZE) {
+            throw new EWFIOException("Invalid small Digest Section size", file, fileOffset, longFormat);
+        }
+
+        // read digest section into bytes[]
+        long address = fileOffset + SectionPrefix.SECTION_PREFIX_SIZE;
+        int numBytes = DIGEST_SECTION_SIZE - SectionPrefix.SECTION_PREFIX_SIZE;
+        byte[] bytes = reader.readAdler32(file, address, numBytes);
+
+        // md5
+        md5 = new byte[MD5_SIZE];
+        System.arraycopy(bytes, MD5_OFFSET - SectionPrefix.SECTION_PREFIX_SIZE, md5, 0, MD5_SIZE);
+
+        // sha1
+        sha1 = new byte[SHA1_SIZE];
+        System.arraycopy(bytes, SHA1_OFFSET - SectionPrefix.SECTION_PREFIX_SIZE, sha1, 0, SHA1_SIZE);
+    }
+
+    public byte[] getMD5() {
+        return md5.clone();
+    }
+
+    public byte[] getSHA1() {
+        return sha1.clone();
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.ToxicBakery.libs.jlibewf.section;
+
+import com.ToxicBakery.libs.jlibewf.EWFIOException;
+import com.ToxicBakery.libs.jlibewf.EWFSection;
+import com.ToxicBakery.libs.jlibewf.EWFSegmentFileReader;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An implementation of the hash section portion of a section.
+ * The hash section contains the MD5 hash of the media as calculated during acquisition.
+ */
+public class HashSection {
+    private static final int MD5_OFFSET = 76;
+    private static final int MD5_SIZE = 16;
+    private static final int HASH_SECTION_SIZE = 112;
+
+    /**
+     * The MD5 hash of the media.
+     */
+    private byte[] md5;
+
+    /**
+     * Constructs a hash section based on bytes from the given EWF file and address.
+     *
+     * @param reader        the EWF reader instance to use for reading
+     * @param sectionPrefix the section prefix from which this hash section is composed
+     * @throws IOException If an I/O error occurs, which is possible if the requested read fails
+     *                     or if the Adler32 checksum validation fails
+     */
+    public HashSection(EWFSegmentFileReader reader, SectionPrefix sectionPrefix, String longFormat) throws IOException {
+        File file = sectionPrefix.getFile();
+        long fileOffset = sectionPrefix.getFileOffset();
+
+        // make sure the section prefix is correct
+        if (sectionPrefix.getSectionType() != EWFSection.SectionType.HASH_TYPE) {
+            throw new RuntimeException("Invalid section type");
+        }
+
+        // make sure the section size is not smaller than the hash section data structure
+        if (sectionPrefix.getSectionSize() < HASH_SECTION_SIZE) {
+            throw new EWFIOException("Invalid small Hash Section size", file, fileOffset, longFormat);
+        }
+
+        // read hash section into bytes[]
+        long address = fileOffset + SectionPrefix.SECTION_PREFIX_SIZE;
+        int numBytes = HASH_SECTION_SIZE - SectionPrefix.SECTION_PREFIX_SIZE;
+        byte[] bytes = reader.readAdler32(file, address, numBytes);
+
+        // md5
+        md5 = new byte[MD5_SIZE];
+        System.arraycopy(bytes, MD5_OFFSET - SectionPrefix.SECTION_PREFIX_SIZE, md5, 0, MD5_SIZE);
+    }
+
+    public byte[] getMD5() {
+        return md5.clone();
+    }
+
+}
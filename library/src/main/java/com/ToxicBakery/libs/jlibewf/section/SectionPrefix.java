@@ -113,6 +113,31 @@ public class SectionPrefix {
         }
     }
 
+    /**
+     * Constructs a Section Prefix from values that were already read and verified, such as those held by a
+     * section index.
+     *
+     * @param file        the file the section is in
+     * @param sectionType the section type
+     * @param fileOffset  the offset address into the file where the section starts
+     * @param nextOffset  the offset address into the file where the next section starts
+     * @param sectionSize the size of the section
+     * @param chunkIndex  the running chunk index
+     * @param chunkCount  the number of chunks in the chunk table of the section
+     */
+    public SectionPrefix(File file, EWFSection.SectionType sectionType, long fileOffset, long nextOffset,
+                         long sectionSize, int chunkIndex, int chunkCount, String longFormat) {
+        this.longFormat = longFormat;
+        this.file = file;
+        this.sectionType = sectionType;
+        this.fileOffset = fileOffset;
+        this.nextOffset = nextOffset;
+        this.sectionSize = sectionSize;
+        this.chunkIndex = chunkIndex;
+        this.chunkCount = chunkCount;
+        this.nextChunkIndex = chunkIndex + chunkCount;
+    }
+
     /**
      * Returns a string representation of this object.
      *
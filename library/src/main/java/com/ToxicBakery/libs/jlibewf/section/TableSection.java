@@ -35,6 +35,19 @@ public class TableSection {
      * @throws IOException If an I/O error occurs, which is possible if the requested read fails
      */
     public TableSection(EWFSegmentFileReader reader, SectionPrefix sectionPrefix, String longFormat) throws IOException {
+        this(reader, sectionPrefix, longFormat, true);
+    }
+
+    /**
+     * Constructs a table section based on bytes from the given EWF file and address.
+     *
+     * @param reader        the EWF reader instance to use for reading
+     * @param sectionPrefix the section prefix from which this header section is composed
+     * @param verify        whether to check the Adler32 checksum of the table section
+     * @throws IOException If an I/O error occurs, which is possible if the requested read fails
+     */
+    public TableSection(EWFSegmentFileReader reader, SectionPrefix sectionPrefix, String longFormat, boolean verify)
+            throws IOException {
 
         File file = sectionPrefix.getFile();
         long fileOffset = sectionPrefix.getFileOffset();
@@ -53,7 +66,7 @@ public class TableSection {
         // read the table section
         long address = fileOffset + SectionPrefix.SECTION_PREFIX_SIZE;
         int numBytes = OFFSET_ARRAY_OFFSET - SectionPrefix.SECTION_PREFIX_SIZE;
-        byte[] bytes = reader.readAdler32(file, address, numBytes);
+        byte[] bytes = reader.readAdler32(file, address, numBytes, verify);
 
         // set table section values
 
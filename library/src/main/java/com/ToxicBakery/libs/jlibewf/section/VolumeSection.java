@@ -17,6 +17,10 @@ public class VolumeSection {
     private static final int SECTORS_PER_CHUNK_OFFSET = 84;
     private static final int BYTES_PER_SECTOR_OFFSET = 88;
     private static final int SECTOR_COUNT_OFFSET = 92;
+    /**
+     * The offset of the compression level from the start of the section, {@value}.
+     */
+    public static final int COMPRESSION_LEVEL_OFFSET = 128;
     private static final int VOLUME_SECTION_SIZE = 1128;
 
     /**
@@ -35,6 +39,10 @@ public class VolumeSection {
      * Sector count.
      */
     private int sectorCount;
+    /**
+     * Compression level, 0 for none, 1 for fast and 2 for best.
+     */
+    private int compressionLevel;
 
     /**
      * Constructs a volume section based on bytes from the given EWF file and address.
@@ -95,6 +103,9 @@ public class VolumeSection {
             throw new EWFIOException("Invalid sector count", file, fileOffset, longFormat);
         }
         sectorCount = (int) longSectorCount;
+
+        // int compressionLevel
+        compressionLevel = bytes[COMPRESSION_LEVEL_OFFSET - SectionPrefix.SECTION_PREFIX_SIZE] & 0xFF;
     }
 
     @SuppressWarnings("unused")
@@ -115,4 +126,8 @@ public class VolumeSection {
         return sectorCount;
     }
 
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
 }
@@ -0,0 +1,175 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class EWFBatchHasherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A hasher treating each top level directory as a disk, noting the most images hashed at once per disk.
+     */
+    private static class CountingHasher extends EWFBatchHasher {
+
+        private final Map<String, int[]> active = new HashMap<>();
+
+        CountingHasher(int threadCount, int perDiskLimit) {
+            super(threadCount, perDiskLimit);
+        }
+
+        @Override
+        protected String getDisk(File image) {
+            return image.getParentFile().getParentFile().getName();
+        }
+
+        @Override
+        protected ImageResult hashImage(File image) {
+            String disk = getDisk(image);
+            synchronized (active) {
+                int[] counts = active.get(disk);
+                if (counts == null) {
+                    counts = new int[2];
+                    active.put(disk, counts);
+                }
+                counts[0]++;
+                counts[1] = Math.max(counts[1], counts[0]);
+            }
+            try {
+                Thread.sleep(10);
+                return super.hashImage(image);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                synchronized (active) {
+                    active.get(disk)[0]--;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testParallelDecompression() throws Exception {
+        // the chunks of a single image are decompressed on the shared pool rather than on its hashing thread
+        byte[] media = EWFTestImage.media(4096 * 512);
+        File image = new EWFTestImage(media).hashes(true).write(folder.newFolder("disk1", "a"), "image");
+        EWFBatchHasher.Result result = new EWFBatchHasher(4, 1).hash(Arrays.asList(image), null);
+        Assert.assertTrue(result.isVerified());
+        Assert.assertArrayEquals(EWFTestImage.digest("SHA-1", media), result.getImageResults().get(0).getSHA1());
+
+        int decompressors = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("EWFBatchHasher decompressor")) {
+                decompressors++;
+            }
+        }
+        Assert.assertTrue(decompressors > 1);
+    }
+
+    @Test
+    public void testHash() throws Exception {
+        File verified = new EWFTestImage(EWFTestImage.media(16 * 512)).hashes(true)
+                .write(folder.newFolder("disk1", "a"), "image");
+        File unverified = new EWFTestImage(EWFTestImage.media(8 * 512)).write(folder.newFolder("disk1", "b"), "image");
+        File failed = new EWFTestImage(EWFTestImage.media(8 * 512)).write(folder.newFolder("disk2", "c"), "image");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(failed, "rw");
+        randomAccessFile.setLength(randomAccessFile.length() / 2);
+        randomAccessFile.close();
+
+        List<File> images = EWFBatchHasher.findImages(folder.getRoot());
+        Assert.assertEquals(3, images.size());
+        Assert.assertEquals(verified, images.get(0));
+
+        final List<EWFBatchHasher.ImageResult> completed = new ArrayList<>();
+        EWFBatchHasher.Result result = new EWFBatchHasher(2, 1).hash(images,
+                new EWFBatchHasher.Listener() {
+                    @Override
+                    public void completed(EWFBatchHasher.ImageResult result) {
+                        completed.add(result);
+                    }
+                });
+        Assert.assertEquals(3, completed.size());
+
+        List<EWFBatchHasher.ImageResult> imageResults = result.getImageResults();
+        Assert.assertEquals(EWFBatchHasher.Status.VERIFIED, imageResults.get(0).getStatus());
+        Assert.assertArrayEquals(EWFTestImage.digest("MD5", EWFTestImage.media(16 * 512)),
+                imageResults.get(0).getMD5());
+        Assert.assertEquals(EWFBatchHasher.Status.UNVERIFIED, imageResults.get(1).getStatus());
+        Assert.assertEquals(EWFBatchHasher.Status.FAILED, imageResults.get(2).getStatus());
+        Assert.assertNotNull(imageResults.get(2).getError());
+        Assert.assertFalse(result.isVerified());
+        Assert.assertEquals(24 * 512, result.getBytesHashed());
+        Assert.assertTrue(result.getThroughput() > 0);
+    }
+
+    @Test
+    public void testUnexpectedFailure() throws Exception {
+        File good = new EWFTestImage(EWFTestImage.media(8 * 512)).hashes(true).write(folder.newFolder("a"), "image");
+        File bad = new EWFTestImage(EWFTestImage.media(8 * 512)).write(folder.newFolder("b"), "image");
+
+        // a hasher failing on one image with an unchecked exception still hashes the others
+        final File badImage = bad;
+        EWFBatchHasher hasher = new EWFBatchHasher(2, 2) {
+            @Override
+            protected ImageResult hashImage(File image) {
+                if (!image.equals(badImage)) {
+                    return super.hashImage(image);
+                }
+                return super.hashImage(new File(image.getPath()) {
+                    @Override
+                    public String getAbsolutePath() {
+                        throw new IllegalStateException("Malformed image");
+                    }
+                });
+            }
+        };
+        EWFBatchHasher.Result result = hasher.hash(Arrays.asList(good, bad), null);
+        Assert.assertEquals(1, result.getCount(EWFBatchHasher.Status.VERIFIED));
+        Assert.assertEquals(1, result.getCount(EWFBatchHasher.Status.FAILED));
+    }
+
+    @Test
+    public void testPerDiskLimit() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            new EWFTestImage(EWFTestImage.media(8 * 512)).write(folder.newFolder("disk1", "image" + i), "image");
+            new EWFTestImage(EWFTestImage.media(8 * 512)).write(folder.newFolder("disk2", "image" + i), "image");
+        }
+        CountingHasher hasher = new CountingHasher(4, 1);
+        EWFBatchHasher.Result result = hasher.hash(EWFBatchHasher.findImages(folder.getRoot()), null);
+        Assert.assertEquals(8, result.getCount(EWFBatchHasher.Status.UNVERIFIED));
+        Assert.assertEquals(1, hasher.active.get("disk1")[1]);
+        Assert.assertEquals(1, hasher.active.get("disk2")[1]);
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        new EWFTestImage(EWFTestImage.media(8 * 512)).hashes(true).write(folder.newFolder("a"), "image");
+        new EWFTestImage(EWFTestImage.media(8 * 512)).hashes(true).write(folder.newFolder("b"), "image");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = EWFBatchHasher.run(new String[]{"-threads", "2", folder.getRoot().getPath()},
+                new PrintStream(out, true), new PrintStream(err, true));
+        Assert.assertEquals(0, status);
+        String[] lines = out.toString().trim().split("\n");
+        Assert.assertEquals(3, lines.length);
+        Assert.assertTrue(lines[0].contains("\"status\":\"VERIFIED\""));
+        Assert.assertTrue(lines[2].startsWith("{\"images\":2,\"verified\":2,"));
+
+        Assert.assertEquals(2, EWFBatchHasher.run(new String[]{"-bogus"}, new PrintStream(out, true),
+                new PrintStream(err, true)));
+    }
+}
@@ -0,0 +1,136 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+public class EWFBlockHashIndexTest {
+
+    private static final int BLOCK_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // returns media of 32 blocks and a partial block, with zeroed and wiped blocks and a repeated block
+    private static byte[] media() {
+        byte[] media = EWFTestImage.media(32 * BLOCK_SIZE + 1024);
+        Arrays.fill(media, 3 * BLOCK_SIZE, 4 * BLOCK_SIZE, (byte) 0);
+        Arrays.fill(media, 7 * BLOCK_SIZE, 8 * BLOCK_SIZE, (byte) 0xff);
+        System.arraycopy(media, 2 * BLOCK_SIZE, media, 21 * BLOCK_SIZE, BLOCK_SIZE);
+        return media;
+    }
+
+    private static byte[] block(byte[] media, int block) {
+        return EWFTestImage.digest("MD5", Arrays.copyOfRange(media, block * BLOCK_SIZE,
+                Math.min(media.length, (block + 1) * BLOCK_SIZE)));
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        byte[] media = media();
+        File file = new EWFTestImage(media).sectorsPerChunk(16).chunksPerSegment(8).compressionLevel(1)
+                .write(folder.getRoot(), "image");
+        EWFFileReader reader = new EWFFileReader(file);
+        File indexFile = new File(folder.getRoot(), "image.idx");
+        EWFBlockHashIndex.Result result = EWFBlockHashIndex.build(reader, indexFile, 3);
+        reader.close();
+        Assert.assertEquals(33, result.getBlockCount());
+        Assert.assertEquals(2, result.getConstantBlockCount());
+        Assert.assertEquals(media.length, result.getBytesHashed());
+        Assert.assertFalse(new File(folder.getRoot(), "image.idx.tmp").exists());
+
+        EWFBlockHashIndex index = new EWFBlockHashIndex(indexFile);
+        Assert.assertEquals("MD5", index.getAlgorithm());
+        Assert.assertEquals(BLOCK_SIZE, index.getBlockSize());
+        Assert.assertEquals(media.length, index.getImageSize());
+        Assert.assertEquals(33, index.getBlockCount());
+        Assert.assertEquals(31, index.getEntryCount());
+
+        // every block is found by its offset and by its hash
+        for (int block = 0; block < 33; block++) {
+            long offset = (long) block * BLOCK_SIZE;
+            if (block == 3 || block == 7) {
+                Assert.assertTrue(index.isConstant(offset));
+                Assert.assertNull(index.getHash(offset + 1));
+                continue;
+            }
+            Assert.assertFalse(index.isConstant(offset));
+            long lastOffset = Math.min(media.length, offset + BLOCK_SIZE) - 1;
+            Assert.assertArrayEquals(block(media, block), index.getHash(lastOffset));
+            long[] offsets = index.findOffsets(block(media, block));
+            if (block == 2 || block == 21) {
+                Assert.assertArrayEquals(new long[]{2 * BLOCK_SIZE, 21 * BLOCK_SIZE}, offsets);
+            } else {
+                Assert.assertArrayEquals(new long[]{offset}, offsets);
+            }
+        }
+        Assert.assertFalse(index.contains(EWFTestImage.digest("MD5", new byte[BLOCK_SIZE])));
+        Assert.assertFalse(index.contains(new byte[16]));
+    }
+
+    @Test
+    public void testAlgorithm() throws Exception {
+        byte[] media = media();
+        File file = new EWFTestImage(media).sectorsPerChunk(16).write(folder.getRoot(), "image");
+        EWFFileReader reader = new EWFFileReader(file);
+        File indexFile = new File(folder.getRoot(), "image.idx");
+        EWFBlockHashIndex.build(reader, indexFile, 1024, "SHA1", 1);
+        reader.close();
+
+        EWFBlockHashIndex index = new EWFBlockHashIndex(indexFile);
+        Assert.assertEquals("SHA1", index.getAlgorithm());
+        Assert.assertEquals(media.length / 1024, index.getBlockCount());
+        Assert.assertEquals(media.length / 1024 - 8, index.getEntryCount());
+        byte[] hash = EWFTestImage.digest("SHA1", Arrays.copyOfRange(media, 5 * 1024, 6 * 1024));
+        Assert.assertArrayEquals(hash, index.getHash(5 * 1024));
+        Assert.assertArrayEquals(new long[]{5 * 1024}, index.findOffsets(hash));
+    }
+
+    @Test
+    public void testRepeatedBlocks() throws Exception {
+        // alternate two sector patterns, so that the blocks share two hashes
+        byte[] media = new byte[400 * 512];
+        for (int sector = 0; sector < 400; sector++) {
+            Arrays.fill(media, sector * 512, sector * 512 + 512, (byte) (sector % 2 + 1));
+            media[sector * 512] = (byte) 0x80;
+        }
+        File file = new EWFTestImage(media).sectorsPerChunk(16).write(folder.getRoot(), "image");
+        EWFFileReader reader = new EWFFileReader(file);
+        File indexFile = new File(folder.getRoot(), "image.idx");
+        EWFBlockHashIndex.build(reader, indexFile, 512, "MD5", 4);
+        reader.close();
+
+        EWFBlockHashIndex index = new EWFBlockHashIndex(indexFile);
+        Assert.assertEquals(400, index.getEntryCount());
+        for (int pattern = 0; pattern < 2; pattern++) {
+            long[] offsets = index.findOffsets(index.getHash(pattern * 512));
+            Assert.assertEquals(200, offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                Assert.assertEquals((2 * i + pattern) * 512L, offsets[i]);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlockSize() throws Exception {
+        File file = new EWFTestImage(EWFTestImage.media(16 * 512)).write(folder.getRoot(), "image");
+        EWFBlockHashIndex.build(new EWFFileReader(file), new File(folder.getRoot(), "image.idx"), 3000, "MD5", 1);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedIndex() throws Exception {
+        File file = new EWFTestImage(media()).sectorsPerChunk(16).write(folder.getRoot(), "image");
+        File indexFile = new File(folder.getRoot(), "image.idx");
+        EWFBlockHashIndex.build(new EWFFileReader(file), indexFile, 2);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "rw");
+        randomAccessFile.setLength(randomAccessFile.length() - 1);
+        randomAccessFile.close();
+        new EWFBlockHashIndex(indexFile);
+    }
+}
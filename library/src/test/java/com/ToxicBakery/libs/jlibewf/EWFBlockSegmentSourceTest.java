@@ -0,0 +1,204 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class EWFBlockSegmentSourceTest {
+
+    private static final int BLOCK_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] media;
+    private File remoteFile;
+    private RemoteSource remote;
+
+    /**
+     * A stand-in for a remote store, serving the segment files of a local directory under a path that does not
+     * exist locally, counting its range requests and optionally delaying them.
+     */
+    private static class RemoteSource extends EWFFileSegmentSource {
+
+        private final File directory;
+        private final long delayMillis;
+        private int requestCount;
+        private int activeCount;
+        private int maxActiveCount;
+
+        RemoteSource(File directory, long delayMillis) {
+            this.directory = directory;
+            this.delayMillis = delayMillis;
+        }
+
+        private File local(File segment) {
+            return new File(directory, segment.getName());
+        }
+
+        @Override
+        public boolean exists(File segment) {
+            return super.exists(local(segment));
+        }
+
+        @Override
+        public long getLength(File segment) throws IOException {
+            return super.getLength(local(segment));
+        }
+
+        @Override
+        public long getLastModified(File segment) {
+            return super.getLastModified(local(segment));
+        }
+
+        @Override
+        public void read(File segment, long fileOffset, byte[] bytes, int bytesOffset, int numBytes)
+                throws IOException {
+            synchronized (this) {
+                requestCount++;
+                activeCount++;
+                maxActiveCount = Math.max(maxActiveCount, activeCount);
+            }
+            try {
+                Thread.sleep(delayMillis);
+                super.read(local(segment), fileOffset, bytes, bytesOffset, numBytes);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                synchronized (this) {
+                    activeCount--;
+                }
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        media = EWFTestImage.media(128 * 512);
+        File directory = folder.newFolder("store");
+        new EWFTestImage(media).chunksPerSegment(32).compressionLevel(0).write(directory, "image");
+        remoteFile = new File(folder.getRoot(), "remote/image.E01");
+        remote = new RemoteSource(directory, 0);
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        EWFBlockSegmentSource source = new EWFBlockSegmentSource(remote, BLOCK_SIZE, 1024 * 1024, 4, 3);
+        EWFFileReader reader = new EWFFileReader(remoteFile, EWFFileReader.OpenMode.FULL, source);
+        Assert.assertFalse(remoteFile.exists());
+        Assert.assertEquals(4, reader.getSectionIndex().getSegmentCount());
+        for (int chunkIndex = 0; chunkIndex < 128; chunkIndex++) {
+            Assert.assertArrayEquals(Arrays.copyOfRange(media, chunkIndex * 512, chunkIndex * 512 + 512),
+                    reader.readImageBytes(chunkIndex * 512L, 512));
+        }
+        reader.close();
+
+        // each block is fetched once, by far fewer requests than sections and chunks read
+        long segmentBytes = 0;
+        for (File segment : remote.directory.listFiles()) {
+            segmentBytes += segment.length();
+        }
+        Assert.assertTrue(source.getBytesFetched() <= segmentBytes);
+        Assert.assertEquals(source.getRequestCount(), remote.requestCount);
+        Assert.assertTrue(remote.requestCount < 128 / 4);
+
+        // the blocks are cached for a second reader
+        int requestCount = remote.requestCount;
+        reader = new EWFFileReader(remoteFile, EWFFileReader.OpenMode.FULL, source);
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length));
+        reader.close();
+        Assert.assertEquals(requestCount, remote.requestCount);
+        Assert.assertTrue(source.getHitCount() > 0);
+    }
+
+    @Test
+    public void testParallelFetch() throws Exception {
+        remote = new RemoteSource(remote.directory, 20);
+        EWFBlockSegmentSource source = new EWFBlockSegmentSource(remote, BLOCK_SIZE, 1024 * 1024, 8, 4, BLOCK_SIZE);
+        EWFFileReader reader = new EWFFileReader(remoteFile, EWFFileReader.OpenMode.FULL, source);
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length));
+        reader.close();
+        source.close();
+        Assert.assertTrue(remote.maxActiveCount > 1);
+    }
+
+    @Test
+    public void testMinSplitSize() throws Exception {
+        // ranges smaller than twice the minimum split size are fetched by a single request
+        remote = new RemoteSource(remote.directory, 5);
+        EWFBlockSegmentSource source = new EWFBlockSegmentSource(remote, BLOCK_SIZE, 1024 * 1024, 8, 4,
+                8 * BLOCK_SIZE);
+        File segment = new File(remoteFile.getParentFile(), "image.E01");
+        byte[] bytes = new byte[BLOCK_SIZE];
+        source.read(segment, 0, bytes, 0, bytes.length);
+        Assert.assertEquals(1, remote.requestCount);
+        Assert.assertEquals(source.getLength(segment), source.getBytesFetched());
+        source.close();
+    }
+
+    @Test
+    public void testReadAfterClose() throws Exception {
+        // a closed source fails reads fetching several ranges with an IOException
+        EWFBlockSegmentSource source = new EWFBlockSegmentSource(remote, BLOCK_SIZE, 1024 * 1024, 8, 4, BLOCK_SIZE);
+        source.close();
+        File segment = new File(remoteFile.getParentFile(), "image.E01");
+        byte[] bytes = new byte[4 * BLOCK_SIZE];
+        try {
+            source.read(segment, 0, bytes, 0, bytes.length);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals(0, remote.requestCount);
+        }
+    }
+
+    @Test
+    public void testConcurrentMiss() throws Exception {
+        // reads missing the same block while it is fetched wait for the fetch instead of fetching it again
+        remote = new RemoteSource(remote.directory, 200);
+        final EWFBlockSegmentSource source = new EWFBlockSegmentSource(remote, BLOCK_SIZE, 1024 * 1024, 0, 1);
+        final File segment = new File(remoteFile.getParentFile(), "image.E01");
+        final byte[] first = new byte[100];
+        final IOException[] failure = new IOException[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    source.read(segment, 0, first, 0, first.length);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        thread.start();
+        Thread.sleep(50);
+        byte[] second = new byte[100];
+        source.read(segment, 50, second, 0, second.length);
+        thread.join();
+        source.close();
+
+        Assert.assertNull(failure[0]);
+        Assert.assertEquals(1, remote.requestCount);
+        Assert.assertArrayEquals(Arrays.copyOfRange(first, 50, 100), Arrays.copyOfRange(second, 0, 50));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        EWFBlockSegmentSource source = new EWFBlockSegmentSource(remote, BLOCK_SIZE, 2 * BLOCK_SIZE, 1, 2);
+        EWFFileReader reader = new EWFFileReader(remoteFile, EWFFileReader.OpenMode.FULL, source);
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length));
+        reader.close();
+        Assert.assertTrue(source.getCachedBytes() <= 2 * BLOCK_SIZE);
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingImage() throws Exception {
+        new EWFFileReader(new File(folder.getRoot(), "remote/missing.E01"), EWFFileReader.OpenMode.FULL,
+                new EWFBlockSegmentSource(remote));
+    }
+}
@@ -0,0 +1,123 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+public class EWFChunkCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // reads the hot chunks twice and then scans many other chunks once
+    private static void hotThenScan(EWFChunkCache cache, Object image) {
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 4; i++) {
+                if (cache.get(image, i) == null) {
+                    cache.put(image, i, new byte[100]);
+                }
+            }
+        }
+        for (int i = 100; i < 200; i++) {
+            if (cache.get(image, i) == null) {
+                cache.put(image, i, new byte[100]);
+            }
+        }
+    }
+
+    @Test
+    public void testLruFlushedByScan() {
+        EWFChunkCache cache = new EWFChunkCache(1000);
+        Object image = new Object();
+        hotThenScan(cache, image);
+        Assert.assertFalse(cache.contains(image, 0));
+        Assert.assertEquals(1000, cache.getSize());
+    }
+
+    @Test
+    public void testSegmentedResistsScan() {
+        EWFChunkCache cache = new EWFChunkCache(1000, EWFChunkCache.Policy.SEGMENTED);
+        Object image = new Object();
+        hotThenScan(cache, image);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(cache.contains(image, i));
+        }
+        Assert.assertEquals(400, cache.getProtectedSize());
+        Assert.assertEquals(1000, cache.getSize());
+
+        // the protected segment is bounded, demoting its least recently used chunks
+        for (int i = 100; i < 120; i++) {
+            cache.put(image, i, new byte[100]);
+            cache.get(image, i);
+        }
+        Assert.assertTrue(cache.getProtectedSize() <= 800);
+        Assert.assertEquals(1000, cache.getSize());
+    }
+
+    @Test
+    public void testPeekKeepsOrder() {
+        EWFChunkCache cache = new EWFChunkCache(1000);
+        Object image = new Object();
+        for (int i = 0; i < 10; i++) {
+            cache.put(image, i, new byte[100]);
+        }
+
+        // a peek at the least recently used chunk leaves it first to be evicted
+        Assert.assertNotNull(cache.peek(image, 0));
+        long hits = cache.getHitCount();
+        cache.put(image, 10, new byte[100]);
+        Assert.assertFalse(cache.contains(image, 0));
+        Assert.assertNull(cache.peek(image, 0));
+        Assert.assertTrue(cache.contains(image, 1));
+        Assert.assertEquals(hits, cache.getHitCount());
+    }
+
+    @Test
+    public void testPinning() {
+        EWFChunkCache cache = new EWFChunkCache(1000, EWFChunkCache.Policy.SEGMENTED);
+        Object image = new Object();
+        cache.put(image, 50, new byte[100]);
+        cache.pin(image, 50, 3);
+        Assert.assertEquals(100, cache.getPinnedSize());
+
+        cache.put(image, 52, new byte[100]);
+        for (int i = 100; i < 200; i++) {
+            cache.put(image, i, new byte[100]);
+        }
+        Assert.assertTrue(cache.contains(image, 50));
+        Assert.assertTrue(cache.contains(image, 52));
+        Assert.assertEquals(200, cache.getPinnedSize());
+        Assert.assertEquals(1000, cache.getSize());
+
+        cache.unpin(image);
+        Assert.assertEquals(0, cache.getPinnedSize());
+        for (int i = 200; i < 220; i++) {
+            cache.put(image, i, new byte[100]);
+        }
+        Assert.assertFalse(cache.contains(image, 50));
+    }
+
+    @Test
+    public void testReadWithoutCaching() throws Exception {
+        byte[] media = EWFTestImage.media(16 * 512);
+        File file = new EWFTestImage(media).sectorsPerChunk(1).write(folder.getRoot(), "image");
+        EWFFileReader reader = new EWFFileReader(file);
+        EWFChunkCache cache = new EWFChunkCache(1024 * 1024, EWFChunkCache.Policy.SEGMENTED);
+        reader.setChunkCache(cache);
+
+        reader.pinImageRange(0, 1024);
+        reader.readImageBytes(0, 512);
+        Assert.assertEquals(1, cache.getChunkCount());
+
+        // a scan reads every chunk without adding any, but uses the cached one
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length, false));
+        Assert.assertEquals(1, cache.getChunkCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(512, cache.getPinnedSize());
+        reader.close();
+        Assert.assertEquals(0, cache.getChunkCount());
+    }
+}
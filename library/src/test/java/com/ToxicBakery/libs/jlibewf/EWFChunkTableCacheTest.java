@@ -0,0 +1,91 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+public class EWFChunkTableCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTablesDecodedOnce() throws Exception {
+        byte[] media = EWFTestImage.media(64 * 512);
+        File file = new EWFTestImage(media).chunksPerSegment(16).write(folder.getRoot(), "image");
+        EWFFileReader reader = new EWFFileReader(file);
+        EWFChunkTableCache cache = reader.getChunkTableCache();
+
+        // only the last table is decoded when opening, to find the media size
+        Assert.assertEquals(1, cache.getTableCount());
+
+        for (int chunkIndex = 0; chunkIndex < 64; chunkIndex++) {
+            Assert.assertArrayEquals(Arrays.copyOfRange(media, chunkIndex * 512, chunkIndex * 512 + 512),
+                    reader.readImageBytes(chunkIndex * 512L, 512));
+        }
+        Assert.assertEquals(4, cache.getTableCount());
+        Assert.assertEquals(4, cache.getMissCount());
+        Assert.assertTrue(cache.getHitCount() >= 60);
+        Assert.assertTrue(cache.getSize() > 4 * 17 * 8);
+        reader.close();
+    }
+
+    @Test
+    public void testOversizedTable() {
+        EWFChunkTableCache cache = new EWFChunkTableCache(1000);
+        for (int section = 0; section < 4; section++) {
+            cache.put(section, new EWFChunkTableCache.Table(new long[3], new long[1]));
+        }
+        long size = cache.getSize();
+
+        // a table larger than the budget is not cached and leaves the cached tables in place
+        cache.put(4, new EWFChunkTableCache.Table(new long[200], new long[4]));
+        Assert.assertNull(cache.get(4));
+        Assert.assertEquals(4, cache.getTableCount());
+        Assert.assertEquals(size, cache.getSize());
+        Assert.assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testBoundedResidency() throws Exception {
+        byte[] media = EWFTestImage.media(64 * 512);
+        File file = new EWFTestImage(media).chunksPerSegment(8).write(folder.getRoot(), "image");
+        EWFFileReader reader = new EWFFileReader(file);
+        reader.setChunkTableCacheSize(400);
+        EWFChunkTableCache cache = reader.getChunkTableCache();
+
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length));
+        Assert.assertTrue(cache.getSize() <= 400);
+        Assert.assertEquals(2, cache.getTableCount());
+        Assert.assertEquals(7, cache.getEvictionCount());
+
+        // resident tables are not read again, while evicted tables are decoded and verified again
+        corruptTable(reader, 7);
+        Assert.assertArrayEquals(Arrays.copyOf(media, 512), reader.readImageBytes(0, 512));
+        reader.readImageBytes(40 * 512, 512);
+        reader.readImageBytes(48 * 512, 512);
+        try {
+            reader.readImageBytes(0, 512);
+            Assert.fail("Corrupt table not detected");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Adler32"));
+        }
+        reader.close();
+    }
+
+    // corrupts the chunk offset array of the first table, whose last chunk is the given chunk
+    private static void corruptTable(EWFFileReader reader, int lastChunkIndex) throws Exception {
+        EWFChunkLocation location = reader.locateChunk(lastChunkIndex);
+        long tableOffset = location.getFileOffset() + location.getStoredSize();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(location.getFile(), "rw");
+        randomAccessFile.seek(tableOffset + 76 + 24);
+        randomAccessFile.write(randomAccessFile.read() ^ 0xFF);
+        randomAccessFile.close();
+    }
+}
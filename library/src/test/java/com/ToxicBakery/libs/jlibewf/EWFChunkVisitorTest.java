@@ -0,0 +1,106 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.Inflater;
+
+public class EWFChunkVisitorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOrdered() throws Exception {
+        byte[] media = EWFTestImage.media(40 * 512);
+        File file = new EWFTestImage(media).sectorsPerChunk(4).chunksPerSegment(3).write(folder.getRoot(), "image");
+        EWFFileReader reader = new EWFFileReader(file);
+
+        final List<EWFChunk> chunks = new ArrayList<>();
+        final List<byte[]> bytes = new ArrayList<>();
+        reader.visitChunks(new EWFChunkVisitor() {
+            @Override
+            public void visit(EWFChunk chunk) throws IOException {
+                chunks.add(chunk);
+                bytes.add(chunk.getBytes());
+            }
+        });
+        reader.close();
+
+        Assert.assertEquals(10, chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            EWFChunk chunk = chunks.get(i);
+            Assert.assertEquals(i, chunk.getChunkIndex());
+            Assert.assertEquals(i * 2048L, chunk.getImageOffset());
+            Assert.assertEquals(i / 3 + 1, chunk.getSegmentNumber());
+            Assert.assertTrue(chunk.isCompressed());
+            Assert.assertArrayEquals(Arrays.copyOfRange(media, i * 2048, i * 2048 + 2048), bytes.get(i));
+
+            // the stored bytes are the compressed chunk
+            Inflater inflater = new Inflater();
+            inflater.setInput(chunk.getStoredBytes());
+            byte[] inflated = new byte[2048];
+            Assert.assertEquals(2048, inflater.inflate(inflated));
+            inflater.end();
+            Assert.assertArrayEquals(bytes.get(i), inflated);
+        }
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        final byte[] media = EWFTestImage.media(64 * 512);
+        File file = new EWFTestImage(media).sectorsPerChunk(1).chunksPerSegment(5).compressionLevel(0)
+                .write(folder.getRoot(), "image");
+        EWFFileReader reader = new EWFFileReader(file);
+
+        final BitSet visited = new BitSet();
+        reader.visitChunks(new EWFChunkVisitor() {
+            @Override
+            public void visit(EWFChunk chunk) throws IOException {
+                int chunkIndex = chunk.getChunkIndex();
+                Assert.assertFalse(chunk.isCompressed());
+                Assert.assertEquals(512 + 4, chunk.getStoredBytes().length);
+                Assert.assertArrayEquals(Arrays.copyOfRange(media, chunkIndex * 512, chunkIndex * 512 + 512),
+                        chunk.getBytes());
+                synchronized (visited) {
+                    Assert.assertFalse(visited.get(chunkIndex));
+                    visited.set(chunkIndex);
+                }
+            }
+        }, 4);
+        reader.close();
+        Assert.assertEquals(64, visited.cardinality());
+    }
+
+    @Test
+    public void testVisitorFailure() throws Exception {
+        File file = new EWFTestImage(EWFTestImage.media(32 * 512)).sectorsPerChunk(1).chunksPerSegment(4)
+                .write(folder.getRoot(), "image");
+        EWFFileReader reader = new EWFFileReader(file);
+        try {
+            reader.visitChunks(new EWFChunkVisitor() {
+                @Override
+                public void visit(EWFChunk chunk) throws IOException {
+                    if (chunk.getChunkIndex() == 17) {
+                        throw new IOException("stop at " + chunk.getChunkIndex());
+                    }
+                }
+            }, 3);
+            Assert.fail("Visitor failure not rethrown");
+        } catch (IOException e) {
+            Assert.assertEquals("stop at 17", e.getMessage());
+        }
+
+        // the reader remains usable
+        Assert.assertEquals(512, reader.readImageBytes(0, 512).length);
+        reader.close();
+    }
+}
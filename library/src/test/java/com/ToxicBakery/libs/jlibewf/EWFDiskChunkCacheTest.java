@@ -0,0 +1,91 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+public class EWFDiskChunkCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testChunksKeptAcrossRuns() throws Exception {
+        byte[] media = EWFTestImage.media(16 * 512);
+        File file = new EWFTestImage(media).sectorsPerChunk(2).write(folder.newFolder("image"), "image");
+        File directory = new File(folder.getRoot(), "cache");
+
+        // the first run decompresses and writes every chunk
+        EWFDiskChunkCache cache = new EWFDiskChunkCache(directory, 1024 * 1024);
+        EWFFileReader reader = new EWFFileReader(file);
+        reader.setDiskChunkCache(cache);
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length));
+        Assert.assertEquals(8, reader.getDiskChunkCacheStore().getMissCount());
+        reader.close();
+        Assert.assertEquals(8 * 1024, cache.getUsedBytes());
+
+        // a later run reads every chunk from disk
+        cache = new EWFDiskChunkCache(directory, 1024 * 1024);
+        Assert.assertEquals(8 * 1024, cache.getUsedBytes());
+        reader = new EWFFileReader(file);
+        reader.setDiskChunkCache(cache);
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length));
+        Assert.assertEquals(8, reader.getDiskChunkCacheStore().getHitCount());
+        Assert.assertEquals(0, reader.getDiskChunkCacheStore().getMissCount());
+        reader.close();
+    }
+
+    @Test
+    public void testChangedImageDiscarded() throws Exception {
+        byte[] media = EWFTestImage.media(8 * 512);
+        File file = new EWFTestImage(media).sectorsPerChunk(2).write(folder.newFolder("image"), "image");
+        EWFDiskChunkCache cache = new EWFDiskChunkCache(new File(folder.getRoot(), "cache"), 1024 * 1024);
+
+        EWFFileReader reader = new EWFFileReader(file);
+        reader.setDiskChunkCache(cache);
+        reader.readImageBytes(0, media.length);
+        reader.close();
+
+        // a changed modification time discards the cached chunks
+        Assert.assertTrue(file.setLastModified(file.lastModified() - 10000));
+        reader = new EWFFileReader(file);
+        reader.setDiskChunkCache(cache);
+        Assert.assertEquals(0, reader.getDiskChunkCacheStore().getChunkCount());
+        Assert.assertEquals(0, cache.getUsedBytes());
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length));
+        Assert.assertEquals(4, reader.getDiskChunkCacheStore().getMissCount());
+        reader.close();
+    }
+
+    @Test
+    public void testSizeLimit() throws Exception {
+        byte[] media = EWFTestImage.media(8 * 512);
+        File first = new EWFTestImage(media).sectorsPerChunk(2).write(folder.newFolder("first"), "image");
+        File second = new EWFTestImage(media).sectorsPerChunk(2).write(folder.newFolder("second"), "image");
+        EWFDiskChunkCache cache = new EWFDiskChunkCache(new File(folder.getRoot(), "cache"), 6 * 1024);
+
+        EWFFileReader reader = new EWFFileReader(first);
+        reader.setDiskChunkCache(cache);
+        reader.readImageBytes(0, media.length);
+        reader.close();
+        Assert.assertEquals(4 * 1024, cache.getUsedBytes());
+
+        // the cache of the closed image is deleted to make room for the open image
+        reader = new EWFFileReader(second);
+        reader.setDiskChunkCache(cache);
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length));
+        Assert.assertEquals(4 * 1024, cache.getUsedBytes());
+        reader.close();
+
+        // the open image is not evicted by itself
+        reader = new EWFFileReader(first);
+        EWFDiskChunkCache smallCache = new EWFDiskChunkCache(new File(folder.getRoot(), "small"), 3 * 1024);
+        reader.setDiskChunkCache(smallCache);
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length));
+        Assert.assertEquals(3, reader.getDiskChunkCacheStore().getChunkCount());
+        reader.close();
+    }
+}
@@ -1,7 +1,391 @@
 package com.ToxicBakery.libs.jlibewf;
 
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class EWFFileReaderTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A segment source that holds the reads of the named thread once armed.
+     */
+    private static class GateSource extends EWFFileSegmentSource {
+
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final String threadName;
+        private volatile boolean armed;
+
+        GateSource(String threadName) {
+            this.threadName = threadName;
+        }
+
+        @Override
+        public void read(File segment, long fileOffset, byte[] bytes, int bytesOffset, int numBytes)
+                throws IOException {
+            if (armed && Thread.currentThread().getName().equals(threadName)) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            super.read(segment, fileOffset, bytes, bytesOffset, numBytes);
+        }
+    }
+
+    /**
+     * A chunk cache that holds the puts of the named thread, noting the first chunk held.
+     */
+    private static class GateCache extends EWFChunkCache {
+
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final String threadName;
+        private volatile int heldIndex = -1;
+
+        GateCache(long budget, String threadName) {
+            super(budget);
+            this.threadName = threadName;
+        }
+
+        @Override
+        public void put(Object image, int chunkIndex, byte[] bytes) {
+            if (Thread.currentThread().getName().equals(threadName)) {
+                if (heldIndex < 0) {
+                    heldIndex = chunkIndex;
+                }
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            super.put(image, chunkIndex, bytes);
+        }
+    }
+
+    // reads a chunk on a new thread, failing the test on a mismatch
+    private static Thread readChunk(final EWFFileReader reader, final byte[] media, final int chunkIndex,
+                                    final List<Throwable> failures) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Assert.assertArrayEquals(Arrays.copyOfRange(media, chunkIndex * 512, chunkIndex * 512 + 512),
+                            reader.readImageBytes(chunkIndex * 512L, 512));
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testReadImageBytes_AcrossSegments() throws Exception {
+        byte[] media = EWFTestImage.media(20 * 1024);
+        File file = new EWFTestImage(media).sectorsPerChunk(2).chunksPerSegment(3).write(folder.getRoot(), "image");
+
+        EWFFileReader reader = new EWFFileReader(file);
+        Assert.assertEquals(media.length, reader.getImageSize());
+        Assert.assertEquals(1024, reader.getChunkSize());
+        Assert.assertEquals(20, reader.getChunkCount());
+        Assert.assertArrayEquals(Arrays.copyOfRange(media, 1000, 9000), reader.readImageBytes(1000, 8000));
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length + 100));
+        Assert.assertEquals(0, reader.readImageBytes(media.length, 1).length);
+        reader.close();
+    }
+
+    @Test
+    public void testOpen_FullMetadata() throws Exception {
+        byte[] media = EWFTestImage.media(20 * 1024);
+        File file = new EWFTestImage(media).chunksPerSegment(7).hashes(true).headerText("case 1")
+                .write(folder.getRoot(), "image");
+
+        EWFFileReader reader = new EWFFileReader(file);
+        Assert.assertTrue(reader.isIndexed());
+        Assert.assertEquals("case 1", reader.getHeaderText());
+        Assert.assertEquals(512, reader.getBytesPerSector());
+        Assert.assertArrayEquals(EWFTestImage.digest("MD5", media), reader.getStoredMD5());
+        Assert.assertArrayEquals(EWFTestImage.digest("SHA-1", media), reader.getStoredSHA1());
+        reader.close();
+    }
+
+    @Test
+    public void testOpen_MetadataOnly() throws Exception {
+        byte[] media = EWFTestImage.media(20 * 1024);
+        File file = new EWFTestImage(media).chunksPerSegment(7).hashes(true).headerText("case 2")
+                .write(folder.getRoot(), "image");
+
+        EWFFileReader reader = new EWFFileReader(file, EWFFileReader.OpenMode.METADATA);
+        Assert.assertFalse(reader.isIndexed());
+        Assert.assertEquals("case 2", reader.getHeaderText());
+        Assert.assertEquals(media.length, reader.getImageSize());
+        Assert.assertEquals(512, reader.getChunkSize());
+        Assert.assertEquals(40, reader.getChunkCount());
+        Assert.assertArrayEquals(EWFTestImage.digest("MD5", media), reader.getStoredMD5());
+        Assert.assertArrayEquals(EWFTestImage.digest("SHA-1", media), reader.getStoredSHA1());
+
+        // the tables are indexed on the first media read
+        Assert.assertArrayEquals(Arrays.copyOfRange(media, 10000, 12000), reader.readImageBytes(10000, 2000));
+        Assert.assertTrue(reader.isIndexed());
+        Assert.assertEquals(40, reader.getChunkCount());
+        reader.close();
+    }
+
+    @Test
+    public void testOpen_MetadataOnlyWithoutHashes() throws Exception {
+        File file = new EWFTestImage(EWFTestImage.media(4096)).write(folder.getRoot(), "image");
+
+        EWFFileReader reader = new EWFFileReader(file, EWFFileReader.OpenMode.METADATA);
+        Assert.assertNull(reader.getStoredMD5());
+        Assert.assertNull(reader.getStoredSHA1());
+        Assert.assertEquals(4096, reader.getImageSize());
+        reader.close();
+    }
+
+    @Test
+    public void testVerificationPolicy() throws Exception {
+        byte[] media = EWFTestImage.media(4096);
+        File file = new EWFTestImage(media).compressionLevel(0).write(folder.getRoot(), "image");
+        EWFFileReader once = new EWFFileReader(file);
+        once.setVerificationPolicy(EWFFileReader.VerificationPolicy.ONCE);
+        EWFFileReader always = new EWFFileReader(file);
+        EWFFileReader off = new EWFFileReader(file);
+        off.setVerificationPolicy(EWFFileReader.VerificationPolicy.OFF);
+        Assert.assertArrayEquals(media, once.readImageBytes(0, media.length));
+        Assert.assertArrayEquals(media, always.readImageBytes(0, media.length));
+
+        // corrupt the checksum of the first chunk, which directly follows the sectors section prefix
+        long checksumOffset = always.locateChunk(0).getFileOffset() + 512;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(checksumOffset);
+        randomAccessFile.write(randomAccessFile.read() ^ 0xFF);
+        randomAccessFile.close();
+
+        // bytes verified once are not verified again
+        Assert.assertArrayEquals(Arrays.copyOf(media, 512), once.readImageBytes(0, 512));
+        Assert.assertArrayEquals(media, off.readImageBytes(0, media.length));
+        try {
+            always.readImageBytes(0, 512);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("Adler32"));
+        }
+
+        once.close();
+        always.close();
+        off.close();
+    }
+
+    // copies the first bytes of the source file, as if it were still being written
+    private static void copyPrefix(File source, File target, long length) throws IOException {
+        byte[] bytes = Files.readAllBytes(source.toPath());
+        RandomAccessFile randomAccessFile = new RandomAccessFile(target, "rw");
+        randomAccessFile.setLength(0);
+        randomAccessFile.write(bytes, 0, (int) length);
+        randomAccessFile.close();
+    }
+
+    @Test
+    public void testOpen_Follow() throws Exception {
+        byte[] media = EWFTestImage.media(10 * 512);
+        File complete = new EWFTestImage(media).chunksPerSegment(4).write(folder.newFolder("complete"), "image");
+        File completeSecond = EWFSegmentFileReader.getNextFile(complete);
+        File acquiring = folder.newFolder("acquiring");
+        File first = new File(acquiring, complete.getName());
+        File second = new File(acquiring, completeSecond.getName());
+
+        // the table of the first segment is not complete yet
+        long firstLength = complete.length();
+        copyPrefix(complete, first, firstLength - 76 - 4);
+        EWFFileReader reader = new EWFFileReader(first, EWFFileReader.OpenMode.FOLLOW);
+        Assert.assertFalse(reader.isComplete());
+        Assert.assertEquals(0, reader.getChunkCount());
+        Assert.assertEquals(0, reader.getImageSize());
+        Assert.assertEquals("test header", reader.getHeaderText());
+
+        // the chunks of a complete table can be read
+        copyPrefix(complete, first, firstLength - 76);
+        Assert.assertTrue(reader.refresh());
+        Assert.assertEquals(4, reader.getChunkCount());
+        Assert.assertArrayEquals(Arrays.copyOf(media, 4 * 512), reader.readImageBytes(0, media.length));
+
+        // a partial segment file adds nothing
+        copyPrefix(complete, first, firstLength);
+        copyPrefix(completeSecond, second, 13 + 40);
+        Assert.assertFalse(reader.refresh());
+        Assert.assertEquals(4, reader.getChunkCount());
+
+        // the last segment file completes the image
+        for (File file = completeSecond; file.exists(); file = EWFSegmentFileReader.getNextFile(file)) {
+            copyPrefix(file, new File(acquiring, file.getName()), file.length());
+        }
+        Assert.assertTrue(reader.refresh());
+        Assert.assertTrue(reader.isComplete());
+        Assert.assertEquals(media.length, reader.getImageSize());
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length));
+        Assert.assertFalse(reader.refresh());
+        reader.close();
+    }
+
+    @Test
+    public void testReadImageBytes_Parallel() throws Exception {
+        byte[] media = EWFTestImage.media(64 * 512 + 300);
+        File file = new EWFTestImage(media).sectorsPerChunk(2).chunksPerSegment(10).write(folder.getRoot(), "image");
+        File uncompressed = new EWFTestImage(media).compressionLevel(0).write(folder.newFolder("raw"), "image");
+        final AtomicInteger taskCount = new AtomicInteger();
+        ExecutorService pool = new ThreadPoolExecutor(4, 4, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            public void execute(Runnable command) {
+                taskCount.incrementAndGet();
+                super.execute(command);
+            }
+        };
+
+        // reads below the threshold decompress on the reading thread, larger reads each whole chunk on the pool
+        EWFFileReader reader = new EWFFileReader(file);
+        reader.setChunkCache(new EWFChunkCache(4 * 1024));
+        reader.setParallelDecompression(pool, 4096);
+        reader.readImageBytes(1024 * 5, 1024);
+        Assert.assertEquals(0, taskCount.get());
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length));
+        Assert.assertTrue(taskCount.get() >= media.length / 1024 - 1);
+        Assert.assertArrayEquals(Arrays.copyOfRange(media, 700, 20000), reader.readImageBytes(700, 20000 - 700));
+        reader.close();
+
+        EWFFileReader rawReader = new EWFFileReader(uncompressed);
+        rawReader.setParallelDecompression(pool, 1);
+        taskCount.set(0);
+        Assert.assertArrayEquals(media, rawReader.readImageBytes(0, media.length, false));
+        Assert.assertEquals(rawReader.getChunkCount() - 1, taskCount.get());
+        rawReader.close();
+        pool.shutdown();
+    }
+
+    @Test
+    public void testReadImageBytes_Concurrent() throws Exception {
+        final byte[] media = EWFTestImage.media(256 * 512);
+        File file = new EWFTestImage(media).chunksPerSegment(64).write(folder.getRoot(), "image");
+        final EWFFileReader reader = new EWFFileReader(file);
+        reader.setChunkCache(new EWFChunkCache(64 * 512));
+
+        // threads reading the chunks in different orders decode them concurrently and read the same media
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread++) {
+            final int stride = 2 * thread + 1;
+            futures.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < 256; i++) {
+                        int chunkIndex = i * stride % 256;
+                        Assert.assertArrayEquals(Arrays.copyOfRange(media, chunkIndex * 512, chunkIndex * 512 + 512),
+                                reader.readImageBytes(chunkIndex * 512L, 512, stride != 1));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+        Assert.assertTrue(reader.getChunkLoadCount() >= 256);
+        reader.close();
+    }
+
+    @Test
+    public void testSharedLoads() throws Exception {
+        byte[] media = EWFTestImage.media(16 * 512);
+        File file = new EWFTestImage(media).chunksPerSegment(8).compressionLevel(0).write(folder.getRoot(), "image");
+        GateSource source = new GateSource("EWFIOScheduler");
+        EWFFileReader reader = new EWFFileReader(file, EWFFileReader.OpenMode.FULL, source);
+        EWFIOScheduler scheduler = new EWFIOScheduler();
+        reader.setIOScheduler(scheduler);
+        source.armed = true;
+        long chunkLoadCount = reader.getChunkLoadCount();
+
+        // the threads reading a chunk while its read is held wait for that load
+        List<Throwable> failures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(readChunk(reader, media, 4, failures));
+        while (scheduler.getBatchCount() < 1) {
+            Thread.sleep(1);
+        }
+        for (int i = 0; i < 5; i++) {
+            threads.add(readChunk(reader, media, 4, failures));
+        }
+        while (reader.getSharedLoadCount() < 5) {
+            Thread.sleep(1);
+        }
+        source.gate.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        reader.close();
+        scheduler.close();
+        Assert.assertEquals(new ArrayList<Throwable>(), failures);
+        Assert.assertEquals(1, scheduler.getRequestCount());
+        Assert.assertEquals(chunkLoadCount + 1, reader.getChunkLoadCount());
+        Assert.assertEquals(5, reader.getSharedLoadCount());
+    }
+
+    @Test
+    public void testSharedLoads_Prefetch() throws Exception {
+        byte[] media = EWFTestImage.media(16 * 512);
+        File file = new EWFTestImage(media).chunksPerSegment(8).write(folder.getRoot(), "image");
+        EWFFileReader reader = new EWFFileReader(file);
+        GateCache chunkCache = new GateCache(16 * 512, "EWFPrefetcher");
+        reader.setChunkCache(chunkCache);
+        EWFPrefetcher prefetcher = new EWFPrefetcher(reader, 1, 1);
+        reader.setPrefetcher(prefetcher);
 
+        // a stride of reads starts a prefetch, which is held once its chunk is decoded
+        for (int chunkIndex = 0; chunkIndex < 3; chunkIndex++) {
+            Assert.assertArrayEquals(Arrays.copyOfRange(media, chunkIndex * 512, chunkIndex * 512 + 512),
+                    reader.readImageBytes(chunkIndex * 512L, 512));
+        }
+        while (chunkCache.heldIndex < 0) {
+            Thread.sleep(1);
+        }
 
-}
\ No newline at end of file
+        // a read of the chunk waits for the prefetch instead of decoding it again
+        List<Throwable> failures = new ArrayList<>();
+        Thread thread = readChunk(reader, media, chunkCache.heldIndex, failures);
+        while (reader.getSharedLoadCount() < 1) {
+            Thread.sleep(1);
+        }
+        chunkCache.gate.countDown();
+        thread.join();
+        prefetcher.close();
+        reader.close();
+        Assert.assertEquals(new ArrayList<Throwable>(), failures);
+        Assert.assertEquals(1, reader.getSharedLoadCount());
+        Assert.assertEquals(1, prefetcher.getLateCount());
+    }
+}
@@ -0,0 +1,131 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+public class EWFHotChunkListTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] media;
+    private File file;
+    private File listDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        media = EWFTestImage.media(64 * 512);
+        file = new EWFTestImage(media).write(folder.getRoot(), "image");
+        listDirectory = new File(folder.getRoot(), "hot");
+    }
+
+    // reads chunks 10 to 14 five times each and chunk 40 once, then closes the reader
+    private void readSession(int maxChunks) throws Exception {
+        EWFFileReader reader = new EWFFileReader(file);
+        reader.setChunkCache(new EWFChunkCache(1024 * 1024));
+        reader.setHotChunkList(new EWFHotChunkList(listDirectory, maxChunks));
+        for (int i = 0; i < 5; i++) {
+            reader.readImageBytes(10 * 512, 5 * 512);
+        }
+        reader.readImageBytes(40 * 512 + 100, 10);
+        reader.close();
+    }
+
+    // opens a reader with an empty chunk cache and waits for it to be warmed
+    private EWFFileReader openWarmed(int maxChunks) throws Exception {
+        EWFFileReader reader = new EWFFileReader(file);
+        reader.setChunkCache(new EWFChunkCache(1024 * 1024));
+        reader.setHotChunkList(new EWFHotChunkList(listDirectory, maxChunks));
+        Assert.assertTrue(reader.getHotChunkListSession().awaitWarm(10000));
+        return reader;
+    }
+
+    @Test
+    public void testWarm() throws Exception {
+        readSession(EWFHotChunkList.DEFAULT_MAX_CHUNKS);
+
+        EWFFileReader reader = openWarmed(EWFHotChunkList.DEFAULT_MAX_CHUNKS);
+        EWFHotChunkList.Session session = reader.getHotChunkListSession();
+        Assert.assertArrayEquals(new int[]{10, 11, 12, 13, 14, 40}, session.getWarmChunks());
+        Assert.assertEquals(6, session.getWarmedCount());
+        EWFChunkCache chunkCache = reader.getChunkCache();
+        Assert.assertTrue(chunkCache.contains(reader, 12));
+        Assert.assertTrue(chunkCache.contains(reader, 40));
+
+        // the first reads of the hot chunks hit the warmed cache
+        long missCount = chunkCache.getMissCount();
+        Assert.assertArrayEquals(Arrays.copyOfRange(media, 10 * 512, 15 * 512),
+                reader.readImageBytes(10 * 512, 5 * 512));
+        Assert.assertEquals(missCount, chunkCache.getMissCount());
+        reader.close();
+    }
+
+    @Test
+    public void testMaxChunks() throws Exception {
+        readSession(3);
+
+        // the scores of earlier sessions are halved, so chunk 40 read again now outranks chunk 14
+        EWFFileReader reader = openWarmed(3);
+        Assert.assertArrayEquals(new int[]{10, 11, 12}, reader.getHotChunkListSession().getWarmChunks());
+        for (int i = 0; i < 4; i++) {
+            reader.readImageBytes(40 * 512, 10);
+        }
+        reader.close();
+
+        reader = openWarmed(3);
+        Assert.assertArrayEquals(new int[]{40, 10, 11}, reader.getHotChunkListSession().getWarmChunks());
+        reader.close();
+    }
+
+    @Test
+    public void testChangedImage() throws Exception {
+        readSession(EWFHotChunkList.DEFAULT_MAX_CHUNKS);
+
+        // touching the segment file invalidates the list
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(randomAccessFile.length() + 1);
+        randomAccessFile.close();
+
+        EWFFileReader reader = openWarmed(EWFHotChunkList.DEFAULT_MAX_CHUNKS);
+        Assert.assertEquals(0, reader.getHotChunkListSession().getWarmChunks().length);
+        Assert.assertEquals(0, reader.getHotChunkListSession().getWarmedCount());
+        Assert.assertFalse(reader.getChunkCache().contains(reader, 10));
+        reader.close();
+    }
+
+    @Test
+    public void testCorruptList() throws Exception {
+        // a huge fingerprint length, a huge chunk count and a truncated list are each discarded
+        for (int corruption = 0; corruption < 3; corruption++) {
+            readSession(EWFHotChunkList.DEFAULT_MAX_CHUNKS);
+            File[] listFiles = listDirectory.listFiles();
+            Assert.assertEquals(1, listFiles.length);
+            RandomAccessFile randomAccessFile = new RandomAccessFile(listFiles[0], "rw");
+            if (corruption == 0) {
+                randomAccessFile.seek(4);
+                randomAccessFile.writeInt(Integer.MAX_VALUE);
+            } else {
+                randomAccessFile.seek(4);
+                int countOffset = 8 + randomAccessFile.readInt();
+                if (corruption == 1) {
+                    randomAccessFile.seek(countOffset);
+                    randomAccessFile.writeInt(Integer.MAX_VALUE);
+                } else {
+                    randomAccessFile.setLength(randomAccessFile.length() - 5);
+                }
+            }
+            randomAccessFile.close();
+
+            EWFFileReader reader = openWarmed(EWFHotChunkList.DEFAULT_MAX_CHUNKS);
+            Assert.assertEquals(0, reader.getHotChunkListSession().getWarmChunks().length);
+            reader.close();
+        }
+    }
+}
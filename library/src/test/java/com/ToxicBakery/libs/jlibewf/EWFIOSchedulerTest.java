@@ -0,0 +1,252 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class EWFIOSchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] media;
+    private File file;
+
+    /**
+     * A segment source that holds the reads of the dispatch thread once armed, noting them.
+     */
+    private static class GateSource extends EWFFileSegmentSource {
+
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List<long[]> reads = new ArrayList<>();
+        private volatile boolean armed;
+
+        @Override
+        public void read(File segment, long fileOffset, byte[] bytes, int bytesOffset, int numBytes)
+                throws IOException {
+            if (armed && Thread.currentThread().getName().equals("EWFIOScheduler")) {
+                synchronized (this) {
+                    reads.add(new long[]{segment.getName().endsWith("E01") ? 1 : 2, fileOffset, numBytes});
+                }
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            super.read(segment, fileOffset, bytes, bytesOffset, numBytes);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        media = EWFTestImage.media(16 * 512);
+        file = new EWFTestImage(media).chunksPerSegment(8).compressionLevel(0).write(folder.getRoot(), "image");
+    }
+
+    // reads a chunk on a new thread, failing the test on a mismatch
+    private Thread readChunk(final EWFFileReader reader, final int chunkIndex, final List<Throwable> failures) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Assert.assertArrayEquals(Arrays.copyOfRange(media, chunkIndex * 512, chunkIndex * 512 + 512),
+                            reader.readImageBytes(chunkIndex * 512L, 512));
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        GateSource source = new GateSource();
+        EWFFileReader reader = new EWFFileReader(file, EWFFileReader.OpenMode.FULL, source);
+        EWFIOScheduler scheduler = new EWFIOScheduler(64, 10000);
+        reader.setIOScheduler(scheduler);
+        source.armed = true;
+
+        // hold the read of the first chunk while the other threads queue theirs
+        List<Throwable> failures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(readChunk(reader, 0, failures));
+        while (scheduler.getBatchCount() < 1) {
+            Thread.sleep(1);
+        }
+        for (int chunkIndex : new int[]{13, 5, 9, 3, 6, 15, 2}) {
+            threads.add(readChunk(reader, chunkIndex, failures));
+        }
+        while (scheduler.getQueueLength() < 7) {
+            Thread.sleep(1);
+        }
+        source.gate.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        reader.close();
+        scheduler.close();
+        Assert.assertEquals(new ArrayList<Throwable>(), failures);
+
+        // the first segment file is swept on from the first chunk, then the second, each with a single read
+        Assert.assertEquals(8, scheduler.getRequestCount());
+        Assert.assertEquals(3, scheduler.getBatchCount());
+        Assert.assertEquals(3, scheduler.getReadCount());
+        Assert.assertEquals(0, scheduler.getDeadlineCount());
+        Assert.assertEquals(3, source.reads.size());
+        Assert.assertEquals(1, source.reads.get(1)[0]);
+        Assert.assertEquals(5 * (512 + 4), source.reads.get(1)[2]);
+        Assert.assertEquals(2, source.reads.get(2)[0]);
+        Assert.assertEquals(7 * (512 + 4), source.reads.get(2)[2]);
+    }
+
+    // reads a range on a new thread, failing the test on a mismatch
+    private Thread readRange(final EWFFileReader reader, final int chunkIndex, final int chunkCount,
+                             final List<Throwable> failures) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Assert.assertArrayEquals(Arrays.copyOfRange(media, chunkIndex * 512,
+                            (chunkIndex + chunkCount) * 512),
+                            reader.readImageBytes(chunkIndex * 512L, chunkCount * 512));
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    // starts a read and then a second read overlapping it while the first is held, returning the reader
+    private EWFFileReader readOverlapping(int firstIndex, int firstCount, int secondIndex, int secondCount,
+                                          boolean waitShared) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        GateSource source = new GateSource();
+        EWFFileReader reader = new EWFFileReader(file, EWFFileReader.OpenMode.FULL, source);
+        reader.setParallelDecompression(pool, 2 * 512);
+        EWFIOScheduler scheduler = new EWFIOScheduler();
+        reader.setIOScheduler(scheduler);
+        source.armed = true;
+
+        List<Throwable> failures = new ArrayList<>();
+        Thread first = readRange(reader, firstIndex, firstCount, failures);
+        while (scheduler.getBatchCount() < 1) {
+            Thread.sleep(1);
+        }
+        Thread second = readRange(reader, secondIndex, secondCount, failures);
+        while (waitShared ? reader.getSharedLoadCount() < 1 : scheduler.getQueueLength() < 1) {
+            Thread.sleep(1);
+        }
+        source.gate.countDown();
+        first.join();
+        second.join();
+        reader.close();
+        scheduler.close();
+        pool.shutdown();
+        Assert.assertEquals(new ArrayList<Throwable>(), failures);
+        return reader;
+    }
+
+    @Test
+    public void testSharedParallelLoads() throws Exception {
+        // a chunk read waits for the parallel read loading it
+        EWFFileReader reader = new EWFFileReader(file);
+        long chunkLoadCount = reader.getChunkLoadCount();
+        reader.close();
+        reader = readOverlapping(4, 4, 4, 1, true);
+        Assert.assertEquals(chunkLoadCount + 4, reader.getChunkLoadCount());
+        Assert.assertEquals(1, reader.getSharedLoadCount());
+
+        // a parallel read leaves a chunk being loaded until its own loads are done, then reads it
+        reader = readOverlapping(4, 1, 4, 4, false);
+        Assert.assertTrue(reader.getChunkLoadCount() <= chunkLoadCount + 5);
+    }
+
+    @Test
+    public void testOpenFiles() throws Exception {
+        File manySegments = new EWFTestImage(media).chunksPerSegment(1).compressionLevel(0)
+                .write(folder.newFolder("segments"), "image");
+        EWFIOScheduler scheduler = new EWFIOScheduler();
+        EWFFileReader reader = new EWFFileReader(manySegments);
+        reader.setIOScheduler(scheduler);
+        for (int chunkIndex = 0; chunkIndex < 16; chunkIndex++) {
+            Assert.assertArrayEquals(Arrays.copyOfRange(media, chunkIndex * 512, chunkIndex * 512 + 512),
+                    reader.readImageBytes(chunkIndex * 512L, 512));
+        }
+        Assert.assertEquals(EWFIOScheduler.MAX_OPEN_FILES, scheduler.getOpenFileCount());
+
+        // the files of a closed reader are closed by the dispatcher
+        reader.close();
+        for (int i = 0; i < 1000 && scheduler.getOpenFileCount() > 0; i++) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(0, scheduler.getOpenFileCount());
+        scheduler.close();
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        final EWFFileReader reader = new EWFFileReader(file);
+        EWFIOScheduler scheduler = new EWFIOScheduler(4, 0);
+        reader.setIOScheduler(scheduler);
+        final List<Throwable> failures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final Random random = new Random(i);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int read = 0; read < 100; read++) {
+                            int offset = random.nextInt(media.length - 1000);
+                            Assert.assertArrayEquals(Arrays.copyOfRange(media, offset, offset + 1000),
+                                    reader.readImageBytes(offset, 1000));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(new ArrayList<Throwable>(), failures);
+        Assert.assertTrue(scheduler.getRequestCount() >= 8 * 100 * 2);
+        Assert.assertTrue(scheduler.getBatchCount() <= scheduler.getRequestCount());
+        reader.close();
+
+        // reads fail once the scheduler is closed
+        scheduler.close();
+        try {
+            reader.readImageBytes(0, 512);
+            Assert.fail("Read through a closed scheduler");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
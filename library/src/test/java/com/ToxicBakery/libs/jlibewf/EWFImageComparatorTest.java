@@ -0,0 +1,94 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+public class EWFImageComparatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCompare_IdenticalImages() throws Exception {
+        byte[] media = EWFTestImage.media(40 * 1024);
+        EWFFileReader left = new EWFFileReader(new EWFTestImage(media).sectorsPerChunk(2).write(folder.getRoot(), "left"));
+        EWFFileReader right = new EWFFileReader(new EWFTestImage(media).sectorsPerChunk(2).chunksPerSegment(7)
+                .write(folder.getRoot(), "right"));
+
+        EWFImageComparator.Result result = new EWFImageComparator(left, right).compare(4);
+        Assert.assertTrue(result.isIdentical());
+        Assert.assertEquals(left.getChunkCount(), result.getStoredMatchCount());
+        Assert.assertEquals(0, result.getDecodedCount());
+
+        left.close();
+        right.close();
+    }
+
+    @Test
+    public void testCompare_DifferentBytes() throws Exception {
+        byte[] media = EWFTestImage.media(40 * 1024);
+        byte[] changed = media.clone();
+        changed[5000]++;
+        changed[5003]++;
+        changed[30000]++;
+        EWFFileReader left = new EWFFileReader(new EWFTestImage(media).sectorsPerChunk(2).write(folder.getRoot(), "left"));
+        EWFFileReader right = new EWFFileReader(new EWFTestImage(changed).sectorsPerChunk(2)
+                .write(folder.getRoot(), "right"));
+
+        EWFImageComparator.Result result = new EWFImageComparator(left, right).compare(3);
+        Assert.assertEquals(2, result.getRanges().size());
+        Assert.assertEquals(5000, result.getRanges().get(0).getStart());
+        Assert.assertEquals(5004, result.getRanges().get(0).getEnd());
+        Assert.assertEquals(30000, result.getRanges().get(1).getStart());
+        Assert.assertEquals(1, result.getRanges().get(1).getLength());
+        Assert.assertEquals(4, result.getDecodedCount());
+
+        left.close();
+        right.close();
+    }
+
+    @Test
+    public void testCompare_DifferentChunkSizesAndLengths() throws Exception {
+        byte[] media = EWFTestImage.media(40 * 1024);
+        byte[] shorter = new byte[36 * 1024];
+        System.arraycopy(media, 0, shorter, 0, shorter.length);
+        EWFFileReader left = new EWFFileReader(new EWFTestImage(media).sectorsPerChunk(2).write(folder.getRoot(), "left"));
+        EWFFileReader right = new EWFFileReader(new EWFTestImage(shorter).sectorsPerChunk(8).compressionLevel(0)
+                .write(folder.getRoot(), "right"));
+
+        EWFImageComparator.Result result = new EWFImageComparator(left, right).compare(2);
+        Assert.assertEquals(1, result.getRanges().size());
+        Assert.assertEquals(36 * 1024, result.getRanges().get(0).getStart());
+        Assert.assertEquals(40 * 1024, result.getRanges().get(0).getEnd());
+        Assert.assertEquals(0, result.getStoredMatchCount());
+
+        left.close();
+        right.close();
+    }
+
+    @Test
+    public void testCompare_RawImage() throws Exception {
+        byte[] media = EWFTestImage.media(40 * 1024 + 100);
+        EWFFileReader left = new EWFFileReader(new EWFTestImage(media).write(folder.getRoot(), "left"));
+
+        byte[] raw = media.clone();
+        raw[raw.length - 1]++;
+        File rawFile = folder.newFile("raw.dd");
+        OutputStream outputStream = new FileOutputStream(rawFile);
+        outputStream.write(raw);
+        outputStream.close();
+
+        EWFImageComparator.Result result = new EWFImageComparator(left, rawFile).compare(4);
+        Assert.assertEquals(1, result.getRanges().size());
+        Assert.assertEquals(raw.length - 1, result.getRanges().get(0).getStart());
+
+        left.close();
+    }
+
+}
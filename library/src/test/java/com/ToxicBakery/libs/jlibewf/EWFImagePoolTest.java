@@ -0,0 +1,107 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class EWFImagePoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOpen_SharesReader() throws Exception {
+        File file = new EWFTestImage(EWFTestImage.media(8 * 1024)).write(folder.getRoot(), "image");
+        EWFImagePool pool = new EWFImagePool(4, 1024 * 1024);
+
+        EWFImagePool.Image first = pool.open(file);
+        EWFImagePool.Image second = pool.open(new File(folder.getRoot(), "./image.E01"));
+        Assert.assertEquals(1, pool.getImageCount());
+        Assert.assertSame(first.getReader(), second.getReader());
+
+        first.close();
+        second.close();
+        pool.close();
+    }
+
+    @Test
+    public void testRead_OpenFileCap() throws Exception {
+        byte[] media = EWFTestImage.media(8 * 1024);
+        EWFImagePool pool = new EWFImagePool(2, 1024 * 1024);
+        EWFImagePool.Image[] images = new EWFImagePool.Image[4];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = pool.open(new EWFTestImage(media).write(folder.getRoot(), "image" + i));
+        }
+
+        for (EWFImagePool.Image image : images) {
+            Assert.assertArrayEquals(Arrays.copyOfRange(media, 1000, 3000), image.readImageBytes(1000, 2000));
+            Assert.assertTrue(pool.getOpenFileCount() <= 2);
+        }
+
+        int open = 0;
+        for (EWFImagePool.Image image : images) {
+            open += image.getReader().isFileChannelOpen() ? 1 : 0;
+        }
+        Assert.assertTrue(open <= 2);
+        pool.close();
+    }
+
+    @Test
+    public void testRead_OpenFileCapOnReader() throws Exception {
+        byte[] media = EWFTestImage.media(8 * 1024);
+        EWFImagePool pool = new EWFImagePool(1, 1);
+        EWFFileReader first = pool.open(new EWFTestImage(media).write(folder.getRoot(), "first")).getReader();
+        EWFFileReader second = pool.open(new EWFTestImage(media).write(folder.getRoot(), "second")).getReader();
+        pool.evictIdle(0);
+
+        // reads made on the shared readers keep to the cap
+        Assert.assertArrayEquals(Arrays.copyOfRange(media, 0, 100), first.readImageBytes(0, 100));
+        Assert.assertArrayEquals(Arrays.copyOfRange(media, 0, 100), second.readImageBytes(0, 100));
+        for (int i = 0; i < 1000 && first.isFileChannelOpen(); i++) {
+            Thread.sleep(1);
+        }
+        Assert.assertFalse(first.isFileChannelOpen());
+        Assert.assertTrue(second.isFileChannelOpen());
+        Assert.assertEquals(1, pool.getOpenFileCount());
+        pool.close();
+    }
+
+    @Test
+    public void testRead_SharedMemoryBudget() throws Exception {
+        byte[] media = EWFTestImage.media(16 * 1024);
+        EWFImagePool pool = new EWFImagePool(8, 3 * 512);
+        EWFImagePool.Image first = pool.open(new EWFTestImage(media).write(folder.getRoot(), "first"));
+        EWFImagePool.Image second = pool.open(new EWFTestImage(media).write(folder.getRoot(), "second"));
+
+        Assert.assertArrayEquals(media, first.readImageBytes(0, media.length));
+        Assert.assertArrayEquals(media, second.readImageBytes(0, media.length));
+        Assert.assertTrue(pool.getChunkCache().getSize() <= 3 * 512);
+        Assert.assertEquals(3, pool.getChunkCache().getChunkCount());
+
+        pool.close();
+    }
+
+    @Test
+    public void testEvictIdle_RemovesUnreferencedImages() throws Exception {
+        byte[] media = EWFTestImage.media(8 * 1024);
+        EWFImagePool pool = new EWFImagePool(8, 1024 * 1024);
+        EWFImagePool.Image kept = pool.open(new EWFTestImage(media).write(folder.getRoot(), "kept"));
+        EWFImagePool.Image released = pool.open(new EWFTestImage(media).write(folder.getRoot(), "released"));
+        kept.readImageBytes(0, 100);
+        released.readImageBytes(0, 100);
+        released.close();
+
+        Assert.assertEquals(1, pool.evictIdle(0));
+        Assert.assertEquals(1, pool.getImageCount());
+        Assert.assertEquals(0, pool.getOpenFileCount());
+        Assert.assertFalse(kept.getReader().isFileChannelOpen());
+        Assert.assertArrayEquals(Arrays.copyOfRange(media, 0, 100), kept.readImageBytes(0, 100));
+
+        pool.close();
+    }
+
+}
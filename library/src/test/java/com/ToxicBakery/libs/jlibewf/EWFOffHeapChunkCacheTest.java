@@ -0,0 +1,108 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class EWFOffHeapChunkCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] chunk(int seed, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (seed * 31 + i);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void testGetAndRead() {
+        EWFOffHeapChunkCache cache = new EWFOffHeapChunkCache(512, 4);
+        Object image = new Object();
+        cache.put(image, 7, chunk(7, 512));
+        cache.put(image, 8, chunk(8, 100));
+
+        Assert.assertArrayEquals(chunk(7, 512), cache.get(image, 7));
+        Assert.assertArrayEquals(chunk(8, 100), cache.get(image, 8));
+        Assert.assertNull(cache.get(image, 9));
+        Assert.assertNull(cache.get(new Object(), 7));
+
+        byte[] part = new byte[20];
+        Assert.assertTrue(cache.read(image, 7, 100, part, 10, 10));
+        Assert.assertArrayEquals(Arrays.copyOfRange(chunk(7, 512), 100, 110), Arrays.copyOfRange(part, 10, 20));
+
+        // chunks larger than a slot are not held
+        cache.put(image, 10, new byte[513]);
+        Assert.assertNull(cache.get(image, 10));
+        Assert.assertEquals(2, cache.getChunkCount());
+    }
+
+    @Test
+    public void testEvictionAndInvalidate() {
+        EWFOffHeapChunkCache cache = new EWFOffHeapChunkCache(64, 8);
+        Object first = new Object();
+        Object second = new Object();
+        for (int i = 0; i < 8; i++) {
+            cache.put(first, i, chunk(i, 64));
+        }
+
+        // keep reading one chunk so that the clock passes over it
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNotNull(cache.get(first, 0));
+            cache.put(second, i, chunk(100 + i, 64));
+        }
+        Assert.assertEquals(8, cache.getChunkCount());
+        Assert.assertArrayEquals(chunk(0, 64), cache.get(first, 0));
+        Assert.assertArrayEquals(chunk(199, 64), cache.get(second, 99));
+        Assert.assertTrue(cache.getEvictionCount() >= 92);
+
+        cache.invalidate(second);
+        Assert.assertEquals(1, cache.getChunkCount());
+        Assert.assertNull(cache.get(second, 99));
+        Assert.assertArrayEquals(chunk(0, 64), cache.get(first, 0));
+    }
+
+    @Test
+    public void testMappedArena() throws Exception {
+        File arenaFile = new File(folder.getRoot(), "arena");
+        EWFOffHeapChunkCache cache = new EWFOffHeapChunkCache(4096, 16, arenaFile);
+        Assert.assertEquals(16 * 4096, arenaFile.length());
+
+        Object image = new Object();
+        for (int i = 0; i < 32; i++) {
+            cache.put(image, i, chunk(i, 4096));
+        }
+        Assert.assertEquals(16, cache.getChunkCount());
+        Assert.assertArrayEquals(chunk(31, 4096), cache.get(image, 31));
+        cache.close();
+    }
+
+    @Test
+    public void testSecondTier() throws Exception {
+        byte[] media = EWFTestImage.media(16 * 512);
+        File file = new EWFTestImage(media).sectorsPerChunk(1).write(folder.getRoot(), "image");
+
+        EWFChunkCache cache = new EWFChunkCache(2 * 512);
+        EWFOffHeapChunkCache tier = new EWFOffHeapChunkCache(512, 16);
+        cache.setOffHeapTier(tier);
+
+        EWFFileReader reader = new EWFFileReader(file);
+        reader.setChunkCache(cache);
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length));
+        Assert.assertEquals(2, cache.getChunkCount());
+        Assert.assertEquals(14, tier.getChunkCount());
+
+        // the first chunk is now served off the heap
+        Assert.assertArrayEquals(Arrays.copyOf(media, 512), reader.readImageBytes(0, 512));
+        Assert.assertEquals(1, tier.getHitCount());
+
+        reader.close();
+        Assert.assertEquals(0, tier.getChunkCount());
+    }
+}
@@ -0,0 +1,112 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class EWFPrefetcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] media;
+    private EWFFileReader reader;
+    private EWFPrefetcher prefetcher;
+
+    @Before
+    public void setUp() throws Exception {
+        media = EWFTestImage.media(256 * 512);
+        File file = new EWFTestImage(media).sectorsPerChunk(1).chunksPerSegment(100).write(folder.getRoot(), "image");
+        reader = new EWFFileReader(file);
+        reader.setChunkCache(new EWFChunkCache(1024 * 1024));
+        prefetcher = new EWFPrefetcher(reader, 2, 4);
+        reader.setPrefetcher(prefetcher);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        reader.close();
+    }
+
+    private void readChunk(int chunkIndex) throws Exception {
+        Assert.assertArrayEquals(Arrays.copyOfRange(media, chunkIndex * 512, chunkIndex * 512 + 512),
+                reader.readImageBytes(chunkIndex * 512L, 512));
+
+        // let the prefetches finish so that the test is deterministic
+        long deadline = System.currentTimeMillis() + 10000;
+        while (prefetcher.getInFlightCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testStride() throws Exception {
+        for (int chunkIndex = 3; chunkIndex < 250; chunkIndex += 7) {
+            readChunk(chunkIndex);
+        }
+        Assert.assertTrue(prefetcher.getStrideCount() > 0);
+        Assert.assertTrue(prefetcher.getUsefulCount() >= 30);
+        Assert.assertEquals(0, prefetcher.getFailedCount());
+
+        // a stride spanning segment files is followed, and reads of prefetched chunks hit the cache
+        long hits = reader.getChunkCache().getHitCount();
+        Assert.assertTrue(hits >= prefetcher.getUsefulCount());
+    }
+
+    @Test
+    public void testHotCluster() throws Exception {
+        readChunk(130);
+        readChunk(140);
+        readChunk(133);
+        readChunk(137);
+        Assert.assertEquals(1, prefetcher.getHotClusterCount());
+        Assert.assertTrue(reader.getChunkCache().contains(reader, 128));
+        Assert.assertTrue(reader.getChunkCache().contains(reader, 143));
+
+        readChunk(131);
+        readChunk(142);
+        Assert.assertEquals(2, prefetcher.getUsefulCount());
+        Assert.assertEquals(1.0, prefetcher.getAccuracy(), 0);
+    }
+
+    @Test
+    public void testDiskCache() throws Exception {
+        // prefetched chunks are written to the disk cache, as chunks decoded by reads are
+        reader.setVerificationPolicy(EWFFileReader.VerificationPolicy.ONCE);
+        reader.setDiskChunkCache(new EWFDiskChunkCache(folder.newFolder("cache"), 1024 * 1024));
+        readChunk(130);
+        readChunk(140);
+        readChunk(133);
+        readChunk(137);
+        Assert.assertEquals(1, prefetcher.getHotClusterCount());
+        EWFDiskChunkCache.Store store = reader.getDiskChunkCacheStore();
+        Assert.assertArrayEquals(Arrays.copyOfRange(media, 128 * 512, 129 * 512), store.get(128));
+        Assert.assertArrayEquals(Arrays.copyOfRange(media, 143 * 512, 144 * 512), store.get(143));
+
+        // chunks held by the disk cache are taken from there once they leave the chunk cache
+        reader.getChunkCache().clear();
+        long hits = store.getHitCount();
+        readChunk(129);
+        Assert.assertTrue(store.getHitCount() > hits);
+    }
+
+    @Test
+    public void testWastedWork() throws Exception {
+        // strides that are abandoned leave unread prefetches, which expire as wasted work
+        for (int run = 0; run < 60; run++) {
+            int start = (run * 37) % 200;
+            readChunk(start);
+            readChunk(start + 2);
+            readChunk(start + 4);
+        }
+        Assert.assertTrue(prefetcher.getWastedCount() > 0);
+        Assert.assertTrue(prefetcher.getWastedBytes() > 0);
+        Assert.assertTrue(prefetcher.getAccuracy() < 1.0);
+    }
+}
@@ -0,0 +1,159 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class EWFReadErrorsTest {
+
+    private static final byte FILL = (byte) 0xEE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] media;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        media = EWFTestImage.media(16 * 512);
+        file = new EWFTestImage(media).chunksPerSegment(4).write(folder.getRoot(), "image");
+    }
+
+    // flips a byte at the given offset of a segment file
+    private static void corrupt(File file, long offset) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(offset);
+        randomAccessFile.write(randomAccessFile.read() ^ 0xFF);
+        randomAccessFile.close();
+    }
+
+    // returns the media with the given chunks filled
+    private byte[] expected(int... chunkIndexes) {
+        byte[] expected = media.clone();
+        for (int chunkIndex : chunkIndexes) {
+            Arrays.fill(expected, chunkIndex * 512, chunkIndex * 512 + 512, FILL);
+        }
+        return expected;
+    }
+
+    @Test
+    public void testCorruptChunk() throws Exception {
+        EWFFileReader reader = new EWFFileReader(file);
+        EWFChunkLocation location = reader.locateChunk(5);
+        corrupt(location.getFile(), location.getFileOffset() + location.getStoredSize() / 2);
+
+        try {
+            reader.readImageBytes(0, media.length, false);
+            Assert.fail("Corrupt chunk not detected");
+        } catch (IOException e) {
+            // expected
+        }
+
+        EWFReadErrors errors = new EWFReadErrors(FILL);
+        Assert.assertArrayEquals(expected(5), reader.readImageBytes(0, media.length, false, errors));
+        Assert.assertEquals(1, errors.getErrorCount());
+        EWFReadErrors.ChunkError error = errors.getErrors().get(0);
+        Assert.assertEquals(5, error.getChunkIndex());
+        Assert.assertEquals(5 * 512, error.getImageOffset());
+        Assert.assertNotNull(error.getMessage());
+
+        // visiting fills the chunk too, in order or in parallel
+        final byte[] visited = new byte[media.length];
+        EWFChunkVisitor visitor = new EWFChunkVisitor() {
+            @Override
+            public void visit(EWFChunk chunk) throws IOException {
+                byte[] bytes = chunk.getBytes();
+                System.arraycopy(bytes, 0, visited, (int) chunk.getImageOffset(), bytes.length);
+            }
+        };
+        errors = new EWFReadErrors(FILL);
+        reader.visitChunks(visitor, errors);
+        Assert.assertArrayEquals(expected(5), visited);
+        Assert.assertTrue(errors.contains(5));
+
+        Arrays.fill(visited, (byte) 0);
+        errors = new EWFReadErrors(FILL);
+        reader.visitChunks(visitor, 3, errors);
+        Assert.assertArrayEquals(expected(5), visited);
+        Assert.assertEquals(1, errors.getErrorCount());
+        reader.close();
+    }
+
+    @Test
+    public void testCorruptTable() throws Exception {
+        // corrupt the chunk offset array of the second segment file, which follows its last chunk
+        EWFFileReader reader = new EWFFileReader(file);
+        EWFChunkLocation location = reader.locateChunk(7);
+        reader.close();
+        corrupt(location.getFile(), location.getFileOffset() + location.getStoredSize() + 76 + 24);
+
+        reader = new EWFFileReader(file);
+        EWFReadErrors errors = new EWFReadErrors(FILL);
+        Assert.assertArrayEquals(expected(4, 5, 6, 7), reader.readImageBytes(0, media.length, true, errors));
+        Assert.assertEquals(4, errors.getErrorCount());
+
+        // the chunks that cannot be located are recorded and visited with the fill
+        final byte[] visited = new byte[media.length];
+        final BitSet visitedChunks = new BitSet();
+        errors = new EWFReadErrors(FILL);
+        reader.visitChunks(new EWFChunkVisitor() {
+            @Override
+            public void visit(EWFChunk chunk) throws IOException {
+                visitedChunks.set(chunk.getChunkIndex());
+                byte[] bytes = chunk.getBytes();
+                Assert.assertEquals(512, bytes.length);
+                System.arraycopy(bytes, 0, visited, (int) chunk.getImageOffset(), bytes.length);
+            }
+        }, errors);
+        Assert.assertEquals(16, visitedChunks.cardinality());
+        Assert.assertArrayEquals(expected(4, 5, 6, 7), visited);
+        Assert.assertEquals(4, errors.getErrorCount());
+        Assert.assertEquals(4, errors.getErrors().get(0).getChunkIndex());
+        reader.close();
+    }
+
+    @Test
+    public void testUnresolvableChunk() throws Exception {
+        // point the last chunk of the second segment file past its end, leaving its end offset unresolvable
+        EWFFileReader reader = new EWFFileReader(file);
+        EWFChunkLocation location = reader.locateChunk(7);
+        reader.close();
+        long arrayOffset = location.getFileOffset() + location.getStoredSize() + 76 + 24;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(location.getFile(), "rw");
+        byte[] array = new byte[16];
+        randomAccessFile.seek(arrayOffset);
+        randomAccessFile.readFully(array);
+        ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(12, (int) (randomAccessFile.length() + 10) | (array[15] & 0x80) << 24);
+        randomAccessFile.seek(arrayOffset);
+        randomAccessFile.write(EWFTestImage.withAdler32(array, 0, 16));
+        randomAccessFile.close();
+
+        // only the chunks that cannot be read are filled, the other chunks of the table are visited as stored
+        reader = new EWFFileReader(file);
+        final byte[] visited = new byte[media.length];
+        EWFReadErrors errors = new EWFReadErrors(FILL);
+        reader.visitChunks(new EWFChunkVisitor() {
+            @Override
+            public void visit(EWFChunk chunk) throws IOException {
+                byte[] bytes = chunk.getBytes();
+                System.arraycopy(bytes, 0, visited, (int) chunk.getImageOffset(), bytes.length);
+            }
+        }, errors);
+        reader.close();
+        Assert.assertArrayEquals(expected(6, 7), visited);
+        Assert.assertEquals(2, errors.getErrorCount());
+        Assert.assertTrue(errors.contains(7));
+    }
+}
@@ -0,0 +1,72 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+public class EWFRecompressorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // returns test media whose second quarter is zero
+    private static byte[] mediaWithZeros(int size) {
+        byte[] media = EWFTestImage.media(size);
+        Arrays.fill(media, size / 4, size / 2, (byte) 0);
+        return media;
+    }
+
+    @Test
+    public void testCompressUncompressedImage() throws Exception {
+        byte[] media = mediaWithZeros(64 * 512 + 200);
+        File file = new EWFTestImage(media).sectorsPerChunk(4).compressionLevel(0).chunksPerSegment(5).hashes(true)
+                .write(folder.getRoot(), "image");
+        File target = new File(folder.newFolder(), "best.E01");
+
+        EWFFileReader source = new EWFFileReader(file);
+        EWFRecompressor.Result result = new EWFRecompressor(source).recompress(target, Long.MAX_VALUE, 9, 3);
+        source.close();
+
+        Assert.assertEquals(1, result.getSegmentCount());
+        Assert.assertEquals(17, result.getChunkCount());
+        Assert.assertEquals(3, result.getZeroChunkCount());
+        Assert.assertTrue(result.getSpaceSaved() > 0);
+        Assert.assertEquals(result.getSourceBytes() - target.length(), result.getSpaceSaved());
+        Assert.assertArrayEquals(EWFTestImage.digest("MD5", media), result.getMD5());
+
+        EWFFileReader reader = new EWFFileReader(target);
+        Assert.assertEquals(2, reader.getCompressionLevel());
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length));
+        Assert.assertArrayEquals(result.getMD5(), reader.getStoredMD5());
+        for (int i = 0; i < reader.getChunkCount(); i++) {
+            Assert.assertTrue(reader.locateChunk(i).isCompressed());
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testStoreCompressedImage() throws Exception {
+        byte[] media = mediaWithZeros(32 * 512);
+        File file = new EWFTestImage(media).sectorsPerChunk(2).write(folder.getRoot(), "image");
+        File target = new File(folder.newFolder(), "stored.E01");
+
+        EWFFileReader source = new EWFFileReader(file);
+        EWFRecompressor.Result result = new EWFRecompressor(source).recompress(target, 6000, 0, 2);
+        source.close();
+        Assert.assertTrue(result.getSegmentCount() > 1);
+        Assert.assertTrue(result.getSpaceSaved() < 0);
+
+        // zero chunks stay compressed while the others are stored
+        EWFFileReader reader = new EWFFileReader(target);
+        Assert.assertEquals(0, reader.getCompressionLevel());
+        Assert.assertArrayEquals(media, reader.readImageBytes(0, media.length));
+        for (int i = 0; i < reader.getChunkCount(); i++) {
+            Assert.assertEquals(i >= 4 && i < 8, reader.locateChunk(i).isCompressed());
+        }
+        reader.close();
+    }
+}
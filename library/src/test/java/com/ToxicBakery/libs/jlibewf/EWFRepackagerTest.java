@@ -0,0 +1,69 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class EWFRepackagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // checks that the repackaged image holds the same media, stored chunks and hashes
+    private static void assertSameImage(File sourceFile, File targetFile, byte[] media) throws IOException {
+        EWFFileReader source = new EWFFileReader(sourceFile);
+        EWFFileReader target = new EWFFileReader(targetFile);
+        Assert.assertArrayEquals(media, target.readImageBytes(0, media.length));
+        Assert.assertEquals(source.getChunkCount(), target.getChunkCount());
+        Assert.assertEquals(source.getHeaderText(), target.getHeaderText());
+        Assert.assertArrayEquals(source.getStoredMD5(), target.getStoredMD5());
+        for (int i = 0; i < source.getChunkCount(); i++) {
+            Assert.assertArrayEquals(source.readStoredChunk(source.locateChunk(i)),
+                    target.readStoredChunk(target.locateChunk(i)));
+            Assert.assertEquals(source.locateChunk(i).isCompressed(), target.locateChunk(i).isCompressed());
+        }
+        source.close();
+        target.close();
+    }
+
+    @Test
+    public void testJoin() throws Exception {
+        byte[] media = EWFTestImage.media(40 * 512 + 100);
+        File file = new EWFTestImage(media).sectorsPerChunk(4).chunksPerSegment(3).hashes(true)
+                .write(folder.getRoot(), "image");
+        File target = new File(folder.newFolder(), "joined.E01");
+
+        EWFFileReader source = new EWFFileReader(file);
+        EWFRepackager.Result result = new EWFRepackager(source).repackage(target, Long.MAX_VALUE);
+        source.close();
+        Assert.assertEquals(1, result.getSegmentCount());
+        Assert.assertEquals(11, result.getChunkCount());
+        Assert.assertEquals(target.length(), result.getBytesWritten());
+        Assert.assertFalse(EWFSegmentFileReader.getNextFile(target).exists());
+        assertSameImage(file, target, media);
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        byte[] media = EWFTestImage.media(64 * 512);
+        File file = new EWFTestImage(media).compressionLevel(0).hashes(true).write(folder.getRoot(), "image");
+        File target = new File(folder.newFolder(), "split.E01");
+
+        EWFFileReader source = new EWFFileReader(file);
+        EWFRepackager.Result result = new EWFRepackager(source).repackage(target, 8000);
+        source.close();
+        Assert.assertTrue(result.getSegmentCount() > 3);
+
+        long total = 0;
+        for (File segment = target; segment.exists(); segment = EWFSegmentFileReader.getNextFile(segment)) {
+            Assert.assertTrue(segment.length() <= 8000);
+            total += segment.length();
+        }
+        Assert.assertEquals(total, result.getBytesWritten());
+        assertSameImage(file, target, media);
+    }
+}
@@ -0,0 +1,89 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import com.ToxicBakery.libs.jlibewf.section.SectionPrefix;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+public class EWFSectionIndexTest {
+
+    private static final String LONG_FORMAT = "%1$d (0x%1$08x)";
+
+    // adds a segment of sectors and table sections, returning the next chunk index
+    private static int addSegment(EWFSectionIndex index, File file, int tables, int chunksPerTable, int chunkIndex) {
+        long offset = EWFSegmentFileReader.FILE_FIRST_SECTION_START_ADDRESS;
+        for (int i = 0; i < tables; i++) {
+            long sectorsSize = 76 + chunksPerTable * 100L;
+            index.add(new SectionPrefix(file, EWFSection.SectionType.SECTORS_TYPE, offset, offset + sectorsSize,
+                    sectorsSize, chunkIndex, 0, LONG_FORMAT));
+            offset += sectorsSize;
+            long tableSize = 104 + chunksPerTable * 4L;
+            index.add(new SectionPrefix(file, EWFSection.SectionType.TABLE_TYPE, offset, offset + tableSize,
+                    tableSize, chunkIndex, chunksPerTable, LONG_FORMAT));
+            offset += tableSize;
+            chunkIndex += chunksPerTable;
+        }
+        index.add(new SectionPrefix(file, EWFSection.SectionType.NEXT_TYPE, offset, offset, 76, chunkIndex, 0,
+                LONG_FORMAT));
+        return chunkIndex;
+    }
+
+    @Test
+    public void testFindTableSection() throws Exception {
+        EWFSectionIndex index = new EWFSectionIndex(LONG_FORMAT);
+        int chunkIndex = addSegment(index, new File("/image.E01"), 3, 10, 0);
+        addSegment(index, new File("/image.E02"), 2, 10, chunkIndex);
+
+        Assert.assertEquals(2, index.getSegmentCount());
+        Assert.assertEquals(1, index.findTableSection(0));
+        Assert.assertEquals(1, index.findTableSection(9));
+        Assert.assertEquals(3, index.findTableSection(10));
+        Assert.assertEquals(8, index.findTableSection(30));
+        Assert.assertEquals(10, index.findTableSection(49));
+        Assert.assertEquals(-1, index.findTableSection(50));
+        Assert.assertEquals(new File("/image.E02"), index.getFile(10));
+        Assert.assertEquals(EWFSection.SectionType.TABLE_TYPE, index.getSectionType(10));
+    }
+
+    @Test
+    public void testFindEnclosingSection() throws Exception {
+        EWFSectionIndex index = new EWFSectionIndex(LONG_FORMAT);
+        int chunkIndex = addSegment(index, new File("/image.E01"), 2, 10, 0);
+        addSegment(index, new File("/image.E02"), 2, 10, chunkIndex);
+
+        long address = index.getFileOffset(2) + 100;
+        Assert.assertEquals(2, index.findEnclosingSection(0, address));
+        Assert.assertEquals(7, index.findEnclosingSection(1, address));
+        Assert.assertEquals(-1, index.findEnclosingSection(1, 1L << 40));
+    }
+
+    @Test
+    public void testGetSectionPrefix() throws Exception {
+        EWFSectionIndex index = new EWFSectionIndex(LONG_FORMAT);
+        addSegment(index, new File("/image.E01"), 2, 10, 0);
+
+        SectionPrefix sectionPrefix = index.getSectionPrefix(3);
+        Assert.assertEquals(EWFSection.SectionType.TABLE_TYPE, sectionPrefix.getSectionType());
+        Assert.assertEquals(index.getFileOffset(3), sectionPrefix.getFileOffset());
+        Assert.assertEquals(index.getNextOffset(3), sectionPrefix.getNextOffset());
+        Assert.assertEquals(index.getSectionSize(3), sectionPrefix.getSectionSize());
+        Assert.assertEquals(10, sectionPrefix.getChunkIndex());
+        Assert.assertEquals(20, sectionPrefix.getNextChunkIndex());
+    }
+
+    @Test
+    public void testMemoryFootprint() throws Exception {
+        EWFSectionIndex index = new EWFSectionIndex(LONG_FORMAT);
+        int chunkIndex = 0;
+        for (int segment = 1; segment <= 99; segment++) {
+            chunkIndex = addSegment(index, new File(String.format("/image.E%02d", segment)), 250, 16375, chunkIndex);
+        }
+
+        // a section costs 37 bytes plus array growth slack, compared with well over 100 bytes as an object
+        long footprint = index.getMemoryFootprint();
+        Assert.assertEquals(99 * 501, index.size());
+        Assert.assertTrue(footprint + " bytes", footprint < index.size() * 80L);
+    }
+
+}
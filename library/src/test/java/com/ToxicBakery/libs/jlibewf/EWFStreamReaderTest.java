@@ -0,0 +1,136 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class EWFStreamReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<File> segments(File first) throws IOException {
+        List<File> segments = new ArrayList<>();
+        for (File file = first; file.exists(); file = EWFSegmentFileReader.getNextFile(file)) {
+            segments.add(file);
+        }
+        return segments;
+    }
+
+    private EWFStreamReader.Result stream(File first, ByteArrayOutputStream sink) throws IOException {
+        EWFStreamReader reader = new EWFStreamReader(sink);
+        try {
+            for (File segment : segments(first)) {
+                InputStream in = new FileInputStream(segment);
+                try {
+                    reader.readSegment(in);
+                } finally {
+                    in.close();
+                }
+            }
+            return reader.getResult();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testCompressedSegments() throws Exception {
+        byte[] media = EWFTestImage.media(40 * 512 + 512);
+        File file = new EWFTestImage(media).sectorsPerChunk(4).chunksPerSegment(3).hashes(true)
+                .write(folder.getRoot(), "image");
+        Assert.assertTrue(segments(file).size() > 1);
+
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        EWFStreamReader.Result result = stream(file, sink);
+        Assert.assertArrayEquals(media, sink.toByteArray());
+        Assert.assertEquals(media.length, result.getImageSize());
+        Assert.assertEquals(11, result.getChunkCount());
+        Assert.assertArrayEquals(EWFTestImage.digest("MD5", media), result.getMD5());
+        Assert.assertArrayEquals(EWFTestImage.digest("SHA-1", media), result.getSHA1());
+        Assert.assertArrayEquals(result.getMD5(), result.getStoredMD5());
+        Assert.assertTrue(result.isVerified());
+    }
+
+    @Test
+    public void testUncompressedChannel() throws Exception {
+        byte[] media = EWFTestImage.media(16 * 512);
+        File file = new EWFTestImage(media).sectorsPerChunk(2).compressionLevel(0).write(folder.getRoot(), "image");
+
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        EWFStreamReader reader = new EWFStreamReader(sink);
+        reader.readSegment(Channels.newChannel(new ByteArrayInputStream(Files.readAllBytes(file.toPath()))));
+        Assert.assertArrayEquals(media, sink.toByteArray());
+        Assert.assertArrayEquals(EWFTestImage.digest("MD5", media), reader.getResult().getMD5());
+        Assert.assertNull(reader.getResult().getStoredMD5());
+        reader.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testSegmentOutOfOrder() throws Exception {
+        File file = new EWFTestImage(EWFTestImage.media(8 * 512)).chunksPerSegment(2).write(folder.getRoot(), "image");
+        stream(segments(file).get(1), null);
+    }
+
+    @Test
+    public void testCorruptChunk() throws Exception {
+        byte[] media = EWFTestImage.media(8 * 512);
+        File file = new EWFTestImage(media).compressionLevel(0).write(folder.getRoot(), "image");
+
+        // damage a byte of the first chunk
+        EWFFileReader fileReader = new EWFFileReader(file);
+        long chunkOffset = fileReader.locateChunk(0).getFileOffset();
+        fileReader.close();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(chunkOffset + 100);
+        randomAccessFile.write(randomAccessFile.read() ^ 0xFF);
+        randomAccessFile.close();
+
+        try {
+            stream(file, null);
+            Assert.fail("Corrupt chunk not detected");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("chunk 0"));
+        }
+    }
+
+    @Test
+    public void testCorruptDigest() throws Exception {
+        byte[] media = EWFTestImage.media(8 * 512);
+        File file = new EWFTestImage(media).hashes(true).write(folder.getRoot(), "image");
+
+        // damage a byte of the MD5 stored in the digest section, which precedes the hash section
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        byte[] md5 = EWFTestImage.digest("MD5", media);
+        int offset = -1;
+        for (int i = 0; offset < 0 && i + md5.length <= bytes.length; i++) {
+            if (Arrays.equals(md5, Arrays.copyOfRange(bytes, i, i + md5.length))) {
+                offset = i;
+            }
+        }
+        Assert.assertTrue(offset > 0);
+        bytes[offset] ^= 0xFF;
+        Files.write(file.toPath(), bytes);
+
+        try {
+            stream(file, null);
+            Assert.fail("Corrupt digest not detected");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("digest section"));
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes small EWF image sets for tests.
+ */
+public class EWFTestImage {
+
+    public static final int BYTES_PER_SECTOR = 512;
+
+    private static final byte[] EWF_SIGNATURE = {0x45, 0x56, 0x46, 0x09, 0x0d, 0x0a, (byte) 0xff, 0x00};
+
+    private final byte[] media;
+    private int sectorsPerChunk = 1;
+    private int chunksPerSegment = Integer.MAX_VALUE;
+    private int compressionLevel = Deflater.BEST_SPEED;
+    private String headerText = "test header";
+    private boolean hashes;
+
+    public EWFTestImage(byte[] media) {
+        this.media = media;
+    }
+
+    /**
+     * Returns media bytes of the given size that compress well but differ between sectors.
+     */
+    public static byte[] media(int size) {
+        byte[] media = new byte[size];
+        for (int i = 0; i < size; i++) {
+            media[i] = (byte) ((i / BYTES_PER_SECTOR) * 7 + (i % 13));
+        }
+        return media;
+    }
+
+    public EWFTestImage sectorsPerChunk(int sectorsPerChunk) {
+        this.sectorsPerChunk = sectorsPerChunk;
+        return this;
+    }
+
+    public EWFTestImage chunksPerSegment(int chunksPerSegment) {
+        this.chunksPerSegment = chunksPerSegment;
+        return this;
+    }
+
+    /**
+     * Sets the deflate level, where 0 stores chunks uncompressed with an Adler32 checksum.
+     */
+    public EWFTestImage compressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    public EWFTestImage headerText(String headerText) {
+        this.headerText = headerText;
+        return this;
+    }
+
+    /**
+     * Sets whether the last segment stores the MD5 and SHA1 of the media in hash and digest sections.
+     */
+    public EWFTestImage hashes(boolean hashes) {
+        this.hashes = hashes;
+        return this;
+    }
+
+    public static byte[] digest(String algorithm, byte[] bytes) {
+        try {
+            return MessageDigest.getInstance(algorithm).digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int getChunkSize() {
+        return sectorsPerChunk * BYTES_PER_SECTOR;
+    }
+
+    /**
+     * Writes the segment files to the directory and returns the first segment file.
+     */
+    public File write(File directory, String name) throws IOException {
+        int chunkSize = getChunkSize();
+        int chunkCount = (media.length + chunkSize - 1) / chunkSize;
+        File first = new File(directory, name + ".E01");
+        File file = first;
+        int segment = 1;
+
+        for (int firstChunk = 0; firstChunk < chunkCount || segment == 1; firstChunk += chunksPerSegment) {
+            int lastChunk = (int) Math.min(chunkCount, (long) firstChunk + chunksPerSegment);
+            boolean lastSegment = lastChunk >= chunkCount;
+            Segment out = new Segment(segment);
+
+            // the first segment describes the media
+            if (segment == 1) {
+                out.section("header", compress(headerText.getBytes()));
+                out.section("volume", volume(chunkCount));
+            }
+
+            // the chunks and the table pointing at them
+            ByteArrayOutputStream sectors = new ByteArrayOutputStream();
+            long sectorsOffset = out.size() + 76;
+            int[] offsets = new int[lastChunk - firstChunk];
+            for (int chunk = firstChunk; chunk < lastChunk; chunk++) {
+                int length = Math.min(chunkSize, media.length - chunk * chunkSize);
+                byte[] stored = storeChunk(media, chunk * chunkSize, length);
+                offsets[chunk - firstChunk] = (int) (sectorsOffset + sectors.size())
+                        | (compressionLevel != 0 ? 0x80000000 : 0);
+                sectors.write(stored);
+            }
+            out.section("sectors", sectors.toByteArray());
+            out.section("table", table(offsets));
+
+            // the last segment stores the hashes of the media
+            if (lastSegment && hashes) {
+                byte[] digest = new byte[76];
+                System.arraycopy(digest("MD5", media), 0, digest, 0, 16);
+                System.arraycopy(digest("SHA-1", media), 0, digest, 16, 20);
+                out.section("digest", withAdler32(digest, 0, 76));
+                out.section("hash", withAdler32(digest, 0, 32));
+            }
+
+            // chain to the next segment or finish
+            out.section(lastSegment ? "done" : "next", new byte[0]);
+            out.writeTo(file);
+
+            if (lastSegment) {
+                break;
+            }
+            file = EWFSegmentFileReader.getNextFile(file);
+            segment++;
+        }
+        return first;
+    }
+
+    private byte[] storeChunk(byte[] bytes, int offset, int length) {
+        if (compressionLevel == 0) {
+            return withAdler32(bytes, offset, length);
+        }
+        Deflater deflater = new Deflater(compressionLevel);
+        deflater.setInput(bytes, offset, length);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] compress(byte[] bytes) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(bytes);
+        deflater.finish();
+        byte[] buffer = new byte[bytes.length + 64];
+        int length = deflater.deflate(buffer);
+        deflater.end();
+        byte[] compressed = new byte[length];
+        System.arraycopy(buffer, 0, compressed, 0, length);
+        return compressed;
+    }
+
+    private byte[] volume(int chunkCount) {
+        ByteBuffer buffer = ByteBuffer.allocate(1048).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(0, (byte) 1);
+        buffer.putInt(4, chunkCount);
+        buffer.putInt(8, sectorsPerChunk);
+        buffer.putInt(12, BYTES_PER_SECTOR);
+        buffer.putInt(16, (media.length + BYTES_PER_SECTOR - 1) / BYTES_PER_SECTOR);
+        buffer.put(52, (byte) (compressionLevel == 0 ? 0 : compressionLevel == Deflater.BEST_COMPRESSION ? 2 : 1));
+        return withAdler32(buffer.array(), 0, 1048);
+    }
+
+    private static byte[] table(int[] offsets) {
+        ByteBuffer header = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0, offsets.length);
+        ByteBuffer array = ByteBuffer.allocate(offsets.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset : offsets) {
+            array.putInt(offset);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(withAdler32(header.array(), 0, 20), 0, 24);
+        byte[] arrayBytes = withAdler32(array.array(), 0, offsets.length * 4);
+        out.write(arrayBytes, 0, arrayBytes.length);
+        return out.toByteArray();
+    }
+
+    public static byte[] withAdler32(byte[] bytes, int offset, int length) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(bytes, offset, length);
+        ByteBuffer buffer = ByteBuffer.allocate(length + 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(bytes, offset, length);
+        buffer.putInt((int) adler32.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * A segment file being composed in memory.
+     */
+    private static class Segment {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Segment(int number) {
+            bytes.write(EWF_SIGNATURE, 0, EWF_SIGNATURE.length);
+            bytes.write(1);
+            bytes.write(number & 0xFF);
+            bytes.write(number >> 8);
+            bytes.write(0);
+            bytes.write(0);
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        void section(String type, byte[] data) {
+            long offset = bytes.size();
+            long size = 76 + data.length;
+            boolean terminal = "next".equals(type) || "done".equals(type);
+
+            ByteBuffer prefix = ByteBuffer.allocate(72).order(ByteOrder.LITTLE_ENDIAN);
+            prefix.put(type.getBytes());
+            prefix.putLong(16, terminal ? offset : offset + size);
+            prefix.putLong(24, size);
+            bytes.write(withAdler32(prefix.array(), 0, 72), 0, 76);
+            bytes.write(data, 0, data.length);
+        }
+
+        void writeTo(File file) throws IOException {
+            OutputStream outputStream = new FileOutputStream(file);
+            try {
+                bytes.writeTo(outputStream);
+            } finally {
+                outputStream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.ToxicBakery.libs.jlibewf;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+public class EWFTraceReplayerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // records reads of the same chunks by two threads
+    private File record(final EWFFileReader reader) throws Exception {
+        File traceFile = folder.newFile("reads.trace");
+        EWFTraceRecorder recorder = new EWFTraceRecorder(traceFile);
+        reader.setTraceRecorder(recorder);
+        Runnable reads = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        reader.readImageBytes((i % 10) * 512L + 100, 700);
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        Thread thread = new Thread(reads);
+        thread.start();
+        reads.run();
+        thread.join();
+        reader.setTraceRecorder(null);
+        Assert.assertEquals(100, recorder.getReadCount());
+        recorder.close();
+        return traceFile;
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        File file = new EWFTestImage(EWFTestImage.media(32 * 512)).write(folder.getRoot(), "image");
+        EWFFileReader reader = new EWFFileReader(file);
+        File traceFile = record(reader);
+        reader.close();
+        Assert.assertTrue(traceFile.length() < 100 * 12 + 20);
+
+        InputStream inputStream = new FileInputStream(traceFile);
+        EWFTraceRecorder.Trace trace = new EWFTraceRecorder.Trace(inputStream);
+        Set<Long> threadIds = new HashSet<>();
+        long previousNanos = 0;
+        int count = 0;
+        while (trace.next()) {
+            Assert.assertEquals(700, trace.getNumBytes());
+            Assert.assertEquals(100, trace.getImageAddress() % 512);
+            Assert.assertTrue(trace.getNanos() >= previousNanos);
+            previousNanos = trace.getNanos();
+            threadIds.add(trace.getThreadId());
+            count++;
+        }
+        inputStream.close();
+        Assert.assertEquals(100, count);
+        Assert.assertEquals(2, threadIds.size());
+        Assert.assertTrue(trace.getStartTime() <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        File file = new EWFTestImage(EWFTestImage.media(32 * 512)).write(folder.getRoot(), "image");
+        EWFFileReader reader = new EWFFileReader(file);
+        File traceFile = record(reader);
+        reader.close();
+
+        // replay against a reader configured with a chunk cache
+        reader = new EWFFileReader(file);
+        reader.setChunkCache(new EWFChunkCache(1024 * 1024));
+        EWFTraceReplayer.Result result = new EWFTraceReplayer(traceFile).replay(reader, false);
+        reader.close();
+
+        Assert.assertEquals(100, result.getReadCount());
+        Assert.assertEquals(2, result.getThreadCount());
+        Assert.assertEquals(100 * 700, result.getBytesRead());
+        Assert.assertTrue(result.getThroughput() > 0);
+        Assert.assertTrue(result.getLatencyPercentile(50) <= result.getLatencyPercentile(99));
+        Assert.assertTrue(result.getLatencyPercentile(99) <= result.getLatencyPercentile(100));
+
+        // each of the eleven chunks read is inflated once
+        Assert.assertEquals(11, result.getMissCount());
+        Assert.assertEquals(189, result.getHitCount());
+        Assert.assertEquals(189 / 200.0, result.getHitRate(), 1e-9);
+
+        // a reader without a chunk cache has no hit rate, here replayed at the recorded pace
+        reader = new EWFFileReader(file);
+        Assert.assertTrue(Double.isNaN(new EWFTraceReplayer(traceFile).replay(reader, true).getHitRate()));
+        reader.close();
+    }
+
+    @Test
+    public void testUncachedReads() throws Exception {
+        File file = new EWFTestImage(EWFTestImage.media(32 * 512)).write(folder.getRoot(), "image");
+        EWFFileReader reader = new EWFFileReader(file);
+        File traceFile = folder.newFile("reads.trace");
+        EWFTraceRecorder recorder = new EWFTraceRecorder(traceFile);
+        reader.setTraceRecorder(recorder);
+        reader.readImageBytes(0, 512, false);
+        reader.readImageBytes(512, 512);
+        recorder.close();
+        reader.close();
+
+        // the caching of each read is recorded
+        InputStream inputStream = new FileInputStream(traceFile);
+        EWFTraceRecorder.Trace trace = new EWFTraceRecorder.Trace(inputStream);
+        Assert.assertTrue(trace.next());
+        Assert.assertEquals(512, trace.getNumBytes());
+        Assert.assertFalse(trace.isCached());
+        Assert.assertTrue(trace.next());
+        Assert.assertEquals(512, trace.getNumBytes());
+        Assert.assertTrue(trace.isCached());
+        Assert.assertFalse(trace.next());
+        inputStream.close();
+
+        // and replayed, leaving the chunk cache to the cached read
+        reader = new EWFFileReader(file);
+        EWFChunkCache chunkCache = new EWFChunkCache(1024 * 1024);
+        reader.setChunkCache(chunkCache);
+        new EWFTraceReplayer(traceFile).replay(reader, false);
+        Assert.assertTrue(chunkCache.contains(reader, 1));
+        Assert.assertFalse(chunkCache.contains(reader, 0));
+        reader.close();
+    }
+}
@@ -0,0 +1,156 @@
+package com.ToxicBakery.libs.jlibewf.nio;
+
+import com.ToxicBakery.libs.jlibewf.EWFTestImage;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class EWFFileSystemProviderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeImage(String name, byte[] media) throws Exception {
+        return new EWFTestImage(media).write(folder.getRoot(), name);
+    }
+
+    @Test
+    public void testReadAllBytes() throws Exception {
+        byte[] media = EWFTestImage.media(8 * 512);
+        File file = writeImage("image", media);
+
+        Path path = Paths.get(URI.create(EWFFileSystemProvider.SCHEME + "://" + file.toURI().getPath()));
+        Assert.assertTrue(path instanceof EWFPath);
+        Assert.assertEquals(media.length, Files.size(path));
+        Assert.assertArrayEquals(media, Files.readAllBytes(path));
+        Assert.assertEquals(path, Paths.get(path.toUri()));
+    }
+
+    @Test
+    public void testSeekableChannel() throws Exception {
+        byte[] media = EWFTestImage.media(8 * 512);
+        EWFFileSystem fileSystem = new EWFFileSystemProvider().getFileSystem(URI.create("ewf:///"));
+        Path path = fileSystem.getPath(writeImage("image", media).getPath());
+
+        SeekableByteChannel first = Files.newByteChannel(path);
+        SeekableByteChannel second = Files.newByteChannel(path);
+        ByteBuffer buffer = ByteBuffer.allocate(1000);
+        first.position(3000);
+        Assert.assertEquals(1000, first.read(buffer));
+        Assert.assertArrayEquals(Arrays.copyOfRange(media, 3000, 4000), buffer.array());
+
+        buffer.clear();
+        second.position(media.length - 10);
+        Assert.assertEquals(10, second.read(buffer));
+        Assert.assertEquals(-1, second.read(buffer));
+        Assert.assertEquals(1, fileSystem.getPool().getImageCount());
+
+        first.close();
+        second.close();
+        fileSystem.close();
+    }
+
+    @Test
+    public void testDirectoryStream() throws Exception {
+        writeImage("first", EWFTestImage.media(512));
+        writeImage("second", EWFTestImage.media(512));
+        Assert.assertTrue(new File(folder.getRoot(), "notes.txt").createNewFile());
+        EWFFileSystem fileSystem = new EWFFileSystemProvider().getFileSystem(URI.create("ewf:///"));
+
+        List<String> names = new ArrayList<>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(fileSystem.getPath(folder.getRoot().getPath()));
+        for (Path entry : stream) {
+            names.add(entry.getFileName().toString());
+        }
+        stream.close();
+        Collections.sort(names);
+        Assert.assertEquals(Arrays.asList("first.E01", "second.E01"), names);
+        fileSystem.close();
+    }
+
+    @Test(expected = ReadOnlyFileSystemException.class)
+    public void testWriteRejected() throws Exception {
+        EWFFileSystem fileSystem = new EWFFileSystemProvider().getFileSystem(URI.create("ewf:///"));
+        Files.write(fileSystem.getPath(writeImage("image", EWFTestImage.media(512)).getPath()), new byte[1]);
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        byte[] media = EWFTestImage.media(8 * 512);
+        Map<String, Object> env = new HashMap<>();
+        env.put(EWFFileSystemProvider.IDLE_EVICTION_MILLIS, 20);
+        EWFFileSystem fileSystem = (EWFFileSystem) new EWFFileSystemProvider().newFileSystem(URI.create("ewf:///"),
+                env);
+        Path path = fileSystem.getPath(writeImage("image", media).getPath());
+
+        // reading the size does not pool the image
+        Assert.assertEquals(media.length, Files.size(path));
+        Assert.assertEquals(0, fileSystem.getPool().getImageCount());
+
+        // a read image is evicted once idle
+        Assert.assertArrayEquals(media, Files.readAllBytes(path));
+        Assert.assertEquals(1, fileSystem.getPool().getImageCount());
+        for (int i = 0; i < 1000 && fileSystem.getPool().getImageCount() > 0; i++) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(0, fileSystem.getPool().getImageCount());
+        fileSystem.close();
+    }
+
+    @Test
+    public void testClosedFileSystem() throws Exception {
+        EWFFileSystem fileSystem = new EWFFileSystemProvider().getFileSystem(URI.create("ewf:///"));
+        Path path = fileSystem.getPath(writeImage("image", EWFTestImage.media(512)).getPath());
+        fileSystem.close();
+        try {
+            Files.newByteChannel(path);
+            Assert.fail("Opened a channel on a closed file system");
+        } catch (ClosedFileSystemException e) {
+            // expected
+        }
+        Assert.assertEquals(0, fileSystem.getPool().getImageCount());
+    }
+
+    @Test(expected = ProviderMismatchException.class)
+    public void testProviderMismatch() throws Exception {
+        new EWFFileSystemProvider().newByteChannel(writeImage("image", EWFTestImage.media(512)).toPath(),
+                Collections.<OpenOption>emptySet());
+    }
+
+    @Test
+    public void testFileStore() throws Exception {
+        File file = writeImage("image", EWFTestImage.media(512));
+        EWFFileSystemProvider provider = new EWFFileSystemProvider();
+        EWFFileSystem fileSystem = (EWFFileSystem) provider.newFileSystem(URI.create("ewf:///"), null);
+        Path path = fileSystem.getPath(file.getPath());
+
+        // the file store of an image is the read-only view of the store holding its segment files
+        FileStore fileStore = Files.getFileStore(path);
+        Assert.assertTrue(fileStore.isReadOnly());
+        Assert.assertEquals(Files.getFileStore(file.toPath()).name(), fileStore.name());
+        Assert.assertTrue(fileStore.getTotalSpace() > 0);
+        Assert.assertTrue(fileStore.supportsFileAttributeView("basic"));
+        fileSystem.close();
+    }
+}